@@ -1,43 +1,109 @@
 package org.aion;
 
 import avm.Address;
-import avm.Blockchain;
 import java.math.BigInteger;
 import org.aion.avm.userlib.AionBuffer;
+import org.aion.avm.userlib.AionList;
+import org.aion.avm.userlib.AionMap;
 //import org.aion.avm.core.util;
 
+/**
+ * Log events for AIP-040.
+ * 
+ * Optionally, the per-token events <code>AIP040Minted</code>,
+ * <code>AIP040Transferred</code> and <code>AIP040Consigned</code> may be
+ * batched. Inside a batch scope (see <code>beginBatch</code>) with batched
+ * events enabled (see <code>setBatchedEvents</code>), they are held back and
+ * emitted as one batch event for each set of accounts when the scope ends.
+ * The batch events are named like the per-token events with a
+ * <code>Batch</code> suffix, they have the same topics except the token
+ * identifier, and their data is every token identifier, in order, each padded
+ * to 32-bytes using signed padding. Events of different accounts are not
+ * interleaved, so the order is only kept within one batch.
+ */
 public class AIP040Events {
+    private static final int TOKEN_ID_LENGTH = 32;
+    private static final byte[] NO_DATA = new byte[0];
+    // Aion pads topics to 32 bytes, so this is logged the same as zero
+    private static final byte[] NO_ACCOUNT = new byte[0];
+
+    private static final byte[] MINTED_TOPIC = "AIP040Minted".getBytes();
+    private static final byte[] MINTED_RANGE_TOPIC = "AIP040MintedRange".getBytes();
+    private static final byte[] BURNED_TOPIC = "AIP040Burned".getBytes();
+    private static final byte[] TRANSFERRED_TOPIC = "AIP040Transferred".getBytes();
+    private static final byte[] CONSIGNED_TOPIC = "AIP040Consigned".getBytes();
+    private static final byte[] AUTHORIZED_TOPIC = "AIP040Authorized".getBytes();
+    private static final byte[] DEAUTHORIZED_TOPIC = "AIP040Deauthorized".getBytes();
+
+    private static final byte[] MINTED_BATCH_TOPIC = "AIP040MintedBatch".getBytes();
+    private static final byte[] TRANSFERRED_BATCH_TOPIC = "AIP040TransferredBatch".getBytes();
+    private static final byte[] CONSIGNED_BATCH_TOPIC = "AIP040ConsignedBatch".getBytes();
+
+    private static boolean batchedEvents;
+    private static int batchDepth;
+    private static AionMap<PendingBatch, PendingBatch> pendingBatches;
+    private static AionList<PendingBatch> pendingBatchOrder;
 
     /**
      * Log event for creating a token
      * 
-     * @apiSpec          This event must be emitted for each token created.
+     * @apiSpec          This event must be emitted for each token created,
+     *                   except by a range mint (see
+     *                   <code>AIP040MintedRange</code>), or if batched events
+     *                   are enabled (see <code>setBatchedEvents</code>), when
+     *                   one <code>AIP040MintedBatch</code> event lists the
+     *                   tokens created for each owner in a transaction.
      * @apiSpec          The tokenId is padded to 32-bytes using signed padding.
      * @param newOwner   the account that is the owner of the token after the
      *                   creation
      * @param tokenId    the identifier for the token which is being created
      */
     protected static void AIP040Minted(Address newOwner, BigInteger tokenId) {
-        Blockchain.log("AIP040Minted".getBytes(),
+        if (isBatching()) {
+            addToBatch(MINTED_BATCH_TOPIC, false, newOwner, null, tokenId);
+            return;
+        }
+        AVMBlockchainWrapper.log(MINTED_TOPIC,
             newOwner.toByteArray(),
             padBigInteger32Bytes(tokenId),
-            new byte[0]);
+            NO_DATA);
+    }
+
+    /**
+     * Log event for creating consecutive tokens with a range mint
+     * 
+     * @apiNote          This event is not standardized. A range mint emits
+     *                   this one event instead of <code>AIP040Minted</code>
+     *                   for each token created, so indexers must expand it.
+     * @apiSpec          The start is padded to 32-bytes using signed padding.
+     *                   The data is the count as 8 bytes, big-endian.
+     * @param newOwner   the account that is the owner of the tokens after the
+     *                   creation
+     * @param start      the identifier of the first token created
+     * @param count      the number of tokens created
+     */
+    protected static void AIP040MintedRange(Address newOwner, BigInteger start, long count) {
+        AVMBlockchainWrapper.log(MINTED_RANGE_TOPIC,
+            newOwner.toByteArray(),
+            padBigInteger32Bytes(start),
+            AVMBlockchainWrapper.encodeLong(count));
     }
 
     /**
      * Log event for burning a token
      * 
-     * @apiSpec          This event must be emitted for each token destroyed.
+     * @apiSpec          This event must be emitted for each token destroyed,
+     *                   also if batched events are enabled.
      * @apiSpec          The tokenId is padded to 32-bytes using signed padding.
      * @param newOwner   the account that is the owner of the token after the
      *                   destruction
      * @param tokenId    the identifier for the token which is being destroyed
      */
     protected static void AIP040Burned(Address newOwner, BigInteger tokenId) {
-        Blockchain.log("AIP040Burned".getBytes(),
+        AVMBlockchainWrapper.log(BURNED_TOPIC,
             newOwner.toByteArray(),
             padBigInteger32Bytes(tokenId),
-            new byte[0]);
+            NO_DATA);
     }
 
     /**
@@ -47,7 +113,11 @@ public class AIP040Events {
      *                   implicitly unset (i.e. set to null).
      * @apiSpec          This event must be emitted for each token transferred,
      *                   even if the transfer was a result of other than
-     *                   <code>aip040TakeOwnership</code>.
+     *                   <code>aip040TakeOwnership</code>, except if batched
+     *                   events are enabled (see <code>setBatchedEvents</code>),
+     *                   when one <code>AIP040TransferredBatch</code> event
+     *                   lists the tokens transferred between each pair of
+     *                   accounts in a transaction.
      * @apiSpec          The tokenId is padded to 32-bytes using signed padding.
      * @param priorOwner the account that was the owner of the token before
      *                   transfer
@@ -56,11 +126,15 @@ public class AIP040Events {
      * @param tokenId    the identifier for the token which is being transferred
      */
     protected static void AIP040Transferred(Address priorOwner, Address newOwner, BigInteger tokenId) {
-        Blockchain.log("AIP040Transferred".getBytes(),
-            priorOwner == null ? null : priorOwner.toByteArray(),
-            newOwner == null ? null : newOwner.toByteArray(),
+        if (isBatching()) {
+            addToBatch(TRANSFERRED_BATCH_TOPIC, true, priorOwner, newOwner, tokenId);
+            return;
+        }
+        AVMBlockchainWrapper.log(TRANSFERRED_TOPIC,
+            accountTopic(priorOwner),
+            accountTopic(newOwner),
             padBigInteger32Bytes(tokenId),
-            new byte[0]);
+            NO_DATA);
     }
 
     /**
@@ -75,6 +149,11 @@ public class AIP040Events {
      *                  transfers fire the transfer log event. Therefore, also
      *                  firing the consignee log event at that time would be
      *                  unhelpfully duplicative.
+     * @apiSpec         If batched events are enabled (see
+     *                  <code>setBatchedEvents</code>), one
+     *                  <code>AIP040ConsignedBatch</code> event lists the
+     *                  tokens consigned by each owner to each consignee in a
+     *                  transaction instead.
      * @apiSpec         The tokenId is padded to 32-bytes using signed padding.
      * @param owner     the current owner of the token which is being consigned
      * @param consignee the consignee being assigned to the token (or null if
@@ -83,11 +162,15 @@ public class AIP040Events {
      *                  revoking consignment)
      */
     protected static void AIP040Consigned(Address owner, Address consignee, BigInteger tokenId) {
-        Blockchain.log("AIP040Consigned".getBytes(),
+        if (isBatching()) {
+            addToBatch(CONSIGNED_BATCH_TOPIC, true, owner, consignee, tokenId);
+            return;
+        }
+        AVMBlockchainWrapper.log(CONSIGNED_TOPIC,
             owner.toByteArray(),
-            consignee.toByteArray(),
+            accountTopic(consignee),
             padBigInteger32Bytes(tokenId),
-            new byte[0]);
+            NO_DATA);
     }
 
     /**
@@ -98,10 +181,10 @@ public class AIP040Events {
      * @param authorizee the account which receives the authorization
      */
     protected static void AIP040Authorized(Address account, Address authorizee) {
-        Blockchain.log("AIP040Authorized".getBytes(),
+        AVMBlockchainWrapper.log(AUTHORIZED_TOPIC,
             account.toByteArray(),
             authorizee.toByteArray(),
-            new byte[0]);
+            NO_DATA);
     }
 
     /**
@@ -112,10 +195,91 @@ public class AIP040Events {
      * @param authorizee the account which loses the authorization
      */
     protected static void AIP040Deauthorized(Address account, Address priorAuthorizee) {
-        Blockchain.log("AIP040Deauthorized".getBytes(),
+        AVMBlockchainWrapper.log(DEAUTHORIZED_TOPIC,
             account.toByteArray(),
             priorAuthorizee.toByteArray(),
-            new byte[0]);
+            NO_DATA);
+    }
+
+    /**
+     * Chooses whether per-token events are batched inside a batch scope.
+     * 
+     * @implNote The choice is kept in a static field, so it applies to all
+     *           later transactions. Only the deployer may make it (see
+     *           <code>NFTokenMock.setBatchedEvents</code>).
+     * @param    enabled true to emit batch events, false to emit an event for
+     *                   each token
+     */
+    protected static void setBatchedEvents(boolean enabled) {
+        batchedEvents = enabled;
+    }
+
+    /**
+     * Starts a batch scope, or nests in the current one. Every call must be
+     * paired with a call to <code>commitBatch</code>.
+     */
+    protected static void beginBatch() {
+        if (batchDepth == 0 && batchedEvents) {
+            pendingBatches = new AionMap<>();
+            pendingBatchOrder = new AionList<>();
+        }
+        batchDepth++;
+    }
+
+    /**
+     * Ends a batch scope. Ending the outermost scope emits the pending batch
+     * events in the order that each was started.
+     */
+    protected static void commitBatch() {
+        batchDepth--;
+        if (batchDepth > 0 || pendingBatchOrder == null) {
+            return;
+        }
+        for (PendingBatch batch : pendingBatchOrder) {
+            AionBuffer data = AionBuffer.allocate(TOKEN_ID_LENGTH * batch.tokenIds.size());
+            for (BigInteger tokenId : batch.tokenIds) {
+                data.put32ByteInt(tokenId);
+            }
+            if (batch.isPair) {
+                AVMBlockchainWrapper.log(batch.topic, accountTopic(batch.firstAccount), accountTopic(batch.secondAccount), data.getArray());
+            } else {
+                AVMBlockchainWrapper.log(batch.topic, accountTopic(batch.firstAccount), data.getArray());
+            }
+        }
+        pendingBatches = null;
+        pendingBatchOrder = null;
+    }
+
+    /**
+     * Drops the pending batch events and every open batch scope.
+     *
+     * @apiNote On AVM a reverted transaction discards these along with all
+     *          other state. This is for a backend which simulates reverts on
+     *          the host.
+     */
+    protected static void discardBatch() {
+        pendingBatches = null;
+        pendingBatchOrder = null;
+        batchDepth = 0;
+    }
+
+    private static boolean isBatching() {
+        return pendingBatchOrder != null;
+    }
+
+    private static void addToBatch(byte[] topic, boolean isPair, Address firstAccount, Address secondAccount, BigInteger tokenId) {
+        PendingBatch key = new PendingBatch(topic, isPair, firstAccount, secondAccount);
+        PendingBatch batch = pendingBatches.get(key);
+        if (batch == null) {
+            batch = key;
+            pendingBatches.put(key, batch);
+            pendingBatchOrder.add(batch);
+        }
+        batch.tokenIds.add(tokenId);
+    }
+
+    private static byte[] accountTopic(Address account) {
+        return account == null ? NO_ACCOUNT : account.toByteArray();
     }
 
     // Aion will truncate + pad log topics to 32 bytes, this makes negative
@@ -125,4 +289,44 @@ public class AIP040Events {
     public static byte[] padBigInteger32Bytes(BigInteger input) {
         return AionBuffer.allocate(/*LogSizeUtils.TOPIC_SIZE*/ 32).put32ByteInt(input).getArray();
     }
-}
\ No newline at end of file
+
+    /**
+     * The token identifiers of one batch event waiting to be emitted. Batches
+     * are equal if they have the same event and accounts.
+     */
+    private static class PendingBatch {
+        private final byte[] topic;
+        private final boolean isPair;
+        private final Address firstAccount;
+        private final Address secondAccount;
+        private final AionList<BigInteger> tokenIds = new AionList<>();
+
+        private PendingBatch(byte[] topic, boolean isPair, Address firstAccount, Address secondAccount) {
+            this.topic = topic;
+            this.isPair = isPair;
+            this.firstAccount = firstAccount;
+            this.secondAccount = secondAccount;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof PendingBatch)) {
+                return false;
+            }
+            PendingBatch batch = (PendingBatch) other;
+            // Topics are the constants above, so identity is enough
+            return topic == batch.topic
+                && isPair == batch.isPair
+                && (firstAccount == null ? batch.firstAccount == null : firstAccount.equals(batch.firstAccount))
+                && (secondAccount == null ? batch.secondAccount == null : secondAccount.equals(batch.secondAccount));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = topic.length;
+            hash = 31 * hash + (firstAccount == null ? 0 : firstAccount.hashCode());
+            hash = 31 * hash + (secondAccount == null ? 0 : secondAccount.hashCode());
+            return hash;
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package org.aion;
 
 import java.math.BigInteger;
-import org.aion.avm.userlib.AionBuffer;
+import org.aion.avm.userlib.AionMap;
 import avm.Blockchain;
 import org.aion.avm.userlib.abi.ABIException;
 import avm.Address;
@@ -36,9 +36,15 @@ public class AVMBlockchainWrapper {
      * @return        the value from storage
      */
     public static byte[] getStorage​ByteArray(Enum realm, byte[]... keyPath) {
-        byte[] serializedRealmAndKey = serializeRealmAndKey(realm, keyPath);
-        byte[] storageKey = Blockchain.blake2b(serializedRealmAndKey);
-        return Blockchain.getStorage(storageKey);
+        if (cache != null) {
+            return getCachedSlot(realm, keyPath, true).value;
+        }
+        byte[] storageKey = deriveStorageKey(realm, keyPath);
+        byte[] value = backend.getStorage(storageKey);
+        if (profiler != null) {
+            profiler.storageRead(realm, value);
+        }
+        return value;
     }
 
     /**
@@ -52,9 +58,17 @@ public class AVMBlockchainWrapper {
      *                <code>realm</code>, fully qualifies the storage location
      */
     public static void putStorage​ByteArray(byte[] value, Enum realm, byte[]... keyPath) {
-        byte[] serializedRealmAndKey = serializeRealmAndKey(realm, keyPath);
-        byte[] storageKey = Blockchain.blake2b(serializedRealmAndKey);
-        Blockchain.putStorage(storageKey, value);
+        if (cache != null) {
+            CachedSlot slot = getCachedSlot(realm, keyPath, false);
+            slot.value = value;
+            slot.isDirty = true;
+            return;
+        }
+        byte[] storageKey = deriveStorageKey(realm, keyPath);
+        backend.putStorage(storageKey, value);
+        if (profiler != null) {
+            profiler.storageWritten(realm, value);
+        }
     }
 
     /**
@@ -196,6 +210,429 @@ public class AVMBlockchainWrapper {
         );
     }    
 
+    /**
+     * Gets a long from the key-value store of the current account at the key
+     * location described by <code>realm</code> and <code>keyPath</code>.
+     * 
+     * @implSpec       Only a value generated by <code>putStorageLong</code>
+     *                 is properly decoded. A slot which was never stored is
+     *                 decoded as 0.
+     * @param  realm   an enum constant which qualifies the key path
+     * @param  keyPath an array of non-null byte arrays which, along with the
+     *                 <code>realm</code>, fully qualifies the storage location
+     * @return         the value from storage
+     */
+    public static long getStorage​Long(Enum realm, byte[]... keyPath) {
+        byte[] encodedStorage = getStorage​ByteArray(realm, keyPath);
+        return encodedStorage == null ? 0 : decodeLong(encodedStorage);
+    }
+
+    /**
+     * Stores <code>value</code> into the key-value store of the current account
+     * at the key location described by <code>realm</code> and
+     * <code>keyPath</code>.
+     * 
+     * @implSpec      The value is stored as 8 bytes, big-endian, except that 0
+     *                clears the slot.
+     * @param value   what will be stored
+     * @param realm   an enum constant which qualifies the key path
+     * @param keyPath an array of non-null byte arrays which, along with the
+     *                <code>realm</code>, fully qualifies the storage location
+     */
+    public static void putStorage​Long(long value, Enum realm, byte[]... keyPath) {
+        putStorage​ByteArray(
+            value == 0 ? null : encodeLong(value),
+            realm,
+            keyPath
+        );
+    }
+
+    /**
+     * Encodes a long as exactly 8 bytes, big-endian. This is also suitable as a
+     * key path item.
+     * 
+     * @param  value the value to encode
+     * @return       the encoded value
+     */
+    public static byte[] encodeLong(long value) {
+        byte[] encoded = new byte[Long.BYTES];
+        for (int i = Long.BYTES - 1; i >= 0; i--) {
+            encoded[i] = (byte) value;
+            value >>>= Byte.SIZE;
+        }
+        return encoded;
+    }
+
+    private static final int INT256_BYTES = 32;
+
+    /**
+     * Encodes a value of fewer than 256 bits as exactly 32 bytes, big-endian
+     * two's complement. This is also suitable as a key path item.
+     * 
+     * @param  value the value to encode, with a bit length under 256
+     * @return       the encoded value
+     */
+    public static byte[] encodeInt256(BigInteger value) {
+        byte[] magnitude = value.toByteArray();
+        byte[] encoded = new byte[INT256_BYTES];
+        int padding = INT256_BYTES - magnitude.length;
+        if (value.signum() < 0) {
+            for (int i = 0; i < padding; i++) {
+                encoded[i] = (byte) 0xFF;
+            }
+        }
+        System.arraycopy(magnitude, 0, encoded, padding, magnitude.length);
+        return encoded;
+    }
+
+    /**
+     * Decodes a long encoded by <code>encodeLong</code>.
+     * 
+     * @param  encoded exactly 8 bytes, big-endian
+     * @return         the decoded value
+     */
+    public static long decodeLong(byte[] encoded) {
+        long value = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << Byte.SIZE) | (encoded[i] & 0xFF);
+        }
+        return value;
+    }
+
+    //region Backend
+
+    /**
+     * The blockchain operations this contract uses. On AVM these are the
+     * methods of <code>avm.Blockchain</code>. Other implementations run the
+     * contract on the host, e.g. to simulate many transactions quickly.
+     */
+    public interface Backend {
+        byte[] getStorage(byte[] key);
+
+        void putStorage(byte[] key, byte[] value);
+
+        /**
+         * @return the 32-byte Blake2b-256 hash of <code>data</code>
+         */
+        byte[] blake2b(byte[] data);
+
+        Address getCaller();
+
+        /**
+         * @param topics up to four topics
+         * @param data   the log data
+         */
+        void log(byte[][] topics, byte[] data);
+
+        /**
+         * Reverts the transaction unless <code>condition</code> is true.
+         */
+        void require(boolean condition);
+    }
+
+    /**
+     * The default backend, which is <code>avm.Blockchain</code>.
+     */
+    private static final class AvmBackend implements Backend {
+        @Override
+        public byte[] getStorage(byte[] key) {
+            return Blockchain.getStorage(key);
+        }
+
+        @Override
+        public void putStorage(byte[] key, byte[] value) {
+            Blockchain.putStorage(key, value);
+        }
+
+        @Override
+        public byte[] blake2b(byte[] data) {
+            return Blockchain.blake2b(data);
+        }
+
+        @Override
+        public Address getCaller() {
+            return Blockchain.getCaller();
+        }
+
+        @Override
+        public void log(byte[][] topics, byte[] data) {
+            switch (topics.length) {
+                case 0:
+                    Blockchain.log(data);
+                    break;
+                case 1:
+                    Blockchain.log(topics[0], data);
+                    break;
+                case 2:
+                    Blockchain.log(topics[0], topics[1], data);
+                    break;
+                case 3:
+                    Blockchain.log(topics[0], topics[1], topics[2], data);
+                    break;
+                default:
+                    Blockchain.log(topics[0], topics[1], topics[2], topics[3], data);
+            }
+        }
+
+        @Override
+        public void require(boolean condition) {
+            Blockchain.require(condition);
+        }
+    }
+
+    private static Backend backend = new AvmBackend();
+
+    /**
+     * Replaces the backend of every blockchain operation in this contract.
+     *
+     * @apiNote This is for running the contract on the host, it is not
+     *          exposed as a callable method.
+     * @param   newBackend the backend to use from now on
+     */
+    public static void setBackend(Backend newBackend) {
+        backend = newBackend;
+        // Cached keys were hashed by the prior backend
+        constantStorageKeys.clear();
+        discardCache();
+    }
+
+    /**
+     * @return the account which called this contract
+     */
+    public static Address getCaller() {
+        return backend.getCaller();
+    }
+
+    /**
+     * Reverts the transaction unless <code>condition</code> is true.
+     */
+    public static void require(boolean condition) {
+        backend.require(condition);
+    }
+
+    public static void log(byte[] data) {
+        backend.log(new byte[][]{}, data);
+    }
+
+    public static void log(byte[] topic1, byte[] data) {
+        backend.log(new byte[][]{topic1}, data);
+    }
+
+    public static void log(byte[] topic1, byte[] topic2, byte[] data) {
+        backend.log(new byte[][]{topic1, topic2}, data);
+    }
+
+    public static void log(byte[] topic1, byte[] topic2, byte[] topic3, byte[] data) {
+        backend.log(new byte[][]{topic1, topic2, topic3}, data);
+    }
+
+    public static void log(byte[] topic1, byte[] topic2, byte[] topic3, byte[] topic4, byte[] data) {
+        backend.log(new byte[][]{topic1, topic2, topic3, topic4}, data);
+    }
+
+    //endregion
+
+    //region Profiling
+
+    /**
+     * Receives every storage operation which reaches the backend, with the
+     * realm it belongs to. Reads and writes served by the transaction-scoped
+     * cache do not reach the backend and cost nothing, so they are not
+     * reported.
+     */
+    public interface Profiler {
+        /**
+         * @param value the value read, null if the slot is empty
+         */
+        void storageRead(Enum realm, byte[] value);
+
+        /**
+         * @param value the value written, null if the slot is cleared
+         */
+        void storageWritten(Enum realm, byte[] value);
+
+        /**
+         * A storage key of the realm was hashed with Blake2b.
+         *
+         * @param length the length of the serialized realm and key path
+         */
+        void keyHashed(Enum realm, int length);
+    }
+
+    /**
+     * Null unless a profiler was installed on the host, so on AVM profiling
+     * costs one null check for each storage operation.
+     */
+    private static Profiler profiler;
+
+    /**
+     * Installs a profiler, or removes it if null.
+     *
+     * @apiNote This is for profiling the contract on the host, it is not
+     *          exposed as a callable method.
+     * @param   newProfiler the profiler to use from now on
+     */
+    public static void setProfiler(Profiler newProfiler) {
+        profiler = newProfiler;
+    }
+
+    //endregion
+
+    //region Transaction-scoped storage cache
+
+    /**
+     * Slots read or written since <code>beginCache</code>, keyed by the
+     * serialized realm and key path so that a hit skips key derivation too.
+     * This is null whenever no cache scope is open, so that nothing is
+     * persisted between transactions.
+     */
+    private static AionMap<SerializedKey, CachedSlot> cache;
+
+    /**
+     * Count of open cache scopes, scopes nest.
+     */
+    private static int cacheDepth;
+
+    /**
+     * Opens a cache scope. Until the matching <code>commitCache</code>, every
+     * storage read is served from memory after the first access of that slot
+     * and writes are held in memory, so repeated writes to one slot are
+     * merged.
+     *
+     * @apiNote Call this at the start of a method which accesses the same
+     *          storage slots repeatedly, and call <code>commitCache</code> at
+     *          the end. If the transaction reverts, the cache is discarded
+     *          along with all other state.
+     */
+    public static void beginCache() {
+        if (cacheDepth == 0) {
+            cache = new AionMap<>();
+        }
+        cacheDepth++;
+    }
+
+    /**
+     * Closes a cache scope. When the outermost scope is closed, every dirty
+     * slot is written to storage once and the cache is dropped.
+     *
+     * @throws IllegalStateException if no cache scope is open
+     */
+    public static void commitCache() {
+        if (cacheDepth == 0) {
+            throw new IllegalStateException(/* "No cache scope is open" */);
+        }
+        cacheDepth--;
+        if (cacheDepth > 0) {
+            return;
+        }
+        for (CachedSlot slot : cache.values()) {
+            if (slot.isDirty) {
+                backend.putStorage(slot.storageKey, slot.value);
+                if (profiler != null) {
+                    profiler.storageWritten(slot.realm, slot.value);
+                }
+            }
+        }
+        cache = null;
+    }
+
+    /**
+     * Drops the cache and every open scope without writing anything.
+     *
+     * @apiNote On AVM a reverted transaction discards the cache along with
+     *          all other state. This is for a <code>Backend</code> which
+     *          simulates reverts on the host.
+     */
+    protected static void discardCache() {
+        cache = null;
+        cacheDepth = 0;
+    }
+
+    /**
+     * Finds the cache entry for a slot, creating it on first access.
+     *
+     * @param  realm     an enum constant which qualifies the key path
+     * @param  keyPath   an array of non-null byte arrays
+     * @param  loadValue whether a new entry is loaded from storage, which is
+     *                   unnecessary if it will be overwritten
+     * @return           the entry for this slot
+     */
+    private static CachedSlot getCachedSlot(Enum realm, byte[][] keyPath, boolean loadValue) {
+        SerializedKey key = new SerializedKey(serializeRealmAndKey(realm, keyPath));
+        CachedSlot slot = cache.get(key);
+        if (slot == null) {
+            slot = new CachedSlot(realm, keyPath.length == 0
+                ? deriveStorageKey(realm, keyPath)
+                : hash(realm, key.bytes));
+            cache.put(key, slot);
+        }
+        if (loadValue && !slot.isLoaded && !slot.isDirty) {
+            slot.value = backend.getStorage(slot.storageKey);
+            slot.isLoaded = true;
+            if (profiler != null) {
+                profiler.storageRead(realm, slot.value);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * A byte array compared by content, for use as a map key.
+     */
+    private static final class SerializedKey {
+        private final byte[] bytes;
+        private final int hashCode;
+
+        SerializedKey(byte[] bytes) {
+            this.bytes = bytes;
+            int hash = 1;
+            for (byte b : bytes) {
+                hash = 31 * hash + b;
+            }
+            this.hashCode = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SerializedKey)) {
+                return false;
+            }
+            byte[] otherBytes = ((SerializedKey) other).bytes;
+            if (otherBytes.length != bytes.length) {
+                return false;
+            }
+            for (int i = 0; i < bytes.length; i++) {
+                if (otherBytes[i] != bytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The in-memory state of one storage slot.
+     */
+    private static final class CachedSlot {
+        private final Enum realm;
+        private final byte[] storageKey;
+        private byte[] value;
+        private boolean isLoaded;
+        private boolean isDirty;
+
+        CachedSlot(Enum realm, byte[] storageKey) {
+            this.realm = realm;
+            this.storageKey = storageKey;
+        }
+    }
+
+    //endregion
+
     // Using approach from org.aion.avm.userlib/src/org/aion/avm/userlib/abi/ABIStreamingEncoder.java
     private static void checkLengthIsAShort(int size) {
         if (size > Short.MAX_VALUE) {
@@ -207,6 +644,36 @@ public class AVMBlockchainWrapper {
         }
     }
 
+    //region Key derivation
+
+    /**
+     * Storage keys of realms without a key path, which never change. These
+     * are filled on first use and, as static state, persist with the first
+     * transaction which completes.
+     */
+    private static final AionMap<Enum, byte[]> constantStorageKeys = new AionMap<>();
+
+    /**
+     * Finds the storage key for a realm and key path.
+     * 
+     * @apiNote        This is also for tooling on the host which audits the
+     *                 storage of a <code>Backend</code>.
+     * @param  realm   an enum constant which qualifies the key path
+     * @param  keyPath an array of non-null byte arrays
+     * @return         the 32-byte storage key, which must not be modified
+     */
+    protected static byte[] deriveStorageKey(Enum realm, byte[][] keyPath) {
+        if (keyPath.length > 0) {
+            return hash(realm, serializeRealmAndKey(realm, keyPath));
+        }
+        byte[] storageKey = constantStorageKeys.get(realm);
+        if (storageKey == null) {
+            storageKey = hash(realm, serializeRealmAndKey(realm, keyPath));
+            constantStorageKeys.put(realm, storageKey);
+        }
+        return storageKey;
+    }
+
     /**
      * Injectively converts a fully qualified realm and key path into a byte
      * array.
@@ -223,15 +690,32 @@ public class AVMBlockchainWrapper {
             outputSize += Short.BYTES + keyPathItem.length;
         }
 
-        AionBuffer buffer = AionBuffer.allocate(outputSize);
+        byte[] output = new byte[outputSize];
         // Enum constants have identity hash codes which cannot collide with
         // each other. https://github.com/aionnetwork/AVM/wiki/Hash-Code
-        buffer.putInt(realm.hashCode());
+        int realmHashCode = realm.hashCode();
+        output[0] = (byte) (realmHashCode >>> 24);
+        output[1] = (byte) (realmHashCode >>> 16);
+        output[2] = (byte) (realmHashCode >>> 8);
+        output[3] = (byte) realmHashCode;
+        int position = Integer.BYTES;
         for (byte[] keyPathItem : keyPath) {
-            buffer.putShort((short) keyPathItem.length); // because [[a], [b]] ≠ [[a, b]]
-            buffer.put(keyPathItem);
+            // because [[a], [b]] ≠ [[a, b]]
+            output[position++] = (byte) (keyPathItem.length >>> 8);
+            output[position++] = (byte) keyPathItem.length;
+            System.arraycopy(keyPathItem, 0, output, position, keyPathItem.length);
+            position += keyPathItem.length;
         }
-        return buffer.getArray();
+        return output;
     }
 
+    private static byte[] hash(Enum realm, byte[] serializedRealmAndKey) {
+        if (profiler != null) {
+            profiler.keyHashed(realm, serializedRealmAndKey.length);
+        }
+        return backend.blake2b(serializedRealmAndKey);
+    }
+
+    //endregion
+
 }
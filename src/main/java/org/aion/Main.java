@@ -64,6 +64,21 @@ public class Main {
         return NFTokenMock.aip040TokenUri(tokenId);
     }
     
+    @Callable
+    public static Address[] aip040TokenOwners(BigInteger[] tokenIds) {
+        return NFTokenMock.aip040TokenOwners(tokenIds);
+    }
+    
+    @Callable
+    public static Address[] aip040TokenConsignees(BigInteger[] tokenIds) {
+        return NFTokenMock.aip040TokenConsignees(tokenIds);
+    }
+    
+    @Callable
+    public static String[] aip040TokenUris(BigInteger[] tokenIds) {
+        return NFTokenMock.aip040TokenUris(tokenIds);
+    }
+    
     @Callable
     public static BigInteger aip040OwnerBalance(Address owner) {
         return NFTokenMock.aip040OwnerBalance(owner);
@@ -84,6 +99,16 @@ public class Main {
         return NFTokenMock.aip040TokenForOwnerAtIndex(owner, index);
     }
     
+    @Callable
+    public static BigInteger[] aip040TokensAtIndexRange(BigInteger startIndex, int count) {
+        return NFTokenMock.aip040TokensAtIndexRange(startIndex, count);
+    }
+    
+    @Callable
+    public static BigInteger[] aip040TokensForOwnerAtIndexRange(Address owner, BigInteger startIndex, int count) {
+        return NFTokenMock.aip040TokensForOwnerAtIndexRange(owner, startIndex, count);
+    }
+    
     @Callable
     public static void aip040TakeOwnership(Address currentOwner, BigInteger[] tokenIds) {
         NFTokenMock.aip040TakeOwnership(currentOwner, tokenIds);
@@ -114,5 +139,25 @@ public class Main {
         NFTokenMock.mint(newOwner, tokenIds);
     }
 
+    @Callable
+    public static void mintToOwners(Address[] newOwners, BigInteger[] tokenIds) {
+        NFTokenMock.mintToOwners(newOwners, tokenIds);
+    }
+
+    @Callable
+    public static void setBatchedEvents(boolean enabled) {
+        NFTokenMock.setBatchedEvents(enabled);
+    }
+
+    @Callable
+    public static void mintRange(Address newOwner, BigInteger start, long count) {
+        NFTokenMock.mintRange(newOwner, start, count);
+    }
+
+    @Callable
+    public static void burn(Address owner, BigInteger[] tokenIds) {
+        NFTokenMock.burn(owner, tokenIds);
+    }
+
     //endregion
 }
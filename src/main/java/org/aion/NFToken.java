@@ -1,7 +1,6 @@
 package org.aion;
 
 import avm.Address;
-import avm.Blockchain;
 import java.math.BigInteger;
 
 /**
@@ -42,10 +41,7 @@ public class NFToken {
      * @return the count of all tokens existing
      */
     public static BigInteger aip040TotalSupply() {
-        BigInteger storageTotalSupply = NFTokenStorage.getTotalSupply();
-        return storageTotalSupply == null
-            ? BigInteger.ZERO
-            : storageTotalSupply;
+        return BigInteger.valueOf(NFTokenStorage.getTotalSupply());
     }
     
     /**
@@ -58,7 +54,7 @@ public class NFToken {
      *                  not exist
      */
     public static Address aip040TokenOwner(BigInteger tokenId) {
-        Blockchain.require(tokenId != null);
+        AVMBlockchainWrapper.require(tokenId != null);
         return NFTokenStorage.getTokenOwner(tokenId);
     }
 
@@ -71,7 +67,7 @@ public class NFToken {
      *                  assigned or token does not exist
      */
     public static Address aip040TokenConsignee(BigInteger tokenId) {
-        Blockchain.require(tokenId != null);
+        AVMBlockchainWrapper.require(tokenId != null);
         return NFTokenStorage.getTokenConsignee(tokenId);
     }
     
@@ -84,7 +80,7 @@ public class NFToken {
      * @see             RFC 3986
      */
     public static String aip040TokenUri(BigInteger tokenId) {
-        Blockchain.require(tokenId != null);
+        AVMBlockchainWrapper.require(tokenId != null);
         if (NFTokenStorage.getTokenOwner(tokenId) == null) {
             return null;
         }
@@ -98,6 +94,82 @@ public class NFToken {
         }
         return uriPrefix + tokenId.toString() + uriPostfix;
     }
+
+    /**
+     * Returns the owners (if any) of specific tokens.
+     * 
+     * @apiNote          This is equivalent to calling
+     *                   <code>aip040TokenOwner</code> for each token, in one
+     *                   call.
+     * @param   tokenIds the tokens we are interrogating
+     * @return           the owner of each specified token, or null for each
+     *                   token which does not exist
+     */
+    public static Address[] aip040TokenOwners(BigInteger[] tokenIds) {
+        AVMBlockchainWrapper.require(tokenIds != null);
+        AVMBlockchainWrapper.beginCache();
+        Address[] owners = new Address[tokenIds.length];
+        for (int i = 0; i < tokenIds.length; i++) {
+            owners[i] = aip040TokenOwner(tokenIds[i]);
+        }
+        AVMBlockchainWrapper.commitCache();
+        return owners;
+    }
+
+    /**
+     * Returns the accounts (if any) to which certain tokens are consigned.
+     * 
+     * @apiNote          This is equivalent to calling
+     *                   <code>aip040TokenConsignee</code> for each token, in
+     *                   one call.
+     * @param   tokenIds the tokens we are interrogating
+     * @return           the consignee of each specified token, or null for
+     *                   each token which has none assigned or does not exist
+     */
+    public static Address[] aip040TokenConsignees(BigInteger[] tokenIds) {
+        AVMBlockchainWrapper.require(tokenIds != null);
+        AVMBlockchainWrapper.beginCache();
+        Address[] consignees = new Address[tokenIds.length];
+        for (int i = 0; i < tokenIds.length; i++) {
+            consignees[i] = aip040TokenConsignee(tokenIds[i]);
+        }
+        AVMBlockchainWrapper.commitCache();
+        return consignees;
+    }
+
+    /**
+     * Returns the URIs for specified tokens.
+     * 
+     * @apiNote          This is equivalent to calling
+     *                   <code>aip040TokenUri</code> for each token, in one
+     *                   call.
+     * @param   tokenIds specific tokens to interrogate
+     * @return           the URI for each specified token, or null for each
+     *                   token which does not exist
+     * @see              RFC 3986
+     */
+    public static String[] aip040TokenUris(BigInteger[] tokenIds) {
+        AVMBlockchainWrapper.require(tokenIds != null);
+        AVMBlockchainWrapper.beginCache();
+        String uriPrefix = NFTokenStorage.getTokenUriPrefix();
+        String uriPostfix = NFTokenStorage.getTokenUriPostfix();
+        if (uriPostfix == null){
+            uriPostfix = "";
+        }
+        if (uriPrefix == null){
+            uriPrefix = "";
+        }
+        String[] uris = new String[tokenIds.length];
+        for (int i = 0; i < tokenIds.length; i++) {
+            BigInteger tokenId = tokenIds[i];
+            AVMBlockchainWrapper.require(tokenId != null);
+            if (NFTokenStorage.getTokenOwner(tokenId) != null) {
+                uris[i] = uriPrefix + tokenId.toString() + uriPostfix;
+            }
+        }
+        AVMBlockchainWrapper.commitCache();
+        return uris;
+    }
     
     /**
      * Returns the count of tokens owned by a specified account.
@@ -106,11 +178,8 @@ public class NFToken {
      * @return       the count of tokens owned by the specified account
      */
     public static BigInteger aip040OwnerBalance(Address owner) {
-        Blockchain.require(owner != null);
-        BigInteger storageBalance = NFTokenStorage.getOwnerBalance(owner);
-        return storageBalance == null
-            ? BigInteger.ZERO
-            : storageBalance;
+        AVMBlockchainWrapper.require(owner != null);
+        return BigInteger.valueOf(NFTokenStorage.getOwnerBalance(owner));
     }
 
     /**
@@ -121,8 +190,8 @@ public class NFToken {
      * @return            true if authorization is active, false otherwise
      */
     public static boolean aip040OwnerDoesAuthorize(Address owner, Address authorizee) {
-        Blockchain.require(owner != null);
-        Blockchain.require(authorizee != null);
+        AVMBlockchainWrapper.require(owner != null);
+        AVMBlockchainWrapper.require(authorizee != null);
         return NFTokenStorage.getAccountAuthorization(owner, authorizee);
     }
 
@@ -140,9 +209,8 @@ public class NFToken {
      *                tokens
      */
     public static BigInteger aip040TokenAtIndex(BigInteger index) {
-        Blockchain.require(index != null);
-        Blockchain.require(index.compareTo(aip040TotalSupply()) < 0);
-        return NFTokenStorage.getTokenAtIndex(index);
+        AVMBlockchainWrapper.require(index != null);
+        return NFTokenStorage.getTokenAtIndex(checkedIndex(index, NFTokenStorage.getTotalSupply()));
     }
 
     /**
@@ -158,11 +226,63 @@ public class NFToken {
      *                tokens of the specified owner
      */
     public static BigInteger aip040TokenForOwnerAtIndex(Address owner, BigInteger index) {
-        Blockchain.require(owner != null);
-        Blockchain.require(index != null);
-        Blockchain.require(index.compareTo(BigInteger.ZERO) >= 0);
-        Blockchain.require(index.compareTo(aip040OwnerBalance(owner)) < 0);
-        return NFTokenStorage.getTokensOfOwnerArray(owner, index);
+        AVMBlockchainWrapper.require(owner != null);
+        AVMBlockchainWrapper.require(index != null);
+        return NFTokenStorage.getTokensOfOwnerArray(owner, checkedIndex(index, NFTokenStorage.getOwnerBalance(owner)));
+    }
+
+    /**
+     * Returns a page of token identifiers from the list of all tokens.
+     * 
+     * @apiNote            This is equivalent to calling
+     *                     <code>aip040TokenAtIndex</code> for each index in the
+     *                     page, in one call. Enumerate every token by
+     *                     requesting pages until a short page is returned.
+     * @param   startIndex the index of the first token in the page, 0 <=
+     *                     startIndex <= <code>aip040TotalSupply()</code>
+     * @param   count      the maximum quantity of tokens to return, count >= 0
+     * @return             the token identifiers at startIndex and following,
+     *                     which is fewer than count only if the end of the list
+     *                     is reached
+     */
+    public static BigInteger[] aip040TokensAtIndexRange(BigInteger startIndex, int count) {
+        AVMBlockchainWrapper.require(startIndex != null);
+        long totalSupply = NFTokenStorage.getTotalSupply();
+        long start = checkedIndex(startIndex, totalSupply + 1);
+        BigInteger[] tokenIds = new BigInteger[checkedPageLength(start, count, totalSupply)];
+        for (int i = 0; i < tokenIds.length; i++) {
+            tokenIds[i] = NFTokenStorage.getTokenAtIndex(start + i);
+        }
+        return tokenIds;
+    }
+
+    /**
+     * Returns a page of token identifiers from the list of tokens of a given
+     * account.
+     * 
+     * @apiNote            This is equivalent to calling
+     *                     <code>aip040TokenForOwnerAtIndex</code> for each index
+     *                     in the page, in one call. Enumerate every token of
+     *                     the account by requesting pages until a short page
+     *                     is returned.
+     * @param   owner      the account to interrogate
+     * @param   startIndex the index of the first token in the page, 0 <=
+     *                     startIndex <= <code>aip040OwnerBalance(owner)</code>
+     * @param   count      the maximum quantity of tokens to return, count >= 0
+     * @return             the token identifiers at startIndex and following,
+     *                     which is fewer than count only if the end of the list
+     *                     is reached
+     */
+    public static BigInteger[] aip040TokensForOwnerAtIndexRange(Address owner, BigInteger startIndex, int count) {
+        AVMBlockchainWrapper.require(owner != null);
+        AVMBlockchainWrapper.require(startIndex != null);
+        long balance = NFTokenStorage.getOwnerBalance(owner);
+        long start = checkedIndex(startIndex, balance + 1);
+        BigInteger[] tokenIds = new BigInteger[checkedPageLength(start, count, balance)];
+        for (int i = 0; i < tokenIds.length; i++) {
+            tokenIds[i] = NFTokenStorage.getTokensOfOwnerArray(owner, start + i);
+        }
+        return tokenIds;
     }
 
     /**
@@ -190,52 +310,63 @@ public class NFToken {
      * @param   tokenIds     specific tokens to transfer
      */
     public static void aip040TakeOwnership(Address currentOwner, BigInteger[] tokenIds) {
-        Blockchain.require(currentOwner != null);
-        Blockchain.require(tokenIds != null);
-        Address caller = Blockchain.getCaller();
+        AVMBlockchainWrapper.require(currentOwner != null);
+        AVMBlockchainWrapper.require(tokenIds != null);
+        Address caller = AVMBlockchainWrapper.getCaller();
+        AVMBlockchainWrapper.beginCache();
+        AIP040Events.beginBatch();
 
-        BigInteger fromBalance = NFToken.aip040OwnerBalance(currentOwner);
-        BigInteger toBalance = NFToken.aip040OwnerBalance(caller);
-        boolean isAuthorized = caller.equals(currentOwner) || aip040OwnerDoesAuthorize(currentOwner, caller);
+        long fromBalance = NFTokenStorage.getOwnerBalance(currentOwner);
+        long toBalance = NFTokenStorage.getOwnerBalance(caller);
+        boolean isSelfTransfer = caller.equals(currentOwner);
+        boolean isAuthorized = isSelfTransfer || aip040OwnerDoesAuthorize(currentOwner, caller);
 
         for (BigInteger tokenId : tokenIds) {
-            Blockchain.require(aip040TokenOwner(tokenId).equals(currentOwner));
-            // assert tokenId != null; // aip040TokenOwner throws if tokenId is null
-            Blockchain.require(isAuthorized || aip040TokenConsignee(tokenId).equals(caller));
-            NFTokenStorage.putTokenConsignee(tokenId, null);
-            NFTokenStorage.putTokenOwner(tokenId, caller);
+            AVMBlockchainWrapper.require(tokenId != null);
+            NFTokenStorage.TokenRecord record = NFTokenStorage.getTokenRecord(tokenId);
+            AVMBlockchainWrapper.require(record != null && record.owner.equals(currentOwner));
+            AVMBlockchainWrapper.require(isAuthorized || caller.equals(record.consignee));
+            record.consignee = null;
 
-            // General O(1) algorithm to remove an item from an ordered array:
-            //   1. Know where the value because it is indexed
-            //   2. Copy the last item over the value to be removed
-            //   3. Shrink the array
+            // A token taken by its owner stays where it is in the owner array
+            if (!isSelfTransfer) {
+                // General O(1) algorithm to remove an item from an ordered array:
+                //   1. Know where the value because it is indexed
+                //   2. Copy the last item over the value to be removed
+                //   3. Shrink the array
 
-            // Remove from old owner array, O(1) algorithm
-            BigInteger tokenToRemoveLocation = NFTokenStorage.getTokenLocation(tokenId);
-            BigInteger lastTokenLocation = fromBalance.subtract(BigInteger.ONE);
-            if (!lastTokenLocation.equals(tokenToRemoveLocation)) {
-                BigInteger lastToken = NFTokenStorage.getTokensOfOwnerArray(currentOwner, lastTokenLocation);
-                NFTokenStorage.putTokensOfOwnerArray(currentOwner, tokenToRemoveLocation, lastToken);
-                NFTokenStorage.putTokenLocation(tokenId, tokenToRemoveLocation);
-            }
-            fromBalance = fromBalance.subtract(BigInteger.ONE);
+                // Remove from old owner array, O(1) algorithm
+                long tokenToRemoveLocation = record.location;
+                long lastTokenLocation = fromBalance - 1;
+                if (lastTokenLocation != tokenToRemoveLocation) {
+                    BigInteger lastToken = NFTokenStorage.getTokensOfOwnerArray(currentOwner, lastTokenLocation);
+                    NFTokenStorage.putTokensOfOwnerArray(currentOwner, tokenToRemoveLocation, lastToken);
+                    NFTokenStorage.TokenRecord lastTokenRecord = NFTokenStorage.getTokenRecord(lastToken);
+                    lastTokenRecord.location = tokenToRemoveLocation;
+                    NFTokenStorage.putTokenRecord(lastToken, lastTokenRecord);
+                }
+                NFTokenStorage.putTokensOfOwnerArray(currentOwner, lastTokenLocation, null);
+                fromBalance--;
 
-            // Add to new owner array, O(1) algorithm
-            NFTokenStorage.putTokensOfOwnerArray(caller, toBalance, tokenId);
-            NFTokenStorage.putTokenLocation(tokenId, toBalance);
-            NFTokenStorage.putTokenOwner(tokenId, caller);
-            if (toBalance == null) {
-                toBalance = BigInteger.ONE;
-            } else {
-                toBalance = toBalance.add(BigInteger.ONE);
+                // Add to new owner array, O(1) algorithm
+                NFTokenStorage.putTokensOfOwnerArray(caller, toBalance, tokenId);
+                record.owner = caller;
+                record.location = toBalance;
+                toBalance++;
             }
-    
+            NFTokenStorage.putTokenRecord(tokenId, record);
+
             AIP040Events.AIP040Transferred(currentOwner, caller, tokenId);
         }
-        if (!caller.equals(currentOwner)) {
-            NFTokenStorage.putOwnerBalance(currentOwner, fromBalance.signum() == 0 ? null : fromBalance);
+        if (!isSelfTransfer) {
+            NFTokenStorage.putOwnerBalance(currentOwner, fromBalance);
             NFTokenStorage.putOwnerBalance(caller, toBalance);    
+            if (NFTokenStorage.getMintRangeCount() > 0) {
+                NFTokenStorage.pruneMintRangesOfOwner(currentOwner, fromBalance);
+            }
         }
+        AIP040Events.commitBatch();
+        AVMBlockchainWrapper.commitCache();
     }
 
     /**
@@ -253,20 +384,26 @@ public class NFToken {
      * @param tokenId   the token to consign
      */
     public static void aip040Consign(Address owner, Address consignee, BigInteger[] tokenIds) {
-        Blockchain.require(owner != null);
-        Blockchain.require(tokenIds != null);
-        Address caller = Blockchain.getCaller();
-        Blockchain.require(
+        AVMBlockchainWrapper.require(owner != null);
+        AVMBlockchainWrapper.require(tokenIds != null);
+        Address caller = AVMBlockchainWrapper.getCaller();
+        AVMBlockchainWrapper.require(
             caller.equals(owner) ||
             aip040OwnerDoesAuthorize(owner, caller)
         );
+        AVMBlockchainWrapper.beginCache();
+        AIP040Events.beginBatch();
 
         for (BigInteger tokenId : tokenIds) {
-            Blockchain.require(aip040TokenOwner(tokenId).equals(owner));
-            // assert tokenId != null; // aip040TokenOwner throws if tokenId is null
-            NFTokenStorage.putTokenConsignee(tokenId, consignee);
+            AVMBlockchainWrapper.require(tokenId != null);
+            NFTokenStorage.TokenRecord record = NFTokenStorage.getTokenRecord(tokenId);
+            AVMBlockchainWrapper.require(record != null && record.owner.equals(owner));
+            record.consignee = consignee;
+            NFTokenStorage.putTokenRecord(tokenId, record);
             AIP040Events.AIP040Consigned(owner, consignee, tokenId);    
         }
+        AIP040Events.commitBatch();
+        AVMBlockchainWrapper.commitCache();
     }
 
     /**
@@ -276,8 +413,8 @@ public class NFToken {
      * @param authorizee the account which receives authorization
      */
     public static void aip040Authorize(Address authorizee) {
-        Blockchain.require(authorizee != null);
-        Address caller = Blockchain.getCaller();
+        AVMBlockchainWrapper.require(authorizee != null);
+        Address caller = AVMBlockchainWrapper.getCaller();
         NFTokenStorage.putAccountAuthorization(caller, authorizee, true);
         AIP040Events.AIP040Authorized(caller, authorizee);
     }
@@ -289,10 +426,40 @@ public class NFToken {
      * @param authorizee the account which is revoked authorization
      */
     public static void aip040Deauthorize(Address priorAuthorizee) {
-        Blockchain.require(priorAuthorizee != null);
-        Address caller = Blockchain.getCaller();
+        AVMBlockchainWrapper.require(priorAuthorizee != null);
+        Address caller = AVMBlockchainWrapper.getCaller();
         NFTokenStorage.putAccountAuthorization(caller, priorAuthorizee, false);
         AIP040Events.AIP040Deauthorized(caller, priorAuthorizee);
     }
 
+    /**
+     * Converts an index into a list to a long, reverting unless it is in the
+     * list.
+     * 
+     * @param  index an index which the caller specified, 0 <= index < size
+     * @param  size  the length of the list
+     * @return       the index
+     */
+    protected static long checkedIndex(BigInteger index, long size) {
+        AVMBlockchainWrapper.require(index.signum() >= 0 && index.bitLength() < Long.SIZE);
+        long longIndex = index.longValue();
+        AVMBlockchainWrapper.require(longIndex < size);
+        return longIndex;
+    }
+
+    /**
+     * Finds how many items a page of a list has, reverting if the requested
+     * count is negative.
+     * 
+     * @param  start the index of the first item in the page, 0 <= start <=
+     *               size
+     * @param  count the maximum quantity of items in the page
+     * @param  size  the length of the list
+     * @return       the quantity of items in the page
+     */
+    protected static int checkedPageLength(long start, int count, long size) {
+        AVMBlockchainWrapper.require(count >= 0);
+        return (int) Math.min(count, size - start);
+    }
+
 }
\ No newline at end of file
@@ -1,9 +1,10 @@
 package org.aion;
 
 import avm.Address;
-import avm.Blockchain;
 import java.math.BigInteger;
 import java.security.acl.Owner;
+import java.util.Map;
+import org.aion.avm.userlib.AionMap;
 
 /**
  * This mock class includes additional functionality which will be useful for
@@ -13,7 +14,9 @@ import java.security.acl.Owner;
 public class NFTokenMock extends NFToken {
 
     /**
-     * This could be called once during contract deployment.
+     * This could be called once during contract deployment. The caller is
+     * recorded as the deployer, the only account which may call
+     * <code>setBatchedEvents</code>.
      * 
      * @implNote                 It is not expected that this will be exposed as
      *                           a callable method. So no encoder is provided
@@ -25,16 +28,34 @@ public class NFTokenMock extends NFToken {
      */
     // @NotCallable
     public static void setTokenNameSymbolAndUriAffixes(String tokenName, String tokenSymbol, String uriPrefix, String uriPostfix) {
-        Blockchain.require(tokenName != null);
-        Blockchain.require(tokenSymbol != null);
-        Blockchain.require(uriPrefix != null);
-        Blockchain.require(uriPostfix != null);
+        AVMBlockchainWrapper.require(tokenName != null);
+        AVMBlockchainWrapper.require(tokenSymbol != null);
+        AVMBlockchainWrapper.require(uriPrefix != null);
+        AVMBlockchainWrapper.require(uriPostfix != null);
         NFTokenStorage.putTokenName(tokenName);
         NFTokenStorage.putTokenSymbol(tokenSymbol);
         NFTokenStorage.putTokenUriPrefix(uriPrefix);
         NFTokenStorage.putTokenUriPostfix(uriPostfix);
+        NFTokenStorage.putDeployer(AVMBlockchainWrapper.getCaller());
     }
     
+    /**
+     * Chooses whether <code>mint</code>, <code>mintToOwners</code>,
+     * <code>aip040TakeOwnership</code> and <code>aip040Consign</code> emit one
+     * batch event for each set of accounts instead of one event for each
+     * token (see <code>AIP040Events</code>).
+     * 
+     * @apiNote        Batch events are not standardized, so this is off by
+     *                 default. It changes the events indexers receive, so
+     *                 only the deployer may change it.
+     * @param  enabled true to emit batch events
+     */
+    public static void setBatchedEvents(boolean enabled) {
+        Address deployer = NFTokenStorage.getDeployer();
+        AVMBlockchainWrapper.require(deployer != null && deployer.equals(AVMBlockchainWrapper.getCaller()));
+        AIP040Events.setBatchedEvents(enabled);
+    }
+
     /**
      * Create a specified token and assign to an account.
      * 
@@ -42,33 +63,198 @@ public class NFTokenMock extends NFToken {
      * @param tokenIds Token identifiers to create
      */
     public static void mint(Address newOwner, BigInteger[] tokenIds) {
-        Blockchain.require(newOwner != null);
-        Blockchain.require(tokenIds != null);
-        BigInteger toBalance = aip040OwnerBalance(newOwner);
-        BigInteger totalSupply = aip040TotalSupply();
+        AVMBlockchainWrapper.require(newOwner != null);
+        AVMBlockchainWrapper.require(tokenIds != null);
+        AVMBlockchainWrapper.beginCache();
+        AIP040Events.beginBatch();
+        long toBalance = NFTokenStorage.getOwnerBalance(newOwner);
+        long totalSupply = NFTokenStorage.getTotalSupply();
+        BigInteger priorHighestTokenId = NFTokenStorage.getHighestTokenId();
+        BigInteger highestTokenId = priorHighestTokenId;
 
         for (BigInteger tokenId : tokenIds) {
-            Blockchain.require(aip040TokenOwner(tokenId) == null);
+            AVMBlockchainWrapper.require(aip040TokenOwner(tokenId) == null);
             // assert tokenId != null; // Confirmed on previous line
+            highestTokenId = higherTokenId(highestTokenId, tokenId);
             NFTokenStorage.putTokenAtIndex(totalSupply, tokenId);
-            if (totalSupply == null) {
-                totalSupply = BigInteger.ONE;
-            } else {
-                totalSupply = totalSupply.add(BigInteger.ONE);
-            } 
             
             // Add to new owner array, O(1) algorithm
             NFTokenStorage.putTokensOfOwnerArray(newOwner, toBalance, tokenId);
-            NFTokenStorage.putTokenLocation(tokenId, toBalance);
-            if (toBalance == null) {
-                toBalance = BigInteger.ONE;
-            } else {
-                toBalance = toBalance.add(BigInteger.ONE);
-            }
-            NFTokenStorage.putTokenOwner(tokenId, newOwner);
+            NFTokenStorage.putTokenRecord(tokenId, new NFTokenStorage.TokenRecord(newOwner, null, toBalance, totalSupply));
+            toBalance++;
+            totalSupply++;
             AIP040Events.AIP040Minted(newOwner, tokenId);
         }
         NFTokenStorage.putTotalSupply(totalSupply);
         NFTokenStorage.putOwnerBalance(newOwner, toBalance);
+        if (highestTokenId != priorHighestTokenId) {
+            NFTokenStorage.putHighestTokenId(highestTokenId);
+        }
+        AIP040Events.commitBatch();
+        AVMBlockchainWrapper.commitCache();
+    }
+
+    /**
+     * Create specified tokens and assign each to an account, e.g. for an
+     * airdrop.
+     * 
+     * @implNote          Each distinct owner balance is read and written
+     *                    once, and the total supply is written once, however
+     *                    many tokens are created.
+     * @param   newOwners the new owner of each token, an owner may repeat
+     * @param   tokenIds  token identifiers to create, the same length as
+     *                    <code>newOwners</code>
+     */
+    public static void mintToOwners(Address[] newOwners, BigInteger[] tokenIds) {
+        AVMBlockchainWrapper.require(newOwners != null);
+        AVMBlockchainWrapper.require(tokenIds != null);
+        AVMBlockchainWrapper.require(newOwners.length == tokenIds.length);
+        AVMBlockchainWrapper.beginCache();
+        AIP040Events.beginBatch();
+        AionMap<Address, Long> toBalances = new AionMap<>();
+        long totalSupply = NFTokenStorage.getTotalSupply();
+        BigInteger priorHighestTokenId = NFTokenStorage.getHighestTokenId();
+        BigInteger highestTokenId = priorHighestTokenId;
+
+        for (int i = 0; i < tokenIds.length; i++) {
+            Address newOwner = newOwners[i];
+            BigInteger tokenId = tokenIds[i];
+            AVMBlockchainWrapper.require(newOwner != null);
+            AVMBlockchainWrapper.require(aip040TokenOwner(tokenId) == null);
+            // assert tokenId != null; // Confirmed on previous line
+            highestTokenId = higherTokenId(highestTokenId, tokenId);
+            NFTokenStorage.putTokenAtIndex(totalSupply, tokenId);
+
+            // Add to new owner array, O(1) algorithm
+            Long storedToBalance = toBalances.get(newOwner);
+            long toBalance = storedToBalance == null
+                ? NFTokenStorage.getOwnerBalance(newOwner)
+                : storedToBalance;
+            NFTokenStorage.putTokensOfOwnerArray(newOwner, toBalance, tokenId);
+            NFTokenStorage.putTokenRecord(tokenId, new NFTokenStorage.TokenRecord(newOwner, null, toBalance, totalSupply));
+            toBalances.put(newOwner, toBalance + 1);
+            totalSupply++;
+            AIP040Events.AIP040Minted(newOwner, tokenId);
+        }
+        NFTokenStorage.putTotalSupply(totalSupply);
+        for (Map.Entry<Address, Long> toBalance : toBalances.entrySet()) {
+            NFTokenStorage.putOwnerBalance(toBalance.getKey(), toBalance.getValue());
+        }
+        if (highestTokenId != priorHighestTokenId) {
+            NFTokenStorage.putHighestTokenId(highestTokenId);
+        }
+        AIP040Events.commitBatch();
+        AVMBlockchainWrapper.commitCache();
+    }
+
+    /**
+     * Create consecutive tokens <code>[start, start + count)</code> and assign
+     * them to an account, in constant storage.
+     * 
+     * @implNote       Only the range is stored. The owner, owner array entry
+     *                 and <code>TOKENS_ARRAY</code> entry of each token are
+     *                 computed from the range until the token is first
+     *                 transferred or consigned (see
+     *                 <code>NFTokenStorage.MintRange</code>). Queries return
+     *                 the same results as if each token was minted in order
+     *                 with <code>mint</code>.
+     * @implNote       One <code>AIP040MintedRange</code> event is emitted
+     *                 instead of an <code>AIP040Minted</code> event for each
+     *                 token.
+     * @param newOwner the new owner of the tokens
+     * @param start    the first token identifier to create, must be higher
+     *                 than every token identifier minted before
+     * @param count    the number of tokens to create, at least one
+     */
+    public static void mintRange(Address newOwner, BigInteger start, long count) {
+        AVMBlockchainWrapper.require(newOwner != null);
+        AVMBlockchainWrapper.require(start != null);
+        AVMBlockchainWrapper.require(count > 0);
+        AVMBlockchainWrapper.beginCache();
+        BigInteger highestTokenId = NFTokenStorage.getHighestTokenId();
+        AVMBlockchainWrapper.require(highestTokenId == null || start.compareTo(highestTokenId) > 0);
+        long toBalance = NFTokenStorage.getOwnerBalance(newOwner);
+        long totalSupply = NFTokenStorage.getTotalSupply();
+        AVMBlockchainWrapper.require(count <= Long.MAX_VALUE - totalSupply);
+
+        long rangeIndex = NFTokenStorage.getMintRangeCount();
+        NFTokenStorage.putMintRange(rangeIndex, new NFTokenStorage.MintRange(start, count, newOwner, totalSupply, toBalance));
+        NFTokenStorage.putMintRangeCount(rangeIndex + 1);
+        NFTokenStorage.pushTokensMintRange(rangeIndex, totalSupply);
+        NFTokenStorage.pushMintRangeOfOwner(newOwner, rangeIndex, toBalance);
+
+        NFTokenStorage.putTotalSupply(totalSupply + count);
+        NFTokenStorage.putOwnerBalance(newOwner, toBalance + count);
+        NFTokenStorage.putHighestTokenId(start.add(BigInteger.valueOf(count - 1)));
+        AIP040Events.AIP040MintedRange(newOwner, start, count);
+        AVMBlockchainWrapper.commitCache();
+    }
+
+    /**
+     * Destroy specified tokens of an account, releasing their storage.
+     * 
+     * @implNote          Each token is removed from <code>TOKENS_ARRAY</code>
+     *                    and from the owner array by moving the last entry
+     *                    into its place, O(1) per token. The total supply and
+     *                    the owner balance are written once per call.
+     * @implNote          The <code>AIP040Burned</code> event of each token
+     *                    logs the owner it was burned from.
+     * @param    owner    the account that currently owns the specified tokens,
+     *                    which must be the caller or authorize the caller
+     * @param    tokenIds specific tokens to destroy
+     */
+    public static void burn(Address owner, BigInteger[] tokenIds) {
+        AVMBlockchainWrapper.require(owner != null);
+        AVMBlockchainWrapper.require(tokenIds != null);
+        Address caller = AVMBlockchainWrapper.getCaller();
+        AVMBlockchainWrapper.require(
+            caller.equals(owner) ||
+            aip040OwnerDoesAuthorize(owner, caller)
+        );
+        AVMBlockchainWrapper.beginCache();
+        long ownerBalance = NFTokenStorage.getOwnerBalance(owner);
+        long totalSupply = NFTokenStorage.getTotalSupply();
+
+        for (BigInteger tokenId : tokenIds) {
+            AVMBlockchainWrapper.require(tokenId != null);
+            NFTokenStorage.TokenRecord record = NFTokenStorage.getTokenRecord(tokenId);
+            AVMBlockchainWrapper.require(record != null && record.owner.equals(owner));
+
+            // Remove from owner array, O(1) algorithm
+            ownerBalance--;
+            if (record.location != ownerBalance) {
+                BigInteger lastToken = NFTokenStorage.getTokensOfOwnerArray(owner, ownerBalance);
+                NFTokenStorage.putTokensOfOwnerArray(owner, record.location, lastToken);
+                NFTokenStorage.TokenRecord lastTokenRecord = NFTokenStorage.getTokenRecord(lastToken);
+                lastTokenRecord.location = record.location;
+                NFTokenStorage.putTokenRecord(lastToken, lastTokenRecord);
+            }
+            NFTokenStorage.putTokensOfOwnerArray(owner, ownerBalance, null);
+
+            // Remove from all tokens array, O(1) algorithm
+            totalSupply--;
+            if (record.tokensIndex != totalSupply) {
+                BigInteger lastToken = NFTokenStorage.getTokenAtIndex(totalSupply);
+                NFTokenStorage.putTokenAtIndex(record.tokensIndex, lastToken);
+                NFTokenStorage.TokenRecord lastTokenRecord = NFTokenStorage.getTokenRecord(lastToken);
+                lastTokenRecord.tokensIndex = record.tokensIndex;
+                NFTokenStorage.putTokenRecord(lastToken, lastTokenRecord);
+            }
+            NFTokenStorage.putTokenAtIndex(totalSupply, null);
+
+            NFTokenStorage.removeTokenRecord(tokenId);
+            AIP040Events.AIP040Burned(owner, tokenId);
+        }
+        NFTokenStorage.putOwnerBalance(owner, ownerBalance);
+        NFTokenStorage.putTotalSupply(totalSupply);
+        if (NFTokenStorage.getMintRangeCount() > 0) {
+            NFTokenStorage.pruneMintRangesOfOwner(owner, ownerBalance);
+            NFTokenStorage.pruneTokensMintRanges(totalSupply);
+        }
+        AVMBlockchainWrapper.commitCache();
+    }
+
+    private static BigInteger higherTokenId(BigInteger highestTokenId, BigInteger tokenId) {
+        return highestTokenId == null || tokenId.compareTo(highestTokenId) > 0 ? tokenId : highestTokenId;
     }
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package org.aion;
 
 import avm.Address;
 import java.math.BigInteger;
+import org.aion.avm.userlib.AionBuffer;
 
 /**
  * The methods in this class are fully described by <code>StorageSlots</code>
@@ -10,6 +11,22 @@ import java.math.BigInteger;
  * 
  * Every method directly gets and puts to storage, which is initially null. So,
  * methods not documented per https://google.github.io/styleguide/javaguide.html#s7.3.1-javadoc-exception-self-explanatory
+ * 
+ * The exception is tokens created by a range mint (see <code>MintRange</code>).
+ * Their entries in <code>TOKENS_ARRAY</code>, <code>TOKEN_RECORD_MAP</code>
+ * and <code>TOKENS_OF_OWNER_ARRAY</code> are not stored until they change, so
+ * the getters for those fall back to values computed from the mint ranges. A
+ * burned token of a mint range keeps a tombstone record so that it does not
+ * fall back to its range (see <code>removeTokenRecord</code>).
+ * 
+ * No dead slot is left behind: callers shrinking an array put null to the
+ * vacated slot and prune mint ranges which no longer fill any slot (see
+ * <code>pruneTokensMintRanges</code>), and zero longs and false booleans are
+ * stored as null.
+ * 
+ * Storage access goes through <code>AVMBlockchainWrapper</code>, so inside a
+ * cache scope (see <code>AVMBlockchainWrapper.beginCache</code>) repeated
+ * accesses of one slot are served from memory.
  */
 public class NFTokenStorage {
     /**
@@ -22,15 +39,22 @@ public class NFTokenStorage {
         TOKEN_SYMBOL, // () => String
         TOKEN_URI_PREFIX, // () => String
         TOKEN_URI_POSTFIX, // () => String
-        TOTAL_SUPPLY, // () => BigInteger
+        TOTAL_SUPPLY, // () => long
+        DEPLOYER, // () => Address
 
-        TOKENS_ARRAY, // (BigInteger) => BigInteger
-        TOKEN_OWNERS_MAP, // (BigInteger) => Address
-        TOKEN_LOCATION_MAP, // (BigInteger) => BigInteger
-        TOKEN_CONSIGNEE_MAP, // (BigInteger) => Address
+        TOKENS_ARRAY, // (long) => BigInteger
+        TOKEN_RECORD_MAP, // (BigInteger) => TokenRecord
         ACCOUNT_AUTHORIZATION_MAP, // (Address, Address) => boolean
-        OWNER_BALANCE_MAP, // (Address) => BigInteger
-        TOKENS_OF_OWNER_ARRAY, // (Address, BigInteger) => BigInteger        
+        OWNER_BALANCE_MAP, // (Address) => long
+        TOKENS_OF_OWNER_ARRAY, // (Address, long) => BigInteger        
+
+        HIGHEST_TOKEN_ID, // () => BigInteger
+        MINT_RANGE_COUNT, // () => long
+        MINT_RANGE_ARRAY, // (long) => MintRange
+        MINT_RANGES_OF_OWNER_COUNT, // (Address) => long
+        MINT_RANGES_OF_OWNER_ARRAY, // (Address, long) => long
+        TOKENS_MINT_RANGE_COUNT, // () => long
+        TOKENS_MINT_RANGE_ARRAY, // (long) => long
     }
 
     protected static String getTokenName() {
@@ -54,7 +78,7 @@ public class NFTokenStorage {
     }
 
     protected static void putTokenUriPrefix(String uriPrefix) {
-        AVMBlockchainWrapper.getStorage​String(StorageSlots.TOKEN_SYMBOL);
+        AVMBlockchainWrapper.putStorage​String(uriPrefix, StorageSlots.TOKEN_URI_PREFIX);
     }
 
     protected static String getTokenUriPostfix() {
@@ -65,44 +89,82 @@ public class NFTokenStorage {
         AVMBlockchainWrapper.putStorage​String(uriPostfix, StorageSlots.TOKEN_URI_POSTFIX);
     }
 
-    protected static BigInteger getTotalSupply() {
-        return AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.TOTAL_SUPPLY);
+    protected static Address getDeployer() {
+        return AVMBlockchainWrapper.getStorage​Address(StorageSlots.DEPLOYER);
     }
 
-    protected static void putTotalSupply(BigInteger totalSupply) {
-        AVMBlockchainWrapper.putStorage​BigInteger(totalSupply, StorageSlots.TOTAL_SUPPLY);
+    protected static void putDeployer(Address deployer) {
+        AVMBlockchainWrapper.putStorage​Address(deployer, StorageSlots.DEPLOYER);
     }
 
-    protected static BigInteger getTokenAtIndex(BigInteger index) {
-        return AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.TOKENS_ARRAY, index.toByteArray());
+    protected static long getTotalSupply() {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.TOTAL_SUPPLY);
     }
 
-    protected static void putTokenAtIndex(BigInteger index, BigInteger tokenId) {
-        AVMBlockchainWrapper.putStorage​BigInteger(tokenId, StorageSlots.TOKENS_ARRAY, index.toByteArray());
+    protected static void putTotalSupply(long totalSupply) {
+        AVMBlockchainWrapper.putStorage​Long(totalSupply, StorageSlots.TOTAL_SUPPLY);
     }
 
-    protected static Address getTokenOwner(BigInteger tokenId) {
-        return AVMBlockchainWrapper.getStorage​Address(StorageSlots.TOKEN_OWNERS_MAP, tokenId.toByteArray());
+    /**
+     * @implNote Slots at or beyond the total supply must be null, otherwise a
+     *           later mint range would be shadowed. So callers shrinking the
+     *           array put null to the vacated slot.
+     */
+    protected static BigInteger getTokenAtIndex(long index) {
+        BigInteger tokenId = AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.TOKENS_ARRAY, AVMBlockchainWrapper.encodeLong(index));
+        if (tokenId != null) {
+            return tokenId;
+        }
+        MintRange range = findMintRangeByTokensIndex(index);
+        return range == null ? null : range.tokenAt(index - range.tokensIndex);
     }
 
-    protected static void putTokenOwner(BigInteger tokenId, Address owner) {
-        AVMBlockchainWrapper.putStorage​Address(owner, StorageSlots.TOKEN_OWNERS_MAP, tokenId.toByteArray());
+    protected static void putTokenAtIndex(long index, BigInteger tokenId) {
+        AVMBlockchainWrapper.putStorage​BigInteger(tokenId, StorageSlots.TOKENS_ARRAY, AVMBlockchainWrapper.encodeLong(index));
     }
 
-    protected static BigInteger getTokenLocation(BigInteger tokenId) {
-        return AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.TOKEN_LOCATION_MAP, tokenId.toByteArray());
+    protected static TokenRecord getTokenRecord(BigInteger tokenId) {
+        byte[] encoded = AVMBlockchainWrapper.getStorage​ByteArray(StorageSlots.TOKEN_RECORD_MAP, tokenIdKey(tokenId));
+        if (encoded != null) {
+            return TokenRecord.decode(encoded);
+        }
+        MintRange range = findMintRangeByTokenId(tokenId);
+        if (range == null) {
+            return null;
+        }
+        // A token without a stored record was never transferred, consigned
+        // or moved in either array since it was minted
+        long offset = tokenId.subtract(range.start).longValue();
+        return new TokenRecord(range.owner, null, range.ownerIndex + offset, range.tokensIndex + offset);
     }
 
-    protected static void putTokenLocation(BigInteger tokenId, BigInteger location) {
-        AVMBlockchainWrapper.putStorage​BigInteger(location, StorageSlots.TOKEN_LOCATION_MAP, tokenId.toByteArray());
+    protected static void putTokenRecord(BigInteger tokenId, TokenRecord record) {
+        AVMBlockchainWrapper.putStorage​ByteArray(record == null ? null : record.encode(), StorageSlots.TOKEN_RECORD_MAP, tokenIdKey(tokenId));
     }
 
-    protected static Address getTokenConsignee(BigInteger tokenId) {
-        return AVMBlockchainWrapper.getStorage​Address(StorageSlots.TOKEN_CONSIGNEE_MAP, tokenId.toByteArray());
+    /**
+     * Removes the record of a burned token, after which
+     * <code>getTokenRecord</code> returns null.
+     * 
+     * @implNote The record is released, except that a token created by a
+     *           mint range keeps a tombstone, otherwise it would fall back to
+     *           its range.
+     */
+    protected static void removeTokenRecord(BigInteger tokenId) {
+        byte[] tombstone = getMintRangeCount() > 0 && findMintRangeByTokenId(tokenId) != null
+            ? TokenRecord.TOMBSTONE
+            : null;
+        AVMBlockchainWrapper.putStorage​ByteArray(tombstone, StorageSlots.TOKEN_RECORD_MAP, tokenIdKey(tokenId));
     }
 
-    protected static void putTokenConsignee(BigInteger tokenId, Address consignee) {
-        AVMBlockchainWrapper.putStorage​Address(consignee, StorageSlots.TOKEN_CONSIGNEE_MAP, tokenId.toByteArray());
+    protected static Address getTokenOwner(BigInteger tokenId) {
+        TokenRecord record = getTokenRecord(tokenId);
+        return record == null ? null : record.owner;
+    }
+
+    protected static Address getTokenConsignee(BigInteger tokenId) {
+        TokenRecord record = getTokenRecord(tokenId);
+        return record == null ? null : record.consignee;
     }
 
     protected static boolean getAccountAuthorization(Address owner, Address authorizee) {
@@ -122,19 +184,419 @@ public class NFTokenStorage {
         );
     }
 
-    protected static BigInteger getOwnerBalance(Address owner) {
-        return AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.OWNER_BALANCE_MAP, owner.toByteArray());
+    protected static long getOwnerBalance(Address owner) {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.OWNER_BALANCE_MAP, owner.toByteArray());
+    }
+
+    protected static void putOwnerBalance(Address owner, long balance) {
+        AVMBlockchainWrapper.putStorage​Long(balance, StorageSlots.OWNER_BALANCE_MAP, owner.toByteArray());
+    }
+
+    /**
+     * @implNote Slots at or beyond the balance of the owner must be null,
+     *           otherwise a later mint range of the owner would be shadowed.
+     *           So callers shrinking the array put null to the vacated slot.
+     */
+    protected static BigInteger getTokensOfOwnerArray(Address owner, long index) {
+        BigInteger tokenId = AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.TOKENS_OF_OWNER_ARRAY, owner.toByteArray(), AVMBlockchainWrapper.encodeLong(index));
+        if (tokenId != null) {
+            return tokenId;
+        }
+        MintRange range = findMintRangeOfOwnerByOwnerIndex(owner, index);
+        return range == null ? null : range.tokenAt(index - range.ownerIndex);
+    }
+
+    protected static void putTokensOfOwnerArray(Address owner, long index, BigInteger tokenId) {
+        AVMBlockchainWrapper.putStorage​BigInteger(tokenId, StorageSlots.TOKENS_OF_OWNER_ARRAY, owner.toByteArray(), AVMBlockchainWrapper.encodeLong(index));
+    }
+
+    protected static BigInteger getHighestTokenId() {
+        return AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.HIGHEST_TOKEN_ID);
+    }
+
+    protected static void putHighestTokenId(BigInteger tokenId) {
+        AVMBlockchainWrapper.putStorage​BigInteger(tokenId, StorageSlots.HIGHEST_TOKEN_ID);
+    }
+
+    protected static long getMintRangeCount() {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.MINT_RANGE_COUNT);
+    }
+
+    protected static void putMintRangeCount(long count) {
+        AVMBlockchainWrapper.putStorage​Long(count, StorageSlots.MINT_RANGE_COUNT);
+    }
+
+    protected static MintRange getMintRange(long rangeIndex) {
+        return MintRange.decode(AVMBlockchainWrapper.getStorage​ByteArray(StorageSlots.MINT_RANGE_ARRAY, AVMBlockchainWrapper.encodeLong(rangeIndex)));
+    }
+
+    protected static void putMintRange(long rangeIndex, MintRange range) {
+        AVMBlockchainWrapper.putStorage​ByteArray(range == null ? null : range.encode(), StorageSlots.MINT_RANGE_ARRAY, AVMBlockchainWrapper.encodeLong(rangeIndex));
+    }
+
+    protected static long getMintRangesOfOwnerCount(Address owner) {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.MINT_RANGES_OF_OWNER_COUNT, owner.toByteArray());
+    }
+
+    protected static void putMintRangesOfOwnerCount(Address owner, long count) {
+        AVMBlockchainWrapper.putStorage​Long(count, StorageSlots.MINT_RANGES_OF_OWNER_COUNT, owner.toByteArray());
+    }
+
+    protected static long getMintRangesOfOwnerArray(Address owner, long index) {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.MINT_RANGES_OF_OWNER_ARRAY, owner.toByteArray(), AVMBlockchainWrapper.encodeLong(index));
+    }
+
+    protected static void putMintRangesOfOwnerArray(Address owner, long index, long rangeIndex) {
+        AVMBlockchainWrapper.putStorage​Long(rangeIndex, StorageSlots.MINT_RANGES_OF_OWNER_ARRAY, owner.toByteArray(), AVMBlockchainWrapper.encodeLong(index));
+    }
+
+    protected static long getTokensMintRangeCount() {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.TOKENS_MINT_RANGE_COUNT);
+    }
+
+    protected static void putTokensMintRangeCount(long count) {
+        AVMBlockchainWrapper.putStorage​Long(count, StorageSlots.TOKENS_MINT_RANGE_COUNT);
+    }
+
+    protected static long getTokensMintRangeArray(long index) {
+        return AVMBlockchainWrapper.getStorage​Long(StorageSlots.TOKENS_MINT_RANGE_ARRAY, AVMBlockchainWrapper.encodeLong(index));
+    }
+
+    protected static void putTokensMintRangeArray(long index, long rangeIndex) {
+        AVMBlockchainWrapper.putStorage​Long(rangeIndex, StorageSlots.TOKENS_MINT_RANGE_ARRAY, AVMBlockchainWrapper.encodeLong(index));
     }
 
-    protected static void putOwnerBalance(Address owner, BigInteger balance) {
-        AVMBlockchainWrapper.putStorage​BigInteger(balance, StorageSlots.OWNER_BALANCE_MAP, owner.toByteArray());
+    /**
+     * Adds a new mint range to <code>TOKENS_MINT_RANGE_ARRAY</code>, the
+     * ranges which may still virtually fill <code>TOKENS_ARRAY</code>, in
+     * order of <code>tokensIndex</code>.
+     * 
+     * @param tokensIndex the total supply before the range was minted
+     */
+    protected static void pushTokensMintRange(long rangeIndex, long tokensIndex) {
+        long count = pruneTokensMintRanges(tokensIndex);
+        putTokensMintRangeArray(count, rangeIndex);
+        putTokensMintRangeCount(count + 1);
+    }
+
+    /**
+     * Pops the mint ranges which no longer fill any slot of
+     * <code>TOKENS_ARRAY</code> from <code>TOKENS_MINT_RANGE_ARRAY</code>.
+     * 
+     * @implNote <code>TOKENS_ARRAY</code> shrinks on burns. A range starting
+     *           at or beyond the total supply was vacated from its start, so
+     *           it is popped. Each range is pushed and popped at most once.
+     * @param    totalSupply the total supply now
+     * @return               the number of ranges left
+     */
+    protected static long pruneTokensMintRanges(long totalSupply) {
+        long priorCount = getTokensMintRangeCount();
+        long count = priorCount;
+        while (count > 0 && getMintRange(getTokensMintRangeArray(count - 1)).tokensIndex >= totalSupply) {
+            count--;
+            // Zero is stored as null
+            putTokensMintRangeArray(count, 0);
+        }
+        if (count != priorCount) {
+            putTokensMintRangeCount(count);
+        }
+        return count;
+    }
+
+    /**
+     * Adds a new mint range to <code>MINT_RANGES_OF_OWNER_ARRAY</code> of its
+     * owner, the ranges which may still virtually fill the owner array, in
+     * order of <code>ownerIndex</code>.
+     * 
+     * @param ownerIndex the balance of the owner before the range was minted
+     */
+    protected static void pushMintRangeOfOwner(Address owner, long rangeIndex, long ownerIndex) {
+        long count = pruneMintRangesOfOwner(owner, ownerIndex);
+        putMintRangesOfOwnerArray(owner, count, rangeIndex);
+        putMintRangesOfOwnerCount(owner, count + 1);
+    }
+
+    /**
+     * Pops the mint ranges which no longer fill any slot of the owner array
+     * from <code>MINT_RANGES_OF_OWNER_ARRAY</code> of the owner.
+     * 
+     * @implNote The owner array shrinks on transfers and burns, see
+     *           <code>pruneTokensMintRanges</code>.
+     * @param    balance the balance of the owner now
+     * @return           the number of ranges left
+     */
+    protected static long pruneMintRangesOfOwner(Address owner, long balance) {
+        long priorCount = getMintRangesOfOwnerCount(owner);
+        long count = priorCount;
+        while (count > 0 && getMintRange(getMintRangesOfOwnerArray(owner, count - 1)).ownerIndex >= balance) {
+            count--;
+            putMintRangesOfOwnerArray(owner, count, 0);
+        }
+        if (count != priorCount) {
+            putMintRangesOfOwnerCount(owner, count);
+        }
+        return count;
+    }
+
+    /**
+     * Finds the mint range which created a token.
+     * 
+     * @implNote Every mint range starts above all token identifiers minted
+     *           before it, so the ranges are sorted by identifier and this is
+     *           a binary search.
+     * @return   the range, or null if the token was not created by a range
+     */
+    private static MintRange findMintRangeByTokenId(BigInteger tokenId) {
+        long low = 0;
+        long high = getMintRangeCount() - 1;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            MintRange range = getMintRange(middle);
+            if (tokenId.compareTo(range.start) < 0) {
+                high = middle - 1;
+            } else if (tokenId.compareTo(range.start.add(BigInteger.valueOf(range.count))) >= 0) {
+                low = middle + 1;
+            } else {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the mint range which virtually fills an index of
+     * <code>TOKENS_ARRAY</code>.
+     * 
+     * @implNote The newest range starting at or before the index wins,
+     *           because older ranges were vacated from its start before it
+     *           was minted. <code>TOKENS_MINT_RANGE_ARRAY</code> is sorted by
+     *           start, so this is a binary search for the last range starting
+     *           at or before the index.
+     * @return   the range, or null if no range covers the index
+     */
+    private static MintRange findMintRangeByTokensIndex(long index) {
+        long low = 0;
+        long high = getTokensMintRangeCount() - 1;
+        MintRange found = null;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            MintRange range = getMintRange(getTokensMintRangeArray(middle));
+            if (index < range.tokensIndex) {
+                high = middle - 1;
+            } else {
+                found = range;
+                low = middle + 1;
+            }
+        }
+        return found == null || index - found.tokensIndex >= found.count ? null : found;
+    }
+
+    /**
+     * Finds the mint range which virtually fills an index of
+     * <code>TOKENS_OF_OWNER_ARRAY</code> of an owner.
+     * 
+     * @implNote Like <code>findMintRangeByTokensIndex</code>, this is a
+     *           binary search of <code>MINT_RANGES_OF_OWNER_ARRAY</code> for
+     *           the last range starting at or before the index.
+     * @return   the range, or null if no range covers the index
+     */
+    private static MintRange findMintRangeOfOwnerByOwnerIndex(Address owner, long index) {
+        long low = 0;
+        long high = getMintRangesOfOwnerCount(owner) - 1;
+        MintRange found = null;
+        while (low <= high) {
+            long middle = (low + high) >>> 1;
+            MintRange range = getMintRange(getMintRangesOfOwnerArray(owner, middle));
+            if (index < range.ownerIndex) {
+                high = middle - 1;
+            } else {
+                found = range;
+                low = middle + 1;
+            }
+        }
+        return found == null || index - found.ownerIndex >= found.count ? null : found;
     }
 
-    protected static BigInteger getTokensOfOwnerArray(Address owner, BigInteger index) {
-        return AVMBlockchainWrapper.getStorage​BigInteger(StorageSlots.TOKENS_OF_OWNER_ARRAY, owner.toByteArray(), index.toByteArray());
+    /**
+     * Encodes a token identifier for use in a key path.
+     * 
+     * @implNote Identifiers which fit in a long use a fixed-width 8-byte
+     *           encoding, which is cheaper than
+     *           <code>BigInteger.toByteArray</code>. Identifiers which fit in
+     *           32 bytes, which is every identifier the ABI can carry, use a
+     *           fixed-width 32-byte encoding. Wider identifiers use
+     *           <code>BigInteger.toByteArray</code>, which is at least 33
+     *           bytes for them, so the three encodings never collide.
+     */
+    protected static byte[] tokenIdKey(BigInteger tokenId) {
+        int bitLength = tokenId.bitLength();
+        if (bitLength < Long.SIZE) {
+            return AVMBlockchainWrapper.encodeLong(tokenId.longValue());
+        }
+        return bitLength < 256
+            ? AVMBlockchainWrapper.encodeInt256(tokenId)
+            : tokenId.toByteArray();
     }
 
-    protected static void putTokensOfOwnerArray(Address owner, BigInteger index, BigInteger tokenId) {
-        AVMBlockchainWrapper.putStorage​BigInteger(tokenId, StorageSlots.TOKENS_OF_OWNER_ARRAY, owner.toByteArray(), index.toByteArray());
+    /**
+     * Everything stored about one token, packed into a single storage value so
+     * that a token costs one key derivation and one storage access instead of
+     * one for each field.
+     *
+     * Encoding: a flags byte, the owner (32 bytes), the consignee (32 bytes,
+     * only if the consignee flag is set) and then the location and the
+     * tokensIndex (8 bytes each, big-endian). A tombstone is only the flags
+     * byte, with the burned flag set.
+     */
+    protected static class TokenRecord {
+        private static final byte FLAG_HAS_CONSIGNEE = 0x1;
+        private static final byte FLAG_BURNED = 0x2;
+        private static final byte[] TOMBSTONE = new byte[]{FLAG_BURNED};
+
+        /**
+         * The owner of the token, never null for a stored record.
+         */
+        protected Address owner;
+
+        /**
+         * The consignee of the token, or null if none is assigned.
+         */
+        protected Address consignee;
+
+        /**
+         * The index of the token in <code>TOKENS_OF_OWNER_ARRAY</code> of the
+         * owner.
+         */
+        protected long location;
+
+        /**
+         * The index of the token in <code>TOKENS_ARRAY</code>.
+         */
+        protected long tokensIndex;
+
+        protected TokenRecord(Address owner, Address consignee, long location, long tokensIndex) {
+            this.owner = owner;
+            this.consignee = consignee;
+            this.location = location;
+            this.tokensIndex = tokensIndex;
+        }
+
+        protected byte[] encode() {
+            AionBuffer buffer = AionBuffer.allocate(
+                1 +
+                Address.LENGTH +
+                (consignee == null ? 0 : Address.LENGTH) +
+                2 * Long.BYTES
+            );
+            buffer.putByte(consignee == null ? 0 : FLAG_HAS_CONSIGNEE);
+            buffer.putAddress(owner);
+            if (consignee != null) {
+                buffer.putAddress(consignee);
+            }
+            buffer.putLong(location);
+            buffer.putLong(tokensIndex);
+            return buffer.getArray();
+        }
+
+        /**
+         * @return the record, or null for null or a tombstone
+         */
+        protected static TokenRecord decode(byte[] encoded) {
+            if (encoded == null) {
+                return null;
+            }
+            AionBuffer buffer = AionBuffer.wrap(encoded);
+            byte flags = buffer.getByte();
+            if ((flags & FLAG_BURNED) != 0) {
+                return null;
+            }
+            Address owner = buffer.getAddress();
+            Address consignee = (flags & FLAG_HAS_CONSIGNEE) == 0 ? null : buffer.getAddress();
+            long location = buffer.getLong();
+            return new TokenRecord(owner, consignee, location, buffer.getLong());
+        }
+    }
+
+    /**
+     * Consecutive tokens created by one range mint, stored once for the whole
+     * range instead of once for each token.
+     *
+     * Token <code>start + i</code> is virtually at index
+     * <code>tokensIndex + i</code> of <code>TOKENS_ARRAY</code> and at index
+     * <code>ownerIndex + i</code> of <code>TOKENS_OF_OWNER_ARRAY</code> of the
+     * owner, until a stored value replaces it or the index is vacated.
+     *
+     * Encoding: the owner (32 bytes), the count, tokensIndex and ownerIndex
+     * (8 bytes each, big-endian) and then the start (the remaining bytes, as
+     * <code>BigInteger.toByteArray</code>).
+     */
+    protected static class MintRange {
+        private static final int FIXED_LENGTH = Address.LENGTH + 3 * Long.BYTES;
+
+        /**
+         * The first token identifier in the range.
+         */
+        protected BigInteger start;
+
+        /**
+         * The number of tokens in the range, at least one.
+         */
+        protected long count;
+
+        /**
+         * The owner all tokens in the range were minted to.
+         */
+        protected Address owner;
+
+        /**
+         * The total supply before the range was minted.
+         */
+        protected long tokensIndex;
+
+        /**
+         * The balance of the owner before the range was minted.
+         */
+        protected long ownerIndex;
+
+        protected MintRange(BigInteger start, long count, Address owner, long tokensIndex, long ownerIndex) {
+            this.start = start;
+            this.count = count;
+            this.owner = owner;
+            this.tokensIndex = tokensIndex;
+            this.ownerIndex = ownerIndex;
+        }
+
+        /**
+         * @param  offset position in the range, from zero
+         * @return        the identifier of the token at that position
+         */
+        protected BigInteger tokenAt(long offset) {
+            return start.add(BigInteger.valueOf(offset));
+        }
+
+        protected byte[] encode() {
+            byte[] encodedStart = start.toByteArray();
+            return AionBuffer.allocate(FIXED_LENGTH + encodedStart.length)
+                .putAddress(owner)
+                .putLong(count)
+                .putLong(tokensIndex)
+                .putLong(ownerIndex)
+                .put(encodedStart)
+                .getArray();
+        }
+
+        protected static MintRange decode(byte[] encoded) {
+            if (encoded == null) {
+                return null;
+            }
+            AionBuffer buffer = AionBuffer.wrap(encoded);
+            Address owner = buffer.getAddress();
+            long count = buffer.getLong();
+            long tokensIndex = buffer.getLong();
+            long ownerIndex = buffer.getLong();
+            byte[] encodedStart = new byte[encoded.length - FIXED_LENGTH];
+            buffer.get(encodedStart);
+            return new MintRange(new BigInteger(encodedStart), count, owner, tokensIndex, ownerIndex);
+        }
     }
-}
\ No newline at end of file
+}
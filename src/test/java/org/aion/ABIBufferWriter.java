@@ -0,0 +1,133 @@
+package org.aion;
+
+import avm.Address;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.aion.avm.userlib.abi.ABIException;
+
+/**
+ * Writes ABI tokens into a <code>ByteBuffer</code>, byte for byte the same as
+ * <code>ABIStreamingEncoder</code>, for the buffer encoders.
+ *
+ * Strings are always UTF-8, which is what AVM decodes, while
+ * <code>ABIStreamingEncoder</code> uses the default charset.
+ *
+ * Nothing is allocated except a copy of each <code>Address</code> (which is
+ * all that <code>Address</code> offers) and the bytes of strings which are not
+ * ASCII and of <code>BigInteger</code>s which do not fit in a long.
+ */
+class ABIBufferWriter {
+    private static final byte NULL = 0x32;
+    private static final byte BOOLEAN = 0x02;
+    private static final byte INT = 0x05;
+    private static final byte LONG = 0x06;
+    private static final byte STRING = 0x21;
+    private static final byte ADDRESS = 0x22;
+    private static final byte BIG_INTEGER = 0x23;
+    private static final byte ARRAY = 0x31;
+    private static final int BIG_INTEGER_MAX_LENGTH = 32;
+
+    private ABIBufferWriter() {
+    }
+
+    /**
+     * Encodes a method name once, to be written with <code>put</code> before
+     * the arguments of each call.
+     */
+    static byte[] methodPrefix(String methodName) {
+        ByteBuffer buffer = ByteBuffer.allocate(3 + methodName.length() * 3);
+        putString(buffer, methodName);
+        byte[] prefix = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(prefix);
+        return prefix;
+    }
+
+    static void putBoolean(ByteBuffer buffer, boolean value) {
+        buffer.put(BOOLEAN).put(value ? (byte) 1 : (byte) 0);
+    }
+
+    static void putInteger(ByteBuffer buffer, int value) {
+        buffer.put(INT).putInt(value);
+    }
+
+    static void putLong(ByteBuffer buffer, long value) {
+        buffer.put(LONG).putLong(value);
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.put(NULL).put(STRING);
+            return;
+        }
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buffer.put(STRING).putShort((short) bytes.length).put(bytes);
+                return;
+            }
+        }
+        buffer.put(STRING).putShort((short) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) value.charAt(i));
+        }
+    }
+
+    static void putAddress(ByteBuffer buffer, Address value) {
+        if (value == null) {
+            buffer.put(NULL).put(ADDRESS);
+            return;
+        }
+        buffer.put(ADDRESS).put(value.toByteArray());
+    }
+
+    static void putAddressArray(ByteBuffer buffer, Address[] values) {
+        if (values == null) {
+            buffer.put(NULL).put(ARRAY).put(ADDRESS);
+            return;
+        }
+        buffer.put(ARRAY).put(ADDRESS).putShort((short) values.length);
+        for (Address value : values) {
+            putAddress(buffer, value);
+        }
+    }
+
+    /**
+     * Writes the minimal signed big-endian bytes, like
+     * <code>BigInteger.toByteArray</code>.
+     */
+    static void putBigInteger(ByteBuffer buffer, BigInteger value) {
+        if (value == null) {
+            buffer.put(NULL).put(BIG_INTEGER);
+            return;
+        }
+        int bitLength = value.bitLength();
+        if (bitLength < Long.SIZE) {
+            long longValue = value.longValue();
+            int length = bitLength / Byte.SIZE + 1;
+            buffer.put(BIG_INTEGER).put((byte) length);
+            for (int shift = (length - 1) * Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                buffer.put((byte) (longValue >>> shift));
+            }
+            return;
+        }
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > BIG_INTEGER_MAX_LENGTH) {
+            throw new ABIException("BigInteger value exceeds the limit of 32 bytes");
+        }
+        buffer.put(BIG_INTEGER).put((byte) bytes.length).put(bytes);
+    }
+
+    static void putBigIntegerArray(ByteBuffer buffer, BigInteger[] values) {
+        if (values == null) {
+            buffer.put(NULL).put(ARRAY).put(BIG_INTEGER);
+            return;
+        }
+        buffer.put(ARRAY).put(BIG_INTEGER).putShort((short) values.length);
+        for (BigInteger value : values) {
+            putBigInteger(buffer, value);
+        }
+    }
+}
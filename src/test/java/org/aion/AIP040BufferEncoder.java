@@ -0,0 +1,159 @@
+package org.aion;
+
+import avm.Address;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the same calls as <code>AIP040Encoder</code>, byte for byte, into a
+ * caller-supplied <code>ByteBuffer</code>, so that a transaction builder can
+ * reuse one buffer instead of allocating for each call. Method names are
+ * encoded once.
+ *
+ * Each method writes at the position of the buffer, advances it and returns
+ * the buffer. A <code>BufferOverflowException</code> is thrown if it does not
+ * fit. The buffer must be big-endian, which is the default.
+ *
+ * @see ABIBufferWriter
+ */
+public class AIP040BufferEncoder {
+
+    private static final byte[] AIP040_NAME = ABIBufferWriter.methodPrefix("aip040Name");
+    private static final byte[] AIP040_SYMBOL = ABIBufferWriter.methodPrefix("aip040Symbol");
+    private static final byte[] AIP040_TOTAL_SUPPLY = ABIBufferWriter.methodPrefix("aip040TotalSupply");
+    private static final byte[] AIP040_TOKEN_OWNER = ABIBufferWriter.methodPrefix("aip040TokenOwner");
+    private static final byte[] AIP040_TOKEN_CONSIGNEE = ABIBufferWriter.methodPrefix("aip040TokenConsignee");
+    private static final byte[] AIP040_TOKEN_URI = ABIBufferWriter.methodPrefix("aip040TokenUri");
+    private static final byte[] AIP040_TOKEN_OWNERS = ABIBufferWriter.methodPrefix("aip040TokenOwners");
+    private static final byte[] AIP040_TOKEN_CONSIGNEES = ABIBufferWriter.methodPrefix("aip040TokenConsignees");
+    private static final byte[] AIP040_TOKEN_URIS = ABIBufferWriter.methodPrefix("aip040TokenUris");
+    private static final byte[] AIP040_OWNER_BALANCE = ABIBufferWriter.methodPrefix("aip040OwnerBalance");
+    private static final byte[] AIP040_OWNER_DOES_AUTHORIZE = ABIBufferWriter.methodPrefix("aip040OwnerDoesAuthorize");
+    private static final byte[] AIP040_TOKEN_AT_INDEX = ABIBufferWriter.methodPrefix("aip040TokenAtIndex");
+    private static final byte[] AIP040_TOKEN_FOR_OWNER_AT_INDEX = ABIBufferWriter.methodPrefix("aip040TokenForOwnerAtIndex");
+    private static final byte[] AIP040_TOKENS_AT_INDEX_RANGE = ABIBufferWriter.methodPrefix("aip040TokensAtIndexRange");
+    private static final byte[] AIP040_TOKENS_FOR_OWNER_AT_INDEX_RANGE = ABIBufferWriter.methodPrefix("aip040TokensForOwnerAtIndexRange");
+    private static final byte[] AIP040_TAKE_OWNERSHIP = ABIBufferWriter.methodPrefix("aip040TakeOwnership");
+    private static final byte[] AIP040_CONSIGN = ABIBufferWriter.methodPrefix("aip040Consign");
+    private static final byte[] AIP040_AUTHORIZE = ABIBufferWriter.methodPrefix("aip040Authorize");
+    private static final byte[] AIP040_DEAUTHORIZE = ABIBufferWriter.methodPrefix("aip040Deauthorize");
+
+    public static ByteBuffer aip040Name(ByteBuffer buffer) {
+        buffer.put(AIP040_NAME);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040Symbol(ByteBuffer buffer) {
+        buffer.put(AIP040_SYMBOL);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TotalSupply(ByteBuffer buffer) {
+        buffer.put(AIP040_TOTAL_SUPPLY);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenOwner(ByteBuffer buffer, BigInteger tokenId) {
+        buffer.put(AIP040_TOKEN_OWNER);
+        ABIBufferWriter.putBigInteger(buffer, tokenId);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenConsignee(ByteBuffer buffer, BigInteger tokenId) {
+        buffer.put(AIP040_TOKEN_CONSIGNEE);
+        ABIBufferWriter.putBigInteger(buffer, tokenId);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenUri(ByteBuffer buffer, BigInteger tokenId) {
+        buffer.put(AIP040_TOKEN_URI);
+        ABIBufferWriter.putBigInteger(buffer, tokenId);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenOwners(ByteBuffer buffer, BigInteger[] tokenIds) {
+        buffer.put(AIP040_TOKEN_OWNERS);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenConsignees(ByteBuffer buffer, BigInteger[] tokenIds) {
+        buffer.put(AIP040_TOKEN_CONSIGNEES);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenUris(ByteBuffer buffer, BigInteger[] tokenIds) {
+        buffer.put(AIP040_TOKEN_URIS);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040OwnerBalance(ByteBuffer buffer, Address owner) {
+        buffer.put(AIP040_OWNER_BALANCE);
+        ABIBufferWriter.putAddress(buffer, owner);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040OwnerDoesAuthorize(ByteBuffer buffer, Address owner, Address authorizee) {
+        buffer.put(AIP040_OWNER_DOES_AUTHORIZE);
+        ABIBufferWriter.putAddress(buffer, owner);
+        ABIBufferWriter.putAddress(buffer, authorizee);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenAtIndex(ByteBuffer buffer, BigInteger index) {
+        buffer.put(AIP040_TOKEN_AT_INDEX);
+        ABIBufferWriter.putBigInteger(buffer, index);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokenForOwnerAtIndex(ByteBuffer buffer, Address owner, BigInteger index) {
+        buffer.put(AIP040_TOKEN_FOR_OWNER_AT_INDEX);
+        ABIBufferWriter.putAddress(buffer, owner);
+        ABIBufferWriter.putBigInteger(buffer, index);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokensAtIndexRange(ByteBuffer buffer, BigInteger startIndex, int count) {
+        buffer.put(AIP040_TOKENS_AT_INDEX_RANGE);
+        ABIBufferWriter.putBigInteger(buffer, startIndex);
+        ABIBufferWriter.putInteger(buffer, count);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TokensForOwnerAtIndexRange(ByteBuffer buffer, Address owner, BigInteger startIndex, int count) {
+        buffer.put(AIP040_TOKENS_FOR_OWNER_AT_INDEX_RANGE);
+        ABIBufferWriter.putAddress(buffer, owner);
+        ABIBufferWriter.putBigInteger(buffer, startIndex);
+        ABIBufferWriter.putInteger(buffer, count);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040TakeOwnership(ByteBuffer buffer, Address currentOwner, BigInteger[] tokenIds) {
+        buffer.put(AIP040_TAKE_OWNERSHIP);
+        ABIBufferWriter.putAddress(buffer, currentOwner);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040Consign(ByteBuffer buffer, Address owner, Address consignee, BigInteger[] tokenIds) {
+        buffer.put(AIP040_CONSIGN);
+        ABIBufferWriter.putAddress(buffer, owner);
+        ABIBufferWriter.putAddress(buffer, consignee);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040Authorize(ByteBuffer buffer, Address authorizee) {
+        buffer.put(AIP040_AUTHORIZE);
+        ABIBufferWriter.putAddress(buffer, authorizee);
+        return buffer;
+    }
+
+    public static ByteBuffer aip040Deauthorize(ByteBuffer buffer, Address priorAuthorizee) {
+        buffer.put(AIP040_DEAUTHORIZE);
+        ABIBufferWriter.putAddress(buffer, priorAuthorizee);
+        return buffer;
+    }
+}
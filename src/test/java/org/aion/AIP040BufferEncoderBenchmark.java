@@ -0,0 +1,76 @@
+package org.aion;
+
+import avm.Address;
+import com.sun.management.ThreadMXBean;
+import org.junit.*;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Measures how fast calls are encoded on the host, for clients. Results are
+ * written by <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040BufferEncoderBenchmark {
+
+    private static final int CALLS = 1_000_000;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Compares <code>AIP040Encoder</code> against
+     * <code>AIP040BufferEncoder</code> writing into one reused buffer, for
+     * calls to <code>aip040TakeOwnership</code> with 10 token identifiers.
+     * Allocation is measured with the per-thread counter of HotSpot. The
+     * first round warms up the JIT and is not reported.
+     */
+    @Test
+    public void benchmarkEncoders() {
+        BenchmarkReport encoderReport = new BenchmarkReport(
+            "NFTokenEncoderBenchmark",
+            "encoder",
+            "calls",
+            "nanoseconds",
+            "callsPerSecond",
+            "bytesAllocatedPerCall"
+        );
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Address owner = Benchmarks.accounts(1)[0];
+        BigInteger[] tokenIds = Benchmarks.tokenIds(Long.BYTES, 10);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        long checksum = 0;
+
+        for (int round = 0; round <= ROUNDS; round++) {
+            long startBytes = threads.getThreadAllocatedBytes(threadId);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                checksum += AIP040Encoder.aip040TakeOwnership(owner, tokenIds).length;
+            }
+            long nanoseconds = System.nanoTime() - startTime;
+            long bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+            if (round > 0) {
+                encoderReport.addRow("AIP040Encoder", CALLS, nanoseconds, CALLS * 1_000_000_000L / nanoseconds, bytes / CALLS);
+            }
+
+            startBytes = threads.getThreadAllocatedBytes(threadId);
+            startTime = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                buffer.clear();
+                checksum += AIP040BufferEncoder.aip040TakeOwnership(buffer, owner, tokenIds).position();
+            }
+            nanoseconds = System.nanoTime() - startTime;
+            bytes = threads.getThreadAllocatedBytes(threadId) - startBytes;
+            if (round > 0) {
+                encoderReport.addRow("AIP040BufferEncoder", CALLS, nanoseconds, CALLS * 1_000_000_000L / nanoseconds, bytes / CALLS);
+            }
+        }
+        // Keeps the encoded calls alive
+        Assert.assertTrue(checksum != 0);
+        encoderReport.write();
+    }
+}
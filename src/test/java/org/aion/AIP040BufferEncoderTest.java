@@ -0,0 +1,188 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.userlib.abi.ABIException;
+import org.junit.*;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that every method of the buffer encoders writes the same bytes as the
+ * encoder it mirrors, for random arguments including nulls, negative and wide
+ * token identifiers and, where the default charset is UTF-8, strings which are
+ * not ASCII.
+ */
+public class AIP040BufferEncoderTest {
+
+    private static final long SEED = 14;
+    private static final int CALLS_PER_METHOD = 200;
+    // ABIStreamingEncoder encodes strings with the default charset, the buffer
+    // encoders always use UTF-8, like AVM
+    private static final boolean DEFAULT_CHARSET_IS_UTF_8 = Charset.defaultCharset().equals(StandardCharsets.UTF_8);
+
+    private Random random = new Random(SEED);
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    @Test
+    public void testAIP040BufferEncoderMatchesAIP040Encoder() throws Exception {
+        assertMatches(AIP040Encoder.class, AIP040BufferEncoder.class);
+    }
+
+    @Test
+    public void testNFTokenMockBufferEncoderMatchesNFTokenMockEncoder() throws Exception {
+        assertMatches(NFTokenMockEncoder.class, NFTokenMockBufferEncoder.class);
+    }
+
+    @Test
+    public void testMainBufferEncoderMatchesMainEncoder() throws Exception {
+        assertMatches(MainEncoder.class, MainBufferEncoder.class);
+    }
+
+    @Test
+    public void testBufferIsReusable() {
+        BigInteger[] tokenIds = {BigInteger.ONE, BigInteger.TEN};
+        for (int i = 0; i < 3; i++) {
+            buffer.clear();
+            AIP040BufferEncoder.aip040TokenOwners(buffer, tokenIds);
+            Assert.assertArrayEquals(AIP040Encoder.aip040TokenOwners(tokenIds), written());
+        }
+    }
+
+    @Test
+    public void testTokenIdWiderThan32BytesIsRejected() {
+        try {
+            AIP040BufferEncoder.aip040TokenOwner(buffer, BigInteger.ONE.shiftLeft(32 * Byte.SIZE - 1));
+        } catch (ABIException e) {
+            return;
+        }
+        Assert.fail(); // Expected exception
+    }
+
+    @Test
+    public void testFullBufferIsRejected() {
+        try {
+            AIP040BufferEncoder.aip040TokenOwners(ByteBuffer.allocate(10), new BigInteger[]{BigInteger.ONE, BigInteger.TEN});
+        } catch (BufferOverflowException e) {
+            return;
+        }
+        Assert.fail(); // Expected exception
+    }
+
+    /**
+     * Calls each public static method declared by <code>encoder</code> and its
+     * counterpart in <code>bufferEncoder</code> with the same arguments.
+     */
+    private void assertMatches(Class<?> encoder, Class<?> bufferEncoder) throws Exception {
+        for (Method method : encoder.getDeclaredMethods()) {
+            if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            Class<?>[] bufferParameterTypes = new Class<?>[parameterTypes.length + 1];
+            bufferParameterTypes[0] = ByteBuffer.class;
+            System.arraycopy(parameterTypes, 0, bufferParameterTypes, 1, parameterTypes.length);
+            Method bufferMethod = bufferEncoder.getDeclaredMethod(method.getName(), bufferParameterTypes);
+
+            for (int i = 0; i < CALLS_PER_METHOD; i++) {
+                Object[] arguments = new Object[parameterTypes.length];
+                for (int j = 0; j < arguments.length; j++) {
+                    arguments[j] = randomArgument(parameterTypes[j]);
+                }
+                Object[] bufferArguments = new Object[arguments.length + 1];
+                bufferArguments[0] = buffer;
+                System.arraycopy(arguments, 0, bufferArguments, 1, arguments.length);
+
+                buffer.clear();
+                // Leading bytes of an earlier call must be left alone
+                buffer.put((byte) i);
+                Assert.assertSame(buffer, bufferMethod.invoke(null, bufferArguments));
+                byte[] written = written();
+                Assert.assertEquals((byte) i, written[0]);
+                String message = method.getName() + Arrays.deepToString(arguments);
+                Assert.assertArrayEquals(message, (byte[]) method.invoke(null, arguments), Arrays.copyOfRange(written, 1, written.length));
+            }
+        }
+    }
+
+    private byte[] written() {
+        byte[] bytes = new byte[buffer.position()];
+        buffer.flip();
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private Object randomArgument(Class<?> type) {
+        if (type == boolean.class) {
+            return random.nextBoolean();
+        }
+        if (type == int.class) {
+            return random.nextInt();
+        }
+        if (type == long.class) {
+            return random.nextLong();
+        }
+        if (type == String.class) {
+            return random.nextInt(10) == 0 ? null : randomString();
+        }
+        if (type == Address.class) {
+            return random.nextInt(10) == 0 ? null : randomAddress();
+        }
+        if (type == BigInteger.class) {
+            return random.nextInt(10) == 0 ? null : randomBigInteger();
+        }
+        if (type == Address[].class) {
+            if (random.nextInt(10) == 0) {
+                return null;
+            }
+            Address[] addresses = new Address[random.nextInt(5)];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = random.nextInt(10) == 0 ? null : randomAddress();
+            }
+            return addresses;
+        }
+        if (type == BigInteger[].class) {
+            if (random.nextInt(10) == 0) {
+                return null;
+            }
+            BigInteger[] values = new BigInteger[random.nextInt(5)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(10) == 0 ? null : randomBigInteger();
+            }
+            return values;
+        }
+        throw new IllegalArgumentException("No random " + type);
+    }
+
+    private String randomString() {
+        StringBuilder string = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            // Mostly ASCII, sometimes two and three byte UTF-8
+            int kind = DEFAULT_CHARSET_IS_UTF_8 ? random.nextInt(8) : 2;
+            string.append(kind == 0 ? (char) (0x80 + random.nextInt(0x700)) : kind == 1 ? (char) (0x800 + random.nextInt(0x1000)) : (char) (0x20 + random.nextInt(0x5F)));
+        }
+        return string.toString();
+    }
+
+    private Address randomAddress() {
+        byte[] bytes = new byte[Address.LENGTH];
+        random.nextBytes(bytes);
+        return new Address(bytes);
+    }
+
+    /**
+     * @return a token identifier of 0 to 255 bits, either sign
+     */
+    private BigInteger randomBigInteger() {
+        BigInteger value = new BigInteger(random.nextInt(32 * Byte.SIZE), random);
+        return random.nextInt(4) == 0 ? value.negate() : value;
+    }
+}
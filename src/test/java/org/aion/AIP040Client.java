@@ -0,0 +1,318 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sends transfers and consignments of single tokens to an AIP-040 contract,
+ * many at once, instead of one transaction per token and a wait for each
+ * receipt.
+ *
+ * Intents with the same caller and owner, and the same consignee for a
+ * consignment, are coalesced into one <code>aip040TakeOwnership</code> or
+ * <code>aip040Consign</code> call of up to <code>maxTokensPerCall</code>
+ * tokens. A call is sent as soon as fewer than <code>maxInFlight</code>
+ * transactions await their receipt, so under light load each intent is sent
+ * on its own and under heavy load calls grow while the oldest are mined.
+ * Nonces are counted locally from the first nonce of each caller read from
+ * the transport.
+ *
+ * The intents of one caller are settled in the order they were queued where
+ * they share a token: an intent for a token which is already queued starts a
+ * new call after every queued call, and calls are sent in order, the oldest
+ * waiting while any of its tokens is in a call awaiting its receipt. Intents
+ * of different callers are not ordered, so wait for an intent before queuing
+ * one of another caller which depends on it.
+ *
+ * A call reverts as a whole, so the intents of a reverted call of many tokens
+ * are sent again, one token per call, ahead of the calls queued meanwhile.
+ *
+ * This class is thread safe. Receipts may arrive on any thread.
+ */
+public class AIP040Client {
+
+    /**
+     * Sends transactions to the contract, for example signed by a wallet and
+     * sent to a node.
+     */
+    public interface Transport {
+        /**
+         * @return the nonce of the next transaction of the account
+         */
+        BigInteger getNonce(Address sender);
+
+        /**
+         * Sends a transaction without waiting for it to be mined.
+         *
+         * @param sender   the caller of the contract
+         * @param nonce    the nonce of the transaction
+         * @param data     the ABI encoded call
+         * @param listener called once, on any thread, with the receipt
+         * @throws RuntimeException if the transaction is rejected
+         */
+        void send(Address sender, BigInteger nonce, byte[] data, ReceiptListener listener);
+    }
+
+    public interface ReceiptListener {
+        void onReceipt(boolean isSuccess);
+    }
+
+    /**
+     * One queued transfer or consignment of one token, which is settled by the
+     * receipt of the transaction which carried it.
+     */
+    public static final class Intent {
+        private final Address caller;
+        private final Address owner;
+        private final Address consignee;
+        private final boolean isTransfer;
+        private final BigInteger tokenId;
+        private final CountDownLatch settled = new CountDownLatch(1);
+        private volatile boolean isSuccess;
+        private volatile BigInteger nonce;
+
+        private Intent(Address caller, Address owner, Address consignee, boolean isTransfer, BigInteger tokenId) {
+            this.caller = caller;
+            this.owner = owner;
+            this.consignee = consignee;
+            this.isTransfer = isTransfer;
+            this.tokenId = tokenId;
+        }
+
+        public BigInteger getTokenId() {
+            return tokenId;
+        }
+
+        public boolean isSettled() {
+            return settled.getCount() == 0;
+        }
+
+        /**
+         * @return whether the intent is settled by a successful transaction
+         */
+        public boolean isSuccess() {
+            return isSettled() && isSuccess;
+        }
+
+        /**
+         * @return whether the transaction which carried the intent succeeded,
+         *         after waiting for its receipt
+         */
+        public boolean await() throws InterruptedException {
+            settled.await();
+            return isSuccess;
+        }
+
+        /**
+         * @return the nonce of the last transaction which carried the intent,
+         *         or null if none was sent yet
+         */
+        public BigInteger getNonce() {
+            return nonce;
+        }
+    }
+
+    /**
+     * The intents of one call.
+     */
+    private static final class Call {
+        private final List<Object> key;
+        private final List<Intent> intents = new ArrayList<>();
+
+        private Call(List<Object> key) {
+            this.key = key;
+        }
+    }
+
+    private final Transport transport;
+    private final int maxTokensPerCall;
+    private final int maxInFlight;
+
+    // Guarded by this
+    private final Deque<Call> queuedCalls = new ArrayDeque<>();
+    // The calls which later intents may join, by caller, owner and consignee
+    private final Map<List<Object>, Call> openCalls = new HashMap<>();
+    // The tokens of the open calls, and maybe some of calls closed since
+    private final Set<BigInteger> openTokens = new HashSet<>();
+    private final Map<Address, BigInteger> nonces = new HashMap<>();
+    // The tokens of the calls awaiting their receipt
+    private final Set<BigInteger> inFlightTokens = new HashSet<>();
+    private int inFlight;
+    private int unsettledCount;
+    private long transactionCount;
+
+    /**
+     * @param transport        sends the transactions
+     * @param maxTokensPerCall the most tokens coalesced into one call
+     * @param maxInFlight      the most transactions awaiting their receipt
+     */
+    public AIP040Client(Transport transport, int maxTokensPerCall, int maxInFlight) {
+        if (maxTokensPerCall < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("maxTokensPerCall and maxInFlight must be positive");
+        }
+        this.transport = transport;
+        this.maxTokensPerCall = maxTokensPerCall;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Queues <code>aip040TakeOwnership</code> of one token by the caller.
+     *
+     * @param caller       the account which takes the token
+     * @param currentOwner the owner of the token when the call is mined
+     */
+    public synchronized Intent transfer(Address caller, Address currentOwner, BigInteger tokenId) {
+        return queue(new Intent(caller, currentOwner, null, true, tokenId));
+    }
+
+    /**
+     * Queues <code>aip040Consign</code> of one token by the caller.
+     *
+     * @param caller    the owner of the token, or an account it authorizes
+     * @param owner     the owner of the token when the call is mined
+     * @param consignee the account to consign to, or null to revoke
+     */
+    public synchronized Intent consign(Address caller, Address owner, Address consignee, BigInteger tokenId) {
+        return queue(new Intent(caller, owner, consignee, false, tokenId));
+    }
+
+    /**
+     * Waits until every queued intent is settled.
+     */
+    public synchronized void drain() throws InterruptedException {
+        while (unsettledCount > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the number of queued intents which are not settled yet
+     */
+    public synchronized int getUnsettledCount() {
+        return unsettledCount;
+    }
+
+    /**
+     * @return the number of transactions sent
+     */
+    public synchronized long getTransactionCount() {
+        return transactionCount;
+    }
+
+    private Intent queue(Intent intent) {
+        if (intent.caller == null || intent.owner == null || intent.tokenId == null) {
+            throw new NullPointerException();
+        }
+        unsettledCount++;
+        if (!openTokens.add(intent.tokenId)) {
+            // Settle after the queued intents for this token
+            openCalls.clear();
+            openTokens.clear();
+            openTokens.add(intent.tokenId);
+        }
+        List<Object> key = Arrays.asList(intent.isTransfer, intent.caller, intent.owner, intent.consignee);
+        Call call = openCalls.get(key);
+        if (call == null) {
+            call = new Call(key);
+            openCalls.put(key, call);
+            queuedCalls.add(call);
+        }
+        call.intents.add(intent);
+        if (call.intents.size() == maxTokensPerCall) {
+            openCalls.remove(key);
+        }
+        sendReady();
+        return intent;
+    }
+
+    /**
+     * Sends the oldest queued calls while fewer than
+     * <code>maxInFlight</code> are in flight, and none of the tokens of the
+     * oldest is, without waiting.
+     */
+    private void sendReady() {
+        while (inFlight < maxInFlight && !queuedCalls.isEmpty() && !isInFlight(queuedCalls.peek())) {
+            Call call = queuedCalls.poll();
+            if (openCalls.get(call.key) == call) {
+                openCalls.remove(call.key);
+            }
+            if (openCalls.isEmpty()) {
+                openTokens.clear();
+            }
+            send(call);
+        }
+    }
+
+    private boolean isInFlight(Call call) {
+        for (Intent intent : call.intents) {
+            if (inFlightTokens.contains(intent.tokenId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void send(Call call) {
+        Intent first = call.intents.get(0);
+        BigInteger[] tokenIds = new BigInteger[call.intents.size()];
+        for (int i = 0; i < tokenIds.length; i++) {
+            tokenIds[i] = call.intents.get(i).tokenId;
+        }
+        byte[] data = first.isTransfer
+            ? AIP040Encoder.aip040TakeOwnership(first.owner, tokenIds)
+            : AIP040Encoder.aip040Consign(first.owner, first.consignee, tokenIds);
+        BigInteger nonce = nonces.computeIfAbsent(first.caller, transport::getNonce);
+        nonces.put(first.caller, nonce.add(BigInteger.ONE));
+        for (Intent intent : call.intents) {
+            intent.nonce = nonce;
+        }
+        inFlight++;
+        for (Intent intent : call.intents) {
+            inFlightTokens.add(intent.tokenId);
+        }
+        transactionCount++;
+        try {
+            transport.send(first.caller, nonce, data, isSuccess -> settle(call, isSuccess));
+        } catch (RuntimeException e) {
+            // Read the nonce again, the transport may know better
+            nonces.remove(first.caller);
+            settle(call, false);
+        }
+    }
+
+    private synchronized void settle(Call call, boolean isSuccess) {
+        inFlight--;
+        for (Intent intent : call.intents) {
+            inFlightTokens.remove(intent.tokenId);
+        }
+        if (!isSuccess && call.intents.size() > 1) {
+            // Later intents for these tokens go after the retries
+            openCalls.clear();
+            openTokens.clear();
+            for (int i = call.intents.size() - 1; i >= 0; i--) {
+                Call retry = new Call(null);
+                retry.intents.add(call.intents.get(i));
+                queuedCalls.addFirst(retry);
+            }
+        } else {
+            for (Intent intent : call.intents) {
+                intent.isSuccess = isSuccess;
+                intent.settled.countDown();
+            }
+            unsettledCount -= call.intents.size();
+            notifyAll();
+        }
+        sendReady();
+    }
+}
@@ -0,0 +1,103 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how many intents <code>AIP040Client</code> settles per second
+ * against <code>InMemoryNode</code>. Results are written by
+ * <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040ClientBenchmark {
+
+    private static final long BLOCK_MILLIS = 10;
+    private static final int OWNERS = 100;
+    private static final int TOKENS_PER_OWNER = 200;
+    private static final int NAIVE_INTENTS = 300;
+    private static final int MAX_TOKENS_PER_CALL = 64;
+    private static final int MAX_IN_FLIGHT = 16;
+
+    /**
+     * Sends intents of a transfer service, which takes or consigns tokens of
+     * many owners who authorize it, through <code>AIP040Client</code> to an
+     * <code>InMemoryNode</code> which mines a block every
+     * <code>BLOCK_MILLIS</code>. The naive path is one call per action,
+     * waiting for each receipt; pipelining is then measured without and with
+     * coalescing.
+     */
+    @Test
+    public void benchmarkClient() throws InterruptedException {
+        BenchmarkReport clientReport = new BenchmarkReport(
+            "AIP040ClientBenchmark",
+            "mode",
+            "maxTokensPerCall",
+            "maxInFlight",
+            "intents",
+            "transactions",
+            "blocks",
+            "intentsPerSecond"
+        );
+        int tokens = OWNERS * TOKENS_PER_OWNER;
+        runClient(clientReport, "oneCallPerAction", 1, 1, NAIVE_INTENTS, true);
+        runClient(clientReport, "pipelined", 1, MAX_IN_FLIGHT, tokens / 10, false);
+        runClient(clientReport, "pipelinedAndCoalesced", MAX_TOKENS_PER_CALL, MAX_IN_FLIGHT, tokens, false);
+        clientReport.write();
+    }
+
+    /**
+     * Mints the tokens to the owners on a new backend, then sends one intent
+     * for each of the first tokens, in random order.
+     */
+    private static void runClient(BenchmarkReport clientReport, String mode, int maxTokensPerCall, int maxInFlight, int intents, boolean isWaitingForEach) throws InterruptedException {
+        InMemoryBackend backend = InMemoryBackend.install();
+        Address[] accounts = Benchmarks.accounts(OWNERS + 1);
+        Address service = accounts[OWNERS];
+        Address[] owners = new Address[OWNERS];
+        for (int i = 0; i < owners.length; i++) {
+            Address owner = accounts[i];
+            BigInteger[] tokenIds = new BigInteger[TOKENS_PER_OWNER];
+            for (int j = 0; j < tokenIds.length; j++) {
+                tokenIds[j] = BigInteger.valueOf(j * OWNERS + i);
+            }
+            Assert.assertTrue(backend.run(null, () -> NFTokenMock.mint(owner, tokenIds)).isSuccess);
+            Assert.assertTrue(backend.run(owner, () -> NFToken.aip040Authorize(service)).isSuccess);
+            owners[i] = owner;
+        }
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < intents; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(intents));
+
+        InMemoryNode node = new InMemoryNode(backend);
+        AIP040Client client = new AIP040Client(node, maxTokensPerCall, maxInFlight);
+        int logCount = backend.getLogs().size();
+        node.start(BLOCK_MILLIS);
+        long startTime = System.nanoTime();
+        for (int token : order) {
+            Address owner = owners[token % OWNERS];
+            BigInteger tokenId = BigInteger.valueOf(token);
+            AIP040Client.Intent intent = token % 2 == 0
+                ? client.transfer(service, owner, tokenId)
+                : client.consign(service, owner, service, tokenId);
+            if (isWaitingForEach) {
+                Assert.assertTrue(intent.await());
+            }
+        }
+        client.drain();
+        long nanoseconds = System.nanoTime() - startTime;
+        node.close();
+        Assert.assertEquals(intents, backend.getLogs().size() - logCount);
+        clientReport.addRow(mode, maxTokensPerCall, maxInFlight, intents, client.getTransactionCount(), node.getBlockCount(), intents * 1_000_000_000L / nanoseconds);
+    }
+}
@@ -0,0 +1,163 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Sends intents through <code>AIP040Client</code> to an
+ * <code>InMemoryNode</code> and checks the contract against the same intents
+ * applied one call per action.
+ */
+public class AIP040ClientTest {
+
+    private static final int OWNERS = 4;
+    private static final int SERVICES = 2;
+    private static final int TOKENS = 200;
+    private static final int INTENTS = 3_000;
+    private static final int MAX_TOKENS_PER_CALL = 16;
+    private static final int MAX_IN_FLIGHT = 4;
+
+    private InMemoryBackend backend;
+    private InMemoryNode node;
+    private Address[] owners = new Address[OWNERS];
+    private Address[] services = new Address[SERVICES];
+    private Address[] tokenOwners = new Address[TOKENS];
+    private Address[] tokenConsignees = new Address[TOKENS];
+
+    @Before
+    public void mintTokens() {
+        backend = InMemoryBackend.install();
+        node = new InMemoryNode(backend);
+        for (int i = 0; i < OWNERS; i++) {
+            owners[i] = account(i);
+        }
+        for (int i = 0; i < SERVICES; i++) {
+            services[i] = account(OWNERS + i);
+        }
+        for (int i = 0; i < TOKENS; i++) {
+            Address owner = owners[i % OWNERS];
+            BigInteger[] tokenIds = new BigInteger[]{BigInteger.valueOf(i)};
+            Assert.assertTrue(backend.run(null, () -> NFTokenMock.mint(owner, tokenIds)).isSuccess);
+            tokenOwners[i] = owner;
+        }
+        for (Address owner : owners) {
+            for (Address service : services) {
+                Assert.assertTrue(backend.run(owner, () -> NFToken.aip040Authorize(service)).isSuccess);
+            }
+        }
+    }
+
+    @After
+    public void closeNode() throws InterruptedException {
+        node.close();
+    }
+
+    @Test
+    public void testClientMatchesModel() throws InterruptedException {
+        AIP040Client client = new AIP040Client(node, MAX_TOKENS_PER_CALL, MAX_IN_FLIGHT);
+        node.start(1);
+        Random random = new Random(24);
+        List<AIP040Client.Intent> intents = new ArrayList<>();
+        for (int i = 0; i < INTENTS; i++) {
+            int token = random.nextInt(TOKENS);
+            BigInteger tokenId = BigInteger.valueOf(token);
+            // Each token has one service, so its intents share a caller
+            Address service = services[token % SERVICES];
+            if (random.nextBoolean()) {
+                intents.add(client.transfer(service, tokenOwners[token], tokenId));
+                tokenOwners[token] = service;
+                tokenConsignees[token] = null;
+            } else {
+                Address consignee = random.nextInt(4) == 0 ? null : owners[random.nextInt(OWNERS)];
+                intents.add(client.consign(service, tokenOwners[token], consignee, tokenId));
+                tokenConsignees[token] = consignee;
+            }
+        }
+        client.drain();
+        node.close();
+
+        for (AIP040Client.Intent intent : intents) {
+            Assert.assertTrue(intent.isSettled());
+            Assert.assertTrue(intent.await());
+        }
+        Assert.assertTrue(client.getTransactionCount() < INTENTS / 2);
+        Assert.assertEquals(client.getTransactionCount(), node.getTransactionCount());
+        for (int i = 0; i < TOKENS; i++) {
+            BigInteger tokenId = BigInteger.valueOf(i);
+            Assert.assertEquals(tokenOwners[i], backend.call(null, () -> NFToken.aip040TokenOwner(tokenId)).value);
+            Assert.assertEquals(tokenConsignees[i], backend.call(null, () -> NFToken.aip040TokenConsignee(tokenId)).value);
+        }
+    }
+
+    @Test
+    public void testRevertedCallRetriedSingly() {
+        AIP040Client client = new AIP040Client(node, MAX_TOKENS_PER_CALL, 1);
+        Address service = services[0];
+        // Sent at once, the next four wait for it and are coalesced
+        AIP040Client.Intent first = client.transfer(service, owners[0], BigInteger.valueOf(0));
+        AIP040Client.Intent second = client.transfer(service, owners[0], BigInteger.valueOf(OWNERS));
+        AIP040Client.Intent notOwned = client.transfer(service, owners[0], BigInteger.valueOf(1));
+        AIP040Client.Intent third = client.transfer(service, owners[0], BigInteger.valueOf(2 * OWNERS));
+        AIP040Client.Intent fourth = client.transfer(service, owners[0], BigInteger.valueOf(3 * OWNERS));
+        Assert.assertEquals(1, node.mineBlock());
+        Assert.assertTrue(first.isSettled());
+        Assert.assertEquals(BigInteger.ONE, second.getNonce());
+        Assert.assertEquals(BigInteger.ONE, fourth.getNonce());
+        for (int i = 0; i < 10 && client.getUnsettledCount() > 0; i++) {
+            node.mineBlock();
+        }
+        Assert.assertEquals(0, client.getUnsettledCount());
+        Assert.assertEquals(6, client.getTransactionCount());
+        Assert.assertEquals(BigInteger.valueOf(5), fourth.getNonce());
+
+        Assert.assertFalse(notOwned.isSuccess());
+        for (AIP040Client.Intent intent : new AIP040Client.Intent[]{first, second, third, fourth}) {
+            Assert.assertTrue(intent.isSuccess());
+            Assert.assertEquals(service, backend.call(null, () -> NFToken.aip040TokenOwner(intent.getTokenId())).value);
+        }
+        Assert.assertEquals(owners[1], backend.call(null, () -> NFToken.aip040TokenOwner(BigInteger.ONE)).value);
+    }
+
+    @Test
+    public void testRetryKeepsTokenOrder() {
+        AIP040Client client = new AIP040Client(node, MAX_TOKENS_PER_CALL, 2);
+        Address service = services[0];
+        Address firstConsignee = owners[2];
+        Address secondConsignee = owners[3];
+        // Sent at once, the next four wait for them and are coalesced
+        client.consign(service, owners[0], firstConsignee, BigInteger.valueOf(4 * OWNERS));
+        client.consign(service, owners[0], firstConsignee, BigInteger.valueOf(5 * OWNERS));
+        AIP040Client.Intent first = client.consign(service, owners[0], firstConsignee, BigInteger.valueOf(0));
+        AIP040Client.Intent second = client.consign(service, owners[0], firstConsignee, BigInteger.valueOf(OWNERS));
+        AIP040Client.Intent notOwned = client.consign(service, owners[0], firstConsignee, BigInteger.valueOf(1));
+        AIP040Client.Intent third = client.consign(service, owners[0], firstConsignee, BigInteger.valueOf(2 * OWNERS));
+        // Queued while the first is, then held while the first is in flight
+        AIP040Client.Intent again = client.consign(service, owners[0], secondConsignee, BigInteger.valueOf(0));
+        Assert.assertEquals(2, node.mineBlock());
+        Assert.assertNull(again.getNonce());
+        for (int i = 0; i < 10 && client.getUnsettledCount() > 0; i++) {
+            node.mineBlock();
+        }
+        Assert.assertEquals(0, client.getUnsettledCount());
+
+        Assert.assertFalse(notOwned.isSuccess());
+        for (AIP040Client.Intent intent : new AIP040Client.Intent[]{first, second, third, again}) {
+            Assert.assertTrue(intent.isSuccess());
+        }
+        Assert.assertTrue(again.getNonce().compareTo(first.getNonce()) > 0);
+        Assert.assertEquals(secondConsignee, backend.call(null, () -> NFToken.aip040TokenConsignee(BigInteger.ZERO)).value);
+        Assert.assertEquals(firstConsignee, backend.call(null, () -> NFToken.aip040TokenConsignee(second.getTokenId())).value);
+    }
+
+    private static Address account(int i) {
+        byte[] address = new byte[Address.LENGTH];
+        address[0] = (byte) 0xa0;
+        address[Address.LENGTH - 1] = (byte) i;
+        return new Address(address);
+    }
+}
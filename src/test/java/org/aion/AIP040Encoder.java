@@ -54,6 +54,27 @@ public class AIP040Encoder {
         .toBytes();
     }
 
+    public static byte[] aip040TokenOwners(BigInteger[] tokenIds) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("aip040TokenOwners")
+        .encodeOneBigIntegerArray(tokenIds)
+        .toBytes();
+    }
+
+    public static byte[] aip040TokenConsignees(BigInteger[] tokenIds) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("aip040TokenConsignees")
+        .encodeOneBigIntegerArray(tokenIds)
+        .toBytes();
+    }
+
+    public static byte[] aip040TokenUris(BigInteger[] tokenIds) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("aip040TokenUris")
+        .encodeOneBigIntegerArray(tokenIds)
+        .toBytes();
+    }
+
     public static byte[] aip040OwnerBalance(Address owner) {
         return new ABIStreamingEncoder()
         .encodeOneString("aip040OwnerBalance")
@@ -84,6 +105,23 @@ public class AIP040Encoder {
         .toBytes();
     }
 
+    public static byte[] aip040TokensAtIndexRange(BigInteger startIndex, int count) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("aip040TokensAtIndexRange")
+        .encodeOneBigInteger(startIndex)
+        .encodeOneInteger(count)
+        .toBytes();
+    }
+
+    public static byte[] aip040TokensForOwnerAtIndexRange(Address owner, BigInteger startIndex, int count) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("aip040TokensForOwnerAtIndexRange")
+        .encodeOneAddress(owner)
+        .encodeOneBigInteger(startIndex)
+        .encodeOneInteger(count)
+        .toBytes();
+    }
+
     public static byte[] aip040TakeOwnership(Address currentOwner, BigInteger[] tokenIds) {
         return new ABIStreamingEncoder()
         .encodeOneString("aip040TakeOwnership")
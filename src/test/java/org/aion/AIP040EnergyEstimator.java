@@ -0,0 +1,282 @@
+package org.aion;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts the energy of a call of the contract from its arguments, without
+ * running it, so that a batch can be split to fit an energy limit before it is
+ * sent.
+ *
+ * The energy of each callable is modelled as linear in:
+ *
+ * <pre>
+ * 1, tokens, token id bytes, balancesChange, balancesChange * tokens
+ * </pre>
+ *
+ * where token id bytes are the lengths of the identifiers as encoded by the
+ * ABI, which reach both the transaction data and the storage keys, and
+ * <code>balancesChange</code> is whether the call moves tokens between owner
+ * arrays: true for a mint, a burn and a take of another account's tokens,
+ * false for a take by the owner, a consignment and a query.
+ *
+ * Calibrate it with <code>addSample</code>, from calls measured on
+ * <code>AvmRule</code>, then <code>calibrate</code>. Coefficients are fitted
+ * for each callable by least squares of the relative error; a feature which
+ * does not vary independently in the samples of a callable is left out of its
+ * model.
+ */
+public class AIP040EnergyEstimator {
+
+    private static final int FEATURE_COUNT = 5;
+    // Relative size of a pivot under which its feature is left out
+    private static final double SINGULAR_PIVOT = 1e-9;
+
+    private static final class Model {
+        private final List<double[]> features = new ArrayList<>();
+        private final List<Long> energyUsed = new ArrayList<>();
+        private double[] coefficients;
+        private double safetyFactor = 1;
+    }
+
+    private final Map<String, Model> models = new HashMap<>();
+
+    /**
+     * Adds one measured call.
+     *
+     * @param callable       the name of the <code>Main</code> callable
+     * @param tokenIds       the token identifiers passed, or null if none
+     * @param balancesChange whether the call moves tokens between owners
+     * @param energyUsed     the energy used by the call
+     */
+    public void addSample(String callable, BigInteger[] tokenIds, boolean balancesChange, long energyUsed) {
+        Model model = models.computeIfAbsent(callable, key -> new Model());
+        model.features.add(features(tokenIds, balancesChange));
+        model.energyUsed.add(energyUsed);
+        model.coefficients = null;
+    }
+
+    /**
+     * Fits the model of every callable to its samples, and the factor by
+     * which each model underestimates its worst sample.
+     */
+    public void calibrate() {
+        for (Model model : models.values()) {
+            double[][] normal = new double[FEATURE_COUNT][FEATURE_COUNT + 1];
+            for (int sample = 0; sample < model.features.size(); sample++) {
+                double[] x = model.features.get(sample);
+                double energyUsed = model.energyUsed.get(sample);
+                // Weighted by relative error, so that large calls do not
+                // swamp small ones
+                double weight = 1 / Math.max(1, energyUsed * energyUsed);
+                for (int i = 0; i < FEATURE_COUNT; i++) {
+                    for (int j = 0; j < FEATURE_COUNT; j++) {
+                        normal[i][j] += weight * x[i] * x[j];
+                    }
+                    normal[i][FEATURE_COUNT] += weight * x[i] * energyUsed;
+                }
+            }
+            model.coefficients = solve(normal);
+            model.safetyFactor = 1;
+            for (int sample = 0; sample < model.features.size(); sample++) {
+                double predicted = dot(model.coefficients, model.features.get(sample));
+                if (predicted > 0) {
+                    model.safetyFactor = Math.max(model.safetyFactor, model.energyUsed.get(sample) / predicted);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param  callable       the name of the <code>Main</code> callable
+     * @param  tokenIds       the token identifiers to pass, or null if none
+     * @param  balancesChange whether the call moves tokens between owners
+     * @return                the predicted energy of the call
+     * @throws IllegalStateException if the callable is not calibrated
+     */
+    public long estimate(String callable, BigInteger[] tokenIds, boolean balancesChange) {
+        return (long) Math.ceil(dot(model(callable).coefficients, features(tokenIds, balancesChange)));
+    }
+
+    /**
+     * @return the coefficients of the features of a callable, in the order
+     *         of the class comment
+     * @throws IllegalStateException if the callable is not calibrated
+     */
+    public double[] getCoefficients(String callable) {
+        return model(callable).coefficients.clone();
+    }
+
+    /**
+     * @return the largest ratio of measured to predicted energy in the
+     *         samples of a callable, at least 1
+     * @throws IllegalStateException if the callable is not calibrated
+     */
+    public double getSafetyFactor(String callable) {
+        return model(callable).safetyFactor;
+    }
+
+    /**
+     * Splits a batch into few calls which each fit an energy limit, with the
+     * prediction scaled up by the safety factor of the callable. The number of
+     * calls is an approximation, not always the fewest.
+     *
+     * The number of calls starts from the lower bound of the total energy of
+     * the tokens over the room in one call, and grows until a first-fit
+     * decreasing packing fits. Bin packing is NP-hard, and first-fit
+     * decreasing takes at most 11/9 of the fewest calls plus 6/9 (Dosa,
+     * 2007). It is the fewest where it meets the lower bound, which is common
+     * when the tokens are small against the room in a call, but not
+     * guaranteed. Tokens keep their order within each call.
+     *
+     * @param  energyLimit the energy limit of each call
+     * @return             the token identifiers of each call, one call if the
+     *                     whole batch fits, otherwise as many calls as
+     *                     first-fit decreasing takes
+     * @throws IllegalArgumentException if a call of one token does not fit
+     * @throws IllegalStateException if the callable is not calibrated
+     */
+    public List<BigInteger[]> split(String callable, BigInteger[] tokenIds, boolean balancesChange, long energyLimit) {
+        Model model = model(callable);
+        double[] c = model.coefficients;
+        double room = energyLimit / model.safetyFactor - c[0] - (balancesChange ? c[3] : 0);
+        if (room <= 0) {
+            throw new IllegalArgumentException("A call does not fit in " + energyLimit);
+        }
+        double[] costs = new double[tokenIds.length];
+        double totalCost = 0;
+        for (int i = 0; i < tokenIds.length; i++) {
+            costs[i] = Math.max(0, c[1] + c[2] * tokenIds[i].toByteArray().length + (balancesChange ? c[4] : 0));
+            if (costs[i] > room) {
+                throw new IllegalArgumentException("A call of one token does not fit in " + energyLimit);
+            }
+            totalCost += costs[i];
+        }
+        if (totalCost <= room) {
+            return Collections.singletonList(tokenIds);
+        }
+
+        Integer[] order = new Integer[tokenIds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer i) -> costs[i]).reversed());
+        for (int callCount = (int) Math.ceil(totalCost / room); ; callCount++) {
+            int[] calls = pack(costs, order, room, callCount);
+            if (calls != null) {
+                List<List<BigInteger>> split = new ArrayList<>();
+                for (int i = 0; i < callCount; i++) {
+                    split.add(new ArrayList<>());
+                }
+                for (int i = 0; i < tokenIds.length; i++) {
+                    split.get(calls[i]).add(tokenIds[i]);
+                }
+                List<BigInteger[]> result = new ArrayList<>();
+                for (List<BigInteger> call : split) {
+                    if (!call.isEmpty()) {
+                        result.add(call.toArray(new BigInteger[0]));
+                    }
+                }
+                return result;
+            }
+        }
+    }
+
+    /**
+     * @return the call of each token, or null if first-fit decreasing does
+     *         not fit every token into the calls
+     */
+    private static int[] pack(double[] costs, Integer[] order, double room, int callCount) {
+        double[] used = new double[callCount];
+        int[] calls = new int[costs.length];
+        for (int i : order) {
+            int call = 0;
+            while (call < callCount && used[call] + costs[i] > room) {
+                call++;
+            }
+            if (call == callCount) {
+                return null;
+            }
+            used[call] += costs[i];
+            calls[i] = call;
+        }
+        return calls;
+    }
+
+    private Model model(String callable) {
+        Model model = models.get(callable);
+        if (model == null || model.coefficients == null) {
+            throw new IllegalStateException("Not calibrated: " + callable);
+        }
+        return model;
+    }
+
+    private static double[] features(BigInteger[] tokenIds, boolean balancesChange) {
+        int tokens = tokenIds == null ? 0 : tokenIds.length;
+        long idBytes = 0;
+        for (int i = 0; i < tokens; i++) {
+            idBytes += tokenIds[i].toByteArray().length;
+        }
+        double change = balancesChange ? 1 : 0;
+        return new double[]{1, tokens, idBytes, change, change * tokens};
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Solves the augmented normal equations by Gauss-Jordan elimination with
+     * partial pivoting, leaving out features with a negligible pivot.
+     */
+    private static double[] solve(double[][] augmented) {
+        int n = augmented.length;
+        double[] scale = new double[n];
+        for (int i = 0; i < n; i++) {
+            scale[i] = augmented[i][i];
+        }
+        // The row of the pivot of each column, or -1 if it is left out
+        int[] pivotRows = new int[n];
+        int pivotRow = 0;
+        for (int column = 0; column < n; column++) {
+            int pivot = pivotRow;
+            for (int row = pivotRow + 1; row < n; row++) {
+                if (Math.abs(augmented[row][column]) > Math.abs(augmented[pivot][column])) {
+                    pivot = row;
+                }
+            }
+            if (pivotRow == n || Math.abs(augmented[pivot][column]) <= SINGULAR_PIVOT * scale[column]) {
+                pivotRows[column] = -1;
+                continue;
+            }
+            double[] swap = augmented[pivot];
+            augmented[pivot] = augmented[pivotRow];
+            augmented[pivotRow] = swap;
+            for (int row = 0; row < n; row++) {
+                if (row != pivotRow) {
+                    double factor = augmented[row][column] / augmented[pivotRow][column];
+                    for (int k = column; k <= n; k++) {
+                        augmented[row][k] -= factor * augmented[pivotRow][k];
+                    }
+                }
+            }
+            pivotRows[column] = pivotRow++;
+        }
+        double[] solution = new double[n];
+        for (int column = 0; column < n; column++) {
+            int row = pivotRows[column];
+            solution[column] = row < 0 ? 0 : augmented[row][n] / augmented[row][column];
+        }
+        return solution;
+    }
+}
@@ -0,0 +1,157 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.List;
+
+/**
+ * Calibrates <code>AIP040EnergyEstimator</code> on <code>AvmRule</code> and
+ * validates its predictions and splits. Results are written by
+ * <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040EnergyEstimatorBenchmark {
+
+    private static final int[] BATCH_SIZES = {1, 10, 100, 500};
+    private static final int[] TOKEN_ID_WIDTHS = {2, 8, 16, 32};
+    // Held out of calibration, to validate the energy model
+    private static final int[] VALIDATION_BATCH_SIZES = {5, 50, 250, 400};
+    private static final int[] VALIDATION_TOKEN_ID_WIDTHS = {4, 12, 24};
+    private static final long ENERGY_LIMIT = 1_000_000_000L;
+    private static final long ENERGY_PRICE = 1L;
+    private static final long TRANSACTION_ENERGY_LIMIT = 2_000_000L;
+    private static final int SPLIT_BATCH_SIZE = 400;
+
+    @Rule
+    public AvmRule avmRule = new AvmRule(false);
+
+    private Address deployer = avmRule.getPreminedAccount();
+    private BigInteger balance = BigInteger.valueOf(1_000_000_000_000_000_000L).multiply(BigInteger.TEN);
+    private byte[] contractData;
+
+    private interface EnergySample {
+        void accept(String callable, BigInteger[] tokenIds, boolean balancesChange, long energyUsed);
+    }
+
+    @Before
+    public void buildDapp() {
+        contractData = DappFixture.contractData(avmRule);
+    }
+
+    /**
+     * Calibrates <code>AIP040EnergyEstimator</code> from calls of every batch
+     * size and identifier width on <code>AvmRule</code>, then reports its
+     * coefficients and predicted against actual energy for batch sizes and
+     * widths held out of calibration. Last, a take of at least
+     * <code>SPLIT_BATCH_SIZE</code> tokens, enough for three calls, is split
+     * to fit <code>TRANSACTION_ENERGY_LIMIT</code> and each call is run.
+     *
+     * This is skipped, before any report is started, where
+     * <code>AvmRule</code> does not meter energy, as every sample would be
+     * zero and nothing would be split. A sample of zero energy fails it.
+     */
+    @Test
+    public void benchmarkEnergyEstimator() {
+        Address contractAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData, ENERGY_LIMIT, ENERGY_PRICE).getDappAddress();
+        long mintEnergy = callAndCheck(contractAddress, deployer, NFTokenMockEncoder.mint(deployer, Benchmarks.tokenIds(Long.BYTES, 1)));
+        Assume.assumeTrue("AvmRule does not meter energy", mintEnergy > 0);
+
+        BenchmarkReport modelReport = new BenchmarkReport(
+            "AIP040EnergyModel",
+            "callable",
+            "intercept",
+            "perToken",
+            "perTokenIdByte",
+            "balancesChange",
+            "perMovedToken",
+            "safetyFactor"
+        );
+        BenchmarkReport validationReport = new BenchmarkReport(
+            "AIP040EnergyValidation",
+            "callable",
+            "tokenIdWidthBytes",
+            "batchSize",
+            "balancesChange",
+            "predictedEnergy",
+            "actualEnergy",
+            "errorPercent"
+        );
+
+        AIP040EnergyEstimator estimator = new AIP040EnergyEstimator();
+        for (int tokenIdWidth : TOKEN_ID_WIDTHS) {
+            for (int batchSize : BATCH_SIZES) {
+                measureEnergyScenario(tokenIdWidth, batchSize, (callable, tokenIds, balancesChange, energyUsed) -> estimator.addSample(callable, tokenIds, balancesChange, energyUsed));
+            }
+        }
+        estimator.calibrate();
+        for (String callable : new String[]{"mint", "aip040Consign", "aip040TakeOwnership", "aip040TokenOwners", "burn"}) {
+            double[] coefficients = estimator.getCoefficients(callable);
+            modelReport.addRow(callable, coefficients[0], coefficients[1], coefficients[2], coefficients[3], coefficients[4], estimator.getSafetyFactor(callable));
+        }
+        modelReport.write();
+
+        for (int tokenIdWidth : VALIDATION_TOKEN_ID_WIDTHS) {
+            for (int batchSize : VALIDATION_BATCH_SIZES) {
+                measureEnergyScenario(tokenIdWidth, batchSize, (callable, tokenIds, balancesChange, energyUsed) -> {
+                    Assert.assertTrue(callable + " used no energy", energyUsed > 0);
+                    long predicted = estimator.estimate(callable, tokenIds, balancesChange);
+                    validationReport.addRow(callable, tokenIdWidth, batchSize, balancesChange, predicted, energyUsed, String.format("%.2f", 100.0 * (predicted - energyUsed) / energyUsed));
+                });
+            }
+        }
+
+        // Predicted to need at least three calls
+        Assert.assertTrue(estimator.estimate("aip040TakeOwnership", Benchmarks.tokenIds(Long.BYTES, 2), true) > estimator.estimate("aip040TakeOwnership", Benchmarks.tokenIds(Long.BYTES, 1), true));
+        int splitBatchSize = SPLIT_BATCH_SIZE;
+        while (estimator.estimate("aip040TakeOwnership", Benchmarks.tokenIds(Long.BYTES, splitBatchSize), true) * estimator.getSafetyFactor("aip040TakeOwnership") <= 2 * TRANSACTION_ENERGY_LIMIT) {
+            splitBatchSize *= 2;
+        }
+        contractAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData, ENERGY_LIMIT, ENERGY_PRICE).getDappAddress();
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address tokenConsignee = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIds = Benchmarks.tokenIds(Long.BYTES, splitBatchSize);
+        callAndCheck(contractAddress, deployer, NFTokenMockEncoder.mint(tokenOwner, tokenIds));
+        callAndCheck(contractAddress, tokenOwner, AIP040Encoder.aip040Authorize(tokenConsignee));
+        List<BigInteger[]> calls = estimator.split("aip040TakeOwnership", tokenIds, true, TRANSACTION_ENERGY_LIMIT);
+        Assert.assertTrue(calls.size() >= 3);
+        for (BigInteger[] call : calls) {
+            long energyUsed = callAndCheck(contractAddress, tokenConsignee, AIP040Encoder.aip040TakeOwnership(tokenOwner, call));
+            Assert.assertTrue(energyUsed > 0 && energyUsed <= TRANSACTION_ENERGY_LIMIT);
+            validationReport.addRow("aip040TakeOwnership split in " + calls.size(), Long.BYTES, call.length, true, estimator.estimate("aip040TakeOwnership", call, true), energyUsed, "");
+        }
+        validationReport.write();
+    }
+
+    /**
+     * Runs each batch callable once on a fresh deployment, taking the tokens
+     * both by their owner and by another account.
+     */
+    private void measureEnergyScenario(int tokenIdWidth, int batchSize, EnergySample sample) {
+        Address contractAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData, ENERGY_LIMIT, ENERGY_PRICE).getDappAddress();
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address tokenConsignee = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIds = Benchmarks.tokenIds(tokenIdWidth, batchSize);
+
+        sample.accept("mint", tokenIds, true, callAndCheck(contractAddress, deployer, NFTokenMockEncoder.mint(tokenOwner, tokenIds)));
+        sample.accept("aip040TokenOwners", tokenIds, false, callAndCheck(contractAddress, deployer, AIP040Encoder.aip040TokenOwners(tokenIds)));
+        sample.accept("aip040TakeOwnership", tokenIds, false, callAndCheck(contractAddress, tokenOwner, AIP040Encoder.aip040TakeOwnership(tokenOwner, tokenIds)));
+        sample.accept("aip040Consign", tokenIds, false, callAndCheck(contractAddress, tokenOwner, AIP040Encoder.aip040Consign(tokenOwner, tokenConsignee, tokenIds)));
+        sample.accept("aip040TakeOwnership", tokenIds, true, callAndCheck(contractAddress, tokenConsignee, AIP040Encoder.aip040TakeOwnership(tokenOwner, tokenIds)));
+        sample.accept("burn", tokenIds, true, callAndCheck(contractAddress, tokenConsignee, NFTokenMockEncoder.burn(tokenConsignee, tokenIds)));
+    }
+
+    /**
+     * @return the energy used by the call, which must succeed
+     */
+    private long callAndCheck(Address contractAddress, Address caller, byte[] transactionData) {
+        AvmRule.ResultWrapper result = avmRule.call(caller, contractAddress, BigInteger.ZERO, transactionData, ENERGY_LIMIT, ENERGY_PRICE);
+        Assert.assertTrue(StorageProfiler.methodName(transactionData) + " failed", result.getReceiptStatus().isSuccess());
+        return result.getTransactionResult().energyUsed;
+    }
+}
@@ -0,0 +1,122 @@
+package org.aion;
+
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Calibrates <code>AIP040EnergyEstimator</code> with a known cost, plus noise,
+ * and checks its predictions and splits.
+ */
+public class AIP040EnergyEstimatorTest {
+
+    private static final int[] BATCH_SIZES = {1, 10, 100, 500};
+    private static final int[] TOKEN_ID_WIDTHS = {2, 8, 16, 32};
+    private static final long ENERGY_LIMIT = 2_000_000;
+
+    private AIP040EnergyEstimator estimator = new AIP040EnergyEstimator();
+
+    @Test
+    public void testEstimateMatchesCost() {
+        calibrate(0.005);
+        for (boolean balancesChange : new boolean[]{false, true}) {
+            BigInteger[] tokenIds = tokenIds(4, 400);
+            double expected = cost(tokenIds, balancesChange);
+            Assert.assertEquals(expected, estimator.estimate("aip040TakeOwnership", tokenIds, balancesChange), expected * 0.01);
+        }
+        // Every sample of mint changes balances
+        BigInteger[] tokenIds = tokenIds(12, 250);
+        double expected = 2 * cost(tokenIds, true);
+        Assert.assertEquals(expected, estimator.estimate("mint", tokenIds, true), expected * 0.01);
+
+        double safetyFactor = estimator.getSafetyFactor("aip040TakeOwnership");
+        Assert.assertTrue(safetyFactor >= 1 && safetyFactor < 1.01);
+        try {
+            estimator.estimate("burn", tokenIds, true);
+            Assert.fail(); // Expected exception
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testSplit() {
+        calibrate(0);
+        BigInteger[] tokenIds = tokenIds(8, 400);
+        List<BigInteger[]> calls = estimator.split("aip040TakeOwnership", tokenIds, true, ENERGY_LIMIT);
+        // 38000 per call and 18200 per token, so 107 tokens per call
+        Assert.assertEquals(4, calls.size());
+        checkSplit(tokenIds, calls, true);
+
+        BigInteger[] mixed = new BigInteger[1_000];
+        Random random = new Random(25);
+        for (int i = 0; i < mixed.length; i++) {
+            mixed[i] = tokenIds(TOKEN_ID_WIDTHS[random.nextInt(TOKEN_ID_WIDTHS.length)], i + 1)[i];
+        }
+        for (boolean balancesChange : new boolean[]{false, true}) {
+            calls = estimator.split("aip040TakeOwnership", mixed, balancesChange, ENERGY_LIMIT);
+            checkSplit(mixed, calls, balancesChange);
+            // No fewer calls could hold the tokens
+            long fixed = estimator.estimate("aip040TakeOwnership", new BigInteger[0], balancesChange);
+            long tokenEnergy = estimator.estimate("aip040TakeOwnership", mixed, balancesChange) - fixed;
+            Assert.assertTrue(tokenEnergy > (calls.size() - 1) * (ENERGY_LIMIT - fixed));
+        }
+
+        Assert.assertEquals(1, estimator.split("aip040TakeOwnership", tokenIds(8, 50), true, ENERGY_LIMIT).size());
+        try {
+            estimator.split("aip040TakeOwnership", tokenIds, true, 50_000);
+            Assert.fail(); // Expected exception
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private void checkSplit(BigInteger[] tokenIds, List<BigInteger[]> calls, boolean balancesChange) {
+        List<BigInteger> joined = new ArrayList<>();
+        for (BigInteger[] call : calls) {
+            Assert.assertTrue(estimator.estimate("aip040TakeOwnership", call, balancesChange) <= ENERGY_LIMIT);
+            Assert.assertTrue(cost(call, balancesChange) <= ENERGY_LIMIT);
+            joined.addAll(Arrays.asList(call));
+        }
+        Assert.assertEquals(tokenIds.length, joined.size());
+        Assert.assertTrue(joined.containsAll(Arrays.asList(tokenIds)));
+    }
+
+    /**
+     * Calibrates takes of every batch size and width, with balances changing
+     * or not, and mints, at twice the cost, with balances changing.
+     */
+    private void calibrate(double noise) {
+        Random random = new Random(52);
+        for (int batchSize : BATCH_SIZES) {
+            for (int tokenIdWidth : TOKEN_ID_WIDTHS) {
+                BigInteger[] tokenIds = tokenIds(tokenIdWidth, batchSize);
+                for (boolean balancesChange : new boolean[]{false, true}) {
+                    double energyUsed = cost(tokenIds, balancesChange) * (1 + noise * (2 * random.nextDouble() - 1));
+                    estimator.addSample("aip040TakeOwnership", tokenIds, balancesChange, Math.round(energyUsed));
+                }
+                estimator.addSample("mint", tokenIds, true, Math.round(2 * cost(tokenIds, true)));
+            }
+        }
+        estimator.calibrate();
+    }
+
+    private static double cost(BigInteger[] tokenIds, boolean balancesChange) {
+        double energy = 30_000 + 5_000 * tokenIds.length + (balancesChange ? 8_000 + 12_000 * tokenIds.length : 0);
+        for (BigInteger tokenId : tokenIds) {
+            energy += 150 * tokenId.toByteArray().length;
+        }
+        return energy;
+    }
+
+    private static BigInteger[] tokenIds(int widthBytes, int count) {
+        BigInteger base = BigInteger.ONE.shiftLeft(widthBytes * Byte.SIZE - 2);
+        BigInteger[] tokenIds = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            tokenIds[i] = base.add(BigInteger.valueOf(i));
+        }
+        return tokenIds;
+    }
+}
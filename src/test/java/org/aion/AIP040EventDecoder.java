@@ -0,0 +1,205 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the log events of <code>AIP040Events</code> into one
+ * <code>TokenEvent</code> for each token, so that an indexer sees the same
+ * events whether or not they were batched.
+ *
+ * Batch events (e.g. <code>AIP040TransferredBatch</code>) and range events
+ * (<code>AIP040MintedRange</code>) are expanded into the per-token events
+ * they replace. Events which are not about a token, like
+ * <code>AIP040Authorized</code>, decode to no token events, use
+ * <code>decodeAuthorization</code> for those.
+ */
+public class AIP040EventDecoder {
+
+    public static final String MINTED = "AIP040Minted";
+    public static final String BURNED = "AIP040Burned";
+    public static final String TRANSFERRED = "AIP040Transferred";
+    public static final String CONSIGNED = "AIP040Consigned";
+    public static final String AUTHORIZED = "AIP040Authorized";
+    public static final String DEAUTHORIZED = "AIP040Deauthorized";
+
+    private static final String MINTED_RANGE = "AIP040MintedRange";
+    private static final String BATCH_SUFFIX = "Batch";
+    private static final int TOKEN_ID_LENGTH = 32;
+
+    /**
+     * One per-token event.
+     */
+    public static final class TokenEvent {
+        /**
+         * The per-token event name, e.g. <code>AIP040Transferred</code>.
+         */
+        public final String name;
+
+        /**
+         * The owner, or for <code>AIP040Transferred</code> the prior owner.
+         */
+        public final Address firstAccount;
+
+        /**
+         * The new owner for <code>AIP040Transferred</code>, the consignee for
+         * <code>AIP040Consigned</code>, otherwise null. Also null where the
+         * event logged no account.
+         */
+        public final Address secondAccount;
+
+        public final BigInteger tokenId;
+
+        public TokenEvent(String name, Address firstAccount, Address secondAccount, BigInteger tokenId) {
+            this.name = name;
+            this.firstAccount = firstAccount;
+            this.secondAccount = secondAccount;
+            this.tokenId = tokenId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof TokenEvent)) {
+                return false;
+            }
+            TokenEvent event = (TokenEvent) other;
+            return name.equals(event.name)
+                && equalAccounts(firstAccount, event.firstAccount)
+                && equalAccounts(secondAccount, event.secondAccount)
+                && tokenId.equals(event.tokenId);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + tokenId.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + firstAccount + ", " + secondAccount + ", " + tokenId + ")";
+        }
+
+        private static boolean equalAccounts(Address a, Address b) {
+            return a == null ? b == null : b != null && Arrays.equals(a.toByteArray(), b.toByteArray());
+        }
+    }
+
+    /**
+     * One <code>AIP040Authorized</code> or <code>AIP040Deauthorized</code>
+     * event.
+     */
+    public static final class AuthorizationEvent {
+        public final String name;
+        public final Address account;
+        public final Address authorizee;
+
+        public AuthorizationEvent(String name, Address account, Address authorizee) {
+            this.name = name;
+            this.account = account;
+            this.authorizee = authorizee;
+        }
+
+        /**
+         * @return true for <code>AIP040Authorized</code>, false for
+         *         <code>AIP040Deauthorized</code>
+         */
+        public boolean isAuthorized() {
+            return AUTHORIZED.equals(name);
+        }
+    }
+
+    /**
+     * @param  topics the topics of one log, as padded to 32 bytes by Aion
+     * @return        the authorization event, or null if the log is another
+     *                event
+     */
+    public static AuthorizationEvent decodeAuthorization(List<byte[]> topics) {
+        if (topics.isEmpty()) {
+            return null;
+        }
+        String name = topicName(topics.get(0));
+        if (!AUTHORIZED.equals(name) && !DEAUTHORIZED.equals(name)) {
+            return null;
+        }
+        return new AuthorizationEvent(name, account(topics.get(1)), account(topics.get(2)));
+    }
+
+    /**
+     * @param  topics the topics of one log, as padded to 32 bytes by Aion
+     * @param  data   the data of the log
+     * @return        the per-token events in the log, in order
+     */
+    public static List<TokenEvent> decode(List<byte[]> topics, byte[] data) {
+        List<TokenEvent> events = new ArrayList<>();
+        if (topics.isEmpty()) {
+            return events;
+        }
+        String name = topicName(topics.get(0));
+        switch (name) {
+            case MINTED:
+            case BURNED:
+                events.add(new TokenEvent(name, account(topics.get(1)), null, tokenId(topics.get(2), 0)));
+                break;
+            case TRANSFERRED:
+            case CONSIGNED:
+                events.add(new TokenEvent(name, account(topics.get(1)), account(topics.get(2)), tokenId(topics.get(3), 0)));
+                break;
+            case MINTED + BATCH_SUFFIX:
+                addBatch(events, MINTED, account(topics.get(1)), null, data);
+                break;
+            case TRANSFERRED + BATCH_SUFFIX:
+            case CONSIGNED + BATCH_SUFFIX:
+                addBatch(events, name.substring(0, name.length() - BATCH_SUFFIX.length()), account(topics.get(1)), account(topics.get(2)), data);
+                break;
+            case MINTED_RANGE:
+                Address owner = account(topics.get(1));
+                BigInteger start = tokenId(topics.get(2), 0);
+                long count = AVMBlockchainWrapper.decodeLong(data);
+                for (long i = 0; i < count; i++) {
+                    events.add(new TokenEvent(MINTED, owner, null, start.add(BigInteger.valueOf(i))));
+                }
+                break;
+            default:
+                break;
+        }
+        return events;
+    }
+
+    private static void addBatch(List<TokenEvent> events, String name, Address firstAccount, Address secondAccount, byte[] data) {
+        if (data.length % TOKEN_ID_LENGTH != 0) {
+            throw new IllegalArgumentException("Batch data is not a whole number of token identifiers: " + data.length);
+        }
+        for (int offset = 0; offset < data.length; offset += TOKEN_ID_LENGTH) {
+            events.add(new TokenEvent(name, firstAccount, secondAccount, tokenId(data, offset)));
+        }
+    }
+
+    private static String topicName(byte[] topic) {
+        int length = topic.length;
+        while (length > 0 && topic[length - 1] == 0) {
+            length--;
+        }
+        return new String(topic, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the account, or null for the all-zero topic logged for no account
+     */
+    private static Address account(byte[] topic) {
+        for (byte b : topic) {
+            if (b != 0) {
+                return new Address(topic);
+            }
+        }
+        return null;
+    }
+
+    private static BigInteger tokenId(byte[] bytes, int offset) {
+        return new BigInteger(Arrays.copyOfRange(bytes, offset, offset + TOKEN_ID_LENGTH));
+    }
+}
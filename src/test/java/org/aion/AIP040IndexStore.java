@@ -0,0 +1,769 @@
+package org.aion;
+
+import avm.Address;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps the views of <code>AIP040Indexer</code> on disk, so that a collection
+ * of any size is indexed with flat heap use, and a restart does not replay the
+ * chain.
+ *
+ * A directory holds an append-only log of the decoded events of each block,
+ * split into segment files, and three memory-mapped hash tables of
+ * fixed-width slots: token to owner and consignee, account to balance, and
+ * owner and authorizee to authorization. The tables are derived from the log.
+ * A checkpoint, written every <code>checkpointInterval</code> blocks and on
+ * <code>close</code>, flushes them and records the block height. If the store
+ * changed its tables after its last checkpoint and was not closed, the tables
+ * are rebuilt from the log when it is opened again, dropping a block which was
+ * only partly written.
+ *
+ * Each logged event carries the prior owner and consignee of its token, or the
+ * prior authorization, so that the most recent blocks can be rolled back, also
+ * after a restart. Unlike <code>AIP040Indexer</code> there is no
+ * <code>tokensOf</code>, which would need a list of tokens per owner.
+ */
+public class AIP040IndexStore implements Closeable {
+
+    private static final long MAGIC = 0x4149503034304958L;
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String DIRTY = "dirty";
+    private static final String TOKENS = "tokens.table";
+    private static final String BALANCES = "balances.table";
+    private static final String AUTHORIZATIONS = "authorizations.table";
+
+    private static final int TOKEN_ID_LENGTH = 32;
+    // Event records use the types of AIP040LogDecoder, which start at 1
+    private static final byte BLOCK = 0;
+    private static final int BLOCK_HEADER_LENGTH = 1 + Long.BYTES + Integer.BYTES;
+    private static final int EVENT_LENGTH = 2 + TOKEN_ID_LENGTH + 4 * Address.LENGTH;
+    // Flags of an event record
+    private static final int HAS_FIRST_ACCOUNT = 0x1;
+    private static final int HAS_SECOND_ACCOUNT = 0x2;
+    private static final int HAS_PRIOR_OWNER = 0x4;
+    private static final int HAS_PRIOR_CONSIGNEE = 0x8;
+    private static final int WAS_AUTHORIZED = 0x10;
+    // A token slot holds flags, the owner and the consignee
+    private static final int HAS_OWNER = 0x1;
+    private static final int HAS_CONSIGNEE = 0x2;
+    private static final int TOKEN_VALUE_LENGTH = 1 + 2 * Address.LENGTH;
+    // A log offset is the segment number above this bit and the position below
+    private static final int SEGMENT_SHIFT = 40;
+
+    private final Path directory;
+    private final int maxRollbackBlocks;
+    private final int checkpointInterval;
+    private final long segmentSize;
+    private MappedHashTable tokens;
+    private MappedHashTable balances;
+    private MappedHashTable authorizations;
+    // The number and log offset of each block which can be rolled back
+    private final Deque<long[]> appliedBlocks = new ArrayDeque<>();
+    private long lastBlockNumber = -1;
+    private long totalSupply;
+    private int segment;
+    private FileChannel log;
+    private boolean isDirty;
+    private int blocksSinceCheckpoint;
+
+    private final AIP040LogDecoder decoder = new AIP040LogDecoder();
+    private final AIP040LogDecoder.Visitor visitor = this::applyEvent;
+    private ByteBuffer block = ByteBuffer.allocate(1 << 16);
+    private int blockEventCount;
+
+    // The fields of the current event record
+    private int eventFlags;
+    private final byte[] tokenId = new byte[TOKEN_ID_LENGTH];
+    private final byte[] firstAccount = new byte[Address.LENGTH];
+    private final byte[] secondAccount = new byte[Address.LENGTH];
+    private final byte[] priorOwner = new byte[Address.LENGTH];
+    private final byte[] priorConsignee = new byte[Address.LENGTH];
+    private final byte[] tokenValue = new byte[TOKEN_VALUE_LENGTH];
+    private final byte[] currentValue = new byte[TOKEN_VALUE_LENGTH];
+    private final byte[] balanceKey = new byte[Address.LENGTH];
+    private final byte[] authorizationKey = new byte[2 * Address.LENGTH];
+
+    /**
+     * Opens the store in a directory, creating it if needed.
+     *
+     * @param directory          holds the files of the store
+     * @param maxRollbackBlocks  how many of the most recent blocks can be
+     *                           rolled back
+     * @param checkpointInterval how many blocks are applied between
+     *                           checkpoints
+     * @param segmentSize        the size at which a new log segment is
+     *                           started, a segment holds at least one block
+     */
+    public AIP040IndexStore(Path directory, int maxRollbackBlocks, int checkpointInterval, long segmentSize) throws IOException {
+        if (maxRollbackBlocks < 0) {
+            throw new IllegalArgumentException("maxRollbackBlocks must not be negative");
+        }
+        if (checkpointInterval < 1) {
+            throw new IllegalArgumentException("checkpointInterval must be positive");
+        }
+        this.directory = directory;
+        this.maxRollbackBlocks = maxRollbackBlocks;
+        this.checkpointInterval = checkpointInterval;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        if (Files.exists(directory.resolve(CHECKPOINT)) && !Files.exists(directory.resolve(DIRTY))) {
+            openTables();
+            openLog(readCheckpoint());
+        } else {
+            rebuild();
+        }
+    }
+
+    /**
+     * Applies the log events of the contract in one block.
+     *
+     * @param blockNumber higher than every block applied before
+     * @param logs        the log events of the contract in this block, in
+     *                    order
+     */
+    public void applyBlock(long blockNumber, List<AIP040Indexer.LogEntry> logs) throws IOException {
+        if (blockNumber <= lastBlockNumber) {
+            throw new IllegalArgumentException("Block " + blockNumber + " is not after block " + lastBlockNumber);
+        }
+        markDirty();
+        block.clear();
+        block.put(BLOCK).putLong(blockNumber).putInt(0);
+        blockEventCount = 0;
+        for (AIP040Indexer.LogEntry log : logs) {
+            decoder.decode(log.topics, log.data, visitor);
+        }
+        block.putInt(1 + Long.BYTES, blockEventCount);
+        block.flip();
+        pushAppliedBlock(blockNumber, append(block));
+        lastBlockNumber = blockNumber;
+        if (++blocksSinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Undoes the most recently applied blocks, and removes them from the log.
+     *
+     * @param blocks how many blocks to undo, at most the number which can be
+     *               rolled back
+     */
+    public void rollback(int blocks) throws IOException {
+        if (blocks > appliedBlocks.size()) {
+            throw new IllegalArgumentException("Only " + appliedBlocks.size() + " blocks can be rolled back");
+        }
+        markDirty();
+        for (int i = 0; i < blocks; i++) {
+            long[] appliedBlock = appliedBlocks.removeLast();
+            undoBlock(appliedBlock[1]);
+            openLog(appliedBlock[1]);
+            lastBlockNumber = appliedBlocks.isEmpty() ? appliedBlock[0] - 1 : appliedBlocks.peekLast()[0];
+        }
+    }
+
+    /**
+     * Flushes the log and the tables and records the block height, so that
+     * opening the store again does not rebuild the tables.
+     */
+    public void checkpoint() throws IOException {
+        log.force(false);
+        tokens.force();
+        balances.force();
+        authorizations.force();
+        ByteBuffer checkpoint = ByteBuffer.allocate(4 * Long.BYTES + Integer.BYTES + appliedBlocks.size() * 2 * Long.BYTES);
+        checkpoint.putLong(MAGIC).putLong(lastBlockNumber).putLong(offset(segment, log.position())).putLong(totalSupply);
+        checkpoint.putInt(appliedBlocks.size());
+        for (long[] appliedBlock : appliedBlocks) {
+            checkpoint.putLong(appliedBlock[0]).putLong(appliedBlock[1]);
+        }
+        checkpoint.flip();
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (checkpoint.hasRemaining()) {
+                channel.write(checkpoint);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(directory.resolve(DIRTY));
+        isDirty = false;
+        blocksSinceCheckpoint = 0;
+    }
+
+    /**
+     * Writes a checkpoint and closes the files.
+     */
+    @Override
+    public void close() throws IOException {
+        checkpoint();
+        log.close();
+        tokens.close();
+        balances.close();
+        authorizations.close();
+    }
+
+    /**
+     * @return the number of the last applied block, or -1 if none
+     */
+    public long getLastBlockNumber() {
+        return lastBlockNumber;
+    }
+
+    /**
+     * @return how many blocks can be rolled back now
+     */
+    public int getRollbackDepth() {
+        return appliedBlocks.size();
+    }
+
+    public Address ownerOf(BigInteger tokenId) {
+        return tokenAccount(tokenId, HAS_OWNER, 1);
+    }
+
+    public Address consigneeOf(BigInteger tokenId) {
+        return tokenAccount(tokenId, HAS_CONSIGNEE, 1 + Address.LENGTH);
+    }
+
+    public long balanceOf(Address owner) {
+        long slot = balances.find(owner.toByteArray());
+        return slot < 0 ? 0 : balances.getLong(slot, 0);
+    }
+
+    public long totalSupply() {
+        return totalSupply;
+    }
+
+    public boolean isAuthorized(Address owner, Address authorizee) {
+        byte[] key = new byte[2 * Address.LENGTH];
+        System.arraycopy(owner.toByteArray(), 0, key, 0, Address.LENGTH);
+        System.arraycopy(authorizee.toByteArray(), 0, key, Address.LENGTH, Address.LENGTH);
+        long slot = authorizations.find(key);
+        return slot >= 0 && authorizations.getByte(slot, 0) != 0;
+    }
+
+    private Address tokenAccount(BigInteger tokenId, int flag, int offset) {
+        byte[] key = tokenIdKey(tokenId);
+        long slot = key == null ? -1 : tokens.find(key);
+        if (slot < 0 || (tokens.getByte(slot, 0) & flag) == 0) {
+            return null;
+        }
+        byte[] account = new byte[Address.LENGTH];
+        tokens.get(slot, offset, account, 0, Address.LENGTH);
+        return new Address(account);
+    }
+
+    /**
+     * @return the token identifier padded to 32 bytes using signed padding,
+     *         as logged, or null if it is longer
+     */
+    private static byte[] tokenIdKey(BigInteger tokenId) {
+        byte[] bytes = tokenId.toByteArray();
+        if (bytes.length > TOKEN_ID_LENGTH) {
+            return null;
+        }
+        byte[] key = new byte[TOKEN_ID_LENGTH];
+        Arrays.fill(key, 0, TOKEN_ID_LENGTH - bytes.length, tokenId.signum() < 0 ? (byte) -1 : 0);
+        System.arraycopy(bytes, 0, key, TOKEN_ID_LENGTH - bytes.length, bytes.length);
+        return key;
+    }
+
+    //region Events
+
+    private void applyEvent(AIP040LogDecoder.Event event) {
+        int type = event.getType();
+        eventFlags = (event.hasFirstAccount() ? HAS_FIRST_ACCOUNT : 0) | (event.hasSecondAccount() ? HAS_SECOND_ACCOUNT : 0);
+        event.copyFirstAccount(firstAccount, 0);
+        event.copySecondAccount(secondAccount, 0);
+        if (event.isTokenEvent()) {
+            event.copyTokenId(tokenId, 0);
+        } else {
+            Arrays.fill(tokenId, (byte) 0);
+        }
+        redo(type);
+
+        if (block.remaining() < EVENT_LENGTH) {
+            block.flip();
+            block = ByteBuffer.allocate(block.capacity() * 2).put(block);
+        }
+        block.put((byte) type).put((byte) eventFlags).put(tokenId).put(firstAccount).put(secondAccount).put(priorOwner).put(priorConsignee);
+        blockEventCount++;
+    }
+
+    /**
+     * Applies the current event record to the tables, recording the prior
+     * state of its token or authorization in it.
+     */
+    private void redo(int type) {
+        eventFlags &= HAS_FIRST_ACCOUNT | HAS_SECOND_ACCOUNT;
+        if (type == AIP040LogDecoder.AUTHORIZED || type == AIP040LogDecoder.DEAUTHORIZED) {
+            Arrays.fill(priorOwner, (byte) 0);
+            Arrays.fill(priorConsignee, (byte) 0);
+            long slot = authorizationSlot();
+            if (authorizations.getByte(slot, 0) != 0) {
+                eventFlags |= WAS_AUTHORIZED;
+            }
+            authorizations.putByte(slot, 0, type == AIP040LogDecoder.AUTHORIZED ? (byte) 1 : 0);
+            return;
+        }
+
+        long slot = tokens.insert(tokenId);
+        tokens.get(slot, 0, tokenValue, 0, TOKEN_VALUE_LENGTH);
+        System.arraycopy(tokenValue, 1, priorOwner, 0, Address.LENGTH);
+        System.arraycopy(tokenValue, 1 + Address.LENGTH, priorConsignee, 0, Address.LENGTH);
+        boolean hadOwner = (tokenValue[0] & HAS_OWNER) != 0;
+        eventFlags |= (hadOwner ? HAS_PRIOR_OWNER : 0) | ((tokenValue[0] & HAS_CONSIGNEE) != 0 ? HAS_PRIOR_CONSIGNEE : 0);
+        byte[] second = (eventFlags & HAS_SECOND_ACCOUNT) != 0 ? secondAccount : null;
+        switch (type) {
+            case AIP040LogDecoder.MINTED:
+                setToken(slot, firstAccount, null);
+                break;
+            case AIP040LogDecoder.BURNED:
+                setToken(slot, null, null);
+                break;
+            case AIP040LogDecoder.TRANSFERRED:
+                setToken(slot, second, null);
+                break;
+            case AIP040LogDecoder.CONSIGNED:
+                setToken(slot, hadOwner ? priorOwner : null, second);
+                break;
+            default:
+                throw new IllegalStateException("Unknown event " + type);
+        }
+    }
+
+    /**
+     * Restores the prior state recorded in the current event record.
+     */
+    private void undo(int type) {
+        if (type == AIP040LogDecoder.AUTHORIZED || type == AIP040LogDecoder.DEAUTHORIZED) {
+            authorizations.putByte(authorizationSlot(), 0, (eventFlags & WAS_AUTHORIZED) != 0 ? (byte) 1 : 0);
+            return;
+        }
+        setToken(tokens.insert(tokenId),
+            (eventFlags & HAS_PRIOR_OWNER) != 0 ? priorOwner : null,
+            (eventFlags & HAS_PRIOR_CONSIGNEE) != 0 ? priorConsignee : null);
+    }
+
+    private long authorizationSlot() {
+        System.arraycopy(firstAccount, 0, authorizationKey, 0, Address.LENGTH);
+        System.arraycopy(secondAccount, 0, authorizationKey, Address.LENGTH, Address.LENGTH);
+        return authorizations.insert(authorizationKey);
+    }
+
+    /**
+     * Sets the owner and consignee of a token, updating balances and the
+     * total supply.
+     *
+     * @param owner     the owner, or null if the token does not exist
+     * @param consignee the consignee, or null if none
+     */
+    private void setToken(long slot, byte[] owner, byte[] consignee) {
+        byte[] value = currentValue;
+        tokens.get(slot, 0, value, 0, TOKEN_VALUE_LENGTH);
+        boolean hadOwner = (value[0] & HAS_OWNER) != 0;
+        boolean isSameOwner = hadOwner && owner != null && Arrays.equals(value, 1, 1 + Address.LENGTH, owner, 0, Address.LENGTH);
+        if (hadOwner && !isSameOwner) {
+            addBalance(value, 1, -1);
+            if (owner == null) {
+                totalSupply--;
+            }
+        }
+        if (owner != null && !isSameOwner) {
+            addBalance(owner, 0, 1);
+            if (!hadOwner) {
+                totalSupply++;
+            }
+        }
+        value[0] = (byte) ((owner == null ? 0 : HAS_OWNER) | (consignee == null ? 0 : HAS_CONSIGNEE));
+        copyAccount(owner, value, 1);
+        copyAccount(consignee, value, 1 + Address.LENGTH);
+        tokens.put(slot, 0, value, 0, TOKEN_VALUE_LENGTH);
+    }
+
+    private void addBalance(byte[] account, int offset, long delta) {
+        System.arraycopy(account, offset, balanceKey, 0, Address.LENGTH);
+        long slot = balances.insert(balanceKey);
+        balances.putLong(slot, 0, balances.getLong(slot, 0) + delta);
+    }
+
+    private static void copyAccount(byte[] account, byte[] destination, int offset) {
+        if (account == null) {
+            Arrays.fill(destination, offset, offset + Address.LENGTH, (byte) 0);
+        } else {
+            System.arraycopy(account, 0, destination, offset, Address.LENGTH);
+        }
+    }
+
+    /**
+     * Reads one event record into the fields of the current event record.
+     *
+     * @return the type of the event
+     */
+    private int readEvent(ByteBuffer buffer, int position) {
+        buffer.position(position);
+        int type = buffer.get();
+        eventFlags = buffer.get() & 0xFF;
+        buffer.get(tokenId).get(firstAccount).get(secondAccount).get(priorOwner).get(priorConsignee);
+        return type;
+    }
+
+    //endregion
+
+    //region Log
+
+    private static long offset(int segment, long position) {
+        return ((long) segment << SEGMENT_SHIFT) | position;
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve(String.format("events-%08d.log", segment));
+    }
+
+    /**
+     * Opens the log for appending at an offset, removing everything after it.
+     */
+    private void openLog(long end) throws IOException {
+        if (log != null) {
+            log.close();
+        }
+        segment = (int) (end >>> SEGMENT_SHIFT);
+        long position = end & ((1L << SEGMENT_SHIFT) - 1);
+        for (int later = segment + 1; Files.exists(segmentFile(later)); later++) {
+            Files.delete(segmentFile(later));
+        }
+        log = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        log.truncate(position);
+        log.position(position);
+    }
+
+    /**
+     * @return the offset of the appended block
+     */
+    private long append(ByteBuffer buffer) throws IOException {
+        if (log.position() > 0 && log.position() + buffer.remaining() > segmentSize) {
+            log.close();
+            segment++;
+            log = FileChannel.open(segmentFile(segment), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        long offset = offset(segment, log.position());
+        while (buffer.hasRemaining()) {
+            log.write(buffer);
+        }
+        return offset;
+    }
+
+    private void pushAppliedBlock(long blockNumber, long offset) {
+        appliedBlocks.addLast(new long[]{blockNumber, offset});
+        if (appliedBlocks.size() > maxRollbackBlocks) {
+            appliedBlocks.removeFirst();
+        }
+    }
+
+    /**
+     * Undoes the events of a block, which is the last in the log, in reverse
+     * order.
+     */
+    private void undoBlock(long offset) throws IOException {
+        int blockSegment = (int) (offset >>> SEGMENT_SHIFT);
+        long position = offset & ((1L << SEGMENT_SHIFT) - 1);
+        log.force(false);
+        try (FileChannel channel = FileChannel.open(segmentFile(blockSegment), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, channel.size() - position);
+            int eventCount = buffer.getInt(1 + Long.BYTES);
+            for (int i = eventCount - 1; i >= 0; i--) {
+                undo(readEvent(buffer, BLOCK_HEADER_LENGTH + i * EVENT_LENGTH));
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the tables from the log, truncating it after the last whole
+     * block, and writes a checkpoint.
+     */
+    private void rebuild() throws IOException {
+        Files.deleteIfExists(directory.resolve(TOKENS));
+        Files.deleteIfExists(directory.resolve(BALANCES));
+        Files.deleteIfExists(directory.resolve(AUTHORIZATIONS));
+        openTables();
+        long end = 0;
+        for (int n = 0; Files.exists(segmentFile(n)); n++) {
+            long size;
+            int position = 0;
+            try (FileChannel channel = FileChannel.open(segmentFile(n), StandardOpenOption.READ)) {
+                size = channel.size();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                while (position + BLOCK_HEADER_LENGTH <= size && buffer.get(position) == BLOCK) {
+                    long blockNumber = buffer.getLong(position + 1);
+                    int eventCount = buffer.getInt(position + 1 + Long.BYTES);
+                    long blockLength = BLOCK_HEADER_LENGTH + (long) eventCount * EVENT_LENGTH;
+                    if (position + blockLength > size) {
+                        break;
+                    }
+                    for (int i = 0; i < eventCount; i++) {
+                        redo(readEvent(buffer, position + BLOCK_HEADER_LENGTH + i * EVENT_LENGTH));
+                    }
+                    pushAppliedBlock(blockNumber, offset(n, position));
+                    lastBlockNumber = blockNumber;
+                    position += (int) blockLength;
+                }
+            }
+            end = offset(n, position);
+            if (position < size) {
+                break;
+            }
+        }
+        openLog(end);
+        isDirty = true;
+        checkpoint();
+    }
+
+    /**
+     * @return the log offset of the checkpoint
+     */
+    private long readCheckpoint() throws IOException {
+        ByteBuffer checkpoint = ByteBuffer.wrap(Files.readAllBytes(directory.resolve(CHECKPOINT)));
+        if (checkpoint.getLong() != MAGIC) {
+            throw new IOException("Not an index checkpoint");
+        }
+        lastBlockNumber = checkpoint.getLong();
+        long end = checkpoint.getLong();
+        totalSupply = checkpoint.getLong();
+        int blockCount = checkpoint.getInt();
+        for (int i = 0; i < blockCount; i++) {
+            pushAppliedBlock(checkpoint.getLong(), checkpoint.getLong());
+        }
+        return end;
+    }
+
+    /**
+     * Marks the tables as ahead of the checkpoint before they first change.
+     */
+    private void markDirty() throws IOException {
+        if (!isDirty) {
+            Files.write(directory.resolve(DIRTY), new byte[0]);
+            isDirty = true;
+        }
+    }
+
+    private void openTables() throws IOException {
+        tokens = new MappedHashTable(directory.resolve(TOKENS), TOKEN_ID_LENGTH, TOKEN_VALUE_LENGTH);
+        balances = new MappedHashTable(directory.resolve(BALANCES), Address.LENGTH, Long.BYTES);
+        authorizations = new MappedHashTable(directory.resolve(AUTHORIZATIONS), 2 * Address.LENGTH, 1);
+    }
+
+    //endregion
+
+    /**
+     * A hash table of fixed-width keys and values in a memory-mapped file,
+     * with linear probing. Each slot is a used byte, the key and the value.
+     * Entries are never removed, values of new entries are zero.
+     */
+    private static final class MappedHashTable {
+        private static final int HEADER_LENGTH = 2 * Long.BYTES;
+        private static final int MAX_CHUNK_LENGTH = 1 << 30;
+        private static final long INITIAL_CAPACITY = 1 << 10;
+
+        private final Path file;
+        private final int keyLength;
+        private final int slotLength;
+        private FileChannel channel;
+        private MappedByteBuffer header;
+        private MappedByteBuffer[] chunks;
+        private int chunkShift;
+        private long capacity;
+        private long size;
+
+        private MappedHashTable(Path file, int keyLength, int valueLength) throws IOException {
+            this(file, keyLength, valueLength, INITIAL_CAPACITY);
+        }
+
+        /**
+         * @param capacity a power of two, unless the file exists
+         */
+        private MappedHashTable(Path file, int keyLength, int valueLength, long capacity) throws IOException {
+            this.file = file;
+            this.keyLength = keyLength;
+            this.slotLength = 1 + keyLength + valueLength;
+            map(capacity);
+        }
+
+        /**
+         * Maps the file, with the capacity in its header if it has one.
+         */
+        private void map(long newCapacity) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH);
+            if (header.getLong(0) == 0) {
+                header.putLong(0, newCapacity);
+            }
+            capacity = header.getLong(0);
+            size = header.getLong(Long.BYTES);
+            long slotsPerChunk = Math.min(capacity, Long.highestOneBit(MAX_CHUNK_LENGTH / slotLength));
+            chunkShift = Long.numberOfTrailingZeros(slotsPerChunk);
+            chunks = new MappedByteBuffer[(int) (capacity / slotsPerChunk)];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_LENGTH + i * slotsPerChunk * slotLength, slotsPerChunk * slotLength);
+            }
+        }
+
+        /**
+         * @return the slot of the key, or the complement of the empty slot
+         *         where it would be inserted
+         */
+        private long find(byte[] key) {
+            long mask = capacity - 1;
+            for (long slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                MappedByteBuffer chunk = chunk(slot);
+                int position = position(slot);
+                if (chunk.get(position) == 0) {
+                    return ~slot;
+                }
+                if (keyEquals(chunk, position + 1, key)) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * @return the slot of the key, inserted with a zero value if absent
+         */
+        private long insert(byte[] key) {
+            long slot = find(key);
+            if (slot >= 0) {
+                return slot;
+            }
+            // At most 70% full
+            if ((size + 1) * 10 > capacity * 7) {
+                resize();
+                slot = find(key);
+            }
+            slot = ~slot;
+            MappedByteBuffer chunk = chunk(slot);
+            int position = position(slot);
+            chunk.put(position, (byte) 1);
+            for (int i = 0; i < keyLength; i++) {
+                chunk.put(position + 1 + i, key[i]);
+            }
+            header.putLong(Long.BYTES, ++size);
+            return slot;
+        }
+
+        /**
+         * Copies every entry into a table of twice the capacity, which then
+         * replaces the file.
+         */
+        private void resize() {
+            try {
+                Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.deleteIfExists(temporary);
+                MappedHashTable resized = new MappedHashTable(temporary, keyLength, slotLength - 1 - keyLength, capacity * 2);
+                byte[] entry = new byte[slotLength - 1];
+                byte[] key = new byte[keyLength];
+                for (long slot = 0; slot < capacity; slot++) {
+                    MappedByteBuffer chunk = chunk(slot);
+                    int position = position(slot);
+                    if (chunk.get(position) != 0) {
+                        for (int i = 0; i < entry.length; i++) {
+                            entry[i] = chunk.get(position + 1 + i);
+                        }
+                        System.arraycopy(entry, 0, key, 0, keyLength);
+                        long resizedSlot = resized.insert(key);
+                        resized.put(resizedSlot, 0, entry, keyLength, entry.length - keyLength);
+                    }
+                }
+                resized.force();
+                resized.close();
+                close();
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                map(capacity * 2);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private byte getByte(long slot, int offset) {
+            return chunk(slot).get(position(slot) + 1 + keyLength + offset);
+        }
+
+        private void putByte(long slot, int offset, byte value) {
+            chunk(slot).put(position(slot) + 1 + keyLength + offset, value);
+        }
+
+        private long getLong(long slot, int offset) {
+            return chunk(slot).getLong(position(slot) + 1 + keyLength + offset);
+        }
+
+        private void putLong(long slot, int offset, long value) {
+            chunk(slot).putLong(position(slot) + 1 + keyLength + offset, value);
+        }
+
+        private void get(long slot, int offset, byte[] destination, int destinationOffset, int length) {
+            MappedByteBuffer chunk = chunk(slot);
+            int position = position(slot) + 1 + keyLength + offset;
+            for (int i = 0; i < length; i++) {
+                destination[destinationOffset + i] = chunk.get(position + i);
+            }
+        }
+
+        private void put(long slot, int offset, byte[] source, int sourceOffset, int length) {
+            MappedByteBuffer chunk = chunk(slot);
+            int position = position(slot) + 1 + keyLength + offset;
+            for (int i = 0; i < length; i++) {
+                chunk.put(position + i, source[sourceOffset + i]);
+            }
+        }
+
+        private void force() {
+            header.force();
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+
+        private MappedByteBuffer chunk(long slot) {
+            return chunks[(int) (slot >>> chunkShift)];
+        }
+
+        private int position(long slot) {
+            return (int) (slot & ((1L << chunkShift) - 1)) * slotLength;
+        }
+
+        private boolean keyEquals(MappedByteBuffer chunk, int position, byte[] key) {
+            for (int i = 0; i < keyLength; i++) {
+                if (chunk.get(position + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(byte[] key) {
+            long hash = 0xcbf29ce484222325L;
+            for (byte b : key) {
+                hash = (hash ^ b) * 0x100000001b3L;
+            }
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
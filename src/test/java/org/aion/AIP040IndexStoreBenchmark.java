@@ -0,0 +1,101 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures how fast <code>AIP040IndexStore</code> applies blocks and reopens,
+ * and what it keeps on the heap and on disk. Results are written by
+ * <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040IndexStoreBenchmark {
+
+    private static final int TOKENS = 1_000_000;
+    private static final int CHECKPOINT_INTERVAL = 100;
+    private static final long SEGMENT_SIZE = 64 << 20;
+    private static final int ACCOUNTS = 1_000;
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Applies blocks of mints to <code>AIP040IndexStore</code>, then reopens
+     * it, reporting the throughput, the heap retained by the store and the
+     * size of its files. Each block is minted on a new
+     * <code>InMemoryBackend</code>, so that only the store holds state.
+     */
+    @Test
+    public void benchmarkIndexStore() throws IOException {
+        BenchmarkReport storeReport = new BenchmarkReport(
+            "AIP040IndexStoreBenchmark",
+            "stage",
+            "tokens",
+            "nanoseconds",
+            "tokensPerSecond",
+            "retainedHeapBytes",
+            "diskBytes"
+        );
+        Address[] accounts = Benchmarks.accounts(ACCOUNTS + 1);
+        Address deployer = accounts[ACCOUNTS];
+        Address[] owners = Arrays.copyOf(accounts, ACCOUNTS);
+        Path directory = Files.createTempDirectory("AIP040IndexStoreBenchmark");
+        try {
+            long priorHeap = Benchmarks.usedHeap();
+            AIP040IndexStore store = new AIP040IndexStore(directory, 0, CHECKPOINT_INTERVAL, SEGMENT_SIZE);
+            long applyNanoseconds = 0;
+            for (int first = 0; first < TOKENS; first += BATCH_SIZE) {
+                Address[] batchOwners = new Address[BATCH_SIZE];
+                BigInteger[] batchTokenIds = new BigInteger[BATCH_SIZE];
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    batchOwners[i] = owners[(first + i) % owners.length];
+                    batchTokenIds[i] = BigInteger.valueOf(first + i);
+                }
+                InMemoryBackend backend = InMemoryBackend.install();
+                List<AIP040Indexer.LogEntry> logs = new ArrayList<>();
+                for (InMemoryBackend.Log log : backend.run(deployer, () -> NFTokenMock.mintToOwners(batchOwners, batchTokenIds)).logs) {
+                    logs.add(new AIP040Indexer.LogEntry(log.topics, log.data));
+                }
+                long startTime = System.nanoTime();
+                store.applyBlock(first / BATCH_SIZE, logs);
+                applyNanoseconds += System.nanoTime() - startTime;
+            }
+            Assert.assertEquals(TOKENS, store.totalSupply());
+            addIndexStoreRow(storeReport, "applyBlock", applyNanoseconds, Benchmarks.usedHeap() - priorHeap, directory);
+            store.close();
+
+            priorHeap = Benchmarks.usedHeap();
+            long startTime = System.nanoTime();
+            store = new AIP040IndexStore(directory, 0, CHECKPOINT_INTERVAL, SEGMENT_SIZE);
+            long reopenNanoseconds = System.nanoTime() - startTime;
+            Assert.assertEquals(TOKENS, store.totalSupply());
+            Assert.assertEquals(owners[1], store.ownerOf(BigInteger.ONE));
+            addIndexStoreRow(storeReport, "reopen", reopenNanoseconds, Benchmarks.usedHeap() - priorHeap, directory);
+            store.close();
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+        storeReport.write();
+    }
+
+    private static void addIndexStoreRow(BenchmarkReport storeReport, String stage, long nanoseconds, long retainedHeapBytes, Path directory) throws IOException {
+        long diskBytes;
+        try (Stream<Path> files = Files.list(directory)) {
+            diskBytes = files.mapToLong(file -> file.toFile().length()).sum();
+        }
+        storeReport.addRow(stage, TOKENS, nanoseconds, TOKENS * 1_000_000_000L / nanoseconds, Math.max(0, retainedHeapBytes), diskBytes);
+    }
+}
@@ -0,0 +1,166 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Feeds <code>AIP040IndexStore</code> and <code>AIP040Indexer</code> with the
+ * logs of a random workload on <code>InMemoryBackend</code>, one operation per
+ * block, and checks that the store answers the same after restarts, crashes
+ * and rollbacks.
+ */
+public class AIP040IndexStoreTest {
+
+    private static final int ACCOUNTS = 12;
+    private static final int TOKEN_CAPACITY = 2_000;
+    private static final int TARGET_SUPPLY = 600;
+    private static final int OPERATIONS = 3_000;
+    private static final int MAX_ROLLBACK_BLOCKS = 8;
+    private static final int CHECKPOINT_INTERVAL = 100;
+    // Small, so that the log spans many segments
+    private static final long SEGMENT_SIZE = 64 << 10;
+
+    private InMemoryBackend backend;
+    private Address[] accounts = new Address[ACCOUNTS];
+    private Path directory;
+    private AIP040IndexStore store;
+    private AIP040Indexer indexer = new AIP040Indexer(MAX_ROLLBACK_BLOCKS);
+    private NFTokenWorkload workload;
+    private long blockNumber = 0;
+
+    @Before
+    public void installBackend() throws IOException {
+        backend = InMemoryBackend.install();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xa0;
+            address[Address.LENGTH - 1] = (byte) i;
+            accounts[i] = new Address(address);
+        }
+        directory = Files.createTempDirectory("AIP040IndexStoreTest");
+        store = open();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testStoreMatchesIndexer() throws IOException {
+        startWorkload(31);
+        runWorkload(OPERATIONS);
+        checkStore();
+        Assert.assertTrue(indexer.totalSupply() > 0);
+        Assert.assertTrue(Files.exists(directory.resolve("events-00000001.log")));
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        startWorkload(32);
+        runWorkload(OPERATIONS);
+        store.close();
+        store = open();
+        checkStore();
+        runWorkload(OPERATIONS);
+        checkStore();
+    }
+
+    @Test
+    public void testRecoverAfterCrash() throws IOException {
+        startWorkload(34);
+        runWorkload(OPERATIONS + CHECKPOINT_INTERVAL / 2);
+        // Abandon the store after its checkpoint, with half a block at the end
+        // of the log
+        Path lastSegment = directory.resolve("events-00000000.log");
+        for (int i = 1; Files.exists(directory.resolve(String.format("events-%08d.log", i))); i++) {
+            lastSegment = directory.resolve(String.format("events-%08d.log", i));
+        }
+        byte[] partialBlock = new byte[40];
+        partialBlock[1 + Long.BYTES + Integer.BYTES - 1] = 1;
+        Files.write(lastSegment, partialBlock, StandardOpenOption.APPEND);
+        store = open();
+        checkStore();
+        Assert.assertEquals(blockNumber, store.getLastBlockNumber());
+        runWorkload(OPERATIONS);
+        checkStore();
+    }
+
+    @Test
+    public void testRollback() throws IOException {
+        startWorkload(36);
+        runWorkload(OPERATIONS);
+        Assert.assertEquals(MAX_ROLLBACK_BLOCKS, store.getRollbackDepth());
+        indexer.rollback(3);
+        store.rollback(3);
+        checkStore();
+
+        store.close();
+        store = open();
+        Assert.assertEquals(MAX_ROLLBACK_BLOCKS - 3, store.getRollbackDepth());
+        indexer.rollback(MAX_ROLLBACK_BLOCKS - 3);
+        store.rollback(MAX_ROLLBACK_BLOCKS - 3);
+        checkStore();
+        Assert.assertEquals(indexer.getLastBlockNumber(), store.getLastBlockNumber());
+
+        try {
+            store.rollback(1);
+            Assert.fail(); // Expected exception
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private AIP040IndexStore open() throws IOException {
+        return new AIP040IndexStore(directory, MAX_ROLLBACK_BLOCKS, CHECKPOINT_INTERVAL, SEGMENT_SIZE);
+    }
+
+    private void startWorkload(long seed) {
+        workload = new NFTokenWorkload(seed, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+    }
+
+    /**
+     * Runs operations on the backend, and applies the logs of each to both
+     * indexes as one block.
+     */
+    private void runWorkload(int operations) throws IOException {
+        for (int i = 0; i < operations; i++) {
+            int logCount = backend.getLogs().size();
+            workload.run(backend, workload.next());
+            List<AIP040Indexer.LogEntry> logs = new ArrayList<>();
+            for (InMemoryBackend.Log log : backend.getLogs().subList(logCount, backend.getLogs().size())) {
+                logs.add(new AIP040Indexer.LogEntry(log.topics, log.data));
+            }
+            blockNumber++;
+            indexer.applyBlock(blockNumber, logs);
+            store.applyBlock(blockNumber, logs);
+        }
+    }
+
+    private void checkStore() {
+        Assert.assertEquals(indexer.totalSupply(), store.totalSupply());
+        for (int i = 0; i < TOKEN_CAPACITY; i++) {
+            BigInteger tokenId = BigInteger.valueOf(i);
+            Assert.assertEquals(indexer.ownerOf(tokenId), store.ownerOf(tokenId));
+            Assert.assertEquals(indexer.consigneeOf(tokenId), store.consigneeOf(tokenId));
+        }
+        for (Address owner : accounts) {
+            Assert.assertEquals(indexer.balanceOf(owner), store.balanceOf(owner));
+            for (Address authorizee : accounts) {
+                Assert.assertEquals(indexer.isAuthorized(owner, authorizee), store.isAuthorized(owner, authorizee));
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds views of one AIP-040 contract from its log events, so that a wallet
+ * service can answer "which tokens does this account own" without calling the
+ * contract. Every lookup is O(1).
+ *
+ * Blocks are applied in order with <code>applyBlock</code>. The most recent
+ * blocks, up to <code>maxRollbackBlocks</code>, keep an undo journal so that
+ * they can be rolled back with <code>rollback</code> when the chain
+ * reorganizes.
+ */
+public class AIP040Indexer {
+
+    /**
+     * The topics and data of one log event, as stored by Aion.
+     */
+    public static final class LogEntry {
+        public final List<byte[]> topics;
+        public final byte[] data;
+
+        public LogEntry(List<byte[]> topics, byte[] data) {
+            this.topics = topics;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The undo journal of one applied block.
+     */
+    private static final class AppliedBlock {
+        private final long blockNumber;
+        private final List<Runnable> undo = new ArrayList<>();
+
+        private AppliedBlock(long blockNumber) {
+            this.blockNumber = blockNumber;
+        }
+    }
+
+    private final int maxRollbackBlocks;
+    private final Map<BigInteger, Address> ownerOfToken = new HashMap<>();
+    private final Map<BigInteger, Address> consigneeOfToken = new HashMap<>();
+    private final Map<Address, Set<BigInteger>> tokensOfOwner = new HashMap<>();
+    private final Map<Address, Set<Address>> authorizeesOfOwner = new HashMap<>();
+    private final Deque<AppliedBlock> appliedBlocks = new ArrayDeque<>();
+    private final AIP040LogDecoder decoder = new AIP040LogDecoder();
+    private final AIP040LogDecoder.Visitor visitor = this::applyEvent;
+    private AppliedBlock currentBlock;
+    private long lastBlockNumber = -1;
+
+    /**
+     * @param maxRollbackBlocks how many of the most recent blocks can be
+     *                          rolled back
+     */
+    public AIP040Indexer(int maxRollbackBlocks) {
+        if (maxRollbackBlocks < 0) {
+            throw new IllegalArgumentException("maxRollbackBlocks must not be negative");
+        }
+        this.maxRollbackBlocks = maxRollbackBlocks;
+    }
+
+    /**
+     * Applies the log events of the contract in one block.
+     *
+     * @param blockNumber higher than every block applied before
+     * @param logs        the log events of the contract in this block, in
+     *                    order
+     */
+    public void applyBlock(long blockNumber, List<LogEntry> logs) {
+        if (blockNumber <= lastBlockNumber) {
+            throw new IllegalArgumentException("Block " + blockNumber + " is not after block " + lastBlockNumber);
+        }
+        AppliedBlock block = new AppliedBlock(blockNumber);
+        currentBlock = block;
+        for (LogEntry log : logs) {
+            decoder.decode(log.topics, log.data, visitor);
+        }
+        lastBlockNumber = blockNumber;
+        appliedBlocks.addLast(block);
+        if (appliedBlocks.size() > maxRollbackBlocks) {
+            appliedBlocks.removeFirst();
+        }
+    }
+
+    /**
+     * Undoes the most recently applied blocks.
+     *
+     * @param blocks how many blocks to undo, at most the number which can be
+     *               rolled back
+     */
+    public void rollback(int blocks) {
+        if (blocks > appliedBlocks.size()) {
+            throw new IllegalArgumentException("Only " + appliedBlocks.size() + " blocks can be rolled back");
+        }
+        for (int i = 0; i < blocks; i++) {
+            AppliedBlock block = appliedBlocks.removeLast();
+            for (int j = block.undo.size() - 1; j >= 0; j--) {
+                block.undo.get(j).run();
+            }
+            lastBlockNumber = appliedBlocks.isEmpty() ? block.blockNumber - 1 : appliedBlocks.peekLast().blockNumber;
+        }
+    }
+
+    /**
+     * @return the number of the last applied block, or -1 if none
+     */
+    public long getLastBlockNumber() {
+        return lastBlockNumber;
+    }
+
+    /**
+     * @return how many blocks can be rolled back now
+     */
+    public int getRollbackDepth() {
+        return appliedBlocks.size();
+    }
+
+    public Address ownerOf(BigInteger tokenId) {
+        return ownerOfToken.get(tokenId);
+    }
+
+    public Address consigneeOf(BigInteger tokenId) {
+        return consigneeOfToken.get(tokenId);
+    }
+
+    /**
+     * @return a read-only view of the tokens of the owner, in no particular
+     *         order
+     */
+    public Set<BigInteger> tokensOf(Address owner) {
+        Set<BigInteger> tokens = tokensOfOwner.get(owner);
+        return tokens == null ? Collections.emptySet() : Collections.unmodifiableSet(tokens);
+    }
+
+    public long balanceOf(Address owner) {
+        Set<BigInteger> tokens = tokensOfOwner.get(owner);
+        return tokens == null ? 0 : tokens.size();
+    }
+
+    public long totalSupply() {
+        return ownerOfToken.size();
+    }
+
+    /**
+     * @return a read-only view of the accounts the owner authorizes
+     */
+    public Set<Address> authorizeesOf(Address owner) {
+        Set<Address> authorizees = authorizeesOfOwner.get(owner);
+        return authorizees == null ? Collections.emptySet() : Collections.unmodifiableSet(authorizees);
+    }
+
+    public boolean isAuthorized(Address owner, Address authorizee) {
+        Set<Address> authorizees = authorizeesOfOwner.get(owner);
+        return authorizees != null && authorizees.contains(authorizee);
+    }
+
+    private void applyEvent(AIP040LogDecoder.Event event) {
+        if (!event.isTokenEvent()) {
+            Address account = event.firstAccount();
+            Address authorizee = event.secondAccount();
+            boolean wasAuthorized = isAuthorized(account, authorizee);
+            currentBlock.undo.add(() -> setAuthorized(account, authorizee, wasAuthorized));
+            setAuthorized(account, authorizee, event.getType() == AIP040LogDecoder.AUTHORIZED);
+            return;
+        }
+
+        BigInteger tokenId = event.tokenId();
+        Address priorOwner = ownerOfToken.get(tokenId);
+        Address priorConsignee = consigneeOfToken.get(tokenId);
+        currentBlock.undo.add(() -> setToken(tokenId, priorOwner, priorConsignee));
+
+        switch (event.getType()) {
+            case AIP040LogDecoder.MINTED:
+                setToken(tokenId, event.firstAccount(), null);
+                break;
+            case AIP040LogDecoder.BURNED:
+                setToken(tokenId, null, null);
+                break;
+            case AIP040LogDecoder.TRANSFERRED:
+                setToken(tokenId, event.secondAccount(), null);
+                break;
+            case AIP040LogDecoder.CONSIGNED:
+                setToken(tokenId, priorOwner, event.secondAccount());
+                break;
+            default:
+                throw new IllegalStateException("Unknown event " + event.getType());
+        }
+    }
+
+    /**
+     * Sets the owner and consignee of a token, updating every index.
+     *
+     * @param owner     the owner, or null if the token does not exist
+     * @param consignee the consignee, or null if none
+     */
+    private void setToken(BigInteger tokenId, Address owner, Address consignee) {
+        Address priorOwner = owner == null ? ownerOfToken.remove(tokenId) : ownerOfToken.put(tokenId, owner);
+        if (priorOwner != null && !priorOwner.equals(owner)) {
+            Set<BigInteger> priorTokens = tokensOfOwner.get(priorOwner);
+            priorTokens.remove(tokenId);
+            if (priorTokens.isEmpty()) {
+                tokensOfOwner.remove(priorOwner);
+            }
+        }
+        if (owner != null) {
+            tokensOfOwner.computeIfAbsent(owner, key -> new LinkedHashSet<>()).add(tokenId);
+        }
+        if (consignee == null) {
+            consigneeOfToken.remove(tokenId);
+        } else {
+            consigneeOfToken.put(tokenId, consignee);
+        }
+    }
+
+    private void setAuthorized(Address owner, Address authorizee, boolean authorized) {
+        if (authorized) {
+            authorizeesOfOwner.computeIfAbsent(owner, key -> new LinkedHashSet<>()).add(authorizee);
+            return;
+        }
+        Set<Address> authorizees = authorizeesOfOwner.get(owner);
+        if (authorizees != null) {
+            authorizees.remove(authorizee);
+            if (authorizees.isEmpty()) {
+                authorizeesOfOwner.remove(owner);
+            }
+        }
+    }
+}
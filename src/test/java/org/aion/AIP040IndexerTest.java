@@ -0,0 +1,176 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+import org.aion.types.Log;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Feeds <code>AIP040Indexer</code> with the logs of <code>AvmRule</code>
+ * receipts, one transaction per block, and checks its views against the
+ * contract.
+ */
+public class AIP040IndexerTest {
+
+    @Rule
+    public AvmRule avmRule = new AvmRule(false);
+
+    private Address deployer = avmRule.getPreminedAccount();
+    private Address contractAddress;
+    private BigInteger balance = BigInteger.valueOf(1_000_000_000_000_000_000L).multiply(BigInteger.TEN);
+
+    private Address firstOwner = avmRule.getRandomAddress(balance);
+    private Address secondOwner = avmRule.getRandomAddress(balance);
+    private Address thirdOwner = avmRule.getRandomAddress(balance);
+    private Address[] accounts = {firstOwner, secondOwner, thirdOwner};
+    private BigInteger[] tokenIds = {BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3), BigInteger.valueOf(4), BigInteger.valueOf(100), BigInteger.valueOf(101), BigInteger.valueOf(102)};
+
+    private AIP040Indexer indexer = new AIP040Indexer(4);
+    private long blockNumber = 0;
+
+    @Before
+    public void deployDapp() {
+        contractAddress = DappFixture.deploy(avmRule, deployer);
+    }
+
+    @Test
+    public void testIndexMatchesContract() {
+        runScenario();
+        Assert.assertEquals(5, indexer.totalSupply());
+        Assert.assertEquals(blockNumber, indexer.getLastBlockNumber());
+    }
+
+    @Test
+    public void testIndexMatchesContractWithBatchedEvents() {
+        apply(deployer, NFTokenMockEncoder.setBatchedEvents(true));
+        runScenario();
+    }
+
+    @Test
+    public void testRollback() {
+        List<List<Object>> views = new ArrayList<>();
+        List<List<AIP040Indexer.LogEntry>> blocks = new ArrayList<>();
+        views.add(view());
+        blocks.add(apply(deployer, NFTokenMockEncoder.mint(firstOwner, new BigInteger[]{tokenIds[0], tokenIds[1]})));
+        views.add(view());
+        blocks.add(apply(firstOwner, AIP040Encoder.aip040Authorize(secondOwner)));
+        views.add(view());
+        blocks.add(apply(secondOwner, AIP040Encoder.aip040TakeOwnership(firstOwner, new BigInteger[]{tokenIds[0]})));
+        views.add(view());
+        blocks.add(apply(firstOwner, AIP040Encoder.aip040Consign(firstOwner, thirdOwner, new BigInteger[]{tokenIds[1]})));
+        views.add(view());
+        blocks.add(apply(firstOwner, AIP040Encoder.aip040Deauthorize(secondOwner)));
+        views.add(view());
+
+        //only the last 4 blocks can be rolled back
+        Assert.assertEquals(4, indexer.getRollbackDepth());
+        indexer.rollback(1);
+        Assert.assertEquals(views.get(4), view());
+        indexer.rollback(2);
+        Assert.assertEquals(views.get(2), view());
+        Assert.assertEquals(2, indexer.getLastBlockNumber());
+        try {
+            indexer.rollback(2);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        indexer.rollback(1);
+        Assert.assertEquals(views.get(1), view());
+        Assert.assertEquals(1, indexer.getLastBlockNumber());
+        Assert.assertEquals(0, indexer.getRollbackDepth());
+
+        //the replacement chain continues after the last kept block
+        try {
+            indexer.applyBlock(1, blocks.get(1));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        for (int i = 1; i < blocks.size(); i++) {
+            indexer.applyBlock(1 + i, blocks.get(i));
+            Assert.assertEquals(views.get(1 + i), view());
+        }
+    }
+
+    /**
+     * Runs a scenario touching every event, checking the index after each
+     * transaction.
+     */
+    private void runScenario() {
+        apply(deployer, NFTokenMockEncoder.mint(firstOwner, new BigInteger[]{tokenIds[0], tokenIds[1], tokenIds[2]}));
+        apply(deployer, NFTokenMockEncoder.mintToOwners(new Address[]{secondOwner}, new BigInteger[]{tokenIds[3]}));
+        apply(deployer, NFTokenMockEncoder.mintRange(thirdOwner, tokenIds[4], 3));
+        apply(firstOwner, AIP040Encoder.aip040Consign(firstOwner, secondOwner, new BigInteger[]{tokenIds[0], tokenIds[1]}));
+        apply(firstOwner, AIP040Encoder.aip040Consign(firstOwner, null, new BigInteger[]{tokenIds[1]}));
+        apply(secondOwner, AIP040Encoder.aip040TakeOwnership(firstOwner, new BigInteger[]{tokenIds[0]}));
+        apply(thirdOwner, AIP040Encoder.aip040Authorize(firstOwner));
+        apply(thirdOwner, AIP040Encoder.aip040Authorize(secondOwner));
+        apply(firstOwner, AIP040Encoder.aip040TakeOwnership(thirdOwner, new BigInteger[]{tokenIds[5], tokenIds[4]}));
+        apply(thirdOwner, AIP040Encoder.aip040Deauthorize(firstOwner));
+        apply(secondOwner, AIP040Encoder.aip040Consign(thirdOwner, firstOwner, new BigInteger[]{tokenIds[6]}));
+        apply(secondOwner, AIP040Encoder.aip040TakeOwnership(secondOwner, new BigInteger[]{tokenIds[0]}));
+        apply(thirdOwner, NFTokenMockEncoder.burn(thirdOwner, new BigInteger[]{tokenIds[6]}));
+        apply(firstOwner, NFTokenMockEncoder.burn(firstOwner, new BigInteger[]{tokenIds[4]}));
+    }
+
+    /**
+     * Runs one successful transaction as the next block, applies its logs and
+     * checks every view against the contract.
+     *
+     * @return the logs of the block
+     */
+    private List<AIP040Indexer.LogEntry> apply(Address caller, byte[] transactionData) {
+        AvmRule.ResultWrapper result = avmRule.call(caller, contractAddress, BigInteger.ZERO, transactionData);
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        List<AIP040Indexer.LogEntry> logs = new ArrayList<>();
+        for (Log log : result.getTransactionResult().logs) {
+            logs.add(new AIP040Indexer.LogEntry(log.copyOfTopics(), log.copyOfData()));
+        }
+        blockNumber++;
+        indexer.applyBlock(blockNumber, logs);
+
+        for (BigInteger tokenId : tokenIds) {
+            Assert.assertEquals(call(AIP040Encoder.aip040TokenOwner(tokenId)), indexer.ownerOf(tokenId));
+            Assert.assertEquals(call(AIP040Encoder.aip040TokenConsignee(tokenId)), indexer.consigneeOf(tokenId));
+        }
+        for (Address owner : accounts) {
+            BigInteger[] ownerTokens = (BigInteger[]) call(AIP040Encoder.aip040TokensForOwnerAtIndexRange(owner, BigInteger.ZERO, 100));
+            Assert.assertEquals(new HashSet<>(Arrays.asList(ownerTokens)), indexer.tokensOf(owner));
+            Assert.assertEquals(ownerTokens.length, indexer.balanceOf(owner));
+            for (Address authorizee : accounts) {
+                Assert.assertEquals(call(AIP040Encoder.aip040OwnerDoesAuthorize(owner, authorizee)), indexer.isAuthorized(owner, authorizee));
+            }
+        }
+        Assert.assertEquals(call(AIP040Encoder.aip040TotalSupply()), BigInteger.valueOf(indexer.totalSupply()));
+        return logs;
+    }
+
+    private Object call(byte[] transactionData) {
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, transactionData);
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        return result.getDecodedReturnData();
+    }
+
+    /**
+     * @return everything the indexer knows about the test accounts and tokens
+     */
+    private List<Object> view() {
+        List<Object> view = new ArrayList<>();
+        for (BigInteger tokenId : tokenIds) {
+            view.add(indexer.ownerOf(tokenId));
+            view.add(indexer.consigneeOf(tokenId));
+        }
+        for (Address owner : accounts) {
+            view.add(new HashSet<>(indexer.tokensOf(owner)));
+            view.add(new HashSet<>(indexer.authorizeesOf(owner)));
+        }
+        return view;
+    }
+}
@@ -0,0 +1,255 @@
+package org.aion;
+
+import avm.Address;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Indexes many AIP-040 contracts on a pool of worker threads, one
+ * <code>AIP040Indexer</code> per contract.
+ *
+ * Contracts are partitioned across workers by address, so each contract is
+ * only ever indexed by one worker and its blocks are applied in the order they
+ * were submitted. Each worker has a bounded queue, and <code>submit</code>
+ * waits while the queue of the contract is full, which holds the consumer of
+ * the chain back to the pace of the slowest partition. Workers take every
+ * queued block at once, up to <code>batchSize</code>, so that a busy queue is
+ * locked once per batch rather than once per block.
+ *
+ * The indexers are only read after <code>flush</code>, which waits for every
+ * submitted block to be applied.
+ *
+ * A contract whose block fails to apply is quarantined: its later blocks are
+ * skipped, as its index is no longer consistent, while other contracts are
+ * indexed on. An <code>Error</code> in a worker stops the whole engine, and
+ * <code>flush</code> and <code>submit</code> then throw.
+ */
+public class AIP040IndexingEngine implements AutoCloseable {
+
+    /**
+     * The log events of one contract in one block, or a flush barrier.
+     */
+    private static final class Task {
+        private final Address contract;
+        private final long blockNumber;
+        private final List<AIP040Indexer.LogEntry> logs;
+        private final CountDownLatch barrier;
+
+        private Task(Address contract, long blockNumber, List<AIP040Indexer.LogEntry> logs, CountDownLatch barrier) {
+            this.contract = contract;
+            this.blockNumber = blockNumber;
+            this.logs = logs;
+            this.barrier = barrier;
+        }
+    }
+
+    private static final Task STOP = new Task(null, 0, null, null);
+    private static final long POLL_MILLIS = 100;
+
+    private final int maxRollbackBlocks;
+    private final int batchSize;
+    private final List<BlockingQueue<Task>> queues = new ArrayList<>();
+    // The indexers of each partition, only touched by its worker until flush
+    private final List<Map<Address, AIP040Indexer>> indexers = new ArrayList<>();
+    private final List<Thread> workers = new ArrayList<>();
+    // The quarantined contracts, with the failure of their block
+    private final Map<Address, RuntimeException> failures = new ConcurrentHashMap<>();
+    // An error which stopped the engine
+    private final AtomicReference<Throwable> fatalError = new AtomicReference<>();
+    private boolean isClosed;
+
+    /**
+     * Starts the workers.
+     *
+     * @param workerCount       the number of worker threads and partitions
+     * @param queueCapacity     how many blocks each partition queues before
+     *                          <code>submit</code> waits
+     * @param batchSize         the most blocks a worker takes from its queue
+     *                          at once
+     * @param maxRollbackBlocks passed to each <code>AIP040Indexer</code>
+     */
+    public AIP040IndexingEngine(int workerCount, int queueCapacity, int batchSize, int maxRollbackBlocks) {
+        if (workerCount < 1 || queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("workerCount, queueCapacity and batchSize must be positive");
+        }
+        this.maxRollbackBlocks = maxRollbackBlocks;
+        this.batchSize = batchSize;
+        for (int i = 0; i < workerCount; i++) {
+            BlockingQueue<Task> queue = new ArrayBlockingQueue<>(queueCapacity);
+            Map<Address, AIP040Indexer> partition = new HashMap<>();
+            Thread worker = new Thread(() -> work(queue, partition), "AIP040IndexingEngine-" + i);
+            worker.setDaemon(true);
+            queues.add(queue);
+            indexers.add(partition);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues the log events of one contract in one block, waiting while the
+     * queue of its partition is full.
+     *
+     * @param contract    the address of the contract which logged the events
+     * @param blockNumber higher than every block submitted before for this
+     *                    contract
+     * @param logs        the log events of the contract in this block, in
+     *                    order, which must not change afterwards
+     * @throws IllegalStateException if a worker failed with an error or
+     *                               stopped
+     */
+    public void submit(Address contract, long blockNumber, List<AIP040Indexer.LogEntry> logs) throws InterruptedException {
+        checkFailure();
+        BlockingQueue<Task> queue = queues.get(partition(contract));
+        Task task = new Task(contract, blockNumber, logs, null);
+        // The queue of a worker which died stays full
+        while (!queue.offer(task, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkWorkers();
+        }
+    }
+
+    /**
+     * Waits until every submitted block has been applied, or skipped for a
+     * quarantined contract.
+     *
+     * @throws IllegalStateException if a worker failed with an error or
+     *                               stopped
+     */
+    public void flush() throws InterruptedException {
+        CountDownLatch barrier = new CountDownLatch(queues.size());
+        Task task = new Task(null, 0, null, barrier);
+        for (BlockingQueue<Task> queue : queues) {
+            // The queue of a worker which died stays full
+            while (!queue.offer(task, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkWorkers();
+            }
+        }
+        // A worker which died would never count down
+        while (!barrier.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkWorkers();
+        }
+        checkFailure();
+    }
+
+    /**
+     * @return the indexer of a contract as of the last <code>flush</code>,
+     *         or null if none of its blocks were submitted
+     * @throws IllegalStateException if the contract is quarantined
+     */
+    public AIP040Indexer indexerOf(Address contract) {
+        RuntimeException cause = failures.get(contract);
+        if (cause != null) {
+            throw new IllegalStateException("A block of " + contract + " failed to apply", cause);
+        }
+        return indexers.get(partition(contract)).get(contract);
+    }
+
+    /**
+     * @return the quarantined contracts as of the last <code>flush</code>,
+     *         with the failure of the block which quarantined each
+     */
+    public Map<Address, RuntimeException> getFailures() {
+        return new HashMap<>(failures);
+    }
+
+    /**
+     * @return the number of contracts indexed as of the last
+     *         <code>flush</code>, not counting quarantined contracts
+     */
+    public int getContractCount() {
+        int count = 0;
+        for (Map<Address, AIP040Indexer> partition : indexers) {
+            count += partition.size();
+        }
+        return count;
+    }
+
+    /**
+     * Applies the blocks already submitted and stops the workers.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        for (int i = 0; i < queues.size(); i++) {
+            // The queue of a worker which died may stay full
+            if (workers.get(i).isAlive()) {
+                queues.get(i).put(STOP);
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    private int partition(Address contract) {
+        int hash = contract.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), queues.size());
+    }
+
+    private void checkFailure() {
+        Throwable cause = fatalError.get();
+        if (cause != null) {
+            throw new IllegalStateException("A worker failed", cause);
+        }
+    }
+
+    private void checkWorkers() {
+        checkFailure();
+        for (Thread worker : workers) {
+            if (!worker.isAlive()) {
+                throw new IllegalStateException("A worker stopped: " + worker.getName());
+            }
+        }
+    }
+
+    private void work(BlockingQueue<Task> queue, Map<Address, AIP040Indexer> partition) {
+        List<Task> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, batchSize - 1);
+                for (Task task : batch) {
+                    if (task == STOP) {
+                        return;
+                    }
+                    if (task.barrier != null) {
+                        task.barrier.countDown();
+                    } else if (fatalError.get() == null && !failures.containsKey(task.contract)) {
+                        apply(task, partition);
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fatalError.compareAndSet(null, e);
+            throw e;
+        }
+    }
+
+    private void apply(Task task, Map<Address, AIP040Indexer> partition) {
+        try {
+            partition.computeIfAbsent(task.contract, key -> new AIP040Indexer(maxRollbackBlocks)).applyBlock(task.blockNumber, task.logs);
+        } catch (RuntimeException e) {
+            // Later blocks are skipped, the index is no longer consistent
+            partition.remove(task.contract);
+            failures.put(task.contract, e);
+        } catch (Error e) {
+            // Later blocks are skipped, barriers are still counted down
+            fatalError.compareAndSet(null, e);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how <code>AIP040IndexingEngine</code> scales with its workers.
+ * Results are written by <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040IndexingEngineBenchmark {
+
+    private static final long SEED = 19;
+    private static final int ACCOUNTS = 32;
+    private static final int[] WORKERS = {1, 2, 4, 8, 16};
+    private static final int CONTRACTS = 256;
+    private static final int BLOCKS = 200;
+    private static final int OPERATIONS_PER_BLOCK = 50;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * Indexes many contracts with <code>AIP040IndexingEngine</code> for each
+     * number of workers, reporting the throughput in events and the speedup
+     * over one worker. The logs are those of a random workload of mints,
+     * transfers and consignments on <code>InMemoryBackend</code>, logged by
+     * <code>AIP040Events</code>, and every contract is fed the same blocks.
+     *
+     * The measured speedup is bounded by <code>availableProcessors</code>, so
+     * the CPU time of each worker and of the submitting thread is reported
+     * too. Were each on its own processor, the run would take at least the
+     * longest of them, so the total over the longest bounds the speedup of
+     * the partitioning over running the same work on one processor.
+     */
+    @Test
+    public void benchmarkIndexingEngine() throws InterruptedException {
+        BenchmarkReport engineReport = new BenchmarkReport(
+            "AIP040IndexingEngineBenchmark",
+            "workers",
+            "availableProcessors",
+            "contracts",
+            "events",
+            "nanoseconds",
+            "eventsPerSecond",
+            "speedup",
+            "workerCpuNanoseconds",
+            "maxWorkerCpuNanoseconds",
+            "submitCpuNanoseconds",
+            "speedupBound"
+        );
+        InMemoryBackend backend = InMemoryBackend.install();
+        Address[] accounts = Benchmarks.accounts(ACCOUNTS);
+        NFTokenWorkload workload = new NFTokenWorkload(SEED, accounts, BLOCKS * OPERATIONS_PER_BLOCK, BLOCKS * OPERATIONS_PER_BLOCK / 10);
+        List<List<AIP040Indexer.LogEntry>> blocks = new ArrayList<>();
+        AIP040LogDecoder decoder = new AIP040LogDecoder();
+        long eventsPerContract = 0;
+        for (int block = 0; block < BLOCKS; block++) {
+            int logCount = backend.getLogs().size();
+            for (int i = 0; i < OPERATIONS_PER_BLOCK; i++) {
+                workload.run(backend, workload.next());
+            }
+            List<AIP040Indexer.LogEntry> logs = new ArrayList<>();
+            for (InMemoryBackend.Log log : backend.getLogs().subList(logCount, backend.getLogs().size())) {
+                logs.add(new AIP040Indexer.LogEntry(log.topics, log.data));
+                eventsPerContract += decoder.decode(log.topics, log.data, event -> {});
+            }
+            blocks.add(logs);
+        }
+        // Accounts beyond those of the workload
+        Address[] contracts = Arrays.copyOfRange(Benchmarks.accounts(ACCOUNTS + CONTRACTS), ACCOUNTS, ACCOUNTS + CONTRACTS);
+
+        long events = eventsPerContract * CONTRACTS;
+        // Warm up, so that one worker is not also measuring the JIT compiler
+        runIndexingEngine(WORKERS[WORKERS.length - 1], contracts, blocks);
+        long singleWorkerNanoseconds = 0;
+        for (int workers : WORKERS) {
+            long[] times = runIndexingEngine(workers, contracts, blocks);
+            long nanoseconds = times[0];
+            if (workers == 1) {
+                singleWorkerNanoseconds = nanoseconds;
+            }
+            long longest = Math.max(times[2], times[3]);
+            engineReport.addRow(
+                workers,
+                Runtime.getRuntime().availableProcessors(),
+                CONTRACTS,
+                events,
+                nanoseconds,
+                events * 1_000_000_000L / nanoseconds,
+                String.format("%.2f", (double) singleWorkerNanoseconds / nanoseconds),
+                times[1],
+                times[2],
+                times[3],
+                String.format("%.2f", (double) (times[1] + times[3]) / longest)
+            );
+        }
+        engineReport.write();
+    }
+
+    /**
+     * @return the nanoseconds to submit every block to every contract and
+     *         flush
+     */
+    /**
+     * @return the time of the run, the CPU time of all the workers, of the
+     *         busiest worker and of the submitting thread, in nanoseconds
+     */
+    private static long[] runIndexingEngine(int workers, Address[] contracts, List<List<AIP040Indexer.LogEntry>> blocks) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long startCpuTime = threads.getCurrentThreadCpuTime();
+        long startTime = System.nanoTime();
+        long[] times = new long[4];
+        try (AIP040IndexingEngine engine = new AIP040IndexingEngine(workers, QUEUE_CAPACITY, BATCH_SIZE, 0)) {
+            for (int block = 0; block < blocks.size(); block++) {
+                for (Address contract : contracts) {
+                    engine.submit(contract, block, blocks.get(block));
+                }
+            }
+            engine.flush();
+            times[0] = System.nanoTime() - startTime;
+            times[3] = threads.getCurrentThreadCpuTime() - startCpuTime;
+            Assert.assertEquals(contracts.length, engine.getContractCount());
+            Assert.assertTrue(engine.getFailures().isEmpty());
+            // The workers of earlier runs were joined on close
+            int workerCount = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().startsWith("AIP040IndexingEngine-")) {
+                    long cpuTime = threads.getThreadCpuTime(thread.getId());
+                    times[1] += cpuTime;
+                    times[2] = Math.max(times[2], cpuTime);
+                    workerCount++;
+                }
+            }
+            Assert.assertEquals(workers, workerCount);
+        }
+        return times;
+    }
+}
@@ -0,0 +1,205 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Feeds <code>AIP040IndexingEngine</code> with the logs of a different random
+ * workload for each contract, interleaved block by block, and checks each
+ * contract against an <code>AIP040Indexer</code> fed on its own.
+ */
+public class AIP040IndexingEngineTest {
+
+    private static final int CONTRACTS = 20;
+    private static final int WORKERS = 4;
+    // Small, so that submit waits on full queues
+    private static final int QUEUE_CAPACITY = 4;
+    private static final int BATCH_SIZE = 16;
+    private static final int ACCOUNTS = 8;
+    private static final int TOKEN_CAPACITY = 400;
+    private static final int TARGET_SUPPLY = 100;
+    private static final int BLOCKS = 200;
+    private static final int OPERATIONS_PER_BLOCK = 5;
+
+    private Address[] accounts = new Address[ACCOUNTS];
+    private Address[] contracts = new Address[CONTRACTS];
+
+    @Before
+    public void makeAccounts() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xa0;
+            address[Address.LENGTH - 1] = (byte) i;
+            accounts[i] = new Address(address);
+        }
+        for (int i = 0; i < CONTRACTS; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xc0;
+            address[Address.LENGTH - 1] = (byte) i;
+            contracts[i] = new Address(address);
+        }
+    }
+
+    @Test
+    public void testEngineMatchesIndexers() throws InterruptedException {
+        List<List<List<AIP040Indexer.LogEntry>>> blocks = new ArrayList<>();
+        for (int i = 0; i < CONTRACTS; i++) {
+            blocks.add(simulateBlocks(40 + i));
+        }
+        try (AIP040IndexingEngine engine = new AIP040IndexingEngine(WORKERS, QUEUE_CAPACITY, BATCH_SIZE, 0)) {
+            for (int block = 0; block < BLOCKS; block++) {
+                for (int contract = 0; contract < CONTRACTS; contract++) {
+                    engine.submit(contracts[contract], block, blocks.get(contract).get(block));
+                }
+            }
+            engine.flush();
+            Assert.assertEquals(CONTRACTS, engine.getContractCount());
+            for (int contract = 0; contract < CONTRACTS; contract++) {
+                AIP040Indexer expected = new AIP040Indexer(0);
+                for (int block = 0; block < BLOCKS; block++) {
+                    expected.applyBlock(block, blocks.get(contract).get(block));
+                }
+                AIP040Indexer actual = engine.indexerOf(contracts[contract]);
+                Assert.assertEquals(BLOCKS - 1, actual.getLastBlockNumber());
+                Assert.assertEquals(expected.totalSupply(), actual.totalSupply());
+                for (int i = 0; i < TOKEN_CAPACITY; i++) {
+                    BigInteger tokenId = BigInteger.valueOf(i);
+                    Assert.assertEquals(expected.ownerOf(tokenId), actual.ownerOf(tokenId));
+                    Assert.assertEquals(expected.consigneeOf(tokenId), actual.consigneeOf(tokenId));
+                }
+                for (Address owner : accounts) {
+                    Assert.assertEquals(expected.tokensOf(owner), actual.tokensOf(owner));
+                    Assert.assertEquals(expected.authorizeesOf(owner), actual.authorizeesOf(owner));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFailedBlockQuarantinesContract() throws InterruptedException {
+        List<List<AIP040Indexer.LogEntry>> blocks = simulateBlocks(60);
+        try (AIP040IndexingEngine engine = new AIP040IndexingEngine(WORKERS, QUEUE_CAPACITY, BATCH_SIZE, 0)) {
+            for (int block = 0; block < BLOCKS; block++) {
+                // Block 1 of the first contract is not after block 1
+                engine.submit(contracts[0], block == 2 ? 1 : block, blocks.get(block));
+                engine.submit(contracts[1], block, blocks.get(block));
+            }
+            engine.flush();
+            Assert.assertEquals(1, engine.getContractCount());
+            Assert.assertEquals(1, engine.getFailures().size());
+            Assert.assertTrue(engine.getFailures().get(contracts[0]) instanceof IllegalArgumentException);
+            try {
+                engine.indexerOf(contracts[0]);
+                Assert.fail(); // Expected exception
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+            }
+            Assert.assertEquals(BLOCKS - 1, engine.indexerOf(contracts[1]).getLastBlockNumber());
+
+            engine.submit(contracts[1], BLOCKS, new ArrayList<>());
+            engine.flush();
+            Assert.assertEquals(BLOCKS, engine.indexerOf(contracts[1]).getLastBlockNumber());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testErrorDoesNotHangFlush() throws InterruptedException {
+        List<AIP040Indexer.LogEntry> failing = new AbstractList<>() {
+            @Override
+            public AIP040Indexer.LogEntry get(int index) {
+                throw new AssertionError("Failing block");
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        try (AIP040IndexingEngine engine = new AIP040IndexingEngine(WORKERS, QUEUE_CAPACITY, BATCH_SIZE, 0)) {
+            engine.submit(contracts[0], 0, failing);
+            try {
+                engine.flush();
+                Assert.fail(); // Expected exception
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getCause() instanceof AssertionError);
+            }
+            try {
+                engine.submit(contracts[1], 0, new ArrayList<>());
+                Assert.fail(); // Expected exception
+            } catch (IllegalStateException e) {
+                Assert.assertTrue(e.getCause() instanceof AssertionError);
+            }
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void testStoppedWorkerDoesNotHangFlush() throws InterruptedException {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch never = new CountDownLatch(1);
+        AtomicReference<Thread> worker = new AtomicReference<>();
+        List<AIP040Indexer.LogEntry> blocking = new AbstractList<>() {
+            @Override
+            public AIP040Indexer.LogEntry get(int index) {
+                worker.set(Thread.currentThread());
+                entered.countDown();
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    // The worker takes its next block interrupted, and stops
+                    Thread.currentThread().interrupt();
+                }
+                throw new IllegalStateException("Interrupted block");
+            }
+
+            @Override
+            public int size() {
+                return 1;
+            }
+        };
+        try (AIP040IndexingEngine engine = new AIP040IndexingEngine(1, QUEUE_CAPACITY, BATCH_SIZE, 0)) {
+            engine.submit(contracts[0], 0, blocking);
+            entered.await();
+            // Fill the queue while the worker is busy, then stop it
+            for (int block = 1; block <= QUEUE_CAPACITY; block++) {
+                engine.submit(contracts[1], block, new ArrayList<>());
+            }
+            worker.get().interrupt();
+            worker.get().join();
+            try {
+                engine.flush();
+                Assert.fail(); // Expected exception
+            } catch (IllegalStateException e) {
+                Assert.assertNull(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return the logs of a random workload on a new
+     *         <code>InMemoryBackend</code>, grouped into blocks
+     */
+    private List<List<AIP040Indexer.LogEntry>> simulateBlocks(long seed) {
+        InMemoryBackend backend = InMemoryBackend.install();
+        NFTokenWorkload workload = new NFTokenWorkload(seed, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+        List<List<AIP040Indexer.LogEntry>> blocks = new ArrayList<>();
+        for (int block = 0; block < BLOCKS; block++) {
+            int logCount = backend.getLogs().size();
+            for (int i = 0; i < OPERATIONS_PER_BLOCK; i++) {
+                workload.run(backend, workload.next());
+            }
+            List<AIP040Indexer.LogEntry> logs = new ArrayList<>();
+            for (InMemoryBackend.Log log : backend.getLogs().subList(logCount, backend.getLogs().size())) {
+                logs.add(new AIP040Indexer.LogEntry(log.topics, log.data));
+            }
+            blocks.add(logs);
+        }
+        return blocks;
+    }
+}
@@ -0,0 +1,330 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decodes the log events of <code>AIP040Events</code> without allocating for
+ * each event, for indexers which decode millions of logs.
+ * <code>AIP040EventDecoder</code> is simpler where speed does not matter.
+ *
+ * The event name is matched against precomputed 32-byte topics, accounts and
+ * token identifiers are read in place from the topic and data arrays. Each
+ * event is passed to a <code>Visitor</code> as the same reused
+ * <code>Event</code>, which is only valid during the callback. Batch events
+ * and range events are expanded into the per-token events they replace, just
+ * like <code>AIP040EventDecoder</code>.
+ *
+ * A decoder is not thread-safe, use one for each thread.
+ */
+public class AIP040LogDecoder {
+
+    public static final int MINTED = 1;
+    public static final int BURNED = 2;
+    public static final int TRANSFERRED = 3;
+    public static final int CONSIGNED = 4;
+    public static final int AUTHORIZED = 5;
+    public static final int DEAUTHORIZED = 6;
+
+    private static final int TOPIC_LENGTH = 32;
+    private static final int TOKEN_ID_LENGTH = 32;
+    // The first character after "AIP040", which tells apart the event names
+    private static final int NAME_INDEX = 6;
+
+    private static final byte[] MINTED_TOPIC = topic("AIP040Minted");
+    private static final byte[] MINTED_BATCH_TOPIC = topic("AIP040MintedBatch");
+    private static final byte[] MINTED_RANGE_TOPIC = topic("AIP040MintedRange");
+    private static final byte[] BURNED_TOPIC = topic("AIP040Burned");
+    private static final byte[] TRANSFERRED_TOPIC = topic("AIP040Transferred");
+    private static final byte[] TRANSFERRED_BATCH_TOPIC = topic("AIP040TransferredBatch");
+    private static final byte[] CONSIGNED_TOPIC = topic("AIP040Consigned");
+    private static final byte[] CONSIGNED_BATCH_TOPIC = topic("AIP040ConsignedBatch");
+    private static final byte[] AUTHORIZED_TOPIC = topic("AIP040Authorized");
+    private static final byte[] DEAUTHORIZED_TOPIC = topic("AIP040Deauthorized");
+
+    /**
+     * Receives each decoded event.
+     */
+    public interface Visitor {
+        /**
+         * @param event only valid until this returns
+         */
+        void visit(Event event);
+    }
+
+    /**
+     * One per-token or authorization event, a view into the decoded log.
+     */
+    public static final class Event {
+        private int type;
+        private byte[] firstAccount;
+        private byte[] secondAccount;
+        private byte[] tokenId;
+        private int tokenIdOffset;
+
+        private Event() {
+        }
+
+        /**
+         * @return one of <code>MINTED</code>, <code>BURNED</code>,
+         *         <code>TRANSFERRED</code>, <code>CONSIGNED</code>,
+         *         <code>AUTHORIZED</code> or <code>DEAUTHORIZED</code>
+         */
+        public int getType() {
+            return type;
+        }
+
+        public boolean isTokenEvent() {
+            return type <= CONSIGNED;
+        }
+
+        /**
+         * @return true if the event logged a first account, which is the owner,
+         *         the prior owner for <code>TRANSFERRED</code>, or the
+         *         authorizing account
+         */
+        public boolean hasFirstAccount() {
+            return firstAccount != null;
+        }
+
+        /**
+         * @return true if the event logged a second account, which is the new
+         *         owner for <code>TRANSFERRED</code>, the consignee for
+         *         <code>CONSIGNED</code>, or the authorizee
+         */
+        public boolean hasSecondAccount() {
+            return secondAccount != null;
+        }
+
+        public boolean firstAccountEquals(byte[] address) {
+            return accountEquals(firstAccount, address);
+        }
+
+        public boolean secondAccountEquals(byte[] address) {
+            return accountEquals(secondAccount, address);
+        }
+
+        /**
+         * Copies the first account into <code>destination</code>, or zeros if
+         * none was logged.
+         */
+        public void copyFirstAccount(byte[] destination, int offset) {
+            copyAccount(firstAccount, destination, offset);
+        }
+
+        /**
+         * Copies the second account into <code>destination</code>, or zeros if
+         * none was logged.
+         */
+        public void copySecondAccount(byte[] destination, int offset) {
+            copyAccount(secondAccount, destination, offset);
+        }
+
+        /**
+         * @return a new <code>Address</code>, or null if none was logged
+         */
+        public Address firstAccount() {
+            return firstAccount == null ? null : new Address(firstAccount);
+        }
+
+        /**
+         * @return a new <code>Address</code>, or null if none was logged
+         */
+        public Address secondAccount() {
+            return secondAccount == null ? null : new Address(secondAccount);
+        }
+
+        /**
+         * @return true if the token identifier is between
+         *         <code>Long.MIN_VALUE</code> and <code>Long.MAX_VALUE</code>
+         */
+        public boolean tokenIdFitsLong() {
+            byte sign = tokenId[tokenIdOffset + TOKEN_ID_LENGTH - Long.BYTES] < 0 ? (byte) -1 : 0;
+            for (int i = tokenIdOffset; i < tokenIdOffset + TOKEN_ID_LENGTH - Long.BYTES; i++) {
+                if (tokenId[i] != sign) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return the token identifier, only meaningful if
+         *         <code>tokenIdFitsLong</code>
+         */
+        public long tokenIdAsLong() {
+            long value = 0;
+            for (int i = tokenIdOffset + TOKEN_ID_LENGTH - Long.BYTES; i < tokenIdOffset + TOKEN_ID_LENGTH; i++) {
+                value = (value << Byte.SIZE) | (tokenId[i] & 0xFF);
+            }
+            return value;
+        }
+
+        /**
+         * @return a new <code>BigInteger</code> of the token identifier
+         */
+        public BigInteger tokenId() {
+            return new BigInteger(tokenId, tokenIdOffset, TOKEN_ID_LENGTH);
+        }
+
+        /**
+         * Copies the token identifier, padded to 32 bytes using signed
+         * padding, into <code>destination</code>.
+         */
+        public void copyTokenId(byte[] destination, int offset) {
+            System.arraycopy(tokenId, tokenIdOffset, destination, offset, TOKEN_ID_LENGTH);
+        }
+
+        private static boolean accountEquals(byte[] account, byte[] address) {
+            return account == null ? address == null : address != null && Arrays.equals(account, address);
+        }
+
+        private static void copyAccount(byte[] account, byte[] destination, int offset) {
+            if (account == null) {
+                Arrays.fill(destination, offset, offset + Address.LENGTH, (byte) 0);
+            } else {
+                System.arraycopy(account, 0, destination, offset, Address.LENGTH);
+            }
+        }
+    }
+
+    private final Event event = new Event();
+    // Range events count up from the start in here
+    private final byte[] rangeTokenId = new byte[TOKEN_ID_LENGTH];
+
+    /**
+     * Decodes one log and passes each of its events to the visitor, in order.
+     * Logs which are not AIP-040 events are skipped.
+     *
+     * @param  topics  the topics of one log, as padded to 32 bytes by Aion
+     * @param  data    the data of the log
+     * @param  visitor receives each event
+     * @return         the number of events passed to the visitor
+     */
+    public long decode(List<byte[]> topics, byte[] data, Visitor visitor) {
+        if (topics.isEmpty()) {
+            return 0;
+        }
+        byte[] name = topics.get(0);
+        if (name.length != TOPIC_LENGTH) {
+            return 0;
+        }
+        switch (name[NAME_INDEX]) {
+            case 'M':
+                if (Arrays.equals(name, MINTED_TOPIC)) {
+                    return visitOne(MINTED, topics.get(1), null, topics.get(2), visitor);
+                }
+                if (Arrays.equals(name, MINTED_BATCH_TOPIC)) {
+                    return visitBatch(MINTED, topics.get(1), null, data, visitor);
+                }
+                if (Arrays.equals(name, MINTED_RANGE_TOPIC)) {
+                    return visitRange(topics.get(1), topics.get(2), AVMBlockchainWrapper.decodeLong(data), visitor);
+                }
+                return 0;
+            case 'B':
+                if (Arrays.equals(name, BURNED_TOPIC)) {
+                    return visitOne(BURNED, topics.get(1), null, topics.get(2), visitor);
+                }
+                return 0;
+            case 'T':
+                if (Arrays.equals(name, TRANSFERRED_TOPIC)) {
+                    return visitOne(TRANSFERRED, topics.get(1), topics.get(2), topics.get(3), visitor);
+                }
+                if (Arrays.equals(name, TRANSFERRED_BATCH_TOPIC)) {
+                    return visitBatch(TRANSFERRED, topics.get(1), topics.get(2), data, visitor);
+                }
+                return 0;
+            case 'C':
+                if (Arrays.equals(name, CONSIGNED_TOPIC)) {
+                    return visitOne(CONSIGNED, topics.get(1), topics.get(2), topics.get(3), visitor);
+                }
+                if (Arrays.equals(name, CONSIGNED_BATCH_TOPIC)) {
+                    return visitBatch(CONSIGNED, topics.get(1), topics.get(2), data, visitor);
+                }
+                return 0;
+            case 'A':
+                if (Arrays.equals(name, AUTHORIZED_TOPIC)) {
+                    return visitOne(AUTHORIZED, topics.get(1), topics.get(2), null, visitor);
+                }
+                return 0;
+            case 'D':
+                if (Arrays.equals(name, DEAUTHORIZED_TOPIC)) {
+                    return visitOne(DEAUTHORIZED, topics.get(1), topics.get(2), null, visitor);
+                }
+                return 0;
+            default:
+                return 0;
+        }
+    }
+
+    private long visitOne(int type, byte[] firstAccount, byte[] secondAccount, byte[] tokenId, Visitor visitor) {
+        set(type, firstAccount, secondAccount);
+        event.tokenId = tokenId;
+        event.tokenIdOffset = 0;
+        visitor.visit(event);
+        return 1;
+    }
+
+    private long visitBatch(int type, byte[] firstAccount, byte[] secondAccount, byte[] data, Visitor visitor) {
+        if (data.length % TOKEN_ID_LENGTH != 0) {
+            throw new IllegalArgumentException("Batch data is not a whole number of token identifiers: " + data.length);
+        }
+        set(type, firstAccount, secondAccount);
+        event.tokenId = data;
+        for (int offset = 0; offset < data.length; offset += TOKEN_ID_LENGTH) {
+            event.tokenIdOffset = offset;
+            visitor.visit(event);
+        }
+        return data.length / TOKEN_ID_LENGTH;
+    }
+
+    private long visitRange(byte[] owner, byte[] start, long count, Visitor visitor) {
+        set(MINTED, owner, null);
+        System.arraycopy(start, 0, rangeTokenId, 0, TOKEN_ID_LENGTH);
+        event.tokenId = rangeTokenId;
+        event.tokenIdOffset = 0;
+        for (long i = 0; i < count; i++) {
+            if (i > 0) {
+                increment(rangeTokenId);
+            }
+            visitor.visit(event);
+        }
+        return count;
+    }
+
+    private void set(int type, byte[] firstAccount, byte[] secondAccount) {
+        event.type = type;
+        event.firstAccount = isZero(firstAccount) ? null : firstAccount;
+        event.secondAccount = secondAccount == null || isZero(secondAccount) ? null : secondAccount;
+    }
+
+    /**
+     * Adds one to a signed big-endian number in place.
+     */
+    private static void increment(byte[] number) {
+        for (int i = number.length - 1; i >= 0; i--) {
+            if (++number[i] != 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true for the all-zero topic logged for no account
+     */
+    private static boolean isZero(byte[] topic) {
+        for (byte b : topic) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] topic(String name) {
+        return Arrays.copyOf(name.getBytes(), TOPIC_LENGTH);
+    }
+}
@@ -0,0 +1,109 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how fast log events are decoded on the host, for indexers.
+ * Results are written by <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040LogDecoderBenchmark {
+
+    private static final int TOKENS = 100_000;
+    private static final int ACCOUNTS = 1_000;
+    private static final int BATCH_SIZE = 500;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Compares decoding log events with <code>AIP040EventDecoder</code>
+     * against the allocation-free <code>AIP040LogDecoder</code>, on the logs
+     * of a simulated airdrop and one transfer of every token, with per-token
+     * and with batched events. The first round warms up the JIT and is not
+     * reported.
+     */
+    @Test
+    public void benchmarkLogDecoder() {
+        BenchmarkReport decoderReport = new BenchmarkReport(
+            "NFTokenDecoderBenchmark",
+            "decoder",
+            "batchedEvents",
+            "events",
+            "nanoseconds",
+            "eventsPerSecond"
+        );
+        for (boolean batchedEvents : new boolean[]{false, true}) {
+            List<InMemoryBackend.Log> logs = simulateLogs(batchedEvents);
+            AIP040LogDecoder decoder = new AIP040LogDecoder();
+            long[] tokenIdSum = new long[1];
+            AIP040LogDecoder.Visitor visitor = event -> {
+                if (event.isTokenEvent()) {
+                    tokenIdSum[0] += event.tokenIdAsLong();
+                }
+            };
+
+            for (int round = 0; round <= ROUNDS; round++) {
+                long startTime = System.nanoTime();
+                long events = 0;
+                for (InMemoryBackend.Log log : logs) {
+                    for (AIP040EventDecoder.TokenEvent event : AIP040EventDecoder.decode(log.topics, log.data)) {
+                        tokenIdSum[0] += event.tokenId.longValue();
+                        events++;
+                    }
+                    if (AIP040EventDecoder.decodeAuthorization(log.topics) != null) {
+                        events++;
+                    }
+                }
+                long naiveNanoseconds = System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                long decodedEvents = 0;
+                for (InMemoryBackend.Log log : logs) {
+                    decodedEvents += decoder.decode(log.topics, log.data, visitor);
+                }
+                long nanoseconds = System.nanoTime() - startTime;
+
+                Assert.assertEquals(events, decodedEvents);
+                if (round > 0) {
+                    decoderReport.addRow("AIP040EventDecoder", batchedEvents, events, naiveNanoseconds, events * 1_000_000_000L / naiveNanoseconds);
+                    decoderReport.addRow("AIP040LogDecoder", batchedEvents, events, nanoseconds, events * 1_000_000_000L / nanoseconds);
+                }
+            }
+            // Keeps the decoded values alive
+            Assert.assertTrue(tokenIdSum[0] != 0);
+        }
+        decoderReport.write();
+    }
+
+    /**
+     * @return the logs of an airdrop of <code>TOKENS</code> tokens and
+     *         one transfer of each, simulated by <code>InMemoryBackend</code>
+     */
+    private static List<InMemoryBackend.Log> simulateLogs(boolean batchedEvents) {
+        InMemoryBackend backend = InMemoryBackend.install();
+        Address[] accounts = Benchmarks.accounts(ACCOUNTS + 1);
+        Address deployer = accounts[ACCOUNTS];
+        Address[] owners = Arrays.copyOf(accounts, ACCOUNTS);
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes(DappFixture.TOKEN_NAME, DappFixture.TOKEN_SYMBOL, DappFixture.TOKEN_URI_PREFIX, DappFixture.TOKEN_URI_POSTFIX)).isSuccess);
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.setBatchedEvents(batchedEvents)).isSuccess);
+        for (int first = 0; first < TOKENS; first += BATCH_SIZE) {
+            Address owner = owners[(first / BATCH_SIZE) % owners.length];
+            Address newOwner = owners[(first / BATCH_SIZE + 1) % owners.length];
+            BigInteger[] tokenIds = Benchmarks.tokenIds(Long.BYTES, BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                tokenIds[i] = tokenIds[i].add(BigInteger.valueOf(first));
+            }
+            Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.mint(owner, tokenIds)).isSuccess);
+            Assert.assertTrue(backend.run(owner, () -> NFToken.aip040Consign(owner, newOwner, tokenIds)).isSuccess);
+            Assert.assertTrue(backend.run(newOwner, () -> NFToken.aip040TakeOwnership(owner, tokenIds)).isSuccess);
+        }
+        return backend.getLogs();
+    }
+}
@@ -0,0 +1,532 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sparse Merkle tree over the owner of each token of one AIP-040 contract,
+ * kept up to date from its log events, which proves that a token is owned by
+ * an account, or that it does not exist, against a 32-byte root.
+ *
+ * The key of a token is the blake2b hash of its identifier padded to 32 bytes,
+ * as logged, and its bits from the most significant are the path from the
+ * root. A subtree of one token is its leaf, so the depth of a leaf is about
+ * log2 of the number of tokens, which is what an update or a proof costs in
+ * hashes. Hashes are Blake2b-256, as <code>Blockchain.blake2b</code>:
+ *
+ * <pre>
+ * empty = 32 zero bytes
+ * leaf  = blake2b(0x00 || key || owner)
+ * node  = blake2b(0x01 || left || right)
+ * </pre>
+ *
+ * Nodes and leaves are kept in primitive arrays, which are reused when
+ * tokens are burned.
+ */
+public class AIP040OwnershipTree {
+
+    public static final int HASH_LENGTH = Blake2b.DIGEST_LENGTH;
+
+    private static final int KEY_BITS = 8 * HASH_LENGTH;
+    private static final byte LEAF_PREFIX = 0;
+    private static final byte NODE_PREFIX = 1;
+    private static final byte[] EMPTY_HASH = new byte[HASH_LENGTH];
+    private static final int TOKEN_ID_LENGTH = 32;
+
+    // A reference is EMPTY, node n for n > 0, or leaf l for -1 - l
+    private static final int EMPTY = 0;
+
+    private int root = EMPTY;
+    private long size;
+
+    // Two children per node, node 0 is unused
+    private int[] nodeChildren = new int[2 * 16];
+    private byte[] nodeHashes = new byte[HASH_LENGTH * 16];
+    private int nodeCount = 1;
+    private int[] freeNodes = new int[16];
+    private int freeNodeCount;
+
+    private byte[] leafKeys = new byte[HASH_LENGTH * 16];
+    private byte[] leafHashes = new byte[HASH_LENGTH * 16];
+    private int[] leafOwners = new int[16];
+    private int leafCount;
+    private int[] freeLeaves = new int[16];
+    private int freeLeafCount;
+
+    private final Map<Address, Integer> accountIndices = new HashMap<>();
+    private final List<byte[]> accounts = new ArrayList<>();
+
+    private final AIP040LogDecoder decoder = new AIP040LogDecoder();
+    private final AIP040LogDecoder.Visitor visitor = this::applyEvent;
+    private final byte[] tokenId = new byte[TOKEN_ID_LENGTH];
+    private final int[] path = new int[KEY_BITS];
+    private final byte[] hashInput = new byte[1 + 2 * HASH_LENGTH];
+
+    /**
+     * A proof that a token is owned by an account, or that it does not
+     * exist: the siblings on the path from the root to the leaf of the token,
+     * or to the empty subtree or other leaf where its path ends.
+     */
+    public static final class Proof {
+        private final byte[][] siblings;
+        // The leaf where the path ends, or null if it ends in an empty subtree
+        private final byte[] leafKey;
+        private final byte[] leafOwner;
+
+        private Proof(byte[][] siblings, byte[] leafKey, byte[] leafOwner) {
+            this.siblings = siblings;
+            this.leafKey = leafKey;
+            this.leafOwner = leafOwner;
+        }
+
+        /**
+         * @return the depth of the path, and the number of siblings
+         */
+        public int getDepth() {
+            return siblings.length;
+        }
+
+        /**
+         * Encodes the proof, leaving out empty siblings:
+         *
+         * <pre>
+         * short(depth) bitmap(non-empty siblings) hash* byte(hasLeaf) [key owner]
+         * </pre>
+         */
+        public byte[] toByteArray() {
+            int bitmapLength = (siblings.length + 7) / 8;
+            int siblingCount = 0;
+            for (byte[] sibling : siblings) {
+                if (sibling != null) {
+                    siblingCount++;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(Short.BYTES + bitmapLength + siblingCount * HASH_LENGTH + 1 + (leafKey == null ? 0 : HASH_LENGTH + Address.LENGTH));
+            buffer.putShort((short) siblings.length);
+            byte[] bitmap = new byte[bitmapLength];
+            for (int depth = 0; depth < siblings.length; depth++) {
+                if (siblings[depth] != null) {
+                    bitmap[depth >>> 3] |= 0x80 >>> (depth & 7);
+                }
+            }
+            buffer.put(bitmap);
+            for (byte[] sibling : siblings) {
+                if (sibling != null) {
+                    buffer.put(sibling);
+                }
+            }
+            buffer.put(leafKey == null ? (byte) 0 : 1);
+            if (leafKey != null) {
+                buffer.put(leafKey).put(leafOwner);
+            }
+            return buffer.array();
+        }
+
+        /**
+         * @throws IllegalArgumentException if the bytes are not a proof
+         */
+        public static Proof fromByteArray(byte[] bytes) {
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                int depth = buffer.getShort();
+                if (depth < 0 || depth > KEY_BITS) {
+                    throw new IllegalArgumentException("Depth is out of range: " + depth);
+                }
+                byte[] bitmap = new byte[(depth + 7) / 8];
+                buffer.get(bitmap);
+                byte[][] siblings = new byte[depth][];
+                for (int i = 0; i < depth; i++) {
+                    if (bit(bitmap, 0, i) != 0) {
+                        siblings[i] = new byte[HASH_LENGTH];
+                        buffer.get(siblings[i]);
+                    }
+                }
+                byte[] leafKey = null;
+                byte[] leafOwner = null;
+                if (buffer.get() != 0) {
+                    leafKey = new byte[HASH_LENGTH];
+                    leafOwner = new byte[Address.LENGTH];
+                    buffer.get(leafKey).get(leafOwner);
+                }
+                if (buffer.hasRemaining()) {
+                    throw new IllegalArgumentException("Trailing bytes");
+                }
+                return new Proof(siblings, leafKey, leafOwner);
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Proof is truncated", e);
+            }
+        }
+    }
+
+    //region Updates
+
+    /**
+     * Applies one log of the contract: minted, transferred and burned tokens
+     * change the tree, other events are skipped.
+     *
+     * @param topics the topics of the log, as padded to 32 bytes by Aion
+     * @param data   the data of the log
+     */
+    public void apply(List<byte[]> topics, byte[] data) {
+        decoder.decode(topics, data, visitor);
+    }
+
+    private void applyEvent(AIP040LogDecoder.Event event) {
+        switch (event.getType()) {
+            case AIP040LogDecoder.MINTED:
+                event.copyTokenId(tokenId, 0);
+                put(tokenId, accountIndex(event.firstAccount()));
+                break;
+            case AIP040LogDecoder.TRANSFERRED:
+                event.copyTokenId(tokenId, 0);
+                put(tokenId, accountIndex(event.secondAccount()));
+                break;
+            case AIP040LogDecoder.BURNED:
+                event.copyTokenId(tokenId, 0);
+                remove(tokenId);
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Sets the owner of a token.
+     */
+    public void put(BigInteger tokenId, Address owner) {
+        put(tokenIdBytes(tokenId), accountIndex(owner));
+    }
+
+    /**
+     * Removes a token.
+     *
+     * @return false if the token was not in the tree
+     */
+    public boolean remove(BigInteger tokenId) {
+        return remove(tokenIdBytes(tokenId));
+    }
+
+    private void put(byte[] tokenId, int owner) {
+        byte[] key = Blake2b.hash256(tokenId);
+        int depth = 0;
+        int reference = root;
+        while (reference > 0) {
+            path[depth] = reference;
+            reference = child(reference, bit(key, 0, depth));
+            depth++;
+        }
+        int current;
+        if (reference == EMPTY) {
+            current = newLeaf(key, owner);
+            size++;
+        } else if (Arrays.equals(leafKeys, (-1 - reference) * HASH_LENGTH, (-reference) * HASH_LENGTH, key, 0, HASH_LENGTH)) {
+            leafOwners[-1 - reference] = owner;
+            hashLeaf(-1 - reference);
+            current = reference;
+        } else {
+            current = split(reference, newLeaf(key, owner), key, depth);
+            size++;
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            setChild(path[i], bit(key, 0, i), current);
+            hashNode(path[i]);
+            current = path[i];
+        }
+        root = current;
+    }
+
+    private boolean remove(byte[] tokenId) {
+        byte[] key = Blake2b.hash256(tokenId);
+        int depth = 0;
+        int reference = root;
+        while (reference > 0) {
+            path[depth] = reference;
+            reference = child(reference, bit(key, 0, depth));
+            depth++;
+        }
+        if (reference == EMPTY || !Arrays.equals(leafKeys, (-1 - reference) * HASH_LENGTH, (-reference) * HASH_LENGTH, key, 0, HASH_LENGTH)) {
+            return false;
+        }
+        freeLeaf(-1 - reference);
+        size--;
+        int current = EMPTY;
+        for (int i = depth - 1; i >= 0; i--) {
+            int node = path[i];
+            int side = bit(key, 0, i);
+            int other = child(node, 1 - side);
+            // A node left with one leaf becomes that leaf
+            if (current == EMPTY && other < 0 || current < 0 && other == EMPTY) {
+                freeNode(node);
+                current = current == EMPTY ? other : current;
+                continue;
+            }
+            setChild(node, side, current);
+            hashNode(node);
+            current = node;
+        }
+        root = current;
+        return true;
+    }
+
+    /**
+     * Makes the subtree of two leaves whose keys share the first
+     * <code>depth</code> bits, with a node for each further bit they share.
+     */
+    private int split(int existing, int added, byte[] key, int depth) {
+        int existingOffset = (-1 - existing) * HASH_LENGTH;
+        int splitDepth = depth;
+        while (bit(leafKeys, existingOffset, splitDepth) == bit(key, 0, splitDepth)) {
+            splitDepth++;
+        }
+        int current = newNode();
+        setChild(current, bit(key, 0, splitDepth), added);
+        setChild(current, 1 - bit(key, 0, splitDepth), existing);
+        hashNode(current);
+        for (int i = splitDepth - 1; i >= depth; i--) {
+            int node = newNode();
+            setChild(node, bit(key, 0, i), current);
+            hashNode(node);
+            current = node;
+        }
+        return current;
+    }
+
+    //endregion
+
+    //region Views
+
+    /**
+     * @return the root hash, a copy
+     */
+    public byte[] getRoot() {
+        return hashOf(root).clone();
+    }
+
+    /**
+     * @return the number of tokens
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the owner of the token, or null if it is not in the tree
+     */
+    public Address ownerOf(BigInteger tokenId) {
+        byte[] key = Blake2b.hash256(tokenIdBytes(tokenId));
+        int reference = root;
+        for (int depth = 0; reference > 0; depth++) {
+            reference = child(reference, bit(key, 0, depth));
+        }
+        if (reference == EMPTY || !Arrays.equals(leafKeys, (-1 - reference) * HASH_LENGTH, (-reference) * HASH_LENGTH, key, 0, HASH_LENGTH)) {
+            return null;
+        }
+        return new Address(accounts.get(leafOwners[-1 - reference]));
+    }
+
+    /**
+     * @return a proof of the owner of the token, or that it is not in the
+     *         tree, against the current root
+     */
+    public Proof prove(BigInteger tokenId) {
+        byte[] key = Blake2b.hash256(tokenIdBytes(tokenId));
+        int depth = 0;
+        int reference = root;
+        while (reference > 0) {
+            path[depth] = reference;
+            reference = child(reference, bit(key, 0, depth));
+            depth++;
+        }
+        byte[][] siblings = new byte[depth][];
+        for (int i = 0; i < depth; i++) {
+            int sibling = child(path[i], 1 - bit(key, 0, i));
+            siblings[i] = sibling == EMPTY ? null : hashOf(sibling).clone();
+        }
+        if (reference == EMPTY) {
+            return new Proof(siblings, null, null);
+        }
+        int leaf = -1 - reference;
+        return new Proof(siblings, Arrays.copyOfRange(leafKeys, leaf * HASH_LENGTH, (leaf + 1) * HASH_LENGTH), accounts.get(leafOwners[leaf]).clone());
+    }
+
+    /**
+     * Checks a proof against a root.
+     *
+     * @param  owner the owner to prove, or null to prove that the token is not
+     *               in the tree
+     * @return       true if the proof holds
+     */
+    public static boolean verify(byte[] root, BigInteger tokenId, Address owner, Proof proof) {
+        byte[] key = Blake2b.hash256(tokenIdBytes(tokenId));
+        byte[] input = new byte[1 + 2 * HASH_LENGTH];
+        byte[] current;
+        if (owner != null) {
+            if (proof.leafKey == null || !Arrays.equals(proof.leafKey, key) || !Arrays.equals(proof.leafOwner, owner.toByteArray())) {
+                return false;
+            }
+            current = leafHash(input, key, 0, proof.leafOwner);
+        } else if (proof.leafKey == null) {
+            current = EMPTY_HASH;
+        } else {
+            // Another token whose path ends here, so this one is not in the tree
+            if (Arrays.equals(proof.leafKey, key)) {
+                return false;
+            }
+            for (int depth = 0; depth < proof.siblings.length; depth++) {
+                if (bit(proof.leafKey, 0, depth) != bit(key, 0, depth)) {
+                    return false;
+                }
+            }
+            current = leafHash(input, proof.leafKey, 0, proof.leafOwner);
+        }
+        for (int depth = proof.siblings.length - 1; depth >= 0; depth--) {
+            byte[] sibling = proof.siblings[depth] == null ? EMPTY_HASH : proof.siblings[depth];
+            boolean isRight = bit(key, 0, depth) != 0;
+            current = nodeHash(input, isRight ? sibling : current, 0, isRight ? current : sibling, 0);
+        }
+        return Arrays.equals(current, root);
+    }
+
+    //endregion
+
+    //region Hashing
+
+    private void hashLeaf(int leaf) {
+        byte[] hash = leafHash(hashInput, leafKeys, leaf * HASH_LENGTH, accounts.get(leafOwners[leaf]));
+        System.arraycopy(hash, 0, leafHashes, leaf * HASH_LENGTH, HASH_LENGTH);
+    }
+
+    private void hashNode(int node) {
+        int left = nodeChildren[2 * node];
+        int right = nodeChildren[2 * node + 1];
+        byte[] hash = nodeHash(hashInput, hashArray(left), hashOffset(left), hashArray(right), hashOffset(right));
+        System.arraycopy(hash, 0, nodeHashes, node * HASH_LENGTH, HASH_LENGTH);
+    }
+
+    private byte[] hashOf(int reference) {
+        return Arrays.copyOfRange(hashArray(reference), hashOffset(reference), hashOffset(reference) + HASH_LENGTH);
+    }
+
+    private byte[] hashArray(int reference) {
+        return reference == EMPTY ? EMPTY_HASH : reference > 0 ? nodeHashes : leafHashes;
+    }
+
+    private static int hashOffset(int reference) {
+        return reference == EMPTY ? 0 : reference > 0 ? reference * HASH_LENGTH : (-1 - reference) * HASH_LENGTH;
+    }
+
+    private static byte[] leafHash(byte[] input, byte[] key, int keyOffset, byte[] owner) {
+        input[0] = LEAF_PREFIX;
+        System.arraycopy(key, keyOffset, input, 1, HASH_LENGTH);
+        System.arraycopy(owner, 0, input, 1 + HASH_LENGTH, Address.LENGTH);
+        return Blake2b.hash256(input);
+    }
+
+    private static byte[] nodeHash(byte[] input, byte[] left, int leftOffset, byte[] right, int rightOffset) {
+        input[0] = NODE_PREFIX;
+        System.arraycopy(left, leftOffset, input, 1, HASH_LENGTH);
+        System.arraycopy(right, rightOffset, input, 1 + HASH_LENGTH, HASH_LENGTH);
+        return Blake2b.hash256(input);
+    }
+
+    //endregion
+
+    //region Pools
+
+    private int newNode() {
+        int node;
+        if (freeNodeCount > 0) {
+            node = freeNodes[--freeNodeCount];
+        } else {
+            node = nodeCount++;
+            if (2 * nodeCount > nodeChildren.length) {
+                nodeChildren = Arrays.copyOf(nodeChildren, 2 * nodeChildren.length);
+                nodeHashes = Arrays.copyOf(nodeHashes, 2 * nodeHashes.length);
+            }
+        }
+        nodeChildren[2 * node] = EMPTY;
+        nodeChildren[2 * node + 1] = EMPTY;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        if (freeNodeCount == freeNodes.length) {
+            freeNodes = Arrays.copyOf(freeNodes, 2 * freeNodes.length);
+        }
+        freeNodes[freeNodeCount++] = node;
+    }
+
+    /**
+     * @return the reference of a new leaf
+     */
+    private int newLeaf(byte[] key, int owner) {
+        int leaf;
+        if (freeLeafCount > 0) {
+            leaf = freeLeaves[--freeLeafCount];
+        } else {
+            leaf = leafCount++;
+            if (leafCount > leafOwners.length) {
+                leafOwners = Arrays.copyOf(leafOwners, 2 * leafOwners.length);
+                leafKeys = Arrays.copyOf(leafKeys, 2 * leafKeys.length);
+                leafHashes = Arrays.copyOf(leafHashes, 2 * leafHashes.length);
+            }
+        }
+        System.arraycopy(key, 0, leafKeys, leaf * HASH_LENGTH, HASH_LENGTH);
+        leafOwners[leaf] = owner;
+        hashLeaf(leaf);
+        return -1 - leaf;
+    }
+
+    private void freeLeaf(int leaf) {
+        if (freeLeafCount == freeLeaves.length) {
+            freeLeaves = Arrays.copyOf(freeLeaves, 2 * freeLeaves.length);
+        }
+        freeLeaves[freeLeafCount++] = leaf;
+    }
+
+    private int child(int node, int side) {
+        return nodeChildren[2 * node + side];
+    }
+
+    private void setChild(int node, int side, int reference) {
+        nodeChildren[2 * node + side] = reference;
+    }
+
+    private int accountIndex(Address account) {
+        Integer index = accountIndices.get(account);
+        if (index == null) {
+            index = accounts.size();
+            accountIndices.put(account, index);
+            accounts.add(account.toByteArray());
+        }
+        return index;
+    }
+
+    //endregion
+
+    private static int bit(byte[] bytes, int offset, int index) {
+        return (bytes[offset + (index >>> 3)] >>> (7 - (index & 7))) & 1;
+    }
+
+    /**
+     * @return the token identifier padded to 32 bytes using signed padding,
+     *         as logged
+     */
+    private static byte[] tokenIdBytes(BigInteger tokenId) {
+        byte[] bytes = tokenId.toByteArray();
+        if (bytes.length > TOKEN_ID_LENGTH) {
+            throw new IllegalArgumentException("Token identifier is longer than " + TOKEN_ID_LENGTH + " bytes");
+        }
+        byte[] padded = new byte[TOKEN_ID_LENGTH];
+        Arrays.fill(padded, 0, TOKEN_ID_LENGTH - bytes.length, tokenId.signum() < 0 ? (byte) -1 : 0);
+        System.arraycopy(bytes, 0, padded, TOKEN_ID_LENGTH - bytes.length, bytes.length);
+        return padded;
+    }
+}
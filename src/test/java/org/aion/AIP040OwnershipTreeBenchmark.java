@@ -0,0 +1,96 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Measures <code>AIP040OwnershipTree</code> building, updating, proving and
+ * verifying over a large collection. Results are written by
+ * <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class AIP040OwnershipTreeBenchmark {
+
+    private static final int TOKENS = 10_000_000;
+    private static final int OPERATIONS = 100_000;
+    private static final int ACCOUNTS = 1_000;
+
+    /**
+     * Builds an <code>AIP040OwnershipTree</code> of many tokens, then reports
+     * the time of transfers, of proofs of random tokens and of their
+     * verification, with p50 and p99, and the mean proof size.
+     */
+    @Test
+    public void benchmarkOwnershipTree() {
+        BenchmarkReport treeReport = new BenchmarkReport(
+            "AIP040OwnershipTreeBenchmark",
+            "operation",
+            "tokens",
+            "operations",
+            "operationsPerSecond",
+            "p50Nanoseconds",
+            "p99Nanoseconds",
+            "meanProofBytes"
+        );
+        Random random = new Random(TOKENS);
+        Address[] owners = Benchmarks.accounts(ACCOUNTS);
+        AIP040OwnershipTree tree = new AIP040OwnershipTree();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < TOKENS; i++) {
+            tree.put(BigInteger.valueOf(i), owners[random.nextInt(owners.length)]);
+        }
+        long nanoseconds = System.nanoTime() - startTime;
+        treeReport.addRow("put", TOKENS, TOKENS, TOKENS * 1_000_000_000L / nanoseconds, "", "", "");
+
+        long[] times = new long[OPERATIONS];
+        startTime = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            BigInteger tokenId = BigInteger.valueOf(random.nextInt(TOKENS));
+            Address owner = owners[random.nextInt(owners.length)];
+            long operationStart = System.nanoTime();
+            tree.put(tokenId, owner);
+            times[i] = System.nanoTime() - operationStart;
+        }
+        addTreeRow(treeReport, "transfer", times, System.nanoTime() - startTime, "");
+
+        BigInteger[] tokenIds = new BigInteger[OPERATIONS];
+        AIP040OwnershipTree.Proof[] proofs = new AIP040OwnershipTree.Proof[OPERATIONS];
+        long proofBytes = 0;
+        startTime = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            // Every other token is absent, for a proof of exclusion
+            tokenIds[i] = BigInteger.valueOf(random.nextInt(2 * TOKENS));
+            long operationStart = System.nanoTime();
+            proofs[i] = tree.prove(tokenIds[i]);
+            times[i] = System.nanoTime() - operationStart;
+        }
+        long proveNanoseconds = System.nanoTime() - startTime;
+        for (AIP040OwnershipTree.Proof proof : proofs) {
+            proofBytes += proof.toByteArray().length;
+        }
+        addTreeRow(treeReport, "prove", times, proveNanoseconds, proofBytes / OPERATIONS);
+
+        byte[] root = tree.getRoot();
+        startTime = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            Address owner = tree.ownerOf(tokenIds[i]);
+            long operationStart = System.nanoTime();
+            Assert.assertTrue(AIP040OwnershipTree.verify(root, tokenIds[i], owner, proofs[i]));
+            times[i] = System.nanoTime() - operationStart;
+        }
+        addTreeRow(treeReport, "verify", times, System.nanoTime() - startTime, "");
+        treeReport.write();
+    }
+
+    private static void addTreeRow(BenchmarkReport treeReport, String operation, long[] times, long nanoseconds, Object meanProofBytes) {
+        Arrays.sort(times);
+        treeReport.addRow(operation, TOKENS, times.length, times.length * 1_000_000_000L / nanoseconds, Benchmarks.percentile(times, 50), Benchmarks.percentile(times, 99), meanProofBytes);
+    }
+}
@@ -0,0 +1,133 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Feeds <code>AIP040OwnershipTree</code> with the logs of a random workload on
+ * <code>InMemoryBackend</code> and checks its owners and proofs against
+ * <code>NFTokenModel</code>.
+ */
+public class AIP040OwnershipTreeTest {
+
+    private static final int ACCOUNTS = 12;
+    private static final int TOKEN_CAPACITY = 2_000;
+    private static final int TARGET_SUPPLY = 600;
+    private static final int OPERATIONS = 10_000;
+    private static final int CHECK_ALL_INTERVAL = 2_500;
+
+    private Address[] accounts = new Address[ACCOUNTS];
+
+    @Before
+    public void makeAccounts() {
+        for (int i = 0; i < ACCOUNTS; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xa0;
+            address[Address.LENGTH - 1] = (byte) i;
+            accounts[i] = new Address(address);
+        }
+    }
+
+    @Test
+    public void testTreeMatchesModel() {
+        InMemoryBackend backend = InMemoryBackend.install();
+        NFTokenWorkload workload = new NFTokenWorkload(41, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+        AIP040OwnershipTree tree = new AIP040OwnershipTree();
+        for (int i = 1; i <= OPERATIONS; i++) {
+            int logCount = backend.getLogs().size();
+            workload.run(backend, workload.next());
+            for (InMemoryBackend.Log log : backend.getLogs().subList(logCount, backend.getLogs().size())) {
+                tree.apply(log.topics, log.data);
+            }
+            if (i % CHECK_ALL_INTERVAL == 0) {
+                checkTree(tree, workload.getModel());
+            }
+        }
+    }
+
+    @Test
+    public void testRootDoesNotDependOnOrder() {
+        AIP040OwnershipTree ascending = new AIP040OwnershipTree();
+        AIP040OwnershipTree descending = new AIP040OwnershipTree();
+        AIP040OwnershipTree withBurns = new AIP040OwnershipTree();
+        for (int i = 0; i < 500; i++) {
+            ascending.put(BigInteger.valueOf(i), accounts[i % ACCOUNTS]);
+            descending.put(BigInteger.valueOf(499 - i), accounts[(499 - i) % ACCOUNTS]);
+            withBurns.put(BigInteger.valueOf(i), accounts[0]);
+            withBurns.put(BigInteger.valueOf(1_000 + i), accounts[1]);
+        }
+        for (int i = 0; i < 500; i++) {
+            withBurns.put(BigInteger.valueOf(i), accounts[i % ACCOUNTS]);
+            Assert.assertTrue(withBurns.remove(BigInteger.valueOf(1_000 + i)));
+        }
+        Assert.assertFalse(withBurns.remove(BigInteger.valueOf(1_000)));
+        Assert.assertArrayEquals(ascending.getRoot(), descending.getRoot());
+        Assert.assertArrayEquals(ascending.getRoot(), withBurns.getRoot());
+        Assert.assertEquals(500, withBurns.size());
+
+        for (int i = 0; i < 500; i++) {
+            Assert.assertTrue(withBurns.remove(BigInteger.valueOf(i)));
+        }
+        Assert.assertArrayEquals(new byte[AIP040OwnershipTree.HASH_LENGTH], withBurns.getRoot());
+    }
+
+    @Test
+    public void testRootOfOneToken() {
+        AIP040OwnershipTree tree = new AIP040OwnershipTree();
+        tree.put(BigInteger.ONE, accounts[0]);
+        byte[] tokenId = new byte[32];
+        tokenId[31] = 1;
+        byte[] leaf = new byte[1 + 32 + Address.LENGTH];
+        System.arraycopy(Blake2b.hash256(tokenId), 0, leaf, 1, 32);
+        System.arraycopy(accounts[0].toByteArray(), 0, leaf, 33, Address.LENGTH);
+        Assert.assertArrayEquals(Blake2b.hash256(leaf), tree.getRoot());
+    }
+
+    @Test
+    public void testProofEncoding() {
+        AIP040OwnershipTree tree = new AIP040OwnershipTree();
+        Random random = new Random(42);
+        for (int i = 0; i < 1_000; i++) {
+            tree.put(BigInteger.valueOf(random.nextInt(1_000_000)), accounts[i % ACCOUNTS]);
+        }
+        BigInteger tokenId = BigInteger.valueOf(random.nextInt(1_000_000));
+        tree.put(tokenId, accounts[3]);
+        byte[] encoded = tree.prove(tokenId).toByteArray();
+        Assert.assertTrue(AIP040OwnershipTree.verify(tree.getRoot(), tokenId, accounts[3], AIP040OwnershipTree.Proof.fromByteArray(encoded)));
+
+        try {
+            AIP040OwnershipTree.Proof.fromByteArray(Arrays.copyOf(encoded, encoded.length - 1));
+            Assert.fail(); // Expected exception
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    private void checkTree(AIP040OwnershipTree tree, NFTokenModel model) {
+        Assert.assertEquals(model.totalSupply(), tree.size());
+        byte[] root = tree.getRoot();
+        for (int i = 0; i < TOKEN_CAPACITY; i++) {
+            BigInteger tokenId = BigInteger.valueOf(i);
+            int owner = model.ownerOf(i);
+            AIP040OwnershipTree.Proof proof = tree.prove(tokenId);
+            if (owner == NFTokenModel.NONE) {
+                Assert.assertNull(tree.ownerOf(tokenId));
+                Assert.assertTrue(AIP040OwnershipTree.verify(root, tokenId, null, proof));
+                Assert.assertFalse(AIP040OwnershipTree.verify(root, tokenId, accounts[0], proof));
+            } else {
+                Assert.assertEquals(accounts[owner], tree.ownerOf(tokenId));
+                Assert.assertTrue(AIP040OwnershipTree.verify(root, tokenId, accounts[owner], proof));
+                Assert.assertFalse(AIP040OwnershipTree.verify(root, tokenId, accounts[(owner + 1) % ACCOUNTS], proof));
+                Assert.assertFalse(AIP040OwnershipTree.verify(root, tokenId, null, proof));
+                Assert.assertFalse(AIP040OwnershipTree.verify(root, tokenId.add(BigInteger.valueOf(TOKEN_CAPACITY)), accounts[owner], proof));
+            }
+        }
+        // A proof does not hold against another root
+        byte[] otherRoot = root.clone();
+        otherRoot[0] ^= 1;
+        Assert.assertFalse(AIP040OwnershipTree.verify(otherRoot, BigInteger.ZERO, model.ownerOf(0) == NFTokenModel.NONE ? null : accounts[model.ownerOf(0)], tree.prove(BigInteger.ZERO)));
+    }
+}
@@ -0,0 +1,88 @@
+package org.aion;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects benchmark measurements as rows of a table and writes them to a CSV
+ * file under <code>target/benchmarks</code>, so that the results of different
+ * builds can be compared by a machine.
+ *
+ * The first column of every report is the report name and the second column
+ * is the name of the measured operation. These two columns, along with the
+ * parameters, are a stable identity for each row between builds.
+ */
+public class BenchmarkReport {
+
+    /**
+     * Reports are written here, relative to the Maven project directory.
+     */
+    public static final String REPORT_DIRECTORY = "target/benchmarks";
+
+    private final String name;
+    private final String[] columns;
+    private final List<Object[]> rows = new ArrayList<>();
+
+    /**
+     * @param name    the report name, also used as the file name
+     * @param columns the column headings after the report name
+     */
+    public BenchmarkReport(String name, String... columns) {
+        this.name = name;
+        this.columns = columns;
+    }
+
+    /**
+     * Adds one row to the report.
+     *
+     * @param values one value for each column, in the same order
+     */
+    public void addRow(Object... values) {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " values but got " + values.length);
+        }
+        rows.add(values);
+    }
+
+    /**
+     * @return the rows added so far
+     */
+    public List<Object[]> getRows() {
+        return rows;
+    }
+
+    /**
+     * Writes the report to <code>target/benchmarks/NAME.csv</code>, replacing
+     * any report of the same name from a prior build.
+     *
+     * @return the file which was written
+     */
+    public File write() {
+        File directory = new File(REPORT_DIRECTORY);
+        directory.mkdirs();
+        File file = new File(directory, name + ".csv");
+        try (PrintWriter writer = new PrintWriter(file, StandardCharsets.UTF_8)) {
+            writer.print("report");
+            for (String column : columns) {
+                writer.print(',');
+                writer.print(column);
+            }
+            writer.println();
+            for (Object[] row : rows) {
+                writer.print(name);
+                for (Object value : row) {
+                    writer.print(',');
+                    writer.print(value);
+                }
+                writer.println();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return file;
+    }
+}
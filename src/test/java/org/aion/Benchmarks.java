@@ -0,0 +1,69 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Inputs and statistics shared by the benchmarks. Those which run only on the
+ * host use these inputs instead of <code>AvmRule</code>, which they do not
+ * need.
+ */
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * @return distinct accounts, the same for every call
+     */
+    public static Address[] accounts(int count) {
+        Address[] accounts = new Address[count];
+        for (int i = 0; i < count; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xa0;
+            address[Address.LENGTH - 4] = (byte) (i >>> 24);
+            address[Address.LENGTH - 3] = (byte) (i >>> 16);
+            address[Address.LENGTH - 2] = (byte) (i >>> 8);
+            address[Address.LENGTH - 1] = (byte) i;
+            accounts[i] = new Address(address);
+        }
+        return accounts;
+    }
+
+    /**
+     * Makes distinct, positive token identifiers whose signed big-endian
+     * representation is exactly the given width.
+     */
+    public static BigInteger[] tokenIds(int widthBytes, int count) {
+        BigInteger base = BigInteger.ONE.shiftLeft(widthBytes * Byte.SIZE - 2);
+        BigInteger[] tokenIds = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            tokenIds[i] = base.add(BigInteger.valueOf(i));
+        }
+        return tokenIds;
+    }
+
+    /**
+     * @return the nearest-rank percentile, or 0 if there are no values
+     */
+    public static long percentile(long[] values, int percent) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    /**
+     * @return the bytes of the heap in use after a collection
+     */
+    public static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,57 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the dapp JAR once per JVM for each set of deployment arguments,
+ * rather than once per test. Each <code>AvmRule</code> starts from an empty
+ * chain, so tests still deploy, which is a single transaction.
+ */
+public final class DappFixture {
+
+    public static final String TOKEN_NAME = "Planets";
+    public static final String TOKEN_SYMBOL = "PL";
+    public static final String TOKEN_URI_PREFIX = "pre";
+    public static final String TOKEN_URI_POSTFIX = "post";
+
+    private static final Map<List<String>, byte[]> contractData = new ConcurrentHashMap<>();
+
+    private DappFixture() {
+    }
+
+    /**
+     * @return the dapp bytes, deploying with the default token name, symbol
+     *         and URI affixes
+     */
+    public static byte[] contractData(AvmRule avmRule) {
+        return contractData(avmRule, TOKEN_NAME, TOKEN_SYMBOL, TOKEN_URI_PREFIX, TOKEN_URI_POSTFIX);
+    }
+
+    /**
+     * @return the dapp bytes with these deployment arguments, a copy which
+     *         the caller may modify
+     */
+    public static byte[] contractData(AvmRule avmRule, String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+        List<String> arguments = Arrays.asList(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
+        return contractData.computeIfAbsent(arguments, key -> {
+            byte[] data = MainEncoder.deploy(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
+            return avmRule.getDappBytes(Main.class, data, 1, AIP040Events.class, NFToken.class, NFTokenMock.class, NFTokenStorage.class, AVMBlockchainWrapper.class);
+        }).clone();
+    }
+
+    /**
+     * Deploys the dapp with the default deployment arguments.
+     *
+     * @return the address of the contract
+     */
+    public static Address deploy(AvmRule avmRule, Address deployer) {
+        return avmRule.deploy(deployer, BigInteger.ZERO, contractData(avmRule)).getDappAddress();
+    }
+}
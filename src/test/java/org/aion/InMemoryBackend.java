@@ -0,0 +1,292 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.userlib.abi.ABIDecoder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Runs the contract on the host instead of AVM, with storage in a hash map and
+ * log events captured in a list. This is for load testing and fuzzing, which
+ * would take far too long with a deployment to <code>AvmRule</code>.
+ *
+ * Install it with <code>install</code> and then call the static methods of
+ * <code>NFToken</code> and <code>NFTokenMock</code> inside
+ * <code>call</code> or <code>run</code>, each of which simulates one
+ * transaction. A transaction reverts if it throws, just like AVM: its storage
+ * writes and log events are rolled back and the transaction-scoped state of
+ * <code>AVMBlockchainWrapper</code> and <code>AIP040Events</code> is discarded.
+ *
+ * Not simulated: energy, and rolling back other static fields. Storage keys
+ * match AVM only within one JVM because realms are hashed by their identity
+ * hash code.
+ */
+public class InMemoryBackend implements AVMBlockchainWrapper.Backend {
+
+    /**
+     * Aion truncates and pads every topic to this length.
+     */
+    public static final int TOPIC_LENGTH = 32;
+
+    /**
+     * Thrown by <code>require</code> to revert a transaction.
+     */
+    public static final class RevertException extends RuntimeException {
+        private RevertException() {
+            super("Transaction reverted", null, false, false);
+        }
+    }
+
+    /**
+     * One captured log event, as it would be stored by Aion.
+     */
+    public static final class Log {
+        public final List<byte[]> topics;
+        public final byte[] data;
+
+        private Log(List<byte[]> topics, byte[] data) {
+            this.topics = topics;
+            this.data = data;
+        }
+    }
+
+    /**
+     * The result of one simulated transaction.
+     */
+    public static final class Outcome<T> {
+        public final boolean isSuccess;
+
+        /**
+         * The return value, or null if the transaction reverted.
+         */
+        public final T value;
+
+        /**
+         * The log events, or none if the transaction reverted.
+         */
+        public final List<Log> logs;
+
+        private Outcome(boolean isSuccess, T value, List<Log> logs) {
+            this.isSuccess = isSuccess;
+            this.value = value;
+            this.logs = logs;
+        }
+    }
+
+    private final Map<ByteBuffer, byte[]> storage = new HashMap<>();
+
+    /**
+     * The value of each key before the current transaction first wrote it,
+     * null if it was absent.
+     */
+    private final Map<ByteBuffer, byte[]> journal = new HashMap<>();
+
+    private final List<Log> transactionLogs = new ArrayList<>();
+    private final List<Log> logs = new ArrayList<>();
+    private Address caller;
+
+    /**
+     * Makes a new, empty backend and installs it in
+     * <code>AVMBlockchainWrapper</code>, with batched events off as in a new
+     * deployment.
+     *
+     * @return the backend
+     */
+    public static InMemoryBackend install() {
+        InMemoryBackend backend = new InMemoryBackend();
+        AVMBlockchainWrapper.setBackend(backend);
+        AIP040Events.setBatchedEvents(false);
+        return backend;
+    }
+
+    /**
+     * Simulates one transaction.
+     *
+     * @param  caller      the account calling the contract
+     * @param  transaction the contract code to run
+     * @return             the outcome, with the return value of
+     *                     <code>transaction</code>
+     */
+    public <T> Outcome<T> call(Address caller, Supplier<T> transaction) {
+        this.caller = caller;
+        try {
+            T value = transaction.get();
+            journal.clear();
+            List<Log> committedLogs = new ArrayList<>(transactionLogs);
+            logs.addAll(committedLogs);
+            transactionLogs.clear();
+            return new Outcome<>(true, value, committedLogs);
+        } catch (RuntimeException e) {
+            revert();
+            return new Outcome<>(false, null, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Simulates one transaction without a return value.
+     *
+     * @see #call
+     */
+    public Outcome<Void> run(Address caller, Runnable transaction) {
+        return call(caller, () -> {
+            transaction.run();
+            return null;
+        });
+    }
+
+    /**
+     * Simulates one transaction from its ABI encoded call, dispatched as by
+     * <code>Main</code> to the <code>NFTokenMock</code> method of the same
+     * name, for example to replay a call made on <code>AvmRule</code>.
+     *
+     * @param  caller          the account calling the contract
+     * @param  transactionData the encoded call of a <code>Main</code> callable
+     * @return                 the outcome, with the return value of the
+     *                         callable
+     * @throws IllegalArgumentException if the callable is unknown
+     */
+    public Outcome<Object> replay(Address caller, byte[] transactionData) {
+        ABIDecoder decoder = new ABIDecoder(transactionData);
+        String methodName = decoder.decodeMethodName();
+        Method method = null;
+        for (Method candidate : NFTokenMock.class.getMethods()) {
+            if (candidate.getName().equals(methodName) && Modifier.isStatic(candidate.getModifiers())) {
+                method = candidate;
+            }
+        }
+        if (method == null) {
+            throw new IllegalArgumentException("Unknown callable: " + methodName);
+        }
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Object[] arguments = new Object[parameterTypes.length];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = decodeArgument(decoder, parameterTypes[i]);
+        }
+        Method callable = method;
+        return call(caller, () -> {
+            try {
+                return callable.invoke(null, arguments);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        });
+    }
+
+    private static Object decodeArgument(ABIDecoder decoder, Class<?> type) {
+        if (type == Address.class) {
+            return decoder.decodeOneAddress();
+        } else if (type == Address[].class) {
+            return decoder.decodeOneAddressArray();
+        } else if (type == BigInteger.class) {
+            return decoder.decodeOneBigInteger();
+        } else if (type == BigInteger[].class) {
+            return decoder.decodeOneBigIntegerArray();
+        } else if (type == String.class) {
+            return decoder.decodeOneString();
+        } else if (type == boolean.class) {
+            return decoder.decodeOneBoolean();
+        } else if (type == int.class) {
+            return decoder.decodeOneInteger();
+        } else if (type == long.class) {
+            return decoder.decodeOneLong();
+        }
+        throw new IllegalArgumentException("Unsupported parameter type: " + type);
+    }
+
+    /**
+     * @return every log event of every successful transaction, in order
+     */
+    public List<Log> getLogs() {
+        return logs;
+    }
+
+    /**
+     * @return the number of storage keys holding a value
+     */
+    public int getStorageSize() {
+        return storage.size();
+    }
+
+    /**
+     * @return a read-only view of every storage key holding a value
+     */
+    public Map<ByteBuffer, byte[]> getStorageEntries() {
+        return Collections.unmodifiableMap(storage);
+    }
+
+    private void revert() {
+        for (Map.Entry<ByteBuffer, byte[]> entry : journal.entrySet()) {
+            if (entry.getValue() == null) {
+                storage.remove(entry.getKey());
+            } else {
+                storage.put(entry.getKey(), entry.getValue());
+            }
+        }
+        journal.clear();
+        transactionLogs.clear();
+        AVMBlockchainWrapper.discardCache();
+        AIP040Events.discardBatch();
+    }
+
+    @Override
+    public byte[] getStorage(byte[] key) {
+        byte[] value = storage.get(ByteBuffer.wrap(key));
+        return value == null ? null : value.clone();
+    }
+
+    @Override
+    public void putStorage(byte[] key, byte[] value) {
+        ByteBuffer storageKey = ByteBuffer.wrap(key.clone());
+        byte[] priorValue = value == null
+            ? storage.remove(storageKey)
+            : storage.put(storageKey, value.clone());
+        if (!journal.containsKey(storageKey)) {
+            journal.put(storageKey, priorValue);
+        }
+    }
+
+    @Override
+    public byte[] blake2b(byte[] data) {
+        return Blake2b.hash256(data);
+    }
+
+    @Override
+    public Address getCaller() {
+        return caller;
+    }
+
+    @Override
+    public void log(byte[][] topics, byte[] data) {
+        List<byte[]> paddedTopics = new ArrayList<>(topics.length);
+        for (byte[] topic : topics) {
+            paddedTopics.add(Arrays.copyOf(topic, TOPIC_LENGTH));
+        }
+        transactionLogs.add(new Log(paddedTopics, data.clone()));
+    }
+
+    @Override
+    public void require(boolean condition) {
+        if (!condition) {
+            throw new RevertException();
+        }
+    }
+}
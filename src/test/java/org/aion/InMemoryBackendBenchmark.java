@@ -0,0 +1,77 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Measures how fast <code>InMemoryBackend</code> runs the contract on the
+ * host. Results are written by <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class InMemoryBackendBenchmark {
+
+    private static final int TOKENS = 1_000_000;
+    private static final int ACCOUNTS = 1_000;
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * Measures how fast <code>InMemoryBackend</code> simulates transactions on
+     * the host, for sizing load tests and fuzzing.
+     */
+    @Test
+    public void benchmarkInMemoryBackend() {
+        BenchmarkReport simulationReport = new BenchmarkReport(
+            "NFTokenSimulationBenchmark",
+            "operation",
+            "operations",
+            "nanoseconds",
+            "operationsPerSecond"
+        );
+        InMemoryBackend backend = InMemoryBackend.install();
+        Address[] accounts = Benchmarks.accounts(ACCOUNTS + 1);
+        Address deployer = accounts[ACCOUNTS];
+        Address[] owners = Arrays.copyOf(accounts, ACCOUNTS);
+
+        long startTime = System.nanoTime();
+        for (int first = 0; first < TOKENS; first += BATCH_SIZE) {
+            Address[] batchOwners = new Address[BATCH_SIZE];
+            BigInteger[] batchTokenIds = new BigInteger[BATCH_SIZE];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batchOwners[i] = owners[(first + i) % owners.length];
+                batchTokenIds[i] = BigInteger.valueOf(first + i);
+            }
+            Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.mintToOwners(batchOwners, batchTokenIds)).isSuccess);
+        }
+        addSimulationRow(simulationReport, "mintToOwners", TOKENS, startTime);
+
+        startTime = System.nanoTime();
+        for (int i = 0; i < TOKENS; i++) {
+            BigInteger tokenId = BigInteger.valueOf(i);
+            Assert.assertNotNull(backend.call(deployer, () -> NFToken.aip040TokenOwner(tokenId)).value);
+        }
+        addSimulationRow(simulationReport, "aip040TokenOwner", TOKENS, startTime);
+
+        // Each owner passes every token it holds to the next owner
+        startTime = System.nanoTime();
+        for (int i = 0; i < TOKENS; i++) {
+            Address currentOwner = owners[i % owners.length];
+            Address newOwner = owners[(i + 1) % owners.length];
+            BigInteger[] tokenIds = {BigInteger.valueOf(i)};
+            Assert.assertTrue(backend.run(currentOwner, () -> NFToken.aip040Consign(currentOwner, newOwner, tokenIds)).isSuccess);
+            Assert.assertTrue(backend.run(newOwner, () -> NFToken.aip040TakeOwnership(currentOwner, tokenIds)).isSuccess);
+        }
+        addSimulationRow(simulationReport, "aip040Consign+aip040TakeOwnership", TOKENS, startTime);
+        simulationReport.write();
+    }
+
+    private static void addSimulationRow(BenchmarkReport simulationReport, String operation, long operations, long startTime) {
+        long nanoseconds = System.nanoTime() - startTime;
+        simulationReport.addRow(operation, operations, nanoseconds, operations * 1_000_000_000L / nanoseconds);
+    }
+}
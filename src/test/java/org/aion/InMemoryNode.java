@@ -0,0 +1,177 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.userlib.abi.ABIDecoder;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for a node in front of <code>AvmRule</code>: mines the
+ * transactions sent to one contract into blocks on an
+ * <code>InMemoryBackend</code>, in nonce order for each sender, and reports
+ * their receipts.
+ *
+ * Blocks are mined by <code>mineBlock</code>, or every few milliseconds on a
+ * thread after <code>start</code>. A transaction waits in the pool until
+ * every earlier nonce of its sender is mined. Only the transfer and consign
+ * callables are decoded, other calls fail.
+ *
+ * Call the backend, for example to deploy and mint, only before
+ * <code>start</code>, or after <code>close</code>.
+ */
+public class InMemoryNode implements AIP040Client.Transport, AutoCloseable {
+
+    private static final class Transaction {
+        private final Address sender;
+        private final BigInteger nonce;
+        private final byte[] data;
+        private final AIP040Client.ReceiptListener listener;
+
+        private Transaction(Address sender, BigInteger nonce, byte[] data, AIP040Client.ReceiptListener listener) {
+            this.sender = sender;
+            this.nonce = nonce;
+            this.data = data;
+            this.listener = listener;
+        }
+    }
+
+    private final InMemoryBackend backend;
+
+    // Guarded by this
+    private final List<Transaction> pool = new ArrayList<>();
+    private final Map<Address, BigInteger> minedNonces = new HashMap<>();
+    private long blockCount;
+    private long transactionCount;
+
+    private Thread miner;
+    private volatile boolean isClosed;
+
+    public InMemoryNode(InMemoryBackend backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public synchronized BigInteger getNonce(Address sender) {
+        return minedNonces.getOrDefault(sender, BigInteger.ZERO);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the nonce was already used
+     */
+    @Override
+    public synchronized void send(Address sender, BigInteger nonce, byte[] data, AIP040Client.ReceiptListener listener) {
+        if (nonce.compareTo(getNonce(sender)) < 0) {
+            throw new IllegalArgumentException("Nonce is too low: " + nonce);
+        }
+        for (Transaction pooled : pool) {
+            // Replacing a pooled transaction is not simulated
+            if (pooled.sender.equals(sender) && pooled.nonce.equals(nonce)) {
+                throw new IllegalArgumentException("Nonce is already pooled: " + nonce);
+            }
+        }
+        pool.add(new Transaction(sender, nonce, data, listener));
+    }
+
+    /**
+     * Mines every pooled transaction which is next for its sender, in the
+     * order they were sent, then reports their receipts.
+     *
+     * @return the number of transactions mined
+     */
+    public int mineBlock() {
+        List<Transaction> block = new ArrayList<>();
+        synchronized (this) {
+            boolean isProgress = true;
+            while (isProgress) {
+                isProgress = false;
+                for (Iterator<Transaction> iterator = pool.iterator(); iterator.hasNext(); ) {
+                    Transaction transaction = iterator.next();
+                    BigInteger minedNonce = minedNonces.getOrDefault(transaction.sender, BigInteger.ZERO);
+                    if (transaction.nonce.equals(minedNonce)) {
+                        minedNonces.put(transaction.sender, minedNonce.add(BigInteger.ONE));
+                        block.add(transaction);
+                        iterator.remove();
+                        isProgress = true;
+                    }
+                }
+            }
+            blockCount++;
+            transactionCount += block.size();
+        }
+        boolean[] outcomes = new boolean[block.size()];
+        for (int i = 0; i < outcomes.length; i++) {
+            outcomes[i] = execute(block.get(i));
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            block.get(i).listener.onReceipt(outcomes[i]);
+        }
+        return block.size();
+    }
+
+    /**
+     * Mines a block every <code>blockMillis</code> on a thread, until
+     * <code>close</code>.
+     */
+    public synchronized void start(long blockMillis) {
+        if (miner != null) {
+            throw new IllegalStateException("Already started");
+        }
+        miner = new Thread(() -> {
+            while (!isClosed) {
+                try {
+                    Thread.sleep(blockMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                mineBlock();
+            }
+        }, "InMemoryNode");
+        miner.setDaemon(true);
+        miner.start();
+    }
+
+    public synchronized long getBlockCount() {
+        return blockCount;
+    }
+
+    public synchronized long getTransactionCount() {
+        return transactionCount;
+    }
+
+    /**
+     * Stops mining, leaving pooled transactions unmined.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        isClosed = true;
+        Thread thread;
+        synchronized (this) {
+            thread = miner;
+        }
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private boolean execute(Transaction transaction) {
+        ABIDecoder decoder = new ABIDecoder(transaction.data);
+        String method = decoder.decodeMethodName();
+        if ("aip040TakeOwnership".equals(method)) {
+            Address currentOwner = decoder.decodeOneAddress();
+            BigInteger[] tokenIds = decoder.decodeOneBigIntegerArray();
+            return backend.run(transaction.sender, () -> NFToken.aip040TakeOwnership(currentOwner, tokenIds)).isSuccess;
+        }
+        if ("aip040Consign".equals(method)) {
+            Address owner = decoder.decodeOneAddress();
+            Address consignee = decoder.decodeOneAddress();
+            BigInteger[] tokenIds = decoder.decodeOneBigIntegerArray();
+            return backend.run(transaction.sender, () -> NFToken.aip040Consign(owner, consignee, tokenIds)).isSuccess;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,18 @@
+package org.aion;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the same deployment arguments as <code>MainEncoder</code> into a
+ * caller-supplied <code>ByteBuffer</code>, see <code>AIP040BufferEncoder</code>.
+ */
+public class MainBufferEncoder {
+
+    public static ByteBuffer deploy(ByteBuffer buffer, String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+        ABIBufferWriter.putString(buffer, tokenName);
+        ABIBufferWriter.putString(buffer, tokenSymbol);
+        ABIBufferWriter.putString(buffer, tokenUriPrefix);
+        ABIBufferWriter.putString(buffer, tokenUriPostfix);
+        return buffer;
+    }
+}
@@ -0,0 +1,370 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+import org.aion.types.Log;
+import org.junit.*;
+
+import java.math.BigInteger;
+
+/**
+ * Measures what each AIP-040 entry point costs when driven through
+ * <code>Main</code>. Batch entry points are swept across batch sizes and all
+ * entry points which take a token identifier are swept across identifier
+ * widths. Results are written by <code>BenchmarkReport</code>.
+ *
+ * Each measured call is replayed on a shadow of the deployment on
+ * <code>InMemoryBackend</code>, where <code>StorageProfiler</code> counts its
+ * storage operations, which explain the energy and which are counted even
+ * where <code>AvmRule</code> does not meter energy.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class NFTokenBenchmark {
+
+    private static final int[] BATCH_SIZES = {1, 10, 100, 500};
+    // Identifiers up to 8 bytes take the 8-byte key encoding, wider ones the
+    // 32-byte key encoding
+    private static final int[] TOKEN_ID_WIDTHS = {2, 8, 16, 32};
+    private static final long ENERGY_LIMIT = 1_000_000_000L;
+    private static final long ENERGY_PRICE = 1L;
+
+    @Rule
+    public AvmRule avmRule = new AvmRule(false);
+
+    private Address deployer = avmRule.getPreminedAccount();
+    private BigInteger balance = BigInteger.valueOf(1_000_000_000_000_000_000L).multiply(BigInteger.TEN);
+    private byte[] contractData;
+    private InMemoryBackend shadow;
+    private StorageProfiler profiler;
+
+    // Shared by every benchmark of the class, and written once after them
+    private static final BenchmarkReport report = new BenchmarkReport(
+        "NFTokenBenchmark",
+        "callable",
+        "tokenIdWidthBytes",
+        "batchSize",
+        "success",
+        "energyUsed",
+        "energyPerToken",
+        "logCount",
+        "logBytes",
+        "storageGets",
+        "storagePuts",
+        "storageBytesRead",
+        "storageBytesWritten",
+        "storageKeyHashes",
+        "storageBytesHashed"
+    );
+
+    /**
+     * The costs of one measured call.
+     */
+    private static final class Measurement {
+        private final long energyUsed;
+        private final int logCount;
+        private final long logBytes;
+        private final StorageProfiler.Counters storage;
+
+        private Measurement(long energyUsed, int logCount, long logBytes, StorageProfiler.Counters storage) {
+            this.energyUsed = energyUsed;
+            this.logCount = logCount;
+            this.logBytes = logBytes;
+            this.storage = storage;
+        }
+    }
+
+    @Before
+    public void buildDapp() {
+        contractData = DappFixture.contractData(avmRule);
+    }
+
+    @After
+    public void uninstallProfiler() {
+        StorageProfiler.uninstall();
+    }
+
+    @AfterClass
+    public static void writeReport() {
+        report.write();
+    }
+
+    @Test
+    public void benchmarkEntryPoints() {
+        for (int tokenIdWidth : TOKEN_ID_WIDTHS) {
+            for (int batchSize : BATCH_SIZES) {
+                benchmarkScenario(tokenIdWidth, batchSize);
+            }
+        }
+    }
+
+    /**
+     * Compares token identifiers which fit in a long, and so use the 8-byte
+     * key encoding, with the narrowest identifiers which do not, and so use
+     * the 32-byte key encoding.
+     */
+    @Test
+    public void benchmarkTokenIdCodec() {
+        BenchmarkReport codecReport = new BenchmarkReport(
+            "NFTokenCodecBenchmark",
+            "callable",
+            "batchSize",
+            "compactEnergyUsed",
+            "wideEnergyUsed",
+            "energySavingPercent",
+            "compactBytesHashed",
+            "wideBytesHashed",
+            "bytesHashedSavingPercent",
+            "compactBytesWritten",
+            "wideBytesWritten"
+        );
+        int batchSize = 100;
+        Measurement[] compact = benchmarkCodecScenario(Long.BYTES, batchSize);
+        Measurement[] wide = benchmarkCodecScenario(Long.BYTES + 1, batchSize);
+        String[] callables = {"mint", "aip040TokenOwner", "aip040Consign", "aip040TakeOwnership"};
+        for (int i = 0; i < callables.length; i++) {
+            codecReport.addRow(
+                callables[i],
+                batchSize,
+                compact[i].energyUsed,
+                wide[i].energyUsed,
+                savingPercent(wide[i].energyUsed, compact[i].energyUsed),
+                compact[i].storage.bytesHashed,
+                wide[i].storage.bytesHashed,
+                savingPercent(wide[i].storage.bytesHashed, compact[i].storage.bytesHashed),
+                compact[i].storage.bytesWritten,
+                wide[i].storage.bytesWritten
+            );
+        }
+        codecReport.write();
+    }
+
+    /**
+     * Compares an airdrop of one token to each of many owners done with one
+     * <code>mint</code> transaction per owner against a single
+     * <code>mintToOwners</code> transaction.
+     */
+    @Test
+    public void benchmarkMintToOwners() {
+        BenchmarkReport airdropReport = new BenchmarkReport(
+            "NFTokenAirdropBenchmark",
+            "batchSize",
+            "mintEnergyPerToken",
+            "mintToOwnersEnergyPerToken",
+            "energySavingPercent",
+            "mintStoragePuts",
+            "mintToOwnersStoragePuts",
+            "mintBytesHashed",
+            "mintToOwnersBytesHashed",
+            "bytesHashedSavingPercent"
+        );
+        for (int batchSize : BATCH_SIZES) {
+            BigInteger[] tokenIds = Benchmarks.tokenIds(Long.BYTES, batchSize);
+            Address[] owners = new Address[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                owners[i] = avmRule.getRandomAddress(BigInteger.ZERO);
+            }
+
+            Address contractAddress = deploy();
+            long mintEnergyUsed = 0;
+            long mintStoragePuts = 0;
+            long mintBytesHashed = 0;
+            for (int i = 0; i < batchSize; i++) {
+                Measurement mint = measure(contractAddress, deployer, "mint", Long.BYTES, 1, NFTokenMockEncoder.mint(owners[i], new BigInteger[]{tokenIds[i]}));
+                mintEnergyUsed += mint.energyUsed;
+                mintStoragePuts += mint.storage.puts;
+                mintBytesHashed += mint.storage.bytesHashed;
+            }
+
+            contractAddress = deploy();
+            Measurement mintToOwners = measure(contractAddress, deployer, "mintToOwners", Long.BYTES, batchSize, NFTokenMockEncoder.mintToOwners(owners, tokenIds));
+
+            airdropReport.addRow(
+                batchSize,
+                mintEnergyUsed / batchSize,
+                mintToOwners.energyUsed / batchSize,
+                savingPercent(mintEnergyUsed, mintToOwners.energyUsed),
+                mintStoragePuts,
+                mintToOwners.storage.puts,
+                mintBytesHashed,
+                mintToOwners.storage.bytesHashed,
+                savingPercent(mintBytesHashed, mintToOwners.storage.bytesHashed)
+            );
+        }
+        airdropReport.write();
+    }
+
+    /**
+     * Compares the per-token events with batch events for the entry points
+     * which emit an event for each token.
+     */
+    @Test
+    public void benchmarkBatchedEvents() {
+        BenchmarkReport eventsReport = new BenchmarkReport(
+            "NFTokenEventsBenchmark",
+            "callable",
+            "batchSize",
+            "perTokenEnergyUsed",
+            "batchedEnergyUsed",
+            "energySavingPercent",
+            "perTokenLogCount",
+            "batchedLogCount",
+            "perTokenLogBytes",
+            "batchedLogBytes",
+            "logBytesSavingPercent"
+        );
+        String[] callables = {"mint", "aip040Consign", "aip040TakeOwnership"};
+        for (int batchSize : BATCH_SIZES) {
+            Measurement[] perToken = benchmarkEventsScenario(false, batchSize);
+            Measurement[] batched = benchmarkEventsScenario(true, batchSize);
+            for (int i = 0; i < callables.length; i++) {
+                eventsReport.addRow(
+                    callables[i],
+                    batchSize,
+                    perToken[i].energyUsed,
+                    batched[i].energyUsed,
+                    savingPercent(perToken[i].energyUsed, batched[i].energyUsed),
+                    perToken[i].logCount,
+                    batched[i].logCount,
+                    perToken[i].logBytes,
+                    batched[i].logBytes,
+                    savingPercent(perToken[i].logBytes, batched[i].logBytes)
+                );
+            }
+        }
+        eventsReport.write();
+    }
+
+    /**
+     * @return the costs of each of the callables in benchmarkBatchedEvents
+     */
+    private Measurement[] benchmarkEventsScenario(boolean batchedEvents, int batchSize) {
+        Address contractAddress = deploy();
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address tokenConsignee = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIds = Benchmarks.tokenIds(Long.BYTES, batchSize);
+        String suffix = batchedEvents ? "Batched" : "";
+        measure(contractAddress, deployer, "setBatchedEvents", Long.BYTES, 1, NFTokenMockEncoder.setBatchedEvents(batchedEvents));
+        return new Measurement[]{
+            measure(contractAddress, deployer, "mint" + suffix, Long.BYTES, batchSize, NFTokenMockEncoder.mint(tokenOwner, tokenIds)),
+            measure(contractAddress, tokenOwner, "aip040Consign" + suffix, Long.BYTES, batchSize, AIP040Encoder.aip040Consign(tokenOwner, tokenConsignee, tokenIds)),
+            measure(contractAddress, tokenConsignee, "aip040TakeOwnership" + suffix, Long.BYTES, batchSize, AIP040Encoder.aip040TakeOwnership(tokenOwner, tokenIds)),
+        };
+    }
+
+    /**
+     * @return the costs of each of the callables in benchmarkTokenIdCodec
+     */
+    private Measurement[] benchmarkCodecScenario(int tokenIdWidth, int batchSize) {
+        Address contractAddress = deploy();
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address tokenConsignee = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIds = Benchmarks.tokenIds(tokenIdWidth, batchSize);
+        return new Measurement[]{
+            measure(contractAddress, deployer, "mint", tokenIdWidth, batchSize, NFTokenMockEncoder.mint(tokenOwner, tokenIds)),
+            measure(contractAddress, deployer, "aip040TokenOwner", tokenIdWidth, 1, AIP040Encoder.aip040TokenOwner(tokenIds[0])),
+            measure(contractAddress, tokenOwner, "aip040Consign", tokenIdWidth, batchSize, AIP040Encoder.aip040Consign(tokenOwner, tokenConsignee, tokenIds)),
+            measure(contractAddress, tokenConsignee, "aip040TakeOwnership", tokenIdWidth, batchSize, AIP040Encoder.aip040TakeOwnership(tokenOwner, tokenIds)),
+        };
+    }
+
+    /**
+     * Runs every entry point once on a fresh deployment with a batch of tokens
+     * of the given identifier width.
+     */
+    private void benchmarkScenario(int tokenIdWidth, int batchSize) {
+        Address contractAddress = deploy();
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address tokenConsignee = avmRule.getRandomAddress(balance);
+        Address tokenAuthorizee = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIds = Benchmarks.tokenIds(tokenIdWidth, batchSize);
+        BigInteger tokenId = tokenIds[0];
+
+        measure(contractAddress, deployer, "mint", tokenIdWidth, batchSize, NFTokenMockEncoder.mint(tokenOwner, tokenIds));
+        measure(contractAddress, tokenOwner, "aip040Consign", tokenIdWidth, batchSize, AIP040Encoder.aip040Consign(tokenOwner, tokenConsignee, tokenIds));
+
+        // Read-only entry points do not depend on batch size
+        if (batchSize == BATCH_SIZES[0]) {
+            measure(contractAddress, deployer, "aip040Name", tokenIdWidth, 1, AIP040Encoder.aip040Name());
+            measure(contractAddress, deployer, "aip040Symbol", tokenIdWidth, 1, AIP040Encoder.aip040Symbol());
+            measure(contractAddress, deployer, "aip040TotalSupply", tokenIdWidth, 1, AIP040Encoder.aip040TotalSupply());
+            measure(contractAddress, deployer, "aip040TokenOwner", tokenIdWidth, 1, AIP040Encoder.aip040TokenOwner(tokenId));
+            measure(contractAddress, deployer, "aip040TokenConsignee", tokenIdWidth, 1, AIP040Encoder.aip040TokenConsignee(tokenId));
+            measure(contractAddress, deployer, "aip040TokenUri", tokenIdWidth, 1, AIP040Encoder.aip040TokenUri(tokenId));
+            measure(contractAddress, deployer, "aip040OwnerBalance", tokenIdWidth, 1, AIP040Encoder.aip040OwnerBalance(tokenOwner));
+            measure(contractAddress, deployer, "aip040OwnerDoesAuthorize", tokenIdWidth, 1, AIP040Encoder.aip040OwnerDoesAuthorize(tokenOwner, tokenAuthorizee));
+            measure(contractAddress, deployer, "aip040TokenAtIndex", tokenIdWidth, 1, AIP040Encoder.aip040TokenAtIndex(BigInteger.ZERO));
+            measure(contractAddress, deployer, "aip040TokenForOwnerAtIndex", tokenIdWidth, 1, AIP040Encoder.aip040TokenForOwnerAtIndex(tokenOwner, BigInteger.ZERO));
+            measure(contractAddress, tokenOwner, "aip040Authorize", tokenIdWidth, 1, AIP040Encoder.aip040Authorize(tokenAuthorizee));
+            measure(contractAddress, tokenOwner, "aip040Deauthorize", tokenIdWidth, 1, AIP040Encoder.aip040Deauthorize(tokenAuthorizee));
+        }
+
+        measure(contractAddress, tokenConsignee, "aip040TakeOwnership", tokenIdWidth, batchSize, AIP040Encoder.aip040TakeOwnership(tokenOwner, tokenIds));
+    }
+
+    /**
+     * Deploys the contract on <code>AvmRule</code>, and its shadow on a new
+     * <code>InMemoryBackend</code> with a <code>StorageProfiler</code>, which
+     * <code>measure</code> replays calls on until the next deployment.
+     *
+     * @return the address of the contract
+     */
+    private Address deploy() {
+        Address contractAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData, ENERGY_LIMIT, ENERGY_PRICE).getDappAddress();
+        shadow = InMemoryBackend.install();
+        profiler = StorageProfiler.install();
+        Assert.assertTrue(shadow.run(deployer, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes(DappFixture.TOKEN_NAME, DappFixture.TOKEN_SYMBOL, DappFixture.TOKEN_URI_PREFIX, DappFixture.TOKEN_URI_POSTFIX)).isSuccess);
+        return contractAddress;
+    }
+
+    /**
+     * Calls the contract, replays the call on the shadow of the last
+     * deployment and adds the costs to the report.
+     */
+    private Measurement measure(Address contractAddress, Address caller, String callable, int tokenIdWidth, int batchSize, byte[] transactionData) {
+        AvmRule.ResultWrapper result = avmRule.call(caller, contractAddress, BigInteger.ZERO, transactionData, ENERGY_LIMIT, ENERGY_PRICE);
+        Assert.assertTrue(callable + " failed", result.getReceiptStatus().isSuccess());
+        profiler.reset();
+        profiler.setCallable(callable);
+        Assert.assertTrue(callable + " failed on the shadow", shadow.replay(caller, transactionData).isSuccess);
+        profiler.setCallable("");
+        StorageProfiler.Counters storage = profiler.total(callable);
+
+        long energyUsed = result.getTransactionResult().energyUsed;
+        long logBytes = 0;
+        for (Log log : result.getTransactionResult().logs) {
+            for (byte[] topic : log.copyOfTopics()) {
+                logBytes += topic.length;
+            }
+            logBytes += log.copyOfData().length;
+        }
+        report.addRow(
+            callable,
+            tokenIdWidth,
+            batchSize,
+            result.getReceiptStatus().isSuccess(),
+            energyUsed,
+            energyUsed / batchSize,
+            result.getTransactionResult().logs.size(),
+            logBytes,
+            storage.gets,
+            storage.puts,
+            storage.bytesRead,
+            storage.bytesWritten,
+            storage.blake2bs,
+            storage.bytesHashed
+        );
+        return new Measurement(energyUsed, result.getTransactionResult().logs.size(), logBytes, storage);
+    }
+
+    /**
+     * @return the percentage of <code>before</code> saved by
+     *         <code>after</code>, or blank if <code>before</code> is zero,
+     *         e.g. energy where <code>AvmRule</code> does not meter it
+     */
+    private static Object savingPercent(long before, long after) {
+        return before == 0 ? "" : 100 * (before - after) / before;
+    }
+}
@@ -0,0 +1,221 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+import org.aion.types.Log;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Runs the same random transactions on <code>AvmRule</code> and on
+ * <code>InMemoryBackend</code> and checks that every outcome, return value
+ * and log event matches, so that simulations on the host can be trusted.
+ */
+public class NFTokenDifferentialTest {
+
+    private static final long SEED = 40;
+    private static final int TRANSACTIONS = 400;
+    private static final int ACCOUNTS = 4;
+    private static final int TOKEN_IDS = 24;
+    // AIP040EventDecoder names of the AIP040LogDecoder event types
+    private static final String[] EVENT_NAMES = {null, AIP040EventDecoder.MINTED, AIP040EventDecoder.BURNED, AIP040EventDecoder.TRANSFERRED, AIP040EventDecoder.CONSIGNED, AIP040EventDecoder.AUTHORIZED, AIP040EventDecoder.DEAUTHORIZED};
+
+    @Rule
+    public AvmRule avmRule = new AvmRule(false);
+
+    private Address deployer = avmRule.getPreminedAccount();
+    private BigInteger balance = BigInteger.valueOf(1_000_000_000_000_000_000L).multiply(BigInteger.TEN);
+    private Address contractAddress;
+    private InMemoryBackend backend;
+    private AIP040LogDecoder logDecoder = new AIP040LogDecoder();
+
+    @Before
+    public void deployDapp() {
+        contractAddress = DappFixture.deploy(avmRule, deployer);
+
+        backend = InMemoryBackend.install();
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes("Planets", "PL", "pre", "post")).isSuccess);
+    }
+
+    @Test
+    public void testBlake2bMatchesKnownHashes() {
+        assertHash("0e5751c026e543b2e8ab2eb06099daa1d1e5df47778f7787faab45cdf12fe3a8", "");
+        assertHash("bddd813c634239723171ef3fee98579b94964e3bb1cb3e427262c8c068d52319", "abc");
+    }
+
+    @Test
+    public void testStorageAuditFindsDeadSlots() {
+        Address owner = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIds = {BigInteger.ONE, BigInteger.valueOf(2), BigInteger.TEN};
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.mint(owner, tokenIds)).isSuccess);
+        Assert.assertTrue(backend.run(owner, () -> NFTokenMock.burn(owner, new BigInteger[]{BigInteger.valueOf(2)})).isSuccess);
+        Assert.assertEquals(0, StorageAudit.total(StorageAudit.audit(backend)).deadSlots);
+
+        //a slot vacated by the burn, and a slot of no realm
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenStorage.putTokenAtIndex(2, BigInteger.valueOf(2))).isSuccess);
+        backend.putStorage(new byte[32], new byte[]{1});
+        for (StorageAudit.Row row : StorageAudit.audit(backend)) {
+            long expectedDeadSlots = row.realm.equals("TOKENS_ARRAY") || row.realm.equals("UNATTRIBUTED") ? 1 : 0;
+            Assert.assertEquals(row.realm, expectedDeadSlots, row.deadSlots);
+        }
+    }
+
+    @Test
+    public void testRandomTransactionsMatchAvm() {
+        Random random = new Random(SEED);
+        Address[] accounts = new Address[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = avmRule.getRandomAddress(balance);
+        }
+        long nextRangeStart = 1_000;
+
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            Address caller = accounts[random.nextInt(ACCOUNTS)];
+            Address account = accounts[random.nextInt(ACCOUNTS)];
+            Address otherAccount = random.nextInt(8) == 0 ? null : accounts[random.nextInt(ACCOUNTS)];
+            BigInteger[] tokenIds = randomTokenIds(random);
+            BigInteger index = BigInteger.valueOf(random.nextInt(TOKEN_IDS) - 1);
+            int count = random.nextInt(5);
+            String step = "transaction " + i;
+
+            switch (random.nextInt(15)) {
+                case 0:
+                    check(step, caller, NFTokenMockEncoder.mint(account, tokenIds), () -> { NFTokenMock.mint(account, tokenIds); return null; });
+                    break;
+                case 1:
+                    Address[] owners = new Address[tokenIds.length];
+                    for (int j = 0; j < owners.length; j++) {
+                        owners[j] = accounts[random.nextInt(ACCOUNTS)];
+                    }
+                    check(step, caller, NFTokenMockEncoder.mintToOwners(owners, tokenIds), () -> { NFTokenMock.mintToOwners(owners, tokenIds); return null; });
+                    break;
+                case 2:
+                    BigInteger start = BigInteger.valueOf(nextRangeStart);
+                    nextRangeStart += 10;
+                    check(step, caller, NFTokenMockEncoder.mintRange(account, start, count), () -> { NFTokenMock.mintRange(account, start, count); return null; });
+                    break;
+                case 3:
+                case 4:
+                    check(step, caller, AIP040Encoder.aip040TakeOwnership(account, tokenIds), () -> { NFToken.aip040TakeOwnership(account, tokenIds); return null; });
+                    break;
+                case 5:
+                    check(step, caller, AIP040Encoder.aip040Consign(account, otherAccount, tokenIds), () -> { NFToken.aip040Consign(account, otherAccount, tokenIds); return null; });
+                    break;
+                case 6:
+                    check(step, caller, AIP040Encoder.aip040Authorize(otherAccount), () -> { NFToken.aip040Authorize(otherAccount); return null; });
+                    break;
+                case 7:
+                    check(step, caller, AIP040Encoder.aip040Deauthorize(otherAccount), () -> { NFToken.aip040Deauthorize(otherAccount); return null; });
+                    break;
+                case 8:
+                    boolean batched = random.nextBoolean();
+                    // Mostly the deployer, the only account allowed
+                    Address batchedEventsCaller = random.nextInt(4) == 0 ? caller : deployer;
+                    check(step, batchedEventsCaller, NFTokenMockEncoder.setBatchedEvents(batched), () -> { NFTokenMock.setBatchedEvents(batched); return null; });
+                    break;
+                case 9:
+                    check(step, caller, AIP040Encoder.aip040TokenOwners(tokenIds), () -> NFToken.aip040TokenOwners(tokenIds));
+                    check(step, caller, AIP040Encoder.aip040TokenConsignees(tokenIds), () -> NFToken.aip040TokenConsignees(tokenIds));
+                    break;
+                case 10:
+                    check(step, caller, AIP040Encoder.aip040TotalSupply(), NFToken::aip040TotalSupply);
+                    check(step, caller, AIP040Encoder.aip040OwnerBalance(account), () -> NFToken.aip040OwnerBalance(account));
+                    break;
+                case 11:
+                    check(step, caller, AIP040Encoder.aip040TokenAtIndex(index), () -> NFToken.aip040TokenAtIndex(index));
+                    check(step, caller, AIP040Encoder.aip040TokenForOwnerAtIndex(account, index), () -> NFToken.aip040TokenForOwnerAtIndex(account, index));
+                    break;
+                case 12:
+                    check(step, caller, AIP040Encoder.aip040TokensAtIndexRange(index, count * 10), () -> NFToken.aip040TokensAtIndexRange(index, count * 10));
+                    check(step, caller, AIP040Encoder.aip040TokensForOwnerAtIndexRange(account, index, count * 10), () -> NFToken.aip040TokensForOwnerAtIndexRange(account, index, count * 10));
+                    break;
+                case 13:
+                    check(step, caller, NFTokenMockEncoder.burn(account, tokenIds), () -> { NFTokenMock.burn(account, tokenIds); return null; });
+                    break;
+                default:
+                    check(step, caller, AIP040Encoder.aip040OwnerDoesAuthorize(account, otherAccount), () -> NFToken.aip040OwnerDoesAuthorize(account, otherAccount));
+                    check(step, caller, AIP040Encoder.aip040TokenUris(tokenIds), () -> NFToken.aip040TokenUris(tokenIds));
+            }
+        }
+
+        //every token in the collection is enumerated the same way
+        check("final enumeration", deployer, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 1_000), () -> NFToken.aip040TokensAtIndexRange(BigInteger.ZERO, 1_000));
+        for (Address account : accounts) {
+            check("final enumeration", deployer, AIP040Encoder.aip040TokensForOwnerAtIndexRange(account, BigInteger.ZERO, 1_000), () -> NFToken.aip040TokensForOwnerAtIndexRange(account, BigInteger.ZERO, 1_000));
+        }
+
+        //every stored slot is still needed
+        StorageAudit.Row total = StorageAudit.total(StorageAudit.audit(backend));
+        Assert.assertEquals(0, total.deadSlots);
+        Assert.assertEquals(backend.getStorageSize(), total.liveSlots);
+    }
+
+    /**
+     * Runs one transaction on both and compares the outcomes.
+     */
+    private void check(String step, Address caller, byte[] transactionData, Supplier<Object> transaction) {
+        AvmRule.ResultWrapper avmResult = avmRule.call(caller, contractAddress, BigInteger.ZERO, transactionData);
+        InMemoryBackend.Outcome<Object> outcome = backend.call(caller, transaction);
+
+        Assert.assertEquals(step, avmResult.getReceiptStatus().isSuccess(), outcome.isSuccess);
+        if (!outcome.isSuccess) {
+            return;
+        }
+        Assert.assertTrue(step, Arrays.deepEquals(new Object[]{avmResult.getDecodedReturnData()}, new Object[]{outcome.value}));
+
+        List<AIP040EventDecoder.TokenEvent> avmEvents = new ArrayList<>();
+        for (Log log : avmResult.getTransactionResult().logs) {
+            avmEvents.addAll(AIP040EventDecoder.decode(log.copyOfTopics(), log.copyOfData()));
+        }
+        List<AIP040EventDecoder.TokenEvent> backendEvents = new ArrayList<>();
+        for (InMemoryBackend.Log log : outcome.logs) {
+            backendEvents.addAll(AIP040EventDecoder.decode(log.topics, log.data));
+        }
+        Assert.assertEquals(step, avmEvents, backendEvents);
+        Assert.assertEquals(step, avmResult.getTransactionResult().logs.size(), outcome.logs.size());
+
+        //the zero-copy decoder agrees with the simple one
+        for (InMemoryBackend.Log log : outcome.logs) {
+            List<AIP040EventDecoder.TokenEvent> tokenEvents = new ArrayList<>();
+            List<String> authorizations = new ArrayList<>();
+            long count = logDecoder.decode(log.topics, log.data, event -> {
+                String name = EVENT_NAMES[event.getType()];
+                if (event.isTokenEvent()) {
+                    tokenEvents.add(new AIP040EventDecoder.TokenEvent(name, event.firstAccount(), event.secondAccount(), event.tokenId()));
+                } else {
+                    authorizations.add(name + " " + event.firstAccount() + " " + event.secondAccount());
+                }
+            });
+            Assert.assertEquals(step, AIP040EventDecoder.decode(log.topics, log.data), tokenEvents);
+            AIP040EventDecoder.AuthorizationEvent authorization = AIP040EventDecoder.decodeAuthorization(log.topics);
+            if (authorization != null) {
+                Assert.assertEquals(step, Arrays.asList(authorization.name + " " + authorization.account + " " + authorization.authorizee), authorizations);
+            }
+            Assert.assertEquals(step, tokenEvents.size() + authorizations.size(), count);
+        }
+    }
+
+    private static BigInteger[] randomTokenIds(Random random) {
+        BigInteger[] tokenIds = new BigInteger[1 + random.nextInt(3)];
+        for (int i = 0; i < tokenIds.length; i++) {
+            tokenIds[i] = BigInteger.valueOf(random.nextInt(TOKEN_IDS));
+        }
+        return tokenIds;
+    }
+
+    private static void assertHash(String expectedHex, String input) {
+        byte[] hash = Blake2b.hash256(input.getBytes(StandardCharsets.US_ASCII));
+        StringBuilder hex = new StringBuilder();
+        for (byte b : hash) {
+            hex.append(String.format("%02x", b));
+        }
+        Assert.assertEquals(expectedHex, hex.toString());
+    }
+}
@@ -0,0 +1,53 @@
+package org.aion;
+
+import avm.Address;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes the same calls as <code>NFTokenMockEncoder</code> into a
+ * caller-supplied <code>ByteBuffer</code>, see <code>AIP040BufferEncoder</code>.
+ */
+public class NFTokenMockBufferEncoder extends AIP040BufferEncoder {
+
+    private static final byte[] MINT = ABIBufferWriter.methodPrefix("mint");
+    private static final byte[] MINT_TO_OWNERS = ABIBufferWriter.methodPrefix("mintToOwners");
+    private static final byte[] MINT_RANGE = ABIBufferWriter.methodPrefix("mintRange");
+    private static final byte[] BURN = ABIBufferWriter.methodPrefix("burn");
+    private static final byte[] SET_BATCHED_EVENTS = ABIBufferWriter.methodPrefix("setBatchedEvents");
+
+    public static ByteBuffer mint(ByteBuffer buffer, Address newOwner, BigInteger[] tokenIds) {
+        buffer.put(MINT);
+        ABIBufferWriter.putAddress(buffer, newOwner);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer mintToOwners(ByteBuffer buffer, Address[] newOwners, BigInteger[] tokenIds) {
+        buffer.put(MINT_TO_OWNERS);
+        ABIBufferWriter.putAddressArray(buffer, newOwners);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer mintRange(ByteBuffer buffer, Address newOwner, BigInteger start, long count) {
+        buffer.put(MINT_RANGE);
+        ABIBufferWriter.putAddress(buffer, newOwner);
+        ABIBufferWriter.putBigInteger(buffer, start);
+        ABIBufferWriter.putLong(buffer, count);
+        return buffer;
+    }
+
+    public static ByteBuffer burn(ByteBuffer buffer, Address owner, BigInteger[] tokenIds) {
+        buffer.put(BURN);
+        ABIBufferWriter.putAddress(buffer, owner);
+        ABIBufferWriter.putBigIntegerArray(buffer, tokenIds);
+        return buffer;
+    }
+
+    public static ByteBuffer setBatchedEvents(ByteBuffer buffer, boolean enabled) {
+        buffer.put(SET_BATCHED_EVENTS);
+        ABIBufferWriter.putBoolean(buffer, enabled);
+        return buffer;
+    }
+}
@@ -20,4 +20,36 @@ public class NFTokenMockEncoder extends AIP040Encoder {
         .encodeOneBigIntegerArray(tokenIds)
         .toBytes();
     }
-}
\ No newline at end of file
+
+    public static byte[] mintToOwners(Address[] newOwners, BigInteger[] tokenIds) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("mintToOwners")
+        .encodeOneAddressArray(newOwners)
+        .encodeOneBigIntegerArray(tokenIds)
+        .toBytes();
+    }
+
+    public static byte[] mintRange(Address newOwner, BigInteger start, long count) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("mintRange")
+        .encodeOneAddress(newOwner)
+        .encodeOneBigInteger(start)
+        .encodeOneLong(count)
+        .toBytes();
+    }
+
+    public static byte[] burn(Address owner, BigInteger[] tokenIds) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("burn")
+        .encodeOneAddress(owner)
+        .encodeOneBigIntegerArray(tokenIds)
+        .toBytes();
+    }
+
+    public static byte[] setBatchedEvents(boolean enabled) {
+        return new ABIStreamingEncoder()
+        .encodeOneString("setBatchedEvents")
+        .encodeOneBoolean(enabled)
+        .toBytes();
+    }
+}
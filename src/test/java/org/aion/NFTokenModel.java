@@ -0,0 +1,299 @@
+package org.aion;
+
+import java.util.Arrays;
+
+/**
+ * A compact reference model of <code>NFToken</code> and
+ * <code>NFTokenMock</code> for checking the contract at scale. Accounts are
+ * indices below 64 and token identifiers are indices below a fixed capacity,
+ * so all state is in primitive arrays.
+ *
+ * The model keeps the same enumeration order as the contract: tokens are
+ * appended when minted and removed by moving the last entry into their place.
+ * Each transition returns false, changing nothing, exactly where the contract
+ * reverts.
+ */
+public class NFTokenModel {
+
+    /**
+     * No account, or no token.
+     */
+    public static final int NONE = -1;
+
+    private static final int MAX_ACCOUNTS = Long.SIZE;
+
+    private final int accountCount;
+    private final int[] owners;
+    private final int[] consignees;
+    private final int[] locations;
+    private final int[] tokensIndices;
+    private final int[] tokens;
+    private int totalSupply;
+    private final int[][] ownerTokens;
+    private final int[] balances;
+    // Bit a of authorizations[o] is set iff o authorizes a
+    private final long[] authorizations;
+    private int highestTokenId = NONE;
+
+    // Tokens changed by the last transition
+    private int[] touchedTokens = new int[16];
+    private int touchedTokenCount;
+
+    public NFTokenModel(int accountCount, int tokenCapacity) {
+        if (accountCount > MAX_ACCOUNTS) {
+            throw new IllegalArgumentException("At most " + MAX_ACCOUNTS + " accounts: " + accountCount);
+        }
+        this.accountCount = accountCount;
+        owners = new int[tokenCapacity];
+        consignees = new int[tokenCapacity];
+        locations = new int[tokenCapacity];
+        tokensIndices = new int[tokenCapacity];
+        tokens = new int[tokenCapacity];
+        Arrays.fill(owners, NONE);
+        Arrays.fill(consignees, NONE);
+        ownerTokens = new int[accountCount][16];
+        balances = new int[accountCount];
+        authorizations = new long[accountCount];
+    }
+
+    //region Views
+
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public int getTokenCapacity() {
+        return owners.length;
+    }
+
+    public int ownerOf(int tokenId) {
+        return owners[tokenId];
+    }
+
+    public int consigneeOf(int tokenId) {
+        return consignees[tokenId];
+    }
+
+    /**
+     * @return the index of the token in the array of its owner
+     */
+    public int locationOf(int tokenId) {
+        return locations[tokenId];
+    }
+
+    /**
+     * @return the index of the token in the array of all tokens
+     */
+    public int tokensIndexOf(int tokenId) {
+        return tokensIndices[tokenId];
+    }
+
+    public int balanceOf(int account) {
+        return balances[account];
+    }
+
+    public boolean isAuthorized(int owner, int authorizee) {
+        return (authorizations[owner] & (1L << authorizee)) != 0;
+    }
+
+    public int totalSupply() {
+        return totalSupply;
+    }
+
+    public int tokenAtIndex(int index) {
+        return tokens[index];
+    }
+
+    public int tokenOfOwnerAtIndex(int owner, int index) {
+        return ownerTokens[owner][index];
+    }
+
+    /**
+     * @return the highest token identifier ever minted, or <code>NONE</code>
+     */
+    public int highestTokenId() {
+        return highestTokenId;
+    }
+
+    /**
+     * @return the number of tokens changed by the last transition, including
+     *         tokens moved to fill a vacated index
+     */
+    public int getTouchedTokenCount() {
+        return touchedTokenCount;
+    }
+
+    public int getTouchedToken(int i) {
+        return touchedTokens[i];
+    }
+
+    //endregion
+
+    //region Transitions
+
+    public boolean mint(int owner, int[] tokenIds) {
+        touchedTokenCount = 0;
+        if (!areDistinctAndUnowned(tokenIds)) {
+            return false;
+        }
+        for (int tokenId : tokenIds) {
+            add(owner, tokenId);
+        }
+        return true;
+    }
+
+    public boolean mintToOwners(int[] newOwners, int[] tokenIds) {
+        touchedTokenCount = 0;
+        if (newOwners.length != tokenIds.length || !areDistinctAndUnowned(tokenIds)) {
+            return false;
+        }
+        for (int i = 0; i < tokenIds.length; i++) {
+            add(newOwners[i], tokenIds[i]);
+        }
+        return true;
+    }
+
+    public boolean mintRange(int owner, int start, int count) {
+        touchedTokenCount = 0;
+        if (count <= 0 || start <= highestTokenId) {
+            return false;
+        }
+        for (int tokenId = start; tokenId < start + count; tokenId++) {
+            add(owner, tokenId);
+        }
+        return true;
+    }
+
+    public boolean takeOwnership(int caller, int currentOwner, int[] tokenIds) {
+        touchedTokenCount = 0;
+        boolean isSelfTransfer = caller == currentOwner;
+        boolean isAuthorized = isSelfTransfer || isAuthorized(currentOwner, caller);
+        // A token taken by another account is no longer owned by currentOwner
+        if (!isSelfTransfer && !areDistinct(tokenIds)) {
+            return false;
+        }
+        for (int tokenId : tokenIds) {
+            if (owners[tokenId] != currentOwner || !isAuthorized && consignees[tokenId] != caller) {
+                return false;
+            }
+        }
+        for (int tokenId : tokenIds) {
+            consignees[tokenId] = NONE;
+            touch(tokenId);
+            if (!isSelfTransfer) {
+                removeFromOwner(currentOwner, tokenId);
+                appendToOwner(caller, tokenId);
+            }
+        }
+        return true;
+    }
+
+    public boolean consign(int caller, int owner, int consignee, int[] tokenIds) {
+        touchedTokenCount = 0;
+        if (caller != owner && !isAuthorized(owner, caller)) {
+            return false;
+        }
+        for (int tokenId : tokenIds) {
+            if (owners[tokenId] != owner) {
+                return false;
+            }
+        }
+        for (int tokenId : tokenIds) {
+            consignees[tokenId] = consignee;
+            touch(tokenId);
+        }
+        return true;
+    }
+
+    public void authorize(int caller, int authorizee) {
+        touchedTokenCount = 0;
+        authorizations[caller] |= 1L << authorizee;
+    }
+
+    public void deauthorize(int caller, int priorAuthorizee) {
+        touchedTokenCount = 0;
+        authorizations[caller] &= ~(1L << priorAuthorizee);
+    }
+
+    public boolean burn(int caller, int owner, int[] tokenIds) {
+        touchedTokenCount = 0;
+        if (caller != owner && !isAuthorized(owner, caller) || !areDistinct(tokenIds)) {
+            return false;
+        }
+        for (int tokenId : tokenIds) {
+            if (owners[tokenId] != owner) {
+                return false;
+            }
+        }
+        for (int tokenId : tokenIds) {
+            removeFromOwner(owner, tokenId);
+            totalSupply--;
+            int lastToken = tokens[totalSupply];
+            tokens[tokensIndices[tokenId]] = lastToken;
+            tokensIndices[lastToken] = tokensIndices[tokenId];
+            touch(lastToken);
+            owners[tokenId] = NONE;
+            consignees[tokenId] = NONE;
+            touch(tokenId);
+        }
+        return true;
+    }
+
+    //endregion
+
+    private void add(int owner, int tokenId) {
+        tokens[totalSupply] = tokenId;
+        tokensIndices[tokenId] = totalSupply;
+        totalSupply++;
+        appendToOwner(owner, tokenId);
+        highestTokenId = Math.max(highestTokenId, tokenId);
+        touch(tokenId);
+    }
+
+    private void appendToOwner(int owner, int tokenId) {
+        int balance = balances[owner];
+        if (balance == ownerTokens[owner].length) {
+            ownerTokens[owner] = Arrays.copyOf(ownerTokens[owner], balance * 2);
+        }
+        ownerTokens[owner][balance] = tokenId;
+        locations[tokenId] = balance;
+        balances[owner] = balance + 1;
+        owners[tokenId] = owner;
+    }
+
+    private void removeFromOwner(int owner, int tokenId) {
+        int lastLocation = --balances[owner];
+        int lastToken = ownerTokens[owner][lastLocation];
+        ownerTokens[owner][locations[tokenId]] = lastToken;
+        locations[lastToken] = locations[tokenId];
+        touch(lastToken);
+    }
+
+    private boolean areDistinctAndUnowned(int[] tokenIds) {
+        for (int tokenId : tokenIds) {
+            if (owners[tokenId] != NONE) {
+                return false;
+            }
+        }
+        return areDistinct(tokenIds);
+    }
+
+    private static boolean areDistinct(int[] tokenIds) {
+        // Batches are small
+        for (int i = 1; i < tokenIds.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (tokenIds[i] == tokenIds[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void touch(int tokenId) {
+        if (touchedTokenCount == touchedTokens.length) {
+            touchedTokens = Arrays.copyOf(touchedTokens, touchedTokenCount * 2);
+        }
+        touchedTokens[touchedTokenCount++] = tokenId;
+    }
+}
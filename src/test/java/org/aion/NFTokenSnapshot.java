@@ -0,0 +1,525 @@
+package org.aion;
+
+import avm.Address;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Exports the state of a collection to a compact binary snapshot, and reads it
+ * back to rebuild the collection in a fresh deployment.
+ *
+ * A snapshot is the logical state, not the storage slots: the metadata, each
+ * token in the order of <code>aip040TokenAtIndex</code> with its owner and
+ * consignee, and each authorization. All of it is streamed, both ways, so
+ * memory is bounded by the account dictionary, not by the number of tokens.
+ *
+ * <pre>
+ * snapshot      = MAGIC record* end
+ * record        = METADATA string string string string
+ *               | TOKEN tokenId account account
+ *               | AUTHORIZATION account account
+ * end           = END long(tokens) long(authorizations)
+ * string        = short(length) UTF-8 bytes
+ * tokenId       = byte(length) BigInteger.toByteArray bytes
+ * account       = varint(0)                  no account
+ *               | varint(1) 32 bytes         an account, added to the dictionary
+ *                                            unless it is full
+ *               | varint(2 + index)          a dictionary account
+ * </pre>
+ *
+ * Numbers are big-endian, varints are unsigned LEB128.
+ */
+public class NFTokenSnapshot {
+
+    public static final byte[] MAGIC = {'A', 'I', 'P', '0', '4', '0', 'S', 1};
+
+    private static final byte METADATA = 1;
+    private static final byte TOKEN = 2;
+    private static final byte AUTHORIZATION = 3;
+    private static final byte END = 0;
+
+    private static final int NO_ACCOUNT = 0;
+    private static final int NEW_ACCOUNT = 1;
+    private static final int DICTIONARY_ACCOUNT = 2;
+    private static final int DICTIONARY_CAPACITY = 1 << 20;
+
+    // Tokens read from the contract per simulated transaction
+    private static final int PAGE = 1_000;
+    // The longest record, a metadata record of four maximal strings
+    private static final int MAX_RECORD_LENGTH = 1 + 4 * (Short.BYTES + Short.MAX_VALUE);
+    private static final int MAP_WINDOW = 64 << 20;
+
+    /**
+     * Receives each record of a snapshot, in order.
+     */
+    public interface Visitor {
+        void metadata(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix);
+
+        /**
+         * @param consignee null if none
+         */
+        void token(BigInteger tokenId, Address owner, Address consignee);
+
+        void authorization(Address owner, Address authorizee);
+
+        /**
+         * Called once after the last record.
+         */
+        void end();
+    }
+
+    //region Export
+
+    /**
+     * Writes the state of the contract on <code>backend</code> to a file.
+     * Authorizations cannot be enumerated through the contract, so the
+     * accounts which were ever authorized are taken from the log events of
+     * the backend.
+     *
+     * @return the number of tokens written
+     */
+    public static long export(InMemoryBackend backend, Path file) throws IOException {
+        AVMBlockchainWrapper.setBackend(backend);
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            return export(backend, stream);
+        }
+    }
+
+    private static long export(InMemoryBackend backend, OutputStream stream) throws IOException {
+        Writer writer = new Writer(new DataOutputStream(new BufferedOutputStream(stream, 1 << 16)));
+        // Metadata which was never set is restored as empty
+        String[] metadata = view(backend, () -> new String[]{
+            NFTokenStorage.getTokenName(),
+            NFTokenStorage.getTokenSymbol(),
+            NFTokenStorage.getTokenUriPrefix(),
+            NFTokenStorage.getTokenUriPostfix(),
+        });
+        for (int i = 0; i < metadata.length; i++) {
+            if (metadata[i] == null) {
+                metadata[i] = "";
+            }
+        }
+        writer.metadata(metadata[0], metadata[1], metadata[2], metadata[3]);
+
+        long totalSupply = view(backend, NFTokenStorage::getTotalSupply);
+        for (long first = 0; first < totalSupply; first += PAGE) {
+            long start = first;
+            long end = Math.min(totalSupply, first + PAGE);
+            Object[] page = view(backend, () -> {
+                Object[] tokens = new Object[3 * (int) (end - start)];
+                for (long i = start; i < end; i++) {
+                    BigInteger tokenId = NFTokenStorage.getTokenAtIndex(i);
+                    NFTokenStorage.TokenRecord record = NFTokenStorage.getTokenRecord(tokenId);
+                    int offset = 3 * (int) (i - start);
+                    tokens[offset] = tokenId;
+                    tokens[offset + 1] = record.owner;
+                    tokens[offset + 2] = record.consignee;
+                }
+                return tokens;
+            });
+            for (int i = 0; i < page.length; i += 3) {
+                writer.token((BigInteger) page[i], (Address) page[i + 1], (Address) page[i + 2]);
+            }
+        }
+
+        Set<List<Address>> authorizations = new LinkedHashSet<>();
+        AIP040LogDecoder decoder = new AIP040LogDecoder();
+        for (InMemoryBackend.Log log : backend.getLogs()) {
+            decoder.decode(log.topics, log.data, event -> {
+                if (event.getType() == AIP040LogDecoder.AUTHORIZED) {
+                    authorizations.add(List.of(event.firstAccount(), event.secondAccount()));
+                }
+            });
+        }
+        for (List<Address> authorization : authorizations) {
+            if (view(backend, () -> NFTokenStorage.getAccountAuthorization(authorization.get(0), authorization.get(1)))) {
+                writer.authorization(authorization.get(0), authorization.get(1));
+            }
+        }
+        writer.end();
+        return writer.tokenCount;
+    }
+
+    private static <T> T view(InMemoryBackend backend, Supplier<T> query) {
+        InMemoryBackend.Outcome<T> outcome = backend.call(null, query);
+        if (!outcome.isSuccess) {
+            throw new IllegalStateException("Reading the contract state reverted");
+        }
+        return outcome.value;
+    }
+
+    /**
+     * Writes records, in the order they are visited.
+     */
+    public static final class Writer implements Visitor {
+        private final DataOutputStream stream;
+        private final Map<Address, Integer> dictionary = new HashMap<>();
+        private long tokenCount;
+        private long authorizationCount;
+
+        /**
+         * Writes <code>MAGIC</code>, then each visited record. The stream is
+         * flushed, not closed, at the end.
+         */
+        public Writer(DataOutputStream stream) throws IOException {
+            this.stream = stream;
+            stream.write(MAGIC);
+        }
+
+        @Override
+        public void metadata(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+            try {
+                stream.writeByte(METADATA);
+                writeString(tokenName);
+                writeString(tokenSymbol);
+                writeString(tokenUriPrefix);
+                writeString(tokenUriPostfix);
+            } catch (IOException e) {
+                throw new SnapshotException("Cannot write the snapshot", e);
+            }
+        }
+
+        @Override
+        public void token(BigInteger tokenId, Address owner, Address consignee) {
+            try {
+                stream.writeByte(TOKEN);
+                byte[] bytes = tokenId.toByteArray();
+                stream.writeByte(bytes.length);
+                stream.write(bytes);
+                writeAccount(owner);
+                writeAccount(consignee);
+                tokenCount++;
+            } catch (IOException e) {
+                throw new SnapshotException("Cannot write the snapshot", e);
+            }
+        }
+
+        @Override
+        public void authorization(Address owner, Address authorizee) {
+            try {
+                stream.writeByte(AUTHORIZATION);
+                writeAccount(owner);
+                writeAccount(authorizee);
+                authorizationCount++;
+            } catch (IOException e) {
+                throw new SnapshotException("Cannot write the snapshot", e);
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                stream.writeByte(END);
+                stream.writeLong(tokenCount);
+                stream.writeLong(authorizationCount);
+                stream.flush();
+            } catch (IOException e) {
+                throw new SnapshotException("Cannot write the snapshot", e);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            stream.writeShort(bytes.length);
+            stream.write(bytes);
+        }
+
+        private void writeAccount(Address account) throws IOException {
+            if (account == null) {
+                writeVarint(NO_ACCOUNT);
+                return;
+            }
+            Integer index = dictionary.get(account);
+            if (index != null) {
+                writeVarint(DICTIONARY_ACCOUNT + index);
+                return;
+            }
+            writeVarint(NEW_ACCOUNT);
+            stream.write(account.toByteArray());
+            if (dictionary.size() < DICTIONARY_CAPACITY) {
+                dictionary.put(account, dictionary.size());
+            }
+        }
+
+        private void writeVarint(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                stream.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            stream.writeByte(value);
+        }
+    }
+
+    //endregion
+
+    //region Import
+
+    /**
+     * Reads a snapshot through memory-mapped windows of the file, passing
+     * each record to the visitor.
+     *
+     * @return the number of tokens read
+     * @throws SnapshotException if the file is not a whole snapshot
+     */
+    public static long read(Path file, Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new Reader(channel).read(visitor);
+        }
+    }
+
+    private static final class Reader {
+        private final FileChannel channel;
+        private final long size;
+        private final List<Address> dictionary = new ArrayList<>();
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        private Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private long read(Visitor visitor) throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new SnapshotException("Not a snapshot");
+            }
+            long tokenCount = 0;
+            long authorizationCount = 0;
+            while (true) {
+                // A record never straddles the end of the window
+                if (window.remaining() < MAX_RECORD_LENGTH && windowStart + window.limit() < size) {
+                    map(windowStart + window.position());
+                }
+                byte tag = get();
+                switch (tag) {
+                    case METADATA:
+                        visitor.metadata(getString(), getString(), getString(), getString());
+                        break;
+                    case TOKEN:
+                        byte[] tokenId = new byte[get() & 0xFF];
+                        get(tokenId);
+                        visitor.token(new BigInteger(tokenId), getAccount(), getAccount());
+                        tokenCount++;
+                        break;
+                    case AUTHORIZATION:
+                        visitor.authorization(getAccount(), getAccount());
+                        authorizationCount++;
+                        break;
+                    case END:
+                        if (getLong() != tokenCount || getLong() != authorizationCount) {
+                            throw new SnapshotException("Record counts do not match");
+                        }
+                        visitor.end();
+                        return tokenCount;
+                    default:
+                        throw new SnapshotException("Unknown record " + tag);
+                }
+            }
+        }
+
+        private void map(long start) throws IOException {
+            windowStart = start;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MAP_WINDOW, size - start));
+        }
+
+        private byte get() {
+            checkRemaining(1);
+            return window.get();
+        }
+
+        private void get(byte[] destination) {
+            checkRemaining(destination.length);
+            window.get(destination);
+        }
+
+        private long getLong() {
+            checkRemaining(Long.BYTES);
+            return window.getLong();
+        }
+
+        private String getString() {
+            checkRemaining(Short.BYTES);
+            byte[] bytes = new byte[window.getShort() & 0xFFFF];
+            get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Address getAccount() {
+            int reference = getVarint();
+            if (reference == NO_ACCOUNT) {
+                return null;
+            }
+            if (reference == NEW_ACCOUNT) {
+                byte[] bytes = new byte[Address.LENGTH];
+                get(bytes);
+                Address account = new Address(bytes);
+                if (dictionary.size() < DICTIONARY_CAPACITY) {
+                    dictionary.add(account);
+                }
+                return account;
+            }
+            int index = reference - DICTIONARY_ACCOUNT;
+            if (index >= dictionary.size()) {
+                throw new SnapshotException("Unknown account " + index);
+            }
+            return dictionary.get(index);
+        }
+
+        private int getVarint() {
+            int value = 0;
+            for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+                byte b = get();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new SnapshotException("Varint is too long");
+        }
+
+        private void checkRemaining(int length) {
+            if (window.remaining() < length) {
+                throw new SnapshotException("Snapshot is truncated");
+            }
+        }
+    }
+
+    /**
+     * A snapshot which cannot be read or written.
+     */
+    public static final class SnapshotException extends RuntimeException {
+        SnapshotException(String message) {
+            super(message);
+        }
+
+        SnapshotException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    //endregion
+
+    //region Restore
+
+    /**
+     * The transactions which rebuild a collection, e.g. on
+     * <code>InMemoryBackend</code> or on <code>AvmRule</code>.
+     */
+    public interface Target {
+        /**
+         * Deploys an empty collection.
+         */
+        void deploy(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix);
+
+        void mintToOwners(Address[] newOwners, BigInteger[] tokenIds);
+
+        /**
+         * Consigns tokens, called by their owner.
+         */
+        void consign(Address owner, Address consignee, BigInteger[] tokenIds);
+
+        /**
+         * Authorizes an account, called by the owner.
+         */
+        void authorize(Address owner, Address authorizee);
+    }
+
+    /**
+     * Rebuilds a collection from the records of a snapshot, minting tokens in
+     * batches in the order they were enumerated. The enumeration of all tokens
+     * is restored in order, the enumeration of each owner's tokens is in the
+     * same relative order as the enumeration of all tokens. The highest token
+     * identifier is that of the restored tokens, burned tokens above it are
+     * not remembered.
+     */
+    public static final class Restorer implements Visitor {
+        private final Target target;
+        private final Address[] owners;
+        private final BigInteger[] tokenIds;
+        private final Address[] consignees;
+        private int batchLength;
+
+        /**
+         * @param batchSize the number of tokens minted per transaction
+         */
+        public Restorer(Target target, int batchSize) {
+            this.target = target;
+            this.owners = new Address[batchSize];
+            this.tokenIds = new BigInteger[batchSize];
+            this.consignees = new Address[batchSize];
+        }
+
+        @Override
+        public void metadata(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+            target.deploy(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
+        }
+
+        @Override
+        public void token(BigInteger tokenId, Address owner, Address consignee) {
+            owners[batchLength] = owner;
+            tokenIds[batchLength] = tokenId;
+            consignees[batchLength] = consignee;
+            batchLength++;
+            if (batchLength == tokenIds.length) {
+                flush();
+            }
+        }
+
+        @Override
+        public void authorization(Address owner, Address authorizee) {
+            flush();
+            target.authorize(owner, authorizee);
+        }
+
+        @Override
+        public void end() {
+            flush();
+        }
+
+        private void flush() {
+            if (batchLength == 0) {
+                return;
+            }
+            if (batchLength == tokenIds.length) {
+                target.mintToOwners(owners, tokenIds);
+            } else {
+                target.mintToOwners(Arrays.copyOf(owners, batchLength), Arrays.copyOf(tokenIds, batchLength));
+            }
+            // One consignment per owner and consignee in the batch
+            Map<List<Address>, List<BigInteger>> consignments = new LinkedHashMap<>();
+            for (int i = 0; i < batchLength; i++) {
+                if (consignees[i] != null) {
+                    consignments.computeIfAbsent(List.of(owners[i], consignees[i]), key -> new ArrayList<>()).add(tokenIds[i]);
+                }
+            }
+            for (Map.Entry<List<Address>, List<BigInteger>> consignment : consignments.entrySet()) {
+                target.consign(consignment.getKey().get(0), consignment.getKey().get(1), consignment.getValue().toArray(new BigInteger[0]));
+            }
+            batchLength = 0;
+        }
+    }
+
+    //endregion
+}
@@ -0,0 +1,278 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Measures <code>NFTokenSnapshot</code> exporting, reading and restoring a
+ * collection. Results are written by <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class NFTokenSnapshotBenchmark {
+
+    private static final int TOKENS = 1_000_000;
+    private static final int CONSIGNED_EVERY = 10;
+    private static final int AUTHORIZATIONS = 100;
+    private static final int ACCOUNTS = 1_000;
+    private static final int BATCH_SIZE = 500;
+    // More than InMemoryBackend could hold, so streamed from a synthetic feed
+    private static final int STREAMED_TOKENS = 10_000_000;
+    private static final int HEAP_SAMPLE_INTERVAL = 1_000_000;
+    // Holding the streamed tokens would take hundreds of megabytes
+    private static final long HEAP_BOUND_BYTES = 64 << 20;
+
+    // Shared by every benchmark of the class, and written once after them
+    private static final BenchmarkReport report = new BenchmarkReport(
+        "NFTokenSnapshotBenchmark",
+        "stage",
+        "tokens",
+        "fileBytes",
+        "nanoseconds",
+        "tokensPerSecond",
+        "retainedHeapBytes"
+    );
+
+    /**
+     * Samples the heap retained since it was created, every
+     * <code>HEAP_SAMPLE_INTERVAL</code> tokens, and passes each record on.
+     */
+    private static final class HeapSampler implements NFTokenSnapshot.Visitor {
+        private final NFTokenSnapshot.Visitor visitor;
+        private final long priorHeap = Benchmarks.usedHeap();
+        private long tokenCount;
+        private long maxRetainedBytes;
+
+        private HeapSampler(NFTokenSnapshot.Visitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public void metadata(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+            visitor.metadata(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
+        }
+
+        @Override
+        public void token(BigInteger tokenId, Address owner, Address consignee) {
+            visitor.token(tokenId, owner, consignee);
+            if (++tokenCount % HEAP_SAMPLE_INTERVAL == 0) {
+                maxRetainedBytes = Math.max(maxRetainedBytes, Benchmarks.usedHeap() - priorHeap);
+            }
+        }
+
+        @Override
+        public void authorization(Address owner, Address authorizee) {
+            visitor.authorization(owner, authorizee);
+        }
+
+        @Override
+        public void end() {
+            visitor.end();
+        }
+    }
+
+    @AfterClass
+    public static void writeReport() {
+        report.write();
+    }
+
+    /**
+     * Exports a collection on <code>InMemoryBackend</code> to a snapshot,
+     * reads it back without restoring, and restores it on a new backend,
+     * reporting the throughput, the file size and the heap retained by
+     * reading. Some tokens are consigned and some accounts authorized.
+     */
+    @Test
+    public void benchmarkSnapshot() throws IOException {
+        InMemoryBackend backend = InMemoryBackend.install();
+        Address[] accounts = Benchmarks.accounts(ACCOUNTS + 1);
+        Address deployer = accounts[ACCOUNTS];
+        Address[] owners = Arrays.copyOf(accounts, ACCOUNTS);
+        for (int first = 0; first < TOKENS; first += BATCH_SIZE) {
+            Address[] batchOwners = new Address[BATCH_SIZE];
+            BigInteger[] batchTokenIds = new BigInteger[BATCH_SIZE];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                batchOwners[i] = owners[(first + i) % owners.length];
+                batchTokenIds[i] = BigInteger.valueOf(first + i);
+            }
+            Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.mintToOwners(batchOwners, batchTokenIds)).isSuccess);
+        }
+        for (int i = 0; i < TOKENS; i += CONSIGNED_EVERY) {
+            Address owner = owners[i % owners.length];
+            Address consignee = owners[(i + 1) % owners.length];
+            BigInteger[] tokenIds = {BigInteger.valueOf(i)};
+            Assert.assertTrue(backend.run(owner, () -> NFToken.aip040Consign(owner, consignee, tokenIds)).isSuccess);
+        }
+        for (int i = 0; i < AUTHORIZATIONS; i++) {
+            Address authorizee = owners[(i + 1) % owners.length];
+            Assert.assertTrue(backend.run(owners[i], () -> NFToken.aip040Authorize(authorizee)).isSuccess);
+        }
+
+        Path file = Files.createTempFile("NFTokenSnapshotBenchmark", ".bin");
+        try {
+            long startTime = System.nanoTime();
+            Assert.assertEquals(TOKENS, NFTokenSnapshot.export(backend, file));
+            addSnapshotRow("export", TOKENS, Files.size(file), startTime, 0);
+            backend = null;
+
+            long priorHeap = Benchmarks.usedHeap();
+            long[] counts = new long[2];
+            startTime = System.nanoTime();
+            NFTokenSnapshot.read(file, new NFTokenSnapshot.Visitor() {
+                @Override
+                public void metadata(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+                }
+
+                @Override
+                public void token(BigInteger tokenId, Address owner, Address consignee) {
+                    counts[consignee == null ? 0 : 1]++;
+                }
+
+                @Override
+                public void authorization(Address owner, Address authorizee) {
+                }
+
+                @Override
+                public void end() {
+                }
+            });
+            addSnapshotRow("read", TOKENS, Files.size(file), startTime, Math.max(0, Benchmarks.usedHeap() - priorHeap));
+            Assert.assertEquals(TOKENS / CONSIGNED_EVERY, counts[1]);
+
+            InMemoryBackend restored = InMemoryBackend.install();
+            startTime = System.nanoTime();
+            NFTokenSnapshot.read(file, new NFTokenSnapshot.Restorer(new NFTokenSnapshot.Target() {
+                @Override
+                public void deploy(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+                    Assert.assertTrue(restored.run(deployer, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix)).isSuccess);
+                }
+
+                @Override
+                public void mintToOwners(Address[] newOwners, BigInteger[] tokenIds) {
+                    Assert.assertTrue(restored.run(deployer, () -> NFTokenMock.mintToOwners(newOwners, tokenIds)).isSuccess);
+                }
+
+                @Override
+                public void consign(Address owner, Address consignee, BigInteger[] tokenIds) {
+                    Assert.assertTrue(restored.run(owner, () -> NFToken.aip040Consign(owner, consignee, tokenIds)).isSuccess);
+                }
+
+                @Override
+                public void authorize(Address owner, Address authorizee) {
+                    Assert.assertTrue(restored.run(owner, () -> NFToken.aip040Authorize(authorizee)).isSuccess);
+                }
+            }, BATCH_SIZE));
+            addSnapshotRow("restore", TOKENS, Files.size(file), startTime, 0);
+            Assert.assertEquals(BigInteger.valueOf(TOKENS), restored.call(deployer, NFToken::aip040TotalSupply).value);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Streams a synthetic collection of <code>STREAMED_TOKENS</code> through
+     * the writer of <code>export</code>, a mapped read and a
+     * <code>Restorer</code>, asserting that no stage retains more than
+     * <code>HEAP_BOUND_BYTES</code> of heap. The restore target counts the
+     * transactions instead of running them, as a backend holds the whole
+     * collection. Times include the collections of the heap samples.
+     */
+    @Test
+    public void benchmarkStreaming() throws IOException {
+        Address[] owners = Benchmarks.accounts(ACCOUNTS);
+        Path file = Files.createTempFile("NFTokenSnapshotBenchmark", ".bin");
+        try {
+            long startTime = System.nanoTime();
+            HeapSampler sampler;
+            try (OutputStream stream = Files.newOutputStream(file)) {
+                sampler = new HeapSampler(new NFTokenSnapshot.Writer(new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))));
+                sampler.metadata(DappFixture.TOKEN_NAME, DappFixture.TOKEN_SYMBOL, DappFixture.TOKEN_URI_PREFIX, DappFixture.TOKEN_URI_POSTFIX);
+                for (int i = 0; i < STREAMED_TOKENS; i++) {
+                    Address consignee = i % CONSIGNED_EVERY == 0 ? owners[(i + 1) % owners.length] : null;
+                    sampler.token(BigInteger.valueOf(i), owners[i % owners.length], consignee);
+                }
+                for (int i = 0; i < AUTHORIZATIONS; i++) {
+                    sampler.authorization(owners[i], owners[(i + 1) % owners.length]);
+                }
+                sampler.end();
+            }
+            addStreamedRow("streamExport", file, startTime, sampler);
+
+            long[] counts = new long[2];
+            startTime = System.nanoTime();
+            sampler = new HeapSampler(new NFTokenSnapshot.Visitor() {
+                @Override
+                public void metadata(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+                }
+
+                @Override
+                public void token(BigInteger tokenId, Address owner, Address consignee) {
+                    counts[consignee == null ? 0 : 1]++;
+                }
+
+                @Override
+                public void authorization(Address owner, Address authorizee) {
+                }
+
+                @Override
+                public void end() {
+                }
+            });
+            Assert.assertEquals(STREAMED_TOKENS, NFTokenSnapshot.read(file, sampler));
+            addStreamedRow("streamRead", file, startTime, sampler);
+            Assert.assertEquals(STREAMED_TOKENS / CONSIGNED_EVERY, counts[1]);
+
+            // Minted tokens, consigned tokens, authorizations
+            long[] restored = new long[3];
+            startTime = System.nanoTime();
+            sampler = new HeapSampler(new NFTokenSnapshot.Restorer(new NFTokenSnapshot.Target() {
+                @Override
+                public void deploy(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+                    Assert.assertEquals(DappFixture.TOKEN_NAME, tokenName);
+                }
+
+                @Override
+                public void mintToOwners(Address[] newOwners, BigInteger[] tokenIds) {
+                    Assert.assertEquals(BigInteger.valueOf(restored[0]), tokenIds[0]);
+                    restored[0] += tokenIds.length;
+                }
+
+                @Override
+                public void consign(Address owner, Address consignee, BigInteger[] tokenIds) {
+                    restored[1] += tokenIds.length;
+                }
+
+                @Override
+                public void authorize(Address owner, Address authorizee) {
+                    restored[2]++;
+                }
+            }, BATCH_SIZE));
+            NFTokenSnapshot.read(file, sampler);
+            addStreamedRow("streamRestore", file, startTime, sampler);
+            Assert.assertArrayEquals(new long[]{STREAMED_TOKENS, STREAMED_TOKENS / CONSIGNED_EVERY, AUTHORIZATIONS}, restored);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static void addSnapshotRow(String stage, long tokens, long fileBytes, long startTime, long retainedHeapBytes) {
+        long nanoseconds = System.nanoTime() - startTime;
+        report.addRow(stage, tokens, fileBytes, nanoseconds, tokens * 1_000_000_000L / nanoseconds, retainedHeapBytes);
+    }
+
+    private static void addStreamedRow(String stage, Path file, long startTime, HeapSampler sampler) throws IOException {
+        addSnapshotRow(stage, STREAMED_TOKENS, Files.size(file), startTime, sampler.maxRetainedBytes);
+        Assert.assertTrue(stage + " retained " + sampler.maxRetainedBytes + " bytes", sampler.maxRetainedBytes < HEAP_BOUND_BYTES);
+    }
+}
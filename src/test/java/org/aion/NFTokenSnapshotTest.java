@@ -0,0 +1,176 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Exports the state of a random workload to a snapshot, restores it on a new
+ * <code>InMemoryBackend</code> and checks the restored collection.
+ */
+public class NFTokenSnapshotTest {
+
+    private static final int ACCOUNTS = 12;
+    private static final int TOKEN_CAPACITY = 2_000;
+    private static final int TARGET_SUPPLY = 600;
+    private static final int OPERATIONS = 5_000;
+    private static final int BATCH_SIZE = 64;
+
+    private InMemoryBackend backend;
+    private Address[] accounts = new Address[ACCOUNTS];
+    private List<Path> files = new ArrayList<>();
+
+    @Before
+    public void installBackend() {
+        backend = InMemoryBackend.install();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xa0;
+            address[Address.LENGTH - 1] = (byte) i;
+            accounts[i] = new Address(address);
+        }
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        for (Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRestoredCollectionMatchesModel() throws IOException {
+        NFTokenModel model = runWorkload(21);
+        Path file = newFile();
+        Assert.assertEquals(model.totalSupply(), NFTokenSnapshot.export(backend, file));
+
+        InMemoryBackend restored = restore(file);
+        Assert.assertEquals("Saturn", view(restored, NFToken::aip040Name));
+        Assert.assertEquals("SAT", view(restored, NFToken::aip040Symbol));
+        Assert.assertEquals(BigInteger.valueOf(model.totalSupply()), view(restored, NFToken::aip040TotalSupply));
+        for (int i = 0; i < model.totalSupply(); i++) {
+            int tokenId = model.tokenAtIndex(i);
+            BigInteger id = BigInteger.valueOf(tokenId);
+            BigInteger index = BigInteger.valueOf(i);
+            Assert.assertEquals(id, view(restored, () -> NFToken.aip040TokenAtIndex(index)));
+            Assert.assertEquals(accounts[model.ownerOf(tokenId)], view(restored, () -> NFToken.aip040TokenOwner(id)));
+            Address consignee = model.consigneeOf(tokenId) == NFTokenModel.NONE ? null : accounts[model.consigneeOf(tokenId)];
+            Assert.assertEquals(consignee, view(restored, () -> NFToken.aip040TokenConsignee(id)));
+            Assert.assertEquals("pre" + tokenId + "post", view(restored, () -> NFToken.aip040TokenUri(id)));
+        }
+        for (int owner = 0; owner < ACCOUNTS; owner++) {
+            Address ownerAddress = accounts[owner];
+            Assert.assertEquals(BigInteger.valueOf(model.balanceOf(owner)), view(restored, () -> NFToken.aip040OwnerBalance(ownerAddress)));
+            for (int authorizee = 0; authorizee < ACCOUNTS; authorizee++) {
+                Address authorizeeAddress = accounts[authorizee];
+                Assert.assertEquals(model.isAuthorized(owner, authorizee), view(restored, () -> NFToken.aip040OwnerDoesAuthorize(ownerAddress, authorizeeAddress)));
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotOfRestoredCollectionIsIdentical() throws IOException {
+        runWorkload(22);
+        Path file = newFile();
+        NFTokenSnapshot.export(backend, file);
+
+        InMemoryBackend restored = restore(file);
+        Path restoredFile = newFile();
+        NFTokenSnapshot.export(restored, restoredFile);
+        Assert.assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(restoredFile));
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws IOException {
+        runWorkload(23);
+        Path file = newFile();
+        NFTokenSnapshot.export(backend, file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+
+        try {
+            restore(file);
+            Assert.fail(); // Expected exception
+        } catch (NFTokenSnapshot.SnapshotException e) {
+        }
+    }
+
+    @Test
+    public void testNotASnapshot() throws IOException {
+        Path file = newFile();
+        Files.write(file, "AIP040Minted".getBytes());
+
+        try {
+            restore(file);
+            Assert.fail(); // Expected exception
+        } catch (NFTokenSnapshot.SnapshotException e) {
+        }
+    }
+
+    private NFTokenModel runWorkload(long seed) {
+        Assert.assertTrue(backend.run(null, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes("Saturn", "SAT", "pre", "post")).isSuccess);
+        NFTokenWorkload workload = new NFTokenWorkload(seed, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+        for (int i = 0; i < OPERATIONS; i++) {
+            workload.run(backend, workload.next());
+        }
+        return workload.getModel();
+    }
+
+    private Path newFile() throws IOException {
+        Path file = Files.createTempFile("snapshot", ".bin");
+        files.add(file);
+        return file;
+    }
+
+    private static InMemoryBackend restore(Path file) throws IOException {
+        InMemoryBackend restored = InMemoryBackend.install();
+        NFTokenSnapshot.read(file, new NFTokenSnapshot.Restorer(new BackendTarget(restored), BATCH_SIZE));
+        return restored;
+    }
+
+    private static Object view(InMemoryBackend backend, Supplier<Object> query) {
+        InMemoryBackend.Outcome<Object> outcome = backend.call(null, query);
+        Assert.assertTrue(outcome.isSuccess);
+        return outcome.value;
+    }
+
+    /**
+     * Restores on <code>InMemoryBackend</code>, failing if a transaction
+     * reverts.
+     */
+    private static final class BackendTarget implements NFTokenSnapshot.Target {
+        private final InMemoryBackend backend;
+
+        private BackendTarget(InMemoryBackend backend) {
+            this.backend = backend;
+        }
+
+        @Override
+        public void deploy(String tokenName, String tokenSymbol, String tokenUriPrefix, String tokenUriPostfix) {
+            Assert.assertTrue(backend.run(null, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix)).isSuccess);
+        }
+
+        @Override
+        public void mintToOwners(Address[] newOwners, BigInteger[] tokenIds) {
+            Assert.assertTrue(backend.run(null, () -> NFTokenMock.mintToOwners(newOwners, tokenIds)).isSuccess);
+        }
+
+        @Override
+        public void consign(Address owner, Address consignee, BigInteger[] tokenIds) {
+            Assert.assertTrue(backend.run(owner, () -> NFToken.aip040Consign(owner, consignee, tokenIds)).isSuccess);
+        }
+
+        @Override
+        public void authorize(Address owner, Address authorizee) {
+            Assert.assertTrue(backend.run(owner, () -> NFToken.aip040Authorize(authorizee)).isSuccess);
+        }
+    }
+}
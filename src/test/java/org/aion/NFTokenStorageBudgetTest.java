@@ -0,0 +1,112 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.function.Supplier;
+
+/**
+ * Guards the storage cost of the hot paths against regressions. Each
+ * transaction runs on <code>AvmRule</code>, and again on
+ * <code>InMemoryBackend</code> where <code>StorageProfiler</code> counts its
+ * storage operations, which must stay within a budget.
+ */
+public class NFTokenStorageBudgetTest {
+
+    @Rule
+    public AvmRule avmRule = new AvmRule(false);
+
+    private Address deployer = avmRule.getPreminedAccount();
+    private BigInteger balance = BigInteger.valueOf(1_000_000_000_000_000_000L).multiply(BigInteger.TEN);
+    private Address contractAddress;
+    private InMemoryBackend backend;
+    private StorageProfiler profiler;
+
+    private Address firstOwner = avmRule.getRandomAddress(balance);
+    private Address secondOwner = avmRule.getRandomAddress(balance);
+    private BigInteger[] tokenIds = {BigInteger.valueOf(1), BigInteger.valueOf(2), BigInteger.valueOf(3)};
+
+    @Before
+    public void deployDapp() {
+        contractAddress = DappFixture.deploy(avmRule, deployer);
+
+        backend = InMemoryBackend.install();
+        profiler = StorageProfiler.install();
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes("Planets", "PL", "pre", "post")).isSuccess);
+        call(deployer, NFTokenMockEncoder.mint(firstOwner, tokenIds), () -> { NFTokenMock.mint(firstOwner, tokenIds); return null; });
+    }
+
+    @After
+    public void uninstallProfiler() {
+        StorageProfiler.uninstall();
+    }
+
+    @Test
+    public void testTransferOneTokenBudget() {
+        BigInteger[] transferTokenIds = {tokenIds[0]};
+        StorageProfiler.Counters consign = call(firstOwner, AIP040Encoder.aip040Consign(firstOwner, secondOwner, transferTokenIds), () -> { NFToken.aip040Consign(firstOwner, secondOwner, transferTokenIds); return null; });
+        Assert.assertTrue(consign.toString(), consign.puts <= 1);
+        Assert.assertTrue(consign.toString(), consign.gets <= 1);
+
+        StorageProfiler.Counters takeOwnership = call(secondOwner, AIP040Encoder.aip040TakeOwnership(firstOwner, transferTokenIds), () -> { NFToken.aip040TakeOwnership(firstOwner, transferTokenIds); return null; });
+        Assert.assertTrue(takeOwnership.toString(), takeOwnership.puts <= 7);
+        Assert.assertTrue(takeOwnership.toString(), takeOwnership.blake2bs <= 9);
+        //only the records of the token and of the token moved into its slot
+        StorageProfiler.Counters record = profiler.get("aip040TakeOwnership", NFTokenStorage.StorageSlots.TOKEN_RECORD_MAP);
+        Assert.assertEquals(2, record.gets);
+        Assert.assertEquals(2, record.puts);
+    }
+
+    @Test
+    public void testTokenOwnerBudget() {
+        StorageProfiler.Counters tokenOwner = call(deployer, AIP040Encoder.aip040TokenOwner(tokenIds[1]), () -> NFToken.aip040TokenOwner(tokenIds[1]));
+        Assert.assertEquals(tokenOwner.toString(), 1, tokenOwner.gets);
+        Assert.assertEquals(tokenOwner.toString(), 0, tokenOwner.puts);
+        Assert.assertEquals(tokenOwner.toString(), 1, tokenOwner.blake2bs);
+    }
+
+    @Test
+    public void testUnmatchedCommitCacheFails() {
+        try {
+            AVMBlockchainWrapper.commitCache();
+            Assert.fail(); // Expected exception
+        } catch (IllegalStateException e) {
+        }
+        // The failed commit left no scope open
+        AVMBlockchainWrapper.beginCache();
+        AVMBlockchainWrapper.commitCache();
+        try {
+            AVMBlockchainWrapper.commitCache();
+            Assert.fail(); // Expected exception
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testCountersAreKeptPerCallable() {
+        BigInteger[] transferTokenIds = {tokenIds[2]};
+        call(firstOwner, AIP040Encoder.aip040Consign(firstOwner, secondOwner, transferTokenIds), () -> { NFToken.aip040Consign(firstOwner, secondOwner, transferTokenIds); return null; });
+        StorageProfiler.Counters before = profiler.total("aip040Consign");
+        call(deployer, AIP040Encoder.aip040TotalSupply(), NFToken::aip040TotalSupply);
+        StorageProfiler.Counters after = profiler.total("aip040Consign");
+        Assert.assertEquals(before.toString(), after.toString());
+        Assert.assertEquals(1, profiler.get("aip040TotalSupply", NFTokenStorage.StorageSlots.TOTAL_SUPPLY).gets);
+    }
+
+    /**
+     * Runs one successful transaction on both and profiles it under the name
+     * of its callable.
+     *
+     * @return the counters of every profiled call of this callable
+     */
+    private StorageProfiler.Counters call(Address caller, byte[] transactionData, Supplier<Object> transaction) {
+        Assert.assertTrue(avmRule.call(caller, contractAddress, BigInteger.ZERO, transactionData).getReceiptStatus().isSuccess());
+        String callable = StorageProfiler.methodName(transactionData);
+        profiler.setCallable(callable);
+        Assert.assertTrue(backend.call(caller, transaction).isSuccess);
+        profiler.setCallable("");
+        return profiler.total(callable);
+    }
+}
@@ -0,0 +1,134 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Audits the storage the contract leaves behind on
+ * <code>InMemoryBackend</code>. Results are written by
+ * <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class NFTokenStorageFootprintBenchmark {
+
+    private static final int TOKENS = 20_000;
+    private static final int ACCOUNTS = 100;
+    private static final int RANGES = 10;
+    private static final int TRANSFERS = 100_000;
+    private static final int BATCH_SIZE = 500;
+    // Each written once by the deployment
+    private static final Set<String> DEPLOYED_REALMS = Set.of(
+        NFTokenStorage.StorageSlots.TOKEN_NAME.name(),
+        NFTokenStorage.StorageSlots.TOKEN_SYMBOL.name(),
+        NFTokenStorage.StorageSlots.TOKEN_URI_PREFIX.name(),
+        NFTokenStorage.StorageSlots.TOKEN_URI_POSTFIX.name(),
+        NFTokenStorage.StorageSlots.DEPLOYER.name()
+    );
+
+    /**
+     * Audits the storage footprint of <code>InMemoryBackend</code> after the
+     * deployment, after an airdrop, half of it minted in ranges, and again
+     * after random transfers with some revoked consignments and some burns,
+     * reporting live and dead slots for each realm.
+     */
+    @Test
+    public void benchmarkStorageFootprint() {
+        BenchmarkReport footprintReport = new BenchmarkReport(
+            "NFTokenStorageBenchmark",
+            "stage",
+            "realm",
+            "liveSlots",
+            "liveBytes",
+            "deadSlots",
+            "deadBytes"
+        );
+        InMemoryBackend backend = InMemoryBackend.install();
+        Random random = new Random(TRANSFERS);
+        Address[] accounts = Benchmarks.accounts(ACCOUNTS + 1);
+        Address deployer = accounts[ACCOUNTS];
+        Address[] owners = Arrays.copyOf(accounts, ACCOUNTS);
+        List<BigInteger> tokenIds = new ArrayList<>();
+        Map<BigInteger, Integer> tokenOwners = new HashMap<>();
+
+        Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.setTokenNameSymbolAndUriAffixes(DappFixture.TOKEN_NAME, DappFixture.TOKEN_SYMBOL, DappFixture.TOKEN_URI_PREFIX, DappFixture.TOKEN_URI_POSTFIX)).isSuccess);
+        addFootprintRows(footprintReport, "deployed", backend);
+        for (StorageAudit.Row row : StorageAudit.audit(backend)) {
+            if (DEPLOYED_REALMS.contains(row.realm)) {
+                Assert.assertEquals(row.realm, 1, row.liveSlots);
+            }
+        }
+
+        for (int first = 0; first < TOKENS / 2; first += BATCH_SIZE) {
+            Address[] batchOwners = new Address[BATCH_SIZE];
+            BigInteger[] batchTokenIds = new BigInteger[BATCH_SIZE];
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                int owner = random.nextInt(owners.length);
+                batchOwners[i] = owners[owner];
+                batchTokenIds[i] = BigInteger.valueOf(first + i);
+                tokenIds.add(batchTokenIds[i]);
+                tokenOwners.put(batchTokenIds[i], owner);
+            }
+            Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.mintToOwners(batchOwners, batchTokenIds)).isSuccess);
+        }
+        long rangeCount = TOKENS / 2 / RANGES;
+        for (int i = 0; i < RANGES; i++) {
+            int owner = random.nextInt(owners.length);
+            BigInteger start = BigInteger.valueOf(TOKENS + i * rangeCount);
+            for (long j = 0; j < rangeCount; j++) {
+                BigInteger tokenId = start.add(BigInteger.valueOf(j));
+                tokenIds.add(tokenId);
+                tokenOwners.put(tokenId, owner);
+            }
+            Assert.assertTrue(backend.run(deployer, () -> NFTokenMock.mintRange(owners[owner], start, rangeCount)).isSuccess);
+        }
+        addFootprintRows(footprintReport, "minted", backend);
+
+        for (int i = 0; i < TRANSFERS && !tokenIds.isEmpty(); i++) {
+            int index = random.nextInt(tokenIds.size());
+            BigInteger[] transferTokenIds = {tokenIds.get(index)};
+            int owner = tokenOwners.get(transferTokenIds[0]);
+            int newOwnerIndex = (owner + 1 + random.nextInt(owners.length - 1)) % owners.length;
+            Address currentOwner = owners[owner];
+            Address newOwner = owners[newOwnerIndex];
+            Assert.assertTrue(backend.run(currentOwner, () -> NFToken.aip040Consign(currentOwner, newOwner, transferTokenIds)).isSuccess);
+            switch (random.nextInt(20)) {
+                case 0:
+                    Assert.assertTrue(backend.run(currentOwner, () -> NFToken.aip040Consign(currentOwner, null, transferTokenIds)).isSuccess);
+                    break;
+                case 1:
+                    Assert.assertTrue(backend.run(currentOwner, () -> NFTokenMock.burn(currentOwner, transferTokenIds)).isSuccess);
+                    tokenIds.set(index, tokenIds.get(tokenIds.size() - 1));
+                    tokenIds.remove(tokenIds.size() - 1);
+                    tokenOwners.remove(transferTokenIds[0]);
+                    break;
+                default:
+                    Assert.assertTrue(backend.run(newOwner, () -> NFToken.aip040TakeOwnership(currentOwner, transferTokenIds)).isSuccess);
+                    tokenOwners.put(transferTokenIds[0], newOwnerIndex);
+            }
+        }
+        addFootprintRows(footprintReport, "transferred", backend);
+        footprintReport.write();
+    }
+
+    private static void addFootprintRows(BenchmarkReport footprintReport, String stage, InMemoryBackend backend) {
+        List<StorageAudit.Row> rows = StorageAudit.audit(backend);
+        for (StorageAudit.Row row : rows) {
+            footprintReport.addRow(stage, row.realm, row.liveSlots, row.liveBytes, row.deadSlots, row.deadBytes);
+        }
+        StorageAudit.Row total = StorageAudit.total(rows);
+        footprintReport.addRow(stage, total.realm, total.liveSlots, total.liveBytes, total.deadSlots, total.deadBytes);
+        Assert.assertEquals(0, total.deadSlots);
+    }
+}
@@ -5,10 +5,15 @@ import org.aion.avm.core.util.LogSizeUtils;
 import org.aion.avm.embed.AvmRule;
 
 import org.aion.avm.userlib.abi.ABIStreamingEncoder;
+import org.aion.types.Log;
 //TODO: fx this next line, it is not best practice
 import org.junit.*;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -35,8 +40,7 @@ public class NFTokenTest {
     @Before
     public void deployDapp() {
 
-        byte[] data = MainEncoder.deploy(tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
-        byte[] contractData = avmRule.getDappBytes(Main.class, data, 1, AIP040Events.class, NFToken.class, NFTokenMock.class, NFTokenStorage.class, AVMBlockchainWrapper.class);
+        byte[] contractData = DappFixture.contractData(avmRule, tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
         contractAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData).getDappAddress();
 
     }
@@ -895,6 +899,521 @@ public class NFTokenTest {
     }
     
 
+    /****************Batch queries***************/
+    @Test
+    public void testBatchQueries() {
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address tokenConsignee = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIDs = new BigInteger[]{BigInteger.valueOf(333), BigInteger.valueOf(666), BigInteger.valueOf(999)};
+        BigInteger missingTokenID = BigInteger.valueOf(444);
+        BigInteger[] queryIDs = new BigInteger[]{tokenIDs[0], missingTokenID, tokenIDs[1], tokenIDs[2], tokenIDs[0]};
+
+        //mint three tokens and consign one
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(tokenOwner, tokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040Consign(tokenOwner, tokenConsignee, new BigInteger[]{tokenIDs[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //owners, including a missing and a repeated token
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwners(queryIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new Address[]{tokenOwner, null, tokenOwner, tokenOwner, tokenOwner}, (Address[]) result.getDecodedReturnData());
+
+        //consignees
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenConsignees(queryIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new Address[]{null, null, tokenConsignee, null, null}, (Address[]) result.getDecodedReturnData());
+
+        //URIs
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenUris(queryIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new String[]{"pre333post", null, "pre666post", "pre999post", "pre333post"}, (String[]) result.getDecodedReturnData());
+
+        //batch results match single queries
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenUri(tokenIDs[2]));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertEquals("pre999post", result.getDecodedReturnData());
+
+        //empty batch
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwners(new BigInteger[0]));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new Address[0], (Address[]) result.getDecodedReturnData());
+
+        //null batch and null token
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwners(null));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenConsignees(null));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenUris(new BigInteger[]{tokenIDs[0], null}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+    }
+
+    /****************Paged enumeration***************/
+    @Test
+    public void testPagedEnumeration() {
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address otherOwner = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIDs = new BigInteger[]{BigInteger.valueOf(333), BigInteger.valueOf(666), BigInteger.valueOf(999), BigInteger.valueOf(3333), BigInteger.valueOf(6666)};
+        BigInteger[] otherTokenIDs = new BigInteger[]{BigInteger.valueOf(7777), BigInteger.valueOf(8888)};
+
+        //empty lists have only an empty first page
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 10));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[0], (BigInteger[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(tokenOwner, BigInteger.ZERO, 10));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[0], (BigInteger[]) result.getDecodedReturnData());
+
+        //mint
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(tokenOwner, tokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(otherOwner, otherTokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //first, middle and last (short) pages of all tokens
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 3));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[]{tokenIDs[0], tokenIDs[1], tokenIDs[2]}, (BigInteger[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.valueOf(3), 3));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[]{tokenIDs[3], tokenIDs[4], otherTokenIDs[0]}, (BigInteger[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.valueOf(6), 3));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[]{otherTokenIDs[1]}, (BigInteger[]) result.getDecodedReturnData());
+
+        //page starting at the end is empty, past the end fails
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.valueOf(7), 3));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[0], (BigInteger[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.valueOf(8), 3));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        //one page with everything of one owner
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(tokenOwner, BigInteger.ZERO, 100));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(tokenIDs, (BigInteger[]) result.getDecodedReturnData());
+
+        //last (short) page of one owner
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(otherOwner, BigInteger.ONE, 2));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[]{otherTokenIDs[1]}, (BigInteger[]) result.getDecodedReturnData());
+
+        //pages follow transfers
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040Consign(tokenOwner, otherOwner, new BigInteger[]{tokenIDs[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(otherOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TakeOwnership(tokenOwner, new BigInteger[]{tokenIDs[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(tokenOwner, BigInteger.ZERO, 100));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[]{tokenIDs[0], tokenIDs[4], tokenIDs[2], tokenIDs[3]}, (BigInteger[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(otherOwner, BigInteger.ZERO, 100));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[]{otherTokenIDs[0], otherTokenIDs[1], tokenIDs[1]}, (BigInteger[]) result.getDecodedReturnData());
+
+        //zero count, negative count, negative start and null arguments
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 0));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(new BigInteger[0], (BigInteger[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, -1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(tokenOwner, BigInteger.valueOf(-1), 1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(null, 1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(null, BigInteger.ZERO, 1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+    }
+
+    /****************Mint to many owners***************/
+    @Test
+    public void testMintToOwners() {
+        Address firstOwner = avmRule.getRandomAddress(balance);
+        Address secondOwner = avmRule.getRandomAddress(balance);
+        Address[] owners = new Address[]{firstOwner, secondOwner, firstOwner, firstOwner};
+        BigInteger[] tokenIDs = new BigInteger[]{BigInteger.valueOf(111), BigInteger.valueOf(222), BigInteger.valueOf(333), BigInteger.valueOf(444)};
+
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(owners, tokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        Assert.assertEquals(4, result.getTransactionResult().logs.size());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TotalSupply());
+        Assert.assertEquals(BigInteger.valueOf(4), result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040OwnerBalance(firstOwner));
+        Assert.assertEquals(BigInteger.valueOf(3), result.getDecodedReturnData());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040OwnerBalance(secondOwner));
+        Assert.assertEquals(BigInteger.ONE, result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwners(tokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertArrayEquals(owners, (Address[]) result.getDecodedReturnData());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(firstOwner, BigInteger.ZERO, 10));
+        assertArrayEquals(new BigInteger[]{tokenIDs[0], tokenIDs[2], tokenIDs[3]}, (BigInteger[]) result.getDecodedReturnData());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 10));
+        assertArrayEquals(tokenIDs, (BigInteger[]) result.getDecodedReturnData());
+
+        //owner indexes continue from an earlier mint and transfers still work
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(new Address[]{secondOwner}, new BigInteger[]{BigInteger.valueOf(555)}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenForOwnerAtIndex(secondOwner, BigInteger.ONE));
+        Assert.assertEquals(BigInteger.valueOf(555), result.getDecodedReturnData());
+
+        result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040Consign(firstOwner, secondOwner, new BigInteger[]{tokenIDs[2]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(secondOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TakeOwnership(firstOwner, new BigInteger[]{tokenIDs[2]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(firstOwner, BigInteger.ZERO, 10));
+        assertArrayEquals(new BigInteger[]{tokenIDs[0], tokenIDs[3]}, (BigInteger[]) result.getDecodedReturnData());
+
+        //already minted, duplicate within the batch, mismatched lengths and null arguments
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(new Address[]{firstOwner}, new BigInteger[]{tokenIDs[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(new Address[]{firstOwner, secondOwner}, new BigInteger[]{BigInteger.valueOf(666), BigInteger.valueOf(666)}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(new Address[]{firstOwner, secondOwner}, new BigInteger[]{BigInteger.valueOf(777)}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(new Address[]{null}, new BigInteger[]{BigInteger.valueOf(888)}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintToOwners(null, null));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TotalSupply());
+        Assert.assertEquals(BigInteger.valueOf(5), result.getDecodedReturnData());
+    }
+
+    /****************Range mint***************/
+    @Test
+    public void testMintRangeMatchesMint() {
+        Address firstOwner = avmRule.getRandomAddress(balance);
+        Address secondOwner = avmRule.getRandomAddress(balance);
+        Address[] owners = new Address[]{firstOwner, secondOwner};
+        BigInteger[] firstRange = range(100, 6);
+        BigInteger[] secondRange = range(200, 3);
+        BigInteger[] thirdRange = range(300, 2);
+
+        //the reference contract mints each token one by one
+        byte[] contractData = DappFixture.contractData(avmRule, tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
+        Address referenceAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData).getDappAddress();
+
+        AvmRule.ResultWrapper result;
+        for (Address contract : new Address[]{contractAddress, referenceAddress}) {
+            boolean isRange = contract.equals(contractAddress);
+            result = avmRule.call(deployer, contract, BigInteger.ZERO, NFTokenMockEncoder.mint(firstOwner, new BigInteger[]{BigInteger.valueOf(5)}));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            result = avmRule.call(deployer, contract, BigInteger.ZERO, isRange ? NFTokenMockEncoder.mintRange(firstOwner, firstRange[0], firstRange.length) : NFTokenMockEncoder.mint(firstOwner, firstRange));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            result = avmRule.call(deployer, contract, BigInteger.ZERO, isRange ? NFTokenMockEncoder.mintRange(secondOwner, secondRange[0], secondRange.length) : NFTokenMockEncoder.mint(secondOwner, secondRange));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+            //transfers and consignments move tokens within owner arrays
+            result = avmRule.call(firstOwner, contract, BigInteger.ZERO, AIP040Encoder.aip040Consign(firstOwner, secondOwner, new BigInteger[]{firstRange[1], firstRange[3], firstRange[5]}));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            result = avmRule.call(secondOwner, contract, BigInteger.ZERO, AIP040Encoder.aip040TakeOwnership(firstOwner, new BigInteger[]{firstRange[3], firstRange[1]}));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+            //a later range reuses owner array slots vacated by transfers
+            result = avmRule.call(deployer, contract, BigInteger.ZERO, isRange ? NFTokenMockEncoder.mintRange(firstOwner, thirdRange[0], thirdRange.length) : NFTokenMockEncoder.mint(firstOwner, thirdRange));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            result = avmRule.call(secondOwner, contract, BigInteger.ZERO, AIP040Encoder.aip040Consign(secondOwner, firstOwner, new BigInteger[]{secondRange[2]}));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            result = avmRule.call(firstOwner, contract, BigInteger.ZERO, AIP040Encoder.aip040TakeOwnership(secondOwner, new BigInteger[]{secondRange[2]}));
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        }
+
+        //a range uses one log event
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(secondOwner, BigInteger.valueOf(400), 100));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        Assert.assertEquals(1, result.getTransactionResult().logs.size());
+        result = avmRule.call(deployer, referenceAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(secondOwner, range(400, 100)));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //all queries match
+        BigInteger[] allTokenIds = new BigInteger[]{BigInteger.valueOf(5), firstRange[0], firstRange[5], secondRange[0], secondRange[2], thirdRange[1], BigInteger.valueOf(400), BigInteger.valueOf(499), BigInteger.valueOf(500)};
+        for (byte[] query : new byte[][]{
+            AIP040Encoder.aip040TotalSupply(),
+            AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 2000),
+            AIP040Encoder.aip040TokensForOwnerAtIndexRange(firstOwner, BigInteger.ZERO, 2000),
+            AIP040Encoder.aip040TokensForOwnerAtIndexRange(secondOwner, BigInteger.ZERO, 2000),
+            AIP040Encoder.aip040TokenAtIndex(BigInteger.valueOf(111)),
+            AIP040Encoder.aip040TokenForOwnerAtIndex(secondOwner, BigInteger.valueOf(100)),
+            AIP040Encoder.aip040OwnerBalance(firstOwner),
+            AIP040Encoder.aip040OwnerBalance(secondOwner),
+            AIP040Encoder.aip040TokenOwners(allTokenIds),
+            AIP040Encoder.aip040TokenConsignees(allTokenIds),
+        }) {
+            AvmRule.ResultWrapper rangeResult = avmRule.call(deployer, contractAddress, BigInteger.ZERO, query);
+            AvmRule.ResultWrapper referenceResult = avmRule.call(deployer, referenceAddress, BigInteger.ZERO, query);
+            Assert.assertTrue(rangeResult.getReceiptStatus().isSuccess());
+            Assert.assertTrue(referenceResult.getReceiptStatus().isSuccess());
+            Object rangeData = rangeResult.getDecodedReturnData();
+            Object referenceData = referenceResult.getDecodedReturnData();
+            if (rangeData instanceof Object[]) {
+                assertArrayEquals((Object[]) referenceData, (Object[]) rangeData);
+            } else {
+                Assert.assertEquals(referenceData, rangeData);
+            }
+        }
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwner(firstRange[4]));
+        Assert.assertEquals(firstOwner, result.getDecodedReturnData());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenConsignee(firstRange[5]));
+        Assert.assertEquals(secondOwner, result.getDecodedReturnData());
+    }
+
+    @Test
+    public void testMintRangeRequirements() {
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(tokenOwner, new BigInteger[]{BigInteger.valueOf(50)}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //ranges must start above every minted token
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(tokenOwner, BigInteger.valueOf(50), 10));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(tokenOwner, BigInteger.valueOf(51), 10));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(tokenOwner, BigInteger.valueOf(60), 10));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        //tokens in a range can not be minted again
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(tokenOwner, new BigInteger[]{BigInteger.valueOf(55)}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(tokenOwner, new BigInteger[]{BigInteger.valueOf(61)}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //non-positive counts and null arguments
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(tokenOwner, BigInteger.valueOf(100), 0));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(tokenOwner, BigInteger.valueOf(100), -1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(null, BigInteger.valueOf(100), 1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(tokenOwner, null, 1));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TotalSupply());
+        Assert.assertEquals(BigInteger.valueOf(12), result.getDecodedReturnData());
+    }
+
+    private static BigInteger[] range(long start, int count) {
+        BigInteger[] tokenIds = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            tokenIds[i] = BigInteger.valueOf(start + i);
+        }
+        return tokenIds;
+    }
+
+    /****************Burn***************/
+    @Test
+    public void testBurn() {
+        Address firstOwner = avmRule.getRandomAddress(balance);
+        Address secondOwner = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIDs = range(1, 6);
+
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(firstOwner, tokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(secondOwner, range(10, 2)));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //burn from the middle, the start and the end of the arrays
+        result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(firstOwner, new BigInteger[]{tokenIDs[2], tokenIDs[0], tokenIDs[5]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        Assert.assertEquals(Arrays.asList(
+            new AIP040EventDecoder.TokenEvent(AIP040EventDecoder.BURNED, firstOwner, null, tokenIDs[2]),
+            new AIP040EventDecoder.TokenEvent(AIP040EventDecoder.BURNED, firstOwner, null, tokenIDs[0]),
+            new AIP040EventDecoder.TokenEvent(AIP040EventDecoder.BURNED, firstOwner, null, tokenIDs[5])
+        ), decodeEvents(result));
+
+        assertTokens(new BigInteger[]{tokenIDs[1], tokenIDs[3], tokenIDs[4], BigInteger.valueOf(10), BigInteger.valueOf(11)}, new Address[]{firstOwner, secondOwner});
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwners(new BigInteger[]{tokenIDs[0], tokenIDs[1]}));
+        assertArrayEquals(new Address[]{null, firstOwner}, (Address[]) result.getDecodedReturnData());
+
+        //burned tokens can be transferred no more, and can be minted again
+        result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TakeOwnership(firstOwner, new BigInteger[]{tokenIDs[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(secondOwner, new BigInteger[]{tokenIDs[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertTokens(new BigInteger[]{tokenIDs[0], tokenIDs[1], tokenIDs[3], tokenIDs[4], BigInteger.valueOf(10), BigInteger.valueOf(11)}, new Address[]{firstOwner, secondOwner});
+
+        //burn everything
+        result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(firstOwner, new BigInteger[]{tokenIDs[4], tokenIDs[1], tokenIDs[3]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(secondOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(secondOwner, new BigInteger[]{BigInteger.valueOf(10), tokenIDs[0], BigInteger.valueOf(11)}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertTokens(new BigInteger[]{}, new Address[]{firstOwner, secondOwner});
+    }
+
+    @Test
+    public void testBurnRequirements() {
+        Address tokenOwner = avmRule.getRandomAddress(balance);
+        Address otherAccount = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIDs = range(1, 3);
+
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(tokenOwner, tokenIDs));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //only the owner or an account it authorizes can burn
+        result = avmRule.call(otherAccount, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(tokenOwner, new BigInteger[]{tokenIDs[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040Authorize(otherAccount));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(otherAccount, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(tokenOwner, new BigInteger[]{tokenIDs[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        //the owner must match and every token must exist, otherwise nothing is burned
+        result = avmRule.call(otherAccount, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(otherAccount, new BigInteger[]{tokenIDs[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(tokenOwner, new BigInteger[]{tokenIDs[1], tokenIDs[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(tokenOwner, new BigInteger[]{tokenIDs[1], tokenIDs[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(tokenOwner, new BigInteger[]{tokenIDs[1], null}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+        result = avmRule.call(tokenOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(null, new BigInteger[]{tokenIDs[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        assertTokens(new BigInteger[]{tokenIDs[1], tokenIDs[2]}, new Address[]{tokenOwner});
+    }
+
+    @Test
+    public void testBurnRangeTokens() {
+        Address firstOwner = avmRule.getRandomAddress(balance);
+        Address secondOwner = avmRule.getRandomAddress(balance);
+        BigInteger[] firstRange = range(100, 5);
+        BigInteger[] secondRange = range(200, 4);
+
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(firstOwner, firstRange[0], firstRange.length));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(firstOwner, new BigInteger[]{firstRange[1], firstRange[4], firstRange[3]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertTokens(new BigInteger[]{firstRange[0], firstRange[2]}, new Address[]{firstOwner, secondOwner});
+
+        //a later range fills the vacated end of the arrays
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mintRange(firstOwner, secondRange[0], secondRange.length));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertTokens(new BigInteger[]{firstRange[0], firstRange[2], secondRange[0], secondRange[1], secondRange[2], secondRange[3]}, new Address[]{firstOwner, secondOwner});
+
+        //burned range tokens stay burned until minted again
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwner(firstRange[1]));
+        Assert.assertNull(result.getDecodedReturnData());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(secondOwner, new BigInteger[]{firstRange[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(firstOwner, new BigInteger[]{secondRange[0], firstRange[0]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(secondOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.burn(secondOwner, new BigInteger[]{firstRange[1]}));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        assertTokens(new BigInteger[]{firstRange[2], secondRange[1], secondRange[2], secondRange[3]}, new Address[]{firstOwner, secondOwner});
+    }
+
+    /**
+     * Checks that the total supply, the owner balances and both enumerations
+     * agree with each other and with the expected tokens.
+     */
+    private void assertTokens(BigInteger[] expectedTokenIds, Address[] owners) {
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TotalSupply());
+        Assert.assertEquals(BigInteger.valueOf(expectedTokenIds.length), result.getDecodedReturnData());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensAtIndexRange(BigInteger.ZERO, 1000));
+        BigInteger[] allTokenIds = (BigInteger[]) result.getDecodedReturnData();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(expectedTokenIds)), new HashSet<>(Arrays.asList(allTokenIds)));
+        Assert.assertEquals(expectedTokenIds.length, allTokenIds.length);
+
+        List<BigInteger> ownedTokenIds = new ArrayList<>();
+        for (Address owner : owners) {
+            result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokensForOwnerAtIndexRange(owner, BigInteger.ZERO, 1000));
+            BigInteger[] ownerTokenIds = (BigInteger[]) result.getDecodedReturnData();
+            result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040OwnerBalance(owner));
+            Assert.assertEquals(BigInteger.valueOf(ownerTokenIds.length), result.getDecodedReturnData());
+            result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, AIP040Encoder.aip040TokenOwners(ownerTokenIds));
+            for (Address tokenOwner : (Address[]) result.getDecodedReturnData()) {
+                Assert.assertEquals(owner, tokenOwner);
+            }
+            ownedTokenIds.addAll(Arrays.asList(ownerTokenIds));
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(expectedTokenIds)), new HashSet<>(ownedTokenIds));
+        Assert.assertEquals(expectedTokenIds.length, ownedTokenIds.size());
+    }
+
+    /****************Batched events***************/
+    @Test
+    public void testBatchedEventsMatchPerTokenEvents() {
+        Address firstOwner = avmRule.getRandomAddress(balance);
+        Address secondOwner = avmRule.getRandomAddress(balance);
+        BigInteger[] tokenIDs = range(10, 4);
+
+        //the reference contract emits an event for each token
+        byte[] contractData = DappFixture.contractData(avmRule, tokenName, tokenSymbol, tokenUriPrefix, tokenUriPostfix);
+        Address referenceAddress = avmRule.deploy(deployer, BigInteger.ZERO, contractData).getDappAddress();
+        AvmRule.ResultWrapper result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.setBatchedEvents(true));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+
+        Object[][] transactions = new Object[][]{
+            {deployer, NFTokenMockEncoder.mint(firstOwner, tokenIDs), 1},
+            {deployer, NFTokenMockEncoder.mintToOwners(new Address[]{secondOwner, firstOwner, secondOwner}, range(20, 3)), 2},
+            {firstOwner, AIP040Encoder.aip040Consign(firstOwner, secondOwner, new BigInteger[]{tokenIDs[0], tokenIDs[2], tokenIDs[3]}), 1},
+            {firstOwner, AIP040Encoder.aip040Consign(firstOwner, null, new BigInteger[]{tokenIDs[3]}), 1},
+            {secondOwner, AIP040Encoder.aip040TakeOwnership(firstOwner, new BigInteger[]{tokenIDs[2], tokenIDs[0]}), 1},
+            {deployer, NFTokenMockEncoder.mintRange(firstOwner, BigInteger.valueOf(100), 3), 1},
+        };
+        List<AIP040EventDecoder.TokenEvent> referenceEvents = new ArrayList<>();
+        for (Object[] transaction : transactions) {
+            result = avmRule.call((Address) transaction[0], contractAddress, BigInteger.ZERO, (byte[]) transaction[1]);
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            Assert.assertEquals(transaction[2], result.getTransactionResult().logs.size());
+            List<AIP040EventDecoder.TokenEvent> batchedTransactionEvents = decodeEvents(result);
+
+            result = avmRule.call((Address) transaction[0], referenceAddress, BigInteger.ZERO, (byte[]) transaction[1]);
+            Assert.assertTrue(result.getReceiptStatus().isSuccess());
+            List<AIP040EventDecoder.TokenEvent> referenceTransactionEvents = decodeEvents(result);
+
+            //batches group tokens by accounts, so only the order within a batch is kept
+            Assert.assertEquals(referenceTransactionEvents.size(), batchedTransactionEvents.size());
+            Assert.assertTrue(batchedTransactionEvents.containsAll(referenceTransactionEvents));
+            referenceEvents.addAll(referenceTransactionEvents);
+        }
+        Assert.assertEquals(4 + 3 + 3 + 1 + 2 + 3, referenceEvents.size());
+
+        //revoking a consignment logs no consignee
+        Assert.assertEquals(new AIP040EventDecoder.TokenEvent(AIP040EventDecoder.CONSIGNED, firstOwner, null, tokenIDs[3]), referenceEvents.get(10));
+
+        //turned off again, each token has an event
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.setBatchedEvents(false));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(secondOwner, range(30, 2)));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        Assert.assertEquals(2, result.getTransactionResult().logs.size());
+        assertArrayEquals(LogSizeUtils.truncatePadTopic("AIP040Minted".getBytes()), result.getTransactionResult().logs.get(0).copyOfTopics().get(0));
+    }
+
+    @Test
+    public void testSetBatchedEventsRequiresDeployer() {
+        Address firstOwner = avmRule.getRandomAddress(balance);
+        AvmRule.ResultWrapper result = avmRule.call(firstOwner, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.setBatchedEvents(true));
+        Assert.assertTrue(result.getReceiptStatus().isFailed());
+
+        //still an event for each token
+        result = avmRule.call(deployer, contractAddress, BigInteger.ZERO, NFTokenMockEncoder.mint(firstOwner, range(10, 2)));
+        Assert.assertTrue(result.getReceiptStatus().isSuccess());
+        Assert.assertEquals(2, result.getTransactionResult().logs.size());
+    }
+
+    private static List<AIP040EventDecoder.TokenEvent> decodeEvents(AvmRule.ResultWrapper result) {
+        List<AIP040EventDecoder.TokenEvent> events = new ArrayList<>();
+        for (Log log : result.getTransactionResult().logs) {
+            events.addAll(AIP040EventDecoder.decode(log.copyOfTopics(), log.copyOfData()));
+        }
+        return events;
+    }
+
     /****************Test token ID range***************/
     @Test
     public void testMintMaxTokenIds() {
@@ -0,0 +1,438 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.Assert;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Generates a seeded stream of random operations and checks the contract
+ * against <code>NFTokenModel</code> after each one.
+ *
+ * Operations are drawn from the state of the model, so that most succeed:
+ * tokens are transferred by their consignee or an authorized account,
+ * consigned and burned by their owner. Some are drawn at random and mostly
+ * revert. Minting gives way to burning once the total supply reaches a
+ * target, so that a run of any length stays at that size.
+ *
+ * <code>run</code> executes an operation on <code>InMemoryBackend</code>,
+ * which <code>NFTokenDifferentialTest</code> checks behaves the same as AVM.
+ * The same operation can be sent to <code>AvmRule</code> with
+ * <code>encode</code>.
+ */
+public class NFTokenWorkload {
+
+    public enum Type {
+        MINT,
+        MINT_TO_OWNERS,
+        MINT_RANGE,
+        TAKE_OWNERSHIP,
+        CONSIGN,
+        AUTHORIZE,
+        DEAUTHORIZE,
+        BURN,
+    }
+
+    /**
+     * One operation, with accounts and tokens as indices of the model.
+     */
+    public static final class Operation {
+        public final Type type;
+        public final int caller;
+        /**
+         * The new owner, current owner, owner or authorizee.
+         */
+        public final int account;
+        /**
+         * The consignee, or <code>NFTokenModel.NONE</code>.
+         */
+        public final int otherAccount;
+        public final int[] owners;
+        public final int[] tokenIds;
+        /**
+         * The first token of a range.
+         */
+        public final int start;
+        public final int count;
+
+        private Operation(Type type, int caller, int account, int otherAccount, int[] owners, int[] tokenIds, int start, int count) {
+            this.type = type;
+            this.caller = caller;
+            this.account = account;
+            this.otherAccount = otherAccount;
+            this.owners = owners;
+            this.tokenIds = tokenIds;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    private static final int MAX_BATCH = 4;
+    private static final int MAX_RANGE = 64;
+    // Tokens per call of the paged views
+    private static final int PAGE = 500;
+
+    private final Random random;
+    private final Address[] accounts;
+    private final NFTokenModel model;
+    private final int targetSupply;
+    private final BigInteger[] tokenIds;
+    // Plain mints draw from the lower half, ranges climb the upper half
+    private final int rangeBase;
+
+    /**
+     * @param seed          seeds every random choice
+     * @param accounts      the accounts, at most 64
+     * @param tokenCapacity token identifiers are below this
+     * @param targetSupply  the total supply the workload grows to
+     */
+    public NFTokenWorkload(long seed, Address[] accounts, int tokenCapacity, int targetSupply) {
+        this.random = new Random(seed);
+        this.accounts = accounts;
+        this.model = new NFTokenModel(accounts.length, tokenCapacity);
+        this.targetSupply = targetSupply;
+        this.tokenIds = new BigInteger[tokenCapacity];
+        for (int i = 0; i < tokenCapacity; i++) {
+            tokenIds[i] = BigInteger.valueOf(i);
+        }
+        this.rangeBase = tokenCapacity / 2;
+    }
+
+    public NFTokenModel getModel() {
+        return model;
+    }
+
+    //region Generation
+
+    /**
+     * @return the next random operation, given the state of the model
+     */
+    public Operation next() {
+        int choice = random.nextInt(100);
+        boolean isFull = model.totalSupply() >= targetSupply;
+        if (choice < 20 && !isFull || model.totalSupply() == 0) {
+            return nextMint(choice);
+        }
+        if (choice < 20) {
+            return nextBurn();
+        }
+        if (choice < 55) {
+            return nextTakeOwnership();
+        }
+        if (choice < 75) {
+            return nextConsign();
+        }
+        if (choice < 83) {
+            return new Operation(Type.AUTHORIZE, randomAccount(), randomAccount(), NFTokenModel.NONE, null, null, 0, 0);
+        }
+        if (choice < 89) {
+            return new Operation(Type.DEAUTHORIZE, randomAccount(), randomAccount(), NFTokenModel.NONE, null, null, 0, 0);
+        }
+        if (choice < 95) {
+            return nextBurn();
+        }
+        // Any tokens, any caller, which mostly reverts
+        int[] anyTokens = new int[1 + random.nextInt(MAX_BATCH)];
+        for (int i = 0; i < anyTokens.length; i++) {
+            anyTokens[i] = random.nextInt(model.getTokenCapacity());
+        }
+        Type type = random.nextBoolean() ? Type.TAKE_OWNERSHIP : Type.BURN;
+        return new Operation(type, randomAccount(), randomAccount(), NFTokenModel.NONE, null, anyTokens, 0, 0);
+    }
+
+    private Operation nextMint(int choice) {
+        int start = Math.max(model.highestTokenId() + 1, rangeBase);
+        int count = 1 + random.nextInt(MAX_RANGE);
+        int highest = model.highestTokenId();
+        if (choice < 2 && highest != NFTokenModel.NONE && random.nextInt(4) == 0) {
+            // A stale or overlapping start, which reverts
+            start = highest - random.nextInt(Math.min(MAX_RANGE, highest + 1));
+        }
+        if (choice < 2 && start + count <= model.getTokenCapacity()) {
+            return new Operation(Type.MINT_RANGE, randomAccount(), randomAccount(), NFTokenModel.NONE, null, null, start, count);
+        }
+        int[] newTokens = new int[1 + random.nextInt(MAX_BATCH)];
+        for (int i = 0; i < newTokens.length; i++) {
+            // A few tries for an unowned token, else the mint reverts
+            int tokenId = random.nextInt(rangeBase);
+            for (int tries = 0; tries < 3 && model.ownerOf(tokenId) != NFTokenModel.NONE; tries++) {
+                tokenId = random.nextInt(rangeBase);
+            }
+            newTokens[i] = tokenId;
+        }
+        if (choice < 5) {
+            int[] newOwners = new int[newTokens.length];
+            for (int i = 0; i < newOwners.length; i++) {
+                newOwners[i] = randomAccount();
+            }
+            return new Operation(Type.MINT_TO_OWNERS, randomAccount(), NFTokenModel.NONE, NFTokenModel.NONE, newOwners, newTokens, 0, 0);
+        }
+        return new Operation(Type.MINT, randomAccount(), randomAccount(), NFTokenModel.NONE, null, newTokens, 0, 0);
+    }
+
+    private Operation nextTakeOwnership() {
+        int[] ownedTokens = randomOwnedTokens();
+        int owner = model.ownerOf(ownedTokens[0]);
+        int consignee = model.consigneeOf(ownedTokens[0]);
+        int caller = consignee != NFTokenModel.NONE && random.nextInt(4) != 0 ? consignee : randomAccount();
+        return new Operation(Type.TAKE_OWNERSHIP, caller, owner, NFTokenModel.NONE, null, ownedTokens, 0, 0);
+    }
+
+    private Operation nextConsign() {
+        int[] ownedTokens = randomOwnedTokens();
+        int owner = model.ownerOf(ownedTokens[0]);
+        int caller = random.nextInt(5) != 0 ? owner : randomAccount();
+        int consignee = random.nextInt(6) == 0 ? NFTokenModel.NONE : randomAccount();
+        return new Operation(Type.CONSIGN, caller, owner, consignee, null, ownedTokens, 0, 0);
+    }
+
+    private Operation nextBurn() {
+        int[] ownedTokens = randomOwnedTokens();
+        int owner = model.ownerOf(ownedTokens[0]);
+        int caller = random.nextInt(5) != 0 ? owner : randomAccount();
+        return new Operation(Type.BURN, caller, owner, NFTokenModel.NONE, null, ownedTokens, 0, 0);
+    }
+
+    /**
+     * @return a random token and, from the same owner, sometimes a few more
+     *         which may repeat
+     */
+    private int[] randomOwnedTokens() {
+        int first = model.tokenAtIndex(random.nextInt(model.totalSupply()));
+        int owner = model.ownerOf(first);
+        // Mostly one token, as a batch only succeeds if each token does
+        int extraTokens = random.nextInt(3) == 0 ? random.nextInt(Math.min(MAX_BATCH, model.balanceOf(owner))) : 0;
+        int[] ownedTokens = new int[1 + extraTokens];
+        ownedTokens[0] = first;
+        for (int i = 1; i < ownedTokens.length; i++) {
+            ownedTokens[i] = model.tokenOfOwnerAtIndex(owner, random.nextInt(model.balanceOf(owner)));
+        }
+        return ownedTokens;
+    }
+
+    private int randomAccount() {
+        return random.nextInt(accounts.length);
+    }
+
+    //endregion
+
+    //region Execution
+
+    /**
+     * Applies an operation to the model.
+     *
+     * @return true if the contract is expected to succeed
+     */
+    public boolean apply(Operation operation) {
+        switch (operation.type) {
+            case MINT:
+                return model.mint(operation.account, operation.tokenIds);
+            case MINT_TO_OWNERS:
+                return model.mintToOwners(operation.owners, operation.tokenIds);
+            case MINT_RANGE:
+                return model.mintRange(operation.account, operation.start, operation.count);
+            case TAKE_OWNERSHIP:
+                return model.takeOwnership(operation.caller, operation.account, operation.tokenIds);
+            case CONSIGN:
+                return model.consign(operation.caller, operation.account, operation.otherAccount, operation.tokenIds);
+            case AUTHORIZE:
+                model.authorize(operation.caller, operation.account);
+                return true;
+            case DEAUTHORIZE:
+                model.deauthorize(operation.caller, operation.account);
+                return true;
+            default:
+                return model.burn(operation.caller, operation.account, operation.tokenIds);
+        }
+    }
+
+    /**
+     * Runs an operation on the backend and applies it to the model, checking
+     * that both agree on whether it succeeds and on every view it changed.
+     *
+     * @return true if the operation succeeded
+     */
+    public boolean run(InMemoryBackend backend, Operation operation) {
+        boolean isSuccess = backend.run(accounts[operation.caller], transaction(operation)).isSuccess;
+        Assert.assertEquals(operation.type.name(), apply(operation), isSuccess);
+        checkTouched(backend, operation);
+        return isSuccess;
+    }
+
+    /**
+     * @return the contract code of an operation, to run on
+     *         <code>InMemoryBackend</code>
+     */
+    public Runnable transaction(Operation operation) {
+        Address account = operation.account == NFTokenModel.NONE ? null : accounts[operation.account];
+        Address otherAccount = operation.otherAccount == NFTokenModel.NONE ? null : accounts[operation.otherAccount];
+        BigInteger[] ids = operation.tokenIds == null ? null : tokenIds(operation.tokenIds);
+        switch (operation.type) {
+            case MINT:
+                return () -> NFTokenMock.mint(account, ids);
+            case MINT_TO_OWNERS:
+                Address[] newOwners = accounts(operation.owners);
+                return () -> NFTokenMock.mintToOwners(newOwners, ids);
+            case MINT_RANGE:
+                BigInteger start = BigInteger.valueOf(operation.start);
+                return () -> NFTokenMock.mintRange(account, start, operation.count);
+            case TAKE_OWNERSHIP:
+                return () -> NFToken.aip040TakeOwnership(account, ids);
+            case CONSIGN:
+                return () -> NFToken.aip040Consign(account, otherAccount, ids);
+            case AUTHORIZE:
+                return () -> NFToken.aip040Authorize(account);
+            case DEAUTHORIZE:
+                return () -> NFToken.aip040Deauthorize(account);
+            default:
+                return () -> NFTokenMock.burn(account, ids);
+        }
+    }
+
+    /**
+     * @return the ABI encoded call of an operation, to send to
+     *         <code>AvmRule</code> from <code>getCaller</code>
+     */
+    public byte[] encode(Operation operation) {
+        Address account = operation.account == NFTokenModel.NONE ? null : accounts[operation.account];
+        Address otherAccount = operation.otherAccount == NFTokenModel.NONE ? null : accounts[operation.otherAccount];
+        BigInteger[] ids = operation.tokenIds == null ? null : tokenIds(operation.tokenIds);
+        switch (operation.type) {
+            case MINT:
+                return NFTokenMockEncoder.mint(account, ids);
+            case MINT_TO_OWNERS:
+                return NFTokenMockEncoder.mintToOwners(accounts(operation.owners), ids);
+            case MINT_RANGE:
+                return NFTokenMockEncoder.mintRange(account, BigInteger.valueOf(operation.start), operation.count);
+            case TAKE_OWNERSHIP:
+                return AIP040Encoder.aip040TakeOwnership(account, ids);
+            case CONSIGN:
+                return AIP040Encoder.aip040Consign(account, otherAccount, ids);
+            case AUTHORIZE:
+                return AIP040Encoder.aip040Authorize(account);
+            case DEAUTHORIZE:
+                return AIP040Encoder.aip040Deauthorize(account);
+            default:
+                return NFTokenMockEncoder.burn(account, ids);
+        }
+    }
+
+    public Address getCaller(Operation operation) {
+        return accounts[operation.caller];
+    }
+
+    //endregion
+
+    //region Checks
+
+    /**
+     * Checks every view of the tokens and accounts an operation changed: owner,
+     * consignee, position in both enumerations, balances, authorization and
+     * total supply.
+     */
+    public void checkTouched(InMemoryBackend backend, Operation operation) {
+        for (int i = 0; i < model.getTouchedTokenCount(); i++) {
+            int tokenId = model.getTouchedToken(i);
+            BigInteger id = tokenIds[tokenId];
+            int owner = model.ownerOf(tokenId);
+            Assert.assertEquals(account(owner), view(backend, () -> NFToken.aip040TokenOwner(id)));
+            Assert.assertEquals(account(model.consigneeOf(tokenId)), view(backend, () -> NFToken.aip040TokenConsignee(id)));
+            if (owner != NFTokenModel.NONE) {
+                BigInteger location = BigInteger.valueOf(model.locationOf(tokenId));
+                BigInteger tokensIndex = BigInteger.valueOf(model.tokensIndexOf(tokenId));
+                Assert.assertEquals(id, view(backend, () -> NFToken.aip040TokenForOwnerAtIndex(accounts[owner], location)));
+                Assert.assertEquals(id, view(backend, () -> NFToken.aip040TokenAtIndex(tokensIndex)));
+            }
+        }
+        checkAccount(backend, operation.caller);
+        if (operation.account != NFTokenModel.NONE) {
+            checkAccount(backend, operation.account);
+            Address owner = accounts[operation.caller];
+            Address authorizee = accounts[operation.account];
+            Assert.assertEquals(model.isAuthorized(operation.caller, operation.account), view(backend, () -> NFToken.aip040OwnerDoesAuthorize(owner, authorizee)));
+        }
+        Assert.assertEquals(BigInteger.valueOf(model.totalSupply()), view(backend, NFToken::aip040TotalSupply));
+    }
+
+    /**
+     * Checks every view of every token and account, including both
+     * enumerations in order.
+     */
+    public void checkAll(InMemoryBackend backend) {
+        for (int first = 0; first < model.getTokenCapacity(); first += PAGE) {
+            int[] page = new int[Math.min(PAGE, model.getTokenCapacity() - first)];
+            for (int i = 0; i < page.length; i++) {
+                page[i] = first + i;
+            }
+            BigInteger[] ids = tokenIds(page);
+            Address[] owners = (Address[]) view(backend, () -> NFToken.aip040TokenOwners(ids));
+            Address[] consignees = (Address[]) view(backend, () -> NFToken.aip040TokenConsignees(ids));
+            for (int i = 0; i < page.length; i++) {
+                Assert.assertEquals(account(model.ownerOf(page[i])), owners[i]);
+                Assert.assertEquals(account(model.consigneeOf(page[i])), consignees[i]);
+            }
+        }
+
+        Assert.assertEquals(BigInteger.valueOf(model.totalSupply()), view(backend, NFToken::aip040TotalSupply));
+        for (int first = 0; first < model.totalSupply(); first += PAGE) {
+            BigInteger start = BigInteger.valueOf(first);
+            BigInteger[] page = (BigInteger[]) view(backend, () -> NFToken.aip040TokensAtIndexRange(start, PAGE));
+            Assert.assertEquals(Math.min(PAGE, model.totalSupply() - first), page.length);
+            for (int i = 0; i < page.length; i++) {
+                Assert.assertEquals(tokenIds[model.tokenAtIndex(first + i)], page[i]);
+            }
+        }
+
+        for (int account = 0; account < accounts.length; account++) {
+            checkAccount(backend, account);
+            Address owner = accounts[account];
+            for (int first = 0; first < model.balanceOf(account); first += PAGE) {
+                BigInteger start = BigInteger.valueOf(first);
+                BigInteger[] page = (BigInteger[]) view(backend, () -> NFToken.aip040TokensForOwnerAtIndexRange(owner, start, PAGE));
+                Assert.assertEquals(Math.min(PAGE, model.balanceOf(account) - first), page.length);
+                for (int i = 0; i < page.length; i++) {
+                    Assert.assertEquals(tokenIds[model.tokenOfOwnerAtIndex(account, first + i)], page[i]);
+                }
+            }
+            for (int authorizee = 0; authorizee < accounts.length; authorizee++) {
+                Address authorizeeAddress = accounts[authorizee];
+                Assert.assertEquals(model.isAuthorized(account, authorizee), view(backend, () -> NFToken.aip040OwnerDoesAuthorize(owner, authorizeeAddress)));
+            }
+        }
+    }
+
+    private void checkAccount(InMemoryBackend backend, int account) {
+        Address owner = accounts[account];
+        Assert.assertEquals(BigInteger.valueOf(model.balanceOf(account)), view(backend, () -> NFToken.aip040OwnerBalance(owner)));
+    }
+
+    private static Object view(InMemoryBackend backend, Supplier<Object> query) {
+        InMemoryBackend.Outcome<Object> outcome = backend.call(null, query);
+        Assert.assertTrue(outcome.isSuccess);
+        return outcome.value;
+    }
+
+    //endregion
+
+    private Address account(int account) {
+        return account == NFTokenModel.NONE ? null : accounts[account];
+    }
+
+    private Address[] accounts(int[] indices) {
+        Address[] addresses = new Address[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            addresses[i] = accounts[indices[i]];
+        }
+        return addresses;
+    }
+
+    private BigInteger[] tokenIds(int[] indices) {
+        BigInteger[] ids = new BigInteger[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            ids[i] = tokenIds[indices[i]];
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,127 @@
+package org.aion;
+
+import avm.Address;
+import org.aion.avm.embed.AvmRule;
+import org.junit.*;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Measures a random workload of every entry point, on the host and through
+ * <code>Main</code>. Results are written by <code>BenchmarkReport</code>.
+ *
+ * This is excluded from the default build, run it with:
+ *
+ * <pre>./mvnw test -Pbenchmark</pre>
+ */
+public class NFTokenWorkloadBenchmark {
+
+    private static final long ENERGY_LIMIT = 1_000_000_000L;
+    private static final long ENERGY_PRICE = 1L;
+    private static final long SEED = 19;
+    private static final int ACCOUNTS = 32;
+    private static final int TOKEN_CAPACITY = 400_000;
+    private static final int TARGET_SUPPLY = 100_000;
+    private static final int OPERATIONS = 2_000_000;
+    private static final int CHECK_ALL_INTERVAL = 500_000;
+    private static final int ENERGY_OPERATIONS = 5_000;
+
+    @Rule
+    public AvmRule avmRule = new AvmRule(false);
+
+    private Address deployer = avmRule.getPreminedAccount();
+    private BigInteger balance = BigInteger.valueOf(1_000_000_000_000_000_000L).multiply(BigInteger.TEN);
+
+    /**
+     * Runs a seeded random workload on <code>InMemoryBackend</code>, checked
+     * against <code>NFTokenModel</code>, and reports for each operation type
+     * the throughput and the p50 and p99 time of the contract code alone. The
+     * same workload is sent to <code>AvmRule</code> for fewer operations, for
+     * the p50 and p99 energy of the successful ones.
+     */
+    @Test
+    public void benchmarkWorkload() {
+        BenchmarkReport workloadReport = new BenchmarkReport(
+            "NFTokenWorkloadBenchmark",
+            "operation",
+            "operations",
+            "reverts",
+            "operationsPerSecond",
+            "nanosecondsP50",
+            "nanosecondsP99",
+            "energySamples",
+            "energyP50",
+            "energyP99"
+        );
+        int typeCount = NFTokenWorkload.Type.values().length;
+
+        InMemoryBackend backend = InMemoryBackend.install();
+        Address[] accounts = new Address[ACCOUNTS];
+        for (int i = 0; i < accounts.length; i++) {
+            accounts[i] = avmRule.getRandomAddress(balance);
+        }
+        NFTokenWorkload workload = new NFTokenWorkload(SEED, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+        long[] nanoseconds = new long[OPERATIONS];
+        byte[] types = new byte[OPERATIONS];
+        int[] operations = new int[typeCount];
+        int[] reverts = new int[typeCount];
+        for (int i = 0; i < OPERATIONS; i++) {
+            NFTokenWorkload.Operation operation = workload.next();
+            Runnable transaction = workload.transaction(operation);
+            Address caller = workload.getCaller(operation);
+            long startTime = System.nanoTime();
+            boolean isSuccess = backend.run(caller, transaction).isSuccess;
+            nanoseconds[i] = System.nanoTime() - startTime;
+            int type = operation.type.ordinal();
+            types[i] = (byte) type;
+            operations[type]++;
+            reverts[type] += isSuccess ? 0 : 1;
+            Assert.assertEquals(operation.type.name(), workload.apply(operation), isSuccess);
+            workload.checkTouched(backend, operation);
+            if ((i + 1) % CHECK_ALL_INTERVAL == 0) {
+                workload.checkAll(backend);
+            }
+        }
+
+        Address contractAddress = DappFixture.deploy(avmRule, deployer);
+        NFTokenWorkload energyWorkload = new NFTokenWorkload(SEED, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+        long[][] energy = new long[typeCount][ENERGY_OPERATIONS];
+        int[] energySamples = new int[typeCount];
+        for (int i = 0; i < ENERGY_OPERATIONS; i++) {
+            NFTokenWorkload.Operation operation = energyWorkload.next();
+            AvmRule.ResultWrapper result = avmRule.call(energyWorkload.getCaller(operation), contractAddress, BigInteger.ZERO, energyWorkload.encode(operation), ENERGY_LIMIT, ENERGY_PRICE);
+            boolean isSuccess = result.getReceiptStatus().isSuccess();
+            Assert.assertEquals(operation.type.name(), energyWorkload.apply(operation), isSuccess);
+            if (isSuccess) {
+                int type = operation.type.ordinal();
+                energy[type][energySamples[type]++] = result.getTransactionResult().energyUsed;
+            }
+        }
+
+        for (NFTokenWorkload.Type type : NFTokenWorkload.Type.values()) {
+            int i = type.ordinal();
+            long[] typeNanoseconds = new long[operations[i]];
+            long totalNanoseconds = 0;
+            for (int j = 0, k = 0; j < OPERATIONS; j++) {
+                if (types[j] == i) {
+                    typeNanoseconds[k++] = nanoseconds[j];
+                    totalNanoseconds += nanoseconds[j];
+                }
+            }
+            long[] typeEnergy = Arrays.copyOf(energy[i], energySamples[i]);
+            workloadReport.addRow(
+                type.name(),
+                operations[i],
+                reverts[i],
+                totalNanoseconds == 0 ? 0 : operations[i] * 1_000_000_000L / totalNanoseconds,
+                Benchmarks.percentile(typeNanoseconds, 50),
+                Benchmarks.percentile(typeNanoseconds, 99),
+                energySamples[i],
+                Benchmarks.percentile(typeEnergy, 50),
+                Benchmarks.percentile(typeEnergy, 99)
+            );
+        }
+        workloadReport.write();
+    }
+}
@@ -0,0 +1,70 @@
+package org.aion;
+
+import avm.Address;
+import org.junit.*;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Runs seeded random workloads on <code>InMemoryBackend</code> and checks the
+ * contract against <code>NFTokenModel</code> after every operation, and every
+ * view of every token and account at intervals.
+ */
+public class NFTokenWorkloadTest {
+
+    private static final int ACCOUNTS = 12;
+    private static final int TOKEN_CAPACITY = 2_000;
+    private static final int TARGET_SUPPLY = 600;
+    private static final int OPERATIONS = 20_000;
+    private static final int CHECK_ALL_INTERVAL = 2_500;
+
+    private InMemoryBackend backend;
+    private Address[] accounts = new Address[ACCOUNTS];
+
+    @Before
+    public void installBackend() {
+        backend = InMemoryBackend.install();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            byte[] address = new byte[Address.LENGTH];
+            address[0] = (byte) 0xa0;
+            address[Address.LENGTH - 1] = (byte) i;
+            accounts[i] = new Address(address);
+        }
+        Assert.assertTrue(backend.run(accounts[0], () -> NFTokenMock.setTokenNameSymbolAndUriAffixes("Planets", "PL", "pre", "post")).isSuccess);
+    }
+
+    @Test
+    public void testWorkloadMatchesModel() {
+        runWorkload(19);
+    }
+
+    @Test
+    public void testWorkloadWithBatchedEventsMatchesModel() {
+        Assert.assertTrue(backend.run(accounts[0], () -> NFTokenMock.setBatchedEvents(true)).isSuccess);
+        runWorkload(20);
+    }
+
+    private void runWorkload(long seed) {
+        NFTokenWorkload workload = new NFTokenWorkload(seed, accounts, TOKEN_CAPACITY, TARGET_SUPPLY);
+        Map<NFTokenWorkload.Type, int[]> outcomes = new EnumMap<>(NFTokenWorkload.Type.class);
+        for (int i = 1; i <= OPERATIONS; i++) {
+            NFTokenWorkload.Operation operation = workload.next();
+            // Successes and reverts of each type
+            int[] counts = outcomes.computeIfAbsent(operation.type, type -> new int[2]);
+            counts[workload.run(backend, operation) ? 0 : 1]++;
+            if (i % CHECK_ALL_INTERVAL == 0) {
+                workload.checkAll(backend);
+            }
+        }
+        //every operation type both succeeded and reverted, except those which cannot revert
+        Assert.assertEquals(NFTokenWorkload.Type.values().length, outcomes.size());
+        for (Map.Entry<NFTokenWorkload.Type, int[]> entry : outcomes.entrySet()) {
+            String type = entry.getKey().name();
+            Assert.assertTrue(type, entry.getValue()[0] > 0);
+            boolean canRevert = entry.getKey() != NFTokenWorkload.Type.AUTHORIZE && entry.getKey() != NFTokenWorkload.Type.DEAUTHORIZE;
+            Assert.assertEquals(type, canRevert, entry.getValue()[1] > 0);
+        }
+        Assert.assertTrue(workload.getModel().totalSupply() > 0);
+    }
+}
@@ -0,0 +1,227 @@
+package org.aion;
+
+import avm.Address;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Walks every realm of <code>NFTokenStorage.StorageSlots</code> in an
+ * <code>InMemoryBackend</code> and reports which stored slots are live, that
+ * is needed to answer some query, and which are dead, that is only costing
+ * storage.
+ *
+ * Storage keys are hashes, so the slots are found by deriving the key of every
+ * slot which may have been written. The accounts and token identifiers are
+ * taken from the log events of the backend. A stored slot which is not found
+ * this way is reported as unattributed.
+ */
+public class StorageAudit {
+
+    /**
+     * The stored slots of one realm.
+     */
+    public static final class Row {
+        public final String realm;
+        public long liveSlots;
+        public long liveBytes;
+        public long deadSlots;
+        public long deadBytes;
+
+        private Row(String realm) {
+            this.realm = realm;
+        }
+    }
+
+    private static final String UNATTRIBUTED = "UNATTRIBUTED";
+
+    private final InMemoryBackend backend;
+    private final Map<ByteBuffer, byte[]> storage;
+    private final Map<String, Row> rows = new LinkedHashMap<>();
+    private final Set<ByteBuffer> attributedKeys = new HashSet<>();
+
+    private StorageAudit(InMemoryBackend backend) {
+        this.backend = backend;
+        this.storage = backend.getStorageEntries();
+        for (NFTokenStorage.StorageSlots realm : NFTokenStorage.StorageSlots.values()) {
+            rows.put(realm.name(), new Row(realm.name()));
+        }
+        rows.put(UNATTRIBUTED, new Row(UNATTRIBUTED));
+    }
+
+    /**
+     * Audits the storage of a backend, which is installed in
+     * <code>AVMBlockchainWrapper</code> if it is not already.
+     *
+     * @return one row for each realm and a last row, named
+     *         <code>UNATTRIBUTED</code>, for the stored slots of no known realm
+     */
+    public static List<Row> audit(InMemoryBackend backend) {
+        AVMBlockchainWrapper.setBackend(backend);
+        return new StorageAudit(backend).run();
+    }
+
+    /**
+     * @return the total of every row
+     */
+    public static Row total(List<Row> rows) {
+        Row total = new Row("TOTAL");
+        for (Row row : rows) {
+            total.liveSlots += row.liveSlots;
+            total.liveBytes += row.liveBytes;
+            total.deadSlots += row.deadSlots;
+            total.deadBytes += row.deadBytes;
+        }
+        return total;
+    }
+
+    private List<Row> run() {
+        // Replays the logs for the longest each array has ever been, which
+        // bounds the slots that may have been written
+        Map<Address, long[]> balances = new HashMap<>();
+        Set<BigInteger> tokenIds = new HashSet<>();
+        long[] supply = new long[2];
+        AIP040LogDecoder decoder = new AIP040LogDecoder();
+        for (InMemoryBackend.Log log : backend.getLogs()) {
+            decoder.decode(log.topics, log.data, event -> {
+                long[] first = event.hasFirstAccount() ? balances.computeIfAbsent(event.firstAccount(), account -> new long[2]) : null;
+                long[] second = event.hasSecondAccount() ? balances.computeIfAbsent(event.secondAccount(), account -> new long[2]) : null;
+                switch (event.getType()) {
+                    case AIP040LogDecoder.MINTED:
+                        tokenIds.add(event.tokenId());
+                        grow(first);
+                        grow(supply);
+                        break;
+                    case AIP040LogDecoder.BURNED:
+                        first[0]--;
+                        supply[0]--;
+                        break;
+                    case AIP040LogDecoder.TRANSFERRED:
+                        first[0]--;
+                        grow(second);
+                        break;
+                    default:
+                        break;
+                }
+            });
+        }
+
+        for (NFTokenStorage.StorageSlots realm : new NFTokenStorage.StorageSlots[]{
+            NFTokenStorage.StorageSlots.TOKEN_NAME,
+            NFTokenStorage.StorageSlots.TOKEN_SYMBOL,
+            NFTokenStorage.StorageSlots.TOKEN_URI_PREFIX,
+            NFTokenStorage.StorageSlots.TOKEN_URI_POSTFIX,
+            NFTokenStorage.StorageSlots.TOTAL_SUPPLY,
+            NFTokenStorage.StorageSlots.DEPLOYER,
+            NFTokenStorage.StorageSlots.HIGHEST_TOKEN_ID,
+            NFTokenStorage.StorageSlots.MINT_RANGE_COUNT,
+            NFTokenStorage.StorageSlots.TOKENS_MINT_RANGE_COUNT,
+        }) {
+            audit(realm, true);
+        }
+
+        long totalSupply = NFTokenStorage.getTotalSupply();
+        for (long i = 0; i < supply[1]; i++) {
+            audit(NFTokenStorage.StorageSlots.TOKENS_ARRAY, i < totalSupply, AVMBlockchainWrapper.encodeLong(i));
+        }
+
+        // Ranges are never removed, and each stack holds a range at most once
+        long mintRangeCount = NFTokenStorage.getMintRangeCount();
+        for (long i = 0; i < mintRangeCount; i++) {
+            audit(NFTokenStorage.StorageSlots.MINT_RANGE_ARRAY, true, AVMBlockchainWrapper.encodeLong(i));
+        }
+
+        long tokensMintRangeCount = NFTokenStorage.getTokensMintRangeCount();
+        for (long i = 0; i < mintRangeCount; i++) {
+            // A range which fills no slot is dead
+            boolean isLive = i < tokensMintRangeCount
+                && NFTokenStorage.getMintRange(NFTokenStorage.getTokensMintRangeArray(i)).tokensIndex < totalSupply;
+            audit(NFTokenStorage.StorageSlots.TOKENS_MINT_RANGE_ARRAY, isLive, AVMBlockchainWrapper.encodeLong(i));
+        }
+
+        for (BigInteger tokenId : tokenIds) {
+            // A tombstone is live while it hides a burned token of a range
+            boolean isLive = NFTokenStorage.getTokenOwner(tokenId) != null || isInMintRange(tokenId, mintRangeCount);
+            audit(NFTokenStorage.StorageSlots.TOKEN_RECORD_MAP, isLive, NFTokenStorage.tokenIdKey(tokenId));
+        }
+
+        for (Map.Entry<Address, long[]> entry : balances.entrySet()) {
+            Address account = entry.getKey();
+            byte[] accountKey = account.toByteArray();
+            audit(NFTokenStorage.StorageSlots.OWNER_BALANCE_MAP, true, accountKey);
+            audit(NFTokenStorage.StorageSlots.MINT_RANGES_OF_OWNER_COUNT, true, accountKey);
+            for (Address authorizee : balances.keySet()) {
+                audit(NFTokenStorage.StorageSlots.ACCOUNT_AUTHORIZATION_MAP, true, accountKey, authorizee.toByteArray());
+            }
+
+            long balance = NFTokenStorage.getOwnerBalance(account);
+            for (long i = 0; i < entry.getValue()[1]; i++) {
+                audit(NFTokenStorage.StorageSlots.TOKENS_OF_OWNER_ARRAY, i < balance, accountKey, AVMBlockchainWrapper.encodeLong(i));
+            }
+
+            long ownerRangeCount = NFTokenStorage.getMintRangesOfOwnerCount(account);
+            for (long i = 0; i < mintRangeCount; i++) {
+                boolean isLive = i < ownerRangeCount
+                    && NFTokenStorage.getMintRange(NFTokenStorage.getMintRangesOfOwnerArray(account, i)).ownerIndex < balance;
+                audit(NFTokenStorage.StorageSlots.MINT_RANGES_OF_OWNER_ARRAY, isLive, accountKey, AVMBlockchainWrapper.encodeLong(i));
+            }
+        }
+
+        Row unattributed = rows.get(UNATTRIBUTED);
+        for (Map.Entry<ByteBuffer, byte[]> entry : storage.entrySet()) {
+            if (!attributedKeys.contains(entry.getKey())) {
+                unattributed.deadSlots++;
+                unattributed.deadBytes += entry.getValue().length;
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(rows.values()));
+    }
+
+    /**
+     * Adds one to a length and its maximum.
+     */
+    private static void grow(long[] length) {
+        length[0]++;
+        length[1] = Math.max(length[0], length[1]);
+    }
+
+    private static boolean isInMintRange(BigInteger tokenId, long mintRangeCount) {
+        for (long i = 0; i < mintRangeCount; i++) {
+            NFTokenStorage.MintRange range = NFTokenStorage.getMintRange(i);
+            BigInteger offset = tokenId.subtract(range.start);
+            if (offset.signum() >= 0 && offset.compareTo(BigInteger.valueOf(range.count)) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts one slot if it is stored.
+     *
+     * @param isLive whether the slot is needed, if it is stored
+     */
+    private void audit(NFTokenStorage.StorageSlots realm, boolean isLive, byte[]... keyPath) {
+        ByteBuffer key = ByteBuffer.wrap(AVMBlockchainWrapper.deriveStorageKey(realm, keyPath).clone());
+        byte[] value = storage.get(key);
+        if (value == null || !attributedKeys.add(key)) {
+            return;
+        }
+        Row row = rows.get(realm.name());
+        if (isLive) {
+            row.liveSlots++;
+            row.liveBytes += value.length;
+        } else {
+            row.deadSlots++;
+            row.deadBytes += value.length;
+        }
+    }
+}
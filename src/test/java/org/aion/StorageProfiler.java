@@ -0,0 +1,158 @@
+package org.aion;
+
+import org.aion.avm.userlib.abi.ABIDecoder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counts the storage operations of the contract for each
+ * <code>Main</code> callable and each realm, by installing itself as the
+ * <code>AVMBlockchainWrapper.Profiler</code>.
+ *
+ * Contract code run by <code>AvmRule</code> is isolated in AVM, so tests
+ * profile a transaction by running it again on <code>InMemoryBackend</code>,
+ * which <code>NFTokenDifferentialTest</code> checks behaves the same:
+ *
+ * <pre>
+ * profiler.setCallable(StorageProfiler.methodName(transactionData));
+ * backend.run(caller, () -&gt; ...);
+ * Assert.assertTrue(profiler.total(callable).puts &lt;= 6);
+ * </pre>
+ */
+public class StorageProfiler implements AVMBlockchainWrapper.Profiler {
+
+    /**
+     * The storage operations of one callable in one realm, or a total.
+     */
+    public static final class Counters {
+        public long gets;
+        public long puts;
+        public long bytesRead;
+        public long bytesWritten;
+        public long blake2bs;
+        public long bytesHashed;
+
+        private void add(Counters other) {
+            gets += other.gets;
+            puts += other.puts;
+            bytesRead += other.bytesRead;
+            bytesWritten += other.bytesWritten;
+            blake2bs += other.blake2bs;
+            bytesHashed += other.bytesHashed;
+        }
+
+        @Override
+        public String toString() {
+            return "gets=" + gets + " puts=" + puts + " bytesRead=" + bytesRead + " bytesWritten=" + bytesWritten + " blake2bs=" + blake2bs + " bytesHashed=" + bytesHashed;
+        }
+    }
+
+    private final Map<String, Map<Enum, Counters>> callables = new LinkedHashMap<>();
+    private Map<Enum, Counters> realms;
+
+    /**
+     * Makes a new profiler, counting for no particular callable, and installs
+     * it in <code>AVMBlockchainWrapper</code>.
+     *
+     * @return the profiler
+     */
+    public static StorageProfiler install() {
+        StorageProfiler profiler = new StorageProfiler();
+        profiler.setCallable("");
+        AVMBlockchainWrapper.setProfiler(profiler);
+        return profiler;
+    }
+
+    /**
+     * Removes any profiler from <code>AVMBlockchainWrapper</code>.
+     */
+    public static void uninstall() {
+        AVMBlockchainWrapper.setProfiler(null);
+    }
+
+    /**
+     * @param  transactionData the ABI encoded call of a <code>Main</code>
+     *                         callable, as passed to <code>AvmRule</code>
+     * @return                 the name of the callable
+     */
+    public static String methodName(byte[] transactionData) {
+        return new ABIDecoder(transactionData).decodeMethodName();
+    }
+
+    /**
+     * Counts every following operation for <code>callable</code>.
+     */
+    public void setCallable(String callable) {
+        realms = callables.computeIfAbsent(callable, name -> new LinkedHashMap<>());
+    }
+
+    /**
+     * @return the counters of each realm used by the callable, in order of
+     *         first use
+     */
+    public Map<Enum, Counters> get(String callable) {
+        return Collections.unmodifiableMap(callables.getOrDefault(callable, Collections.emptyMap()));
+    }
+
+    /**
+     * @return the counters of one realm for the callable, zeros if unused
+     */
+    public Counters get(String callable, Enum realm) {
+        Counters counters = get(callable).get(realm);
+        return counters == null ? new Counters() : counters;
+    }
+
+    /**
+     * @return the sum over every realm for the callable
+     */
+    public Counters total(String callable) {
+        Counters total = new Counters();
+        for (Counters counters : get(callable).values()) {
+            total.add(counters);
+        }
+        return total;
+    }
+
+    /**
+     * @return every profiled callable, in order of first use
+     */
+    public Iterable<String> getCallables() {
+        return Collections.unmodifiableSet(callables.keySet());
+    }
+
+    /**
+     * Forgets every count, keeping the current callable.
+     */
+    public void reset() {
+        for (Map<Enum, Counters> counters : callables.values()) {
+            counters.clear();
+        }
+    }
+
+    @Override
+    public void storageRead(Enum realm, byte[] value) {
+        Counters counters = counters(realm);
+        counters.gets++;
+        counters.bytesRead += value == null ? 0 : value.length;
+    }
+
+    @Override
+    public void storageWritten(Enum realm, byte[] value) {
+        Counters counters = counters(realm);
+        counters.puts++;
+        counters.bytesWritten += value == null ? 0 : value.length;
+    }
+
+    @Override
+    public void keyHashed(Enum realm, int length) {
+        Counters counters = counters(realm);
+        counters.blake2bs++;
+        counters.bytesHashed += length;
+    }
+
+    private Counters counters(Enum realm) {
+        return realms.computeIfAbsent(realm, key -> new Counters());
+    }
+}